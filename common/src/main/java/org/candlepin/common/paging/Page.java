@@ -25,6 +25,8 @@ public class Page<T> {
     private T pageData;
     private Integer maxRecords;
     private PageRequest pageRequest;
+    private boolean keyset;
+    private String nextCursor;
 
     public T getPageData() {
         return pageData;
@@ -50,4 +52,33 @@ public class Page<T> {
         this.pageRequest = pageRequest;
     }
 
+    /**
+     * Checks if this page was fetched by keyset, in which case its position is described by
+     * continuation tokens rather than by a page number and a record count.
+     *
+     * @return
+     *  true if this page was fetched by keyset; false otherwise
+     */
+    public boolean isKeyset() {
+        return keyset;
+    }
+
+    public void setKeyset(boolean keyset) {
+        this.keyset = keyset;
+    }
+
+    /**
+     * Fetches the continuation token from which the page following this one can be requested.
+     *
+     * @return
+     *  the continuation token of the next page, or null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
 }
@@ -30,6 +30,7 @@ public class PageRequest {
     public static final String SORT_BY_PARAM = "sort_by";
     public static final String PAGE_PARAM = "page";
     public static final String PER_PAGE_PARAM = "per_page";
+    public static final String CURSOR_PARAM = "cursor";
 
     public static final Integer DEFAULT_PAGE = Integer.valueOf(1);
     public static final Integer DEFAULT_PER_PAGE = Integer.valueOf(10);
@@ -39,6 +40,7 @@ public class PageRequest {
     private Integer perPage;
     private String sortBy;
     private Order order;
+    private String cursor;
 
     public Integer getPage() {
         return page;
@@ -72,7 +74,35 @@ public class PageRequest {
         this.order = order;
     }
 
+    /**
+     * Fetches the continuation token identifying the position after which the requested page
+     * starts, when paging by keyset. The token is opaque to clients; an empty token requests the
+     * first page.
+     *
+     * @return
+     *  the continuation token of this request, or null if the request does not page by keyset
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     public boolean isPaging() {
         return perPage != null && page != null;
     }
+
+    /**
+     * Checks if this request pages by keyset rather than by offset. Keyset pages start after the
+     * position identified by the request's cursor rather than after a number of skipped results,
+     * so every page costs roughly the same to fetch regardless of how deep into the results it is.
+     *
+     * @return
+     *  true if this request pages by keyset; false otherwise
+     */
+    public boolean isKeyset() {
+        return cursor != null && perPage != null;
+    }
 }
@@ -89,6 +89,17 @@ public class LinkHeaderResponseFilter implements ContainerResponseFilter {
 
         LinkHeader header = new LinkHeader();
 
+        // Keyset pages only know the way forward; the first page is requested with an empty cursor
+        if (page.isKeyset()) {
+            if (page.getNextCursor() != null) {
+                header.addLink(null, "next", buildCursorLink(builder, page.getNextCursor()), null);
+            }
+
+            header.addLink(null, "first", buildCursorLink(builder, ""), null);
+            respContext.getHeaders().add(LINK_HEADER, header.toString());
+            return;
+        }
+
         Integer next = getNextPage(page);
         if (next != null) {
             header.addLink(null, "next", buildPageLink(builder, next), null);
@@ -111,6 +122,13 @@ public class LinkHeaderResponseFilter implements ContainerResponseFilter {
         return builder.build().toString();
     }
 
+    protected String buildCursorLink(UriBuilder b, String cursor) {
+        // Copy so we can use the same builder for building each link.
+        UriBuilder builder = b.clone();
+        builder.queryParam(PageRequest.CURSOR_PARAM, cursor);
+        return builder.build().toString();
+    }
+
     protected Integer getLastPage(Page<?> page) {
         PageRequest pageRequest = page.getPageRequest();
 
@@ -175,10 +193,11 @@ public class LinkHeaderResponseFilter implements ContainerResponseFilter {
     protected UriBuilder addUnchangingQueryParams(UriBuilder builder,
         MultivaluedMap<String, String> params) {
         // This will take care of adding back any order, per_page, or sort_by
-        // parameters provided too.
+        // parameters provided too. The page and cursor parameters are set per link.
         if (params != null) {
             for (Entry<String, List<String>> e : params.entrySet()) {
-                if (!e.getKey().equals(PageRequest.PAGE_PARAM)) {
+                if (!e.getKey().equals(PageRequest.PAGE_PARAM) &&
+                    !e.getKey().equals(PageRequest.CURSOR_PARAM)) {
                     for (String v : e.getValue()) {
                         builder = builder.queryParam(e.getKey(), v);
                     }
@@ -55,8 +55,9 @@ public class PageRequestFilter implements ContainerRequestFilter {
         String perPage = params.getFirst(PageRequest.PER_PAGE_PARAM);
         String order = params.getFirst(PageRequest.ORDER_PARAM);
         String sortBy = params.getFirst(PageRequest.SORT_BY_PARAM);
+        String cursor = params.getFirst(PageRequest.CURSOR_PARAM);
 
-        if (page != null || perPage != null || order != null || sortBy != null) {
+        if (page != null || perPage != null || order != null || sortBy != null || cursor != null) {
             p = new PageRequest();
 
             if (order == null) {
@@ -71,7 +72,14 @@ public class PageRequestFilter implements ContainerRequestFilter {
             p.setSortBy(sortBy);
 
             try {
-                if (page == null && perPage != null) {
+                if (cursor != null) {
+                    // Keyset pages are positioned by their cursor alone. The page number is kept at
+                    // the first page so listings which cannot page by keyset fall back to offsets.
+                    p.setCursor(cursor);
+                    p.setPage(PageRequest.DEFAULT_PAGE);
+                    p.setPerPage(perPage != null ? readInteger(perPage) : PageRequest.DEFAULT_PER_PAGE);
+                }
+                else if (page == null && perPage != null) {
                     p.setPage(PageRequest.DEFAULT_PAGE);
                     p.setPerPage(readInteger(perPage));
                 }
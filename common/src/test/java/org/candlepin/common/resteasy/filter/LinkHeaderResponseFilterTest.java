@@ -170,6 +170,23 @@ public class LinkHeaderResponseFilterTest {
         assertEquals(URI.create("https://localhost:8443/candlepin/resource"), returned);
     }
 
+    @Test
+    public void testDoesNotAddCursorQueryParameter() {
+        MultivaluedMap<String, String> map = new MultivaluedMapImpl<>();
+        map.add("cursor", "abc");
+        map.add("per_page", "10");
+        UriBuilder bu = UriBuilder.fromUri("https://localhost:8443/candlepin/resource");
+        URI returned = interceptor.addUnchangingQueryParams(bu, map).build();
+        assertEquals(URI.create("https://localhost:8443/candlepin/resource?per_page=10"), returned);
+    }
+
+    @Test
+    public void testBuildCursorLink() {
+        UriBuilder bu = UriBuilder.fromUri("https://localhost:8443/candlepin/resource");
+        assertEquals("https://localhost:8443/candlepin/resource?cursor=abc",
+            interceptor.buildCursorLink(bu, "abc"));
+    }
+
     @Test
     public void testDoesNotAddAnythingWhenNoQueryParameters() {
         UriBuilder bu = UriBuilder.fromUri("https://localhost:8443/candlepin/resource");
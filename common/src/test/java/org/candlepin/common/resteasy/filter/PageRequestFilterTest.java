@@ -174,4 +174,34 @@ public class PageRequestFilterTest {
         assertEquals(PageRequest.Order.DESCENDING, p.getOrder());
         assertEquals("id", p.getSortBy());
     }
+
+    @Test
+    public void testCursorRequestsKeysetPaging() throws Exception {
+        mockReq = MockHttpRequest.create("GET",
+            "http://localhost/candlepin/status?cursor=abc&per_page=25&page=7");
+        when(mockRequestContext.getUriInfo()).thenReturn(mockReq.getUri());
+
+        interceptor.filter(mockRequestContext);
+
+        PageRequest p = ResteasyProviderFactory.getContextData(PageRequest.class);
+        assertTrue(p.isKeyset());
+        assertEquals("abc", p.getCursor());
+        assertEquals(Integer.valueOf(25), p.getPerPage());
+        assertEquals(PageRequest.DEFAULT_PAGE, p.getPage());
+    }
+
+    @Test
+    public void testEmptyCursorRequestsFirstKeysetPage() throws Exception {
+        mockReq = MockHttpRequest.create("GET",
+            "http://localhost/candlepin/status?cursor=");
+        when(mockRequestContext.getUriInfo()).thenReturn(mockReq.getUri());
+
+        interceptor.filter(mockRequestContext);
+
+        PageRequest p = ResteasyProviderFactory.getContextData(PageRequest.class);
+        assertTrue(p.isKeyset());
+        assertEquals("", p.getCursor());
+        assertEquals(PageRequest.DEFAULT_PER_PAGE, p.getPerPage());
+        assertEquals(PageRequest.DEFAULT_ORDER, p.getOrder());
+    }
 }
@@ -16,6 +16,7 @@ package org.candlepin.bind;
 
 import org.candlepin.model.Consumer;
 import org.candlepin.model.Entitlement;
+import org.candlepin.model.Pool;
 import org.candlepin.policy.EntitlementRefusedException;
 import org.candlepin.policy.js.entitlement.Enforcer;
 
@@ -29,6 +30,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Holds and represents the binding chain of responsibility.
@@ -103,4 +105,43 @@ public class BindChain {
         }
         throw context.getException();
     }
+
+    /**
+     * Runs the pre-processing steps of the chain, none of which require the pools to be locked.
+     * Used together with {@link #execute(Collection)} by callers binding many consumers at once,
+     * which lock the pools of all of their chains together. Such chains never record their
+     * consumption in the pool consumption ledger, as a single transaction must not reserve on
+     * the same pool more than once.
+     * @return true if the chain may be executed; false if the bind was refused, in which case
+     * the reason is available from {@link #getException()}
+     */
+    public boolean prepare() {
+        context.disableLedger();
+        return preProcess(context);
+    }
+
+    /**
+     * @return the ids of the pools which must be locked before a prepared chain is executed
+     */
+    public Set<String> getPoolIdsToLock() {
+        return context.getPoolIdsToLock();
+    }
+
+    /**
+     * Executes a prepared chain using pools which have already been locked by the caller.
+     * @param lockedPools the locked pools, which may include pools of other chains
+     * @return the created entitlements
+     * @throws EntitlementRefusedException if the bind was refused
+     */
+    public Collection<Entitlement> execute(Collection<Pool> lockedPools) throws EntitlementRefusedException {
+        context.setLockedPools(lockedPools);
+        if (execute(context)) {
+            return context.getEntitlementMap().values();
+        }
+        throw context.getException();
+    }
+
+    public EntitlementRefusedException getException() {
+        return context.getException();
+    }
 }
@@ -14,6 +14,7 @@
  */
 package org.candlepin.bind;
 
+import org.candlepin.controller.PoolConsumptionLedger;
 import org.candlepin.model.Consumer;
 import org.candlepin.model.ConsumerCurator;
 import org.candlepin.model.Entitlement;
@@ -28,10 +29,15 @@ import com.google.inject.assistedinject.Assisted;
 
 import org.xnap.commons.i18n.I18n;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * - Container class for holding bind information.
@@ -48,21 +54,26 @@ public class BindContext {
     private Map<String, PoolQuantity> poolQuantities;
     private Map<String, Entitlement> entitlementMap;
     private Map<String, Integer> quantities;
+    private Set<String> ledgerPoolIds = new HashSet<>();
+    private boolean ledgerAllowed = true;
     private boolean quantityRequested = false;
     //change to generic type in future if needed
     private EntitlementRefusedException exception;
     private PoolCurator poolCurator;
     private ConsumerCurator consumerCurator;
+    private PoolConsumptionLedger ledger;
     private I18n i18n;
 
     @Inject
     public BindContext(PoolCurator poolCurator,
         ConsumerCurator consumerCurator,
+        PoolConsumptionLedger ledger,
         I18n i18n,
         @Assisted Consumer consumer,
         @Assisted Map<String, Integer> quantities) {
         this.poolCurator = poolCurator;
         this.consumerCurator = consumerCurator;
+        this.ledger = ledger;
         this.i18n = i18n;
         this.consumer = consumer;
         this.quantities = quantities;
@@ -100,14 +111,101 @@ public class BindContext {
 
     /**
      * locks the pools and replaces the existing entities in poolQuantities.
+     * pools whose consumption is recorded in the pool consumption ledger are not locked.
+     * any quantity still held by the ledger slots of the locked pools is folded back into
+     * the pools, so that the rules only see the quantity which is actually left.
      */
     public void lockPools() {
-        Collection<Pool> pools = poolCurator.lockAndLoadByIds(poolQuantities.keySet());
-        for (Pool pool: pools) {
-            poolQuantities.get(pool.getId()).setPool(pool);
+        Set<String> poolIds = getPoolIdsToLock();
+        if (!poolIds.isEmpty()) {
+            setLockedPools(ledger.lockAndFold(poolIds));
         }
     }
 
+    /**
+     * prevents this bind from recording its consumption in the pool consumption ledger, so all
+     * of its pools are locked instead. used by callers binding many consumers in a single
+     * transaction, which would otherwise reserve on the same pools more than once.
+     */
+    public void disableLedger() {
+        ledgerAllowed = false;
+    }
+
+    /**
+     * determines which pools must be locked before the chain is executed. pools whose consumption
+     * is recorded in the pool consumption ledger are reserved in the ledger instead. the ledger is
+     * only used when it records every pool of the bind, as reserving on the slots of one pool
+     * while holding the row lock of another could deadlock with other binds.
+     * @return the ids of the pools to lock
+     */
+    public Set<String> getPoolIdsToLock() {
+        boolean useLedger = ledgerAllowed;
+        for (PoolQuantity poolQuantity : poolQuantities.values()) {
+            if (!ledger.records(consumer, poolQuantity.getPool())) {
+                useLedger = false;
+            }
+        }
+
+        Set<String> poolIds = new HashSet<>();
+        for (PoolQuantity poolQuantity : poolQuantities.values()) {
+            if (useLedger) {
+                ledgerPoolIds.add(poolQuantity.getPool().getId());
+            }
+            else {
+                poolIds.add(poolQuantity.getPool().getId());
+            }
+        }
+        return poolIds;
+    }
+
+    /**
+     * replaces the existing entities in poolQuantities with pools which have been locked,
+     * either by lockPools, or by a caller binding many consumers at once. such callers must
+     * fold the ledger slots of the pools they lock, as lockPools does.
+     * pools which are not part of this bind are ignored.
+     * @param pools the locked pools
+     */
+    public void setLockedPools(Collection<Pool> pools) {
+        for (Pool pool : pools) {
+            PoolQuantity poolQuantity = poolQuantities.get(pool.getId());
+            if (poolQuantity != null) {
+                poolQuantity.setPool(pool);
+            }
+        }
+    }
+
+    public boolean isRecordedInLedger(Pool pool) {
+        return ledgerPoolIds.contains(pool.getId());
+    }
+
+    /**
+     * reserves the requested quantities of the pools whose consumption is recorded in the
+     * pool consumption ledger, in order of the pools' ids, which is the order in which the
+     * ledger takes its locks. if any of them cannot be reserved, the reservations made so far
+     * are released.
+     * @return the id of the pool which does not have enough quantity left, or null if all
+     * quantities were reserved.
+     */
+    public String reserveLedgerQuantities() {
+        List<PoolConsumptionLedger.Reservation> reserved = new ArrayList<>();
+        for (PoolQuantity poolQuantity : new TreeMap<>(poolQuantities).values()) {
+            Pool pool = poolQuantity.getPool();
+            if (!isRecordedInLedger(pool)) {
+                continue;
+            }
+
+            PoolConsumptionLedger.Reservation reservation = ledger.reserve(pool, poolQuantity.getQuantity());
+            if (reservation == null) {
+                for (PoolConsumptionLedger.Reservation previous : reserved) {
+                    ledger.release(previous);
+                }
+                return pool.getId();
+            }
+            reserved.add(reservation);
+        }
+        return null;
+    }
+
     public Consumer getLockedConsumer() {
         if (lockedConsumer == null) {
             lockedConsumer = consumerCurator.lockAndLoad(consumer);
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.bind;
+
+import org.candlepin.model.Consumer;
+import org.candlepin.model.Entitlement;
+import org.candlepin.policy.EntitlementRefusedException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+
+/**
+ * Holds the outcome of binding many consumers at once. Each consumer either received all of the
+ * entitlements it requested, or none of them, in which case the reason the bind was refused is
+ * recorded instead.
+ */
+public class BulkBindResults {
+    private final Map<String, List<Entitlement>> entitlements = new LinkedHashMap<>();
+    private final Map<String, EntitlementRefusedException> refusals = new LinkedHashMap<>();
+
+    public void addEntitlements(Consumer consumer, Collection<Entitlement> ents) {
+        this.entitlements.put(consumer.getUuid(), new ArrayList<>(ents));
+    }
+
+    public void addRefusal(Consumer consumer, EntitlementRefusedException exception) {
+        this.refusals.put(consumer.getUuid(), exception);
+    }
+
+    /**
+     * @return the entitlements created for each consumer, keyed by consumer UUID
+     */
+    public Map<String, List<Entitlement>> getEntitlements() {
+        return Collections.unmodifiableMap(this.entitlements);
+    }
+
+    /**
+     * @return every entitlement created by the bulk bind
+     */
+    public List<Entitlement> getAllEntitlements() {
+        List<Entitlement> output = new ArrayList<>();
+        for (List<Entitlement> ents : this.entitlements.values()) {
+            output.addAll(ents);
+        }
+
+        return output;
+    }
+
+    /**
+     * @return the reasons binds were refused, keyed by consumer UUID
+     */
+    public Map<String, EntitlementRefusedException> getRefusals() {
+        return Collections.unmodifiableMap(this.refusals);
+    }
+}
@@ -78,16 +78,20 @@ public class HandleEntitlementsOp implements BindOperation {
             ent.setConsumer(consumer);
             ent.setOwner(consumer.getOwner());
 
-            pool.setConsumed(pool.getConsumed() + quantity);
-            if (consumer.isManifestDistributor()) {
-                pool.setExported(pool.getExported() + quantity);
-            }
-            else if (consumer.isShare()) {
-                pool.setShared(pool.getShared() + quantity);
+            // the consumption of pools recorded in the ledger has already been reserved on
+            // the pool's slots. these pools were not locked, so they must not be written.
+            if (!context.isRecordedInLedger(pool)) {
+                pool.setConsumed(pool.getConsumed() + quantity);
+                if (consumer.isManifestDistributor()) {
+                    pool.setExported(pool.getExported() + quantity);
+                }
+                else if (consumer.isShare()) {
+                    pool.setShared(pool.getShared() + quantity);
+                }
+                poolsToSave.add(pool);
             }
             consumer.addEntitlement(ent);
             consumer.setEntitlementCount(consumer.getEntitlementCount() + quantity);
-            poolsToSave.add(pool);
         }
         entitlementCurator.saveAll(entitlementMap.values(), false, false);
         poolCurator.updateAll(poolsToSave, false, false);
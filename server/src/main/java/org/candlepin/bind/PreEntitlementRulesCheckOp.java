@@ -23,6 +23,7 @@ import org.candlepin.policy.EntitlementRefusedException;
 import org.candlepin.policy.ValidationResult;
 import org.candlepin.policy.js.entitlement.Enforcer;
 import org.candlepin.policy.js.entitlement.Enforcer.CallerType;
+import org.candlepin.policy.js.entitlement.EntitlementRulesTranslator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -73,7 +74,9 @@ public class PreEntitlementRulesCheckOp implements BindOperation {
 
     /**
      * The pool's quantity might have changed since we last fetched it,
-     * so ensure that the pool still has enough quantity left.
+     * so ensure that the pool still has enough quantity left. Pools whose consumption
+     * is recorded in the pool consumption ledger were not locked, so their quantity is
+     * reserved in the ledger instead.
      * @param context
      */
     @Override
@@ -86,6 +89,19 @@ public class PreEntitlementRulesCheckOp implements BindOperation {
             }
 
             EntitlementRefusedException exception = checkResults();
+            if (exception == null) {
+                String poolId = context.reserveLedgerQuantities();
+                if (poolId != null) {
+                    ValidationResult result = results.get(poolId);
+                    if (result == null) {
+                        result = new ValidationResult();
+                        results.put(poolId, result);
+                    }
+                    result.addError(EntitlementRulesTranslator.PoolErrorKeys.NO_ENTITLEMENTS_AVAILABLE);
+                    exception = checkResults();
+                }
+            }
+
             if (exception != null) {
                 context.setException(exception, Thread.currentThread().getStackTrace());
                 return false;
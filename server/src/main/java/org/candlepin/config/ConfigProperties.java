@@ -22,10 +22,13 @@ import org.candlepin.pinsetter.tasks.CancelJobJob;
 import org.candlepin.pinsetter.tasks.CertificateRevocationListTask;
 import org.candlepin.pinsetter.tasks.EntitlerJob;
 import org.candlepin.pinsetter.tasks.ExpiredPoolsJob;
+import org.candlepin.pinsetter.tasks.HealEntireOrgJob;
 import org.candlepin.pinsetter.tasks.ImportRecordJob;
 import org.candlepin.pinsetter.tasks.JobCleaner;
 import org.candlepin.pinsetter.tasks.ManifestCleanerJob;
 import org.candlepin.pinsetter.tasks.OrphanCleanupJob;
+import org.candlepin.pinsetter.tasks.PoolConsumptionFoldJob;
+import org.candlepin.pinsetter.tasks.RegenDirtyEntitlementCertsJob;
 import org.candlepin.pinsetter.tasks.SweepBarJob;
 import org.candlepin.pinsetter.tasks.UnmappedGuestEntitlementCleanerJob;
 import org.candlepin.pinsetter.tasks.UnpauseJob;
@@ -195,6 +198,8 @@ public class ConfigProperties {
         JobCleaner.class.getName(),
         ManifestCleanerJob.class.getName(),
         OrphanCleanupJob.class.getName(),
+        PoolConsumptionFoldJob.class.getName(),
+        RegenDirtyEntitlementCertsJob.class.getName(),
         SweepBarJob.class.getName(),
         UnmappedGuestEntitlementCleanerJob.class.getName(),
         UnpauseJob.class.getName(),
@@ -206,6 +211,27 @@ public class ConfigProperties {
     public static final String ENTITLER_JOB_THROTTLE =
         "pinsetter." + EntitlerJob.class.getName() + ".throttle";
 
+    /**
+     * The number of worker threads on which HealEntireOrgJob heals chunks of consumers. A value of 0
+     * uses one thread per available processor. The workers are shared by all heals, and are
+     * created by the first one to run and stopped with Pinsetter.
+     */
+    public static final String HEAL_ORG_JOB_THREADS =
+        "pinsetter." + HealEntireOrgJob.class.getName() + ".threads";
+
+    /**
+     * The number of consumers HealEntireOrgJob heals in a single transaction
+     */
+    public static final String HEAL_ORG_JOB_CHUNK_SIZE =
+        "pinsetter." + HealEntireOrgJob.class.getName() + ".chunk_size";
+
+    /**
+     * The number of times HealEntireOrgJob retries a chunk which failed on a lock conflict, such as
+     * a deadlock, before healing its consumers individually
+     */
+    public static final String HEAL_ORG_JOB_RETRIES =
+        "pinsetter." + HealEntireOrgJob.class.getName() + ".retries";
+
     public static final String BATCH_BIND_NUMBER_OF_POOLS_LIMIT =
         "candlepin.batch.bind.number_of_pools_limit";
 
@@ -233,6 +259,257 @@ public class ConfigProperties {
 
     public static final String PRODUCT_CACHE_MAX = "candlepin.cache.product_cache_max";
 
+    /**
+     * Enables the in-memory, per-owner pool index used to resolve candidate pools for binds and
+     * pool listings without querying pool attributes in the database.
+     */
+    public static final String POOL_INDEX_ENABLED = "candlepin.pool_index.enabled";
+
+    /**
+     * The maximum age, in seconds, of an owner's pool index before it is rebuilt from the database
+     */
+    public static final String POOL_INDEX_MAX_AGE = "candlepin.pool_index.max_age";
+
+    /**
+     * The engine used to select pools during autobind; either "js" to use the rules, or "java" to
+     * use the native implementation of the rules' pool selection
+     */
+    public static final String AUTOBIND_ENGINE = "candlepin.autobind.engine";
+
+    /**
+     * Enables caching of autobind decisions for consumers presenting identical rules inputs
+     */
+    public static final String AUTOBIND_CACHE_ENABLED = "candlepin.autobind.cache.enabled";
+
+    /**
+     * The maximum number of autobind decisions to cache
+     */
+    public static final String AUTOBIND_CACHE_MAX_SIZE = "candlepin.autobind.cache.max_size";
+
+    /**
+     * The maximum age, in seconds, of a cached autobind decision
+     */
+    public static final String AUTOBIND_CACHE_MAX_AGE = "candlepin.autobind.cache.max_age";
+
+    /**
+     * The number of slots across which the unconsumed quantity of a hot pool is split, allowing
+     * concurrent binds to record their consumption without locking the pool. A value of 0 disables
+     * the pool consumption ledger, and binds lock the pools they consume.
+     */
+    public static final String POOL_CONSUMPTION_STRIPES = "candlepin.pool_consumption.stripes";
+
+    /**
+     * The minimum quantity of a pool for its consumption to be recorded in the pool consumption
+     * ledger
+     */
+    public static final String POOL_CONSUMPTION_MIN_QUANTITY = "candlepin.pool_consumption.min_quantity";
+
+    /**
+     * Enables the shared cache of the IDs of the products provided by pools
+     */
+    public static final String PROVIDED_PRODUCT_CACHE_ENABLED = "candlepin.provided_product_cache.enabled";
+
+    /**
+     * The maximum number of pools for which to cache provided product IDs
+     */
+    public static final String PROVIDED_PRODUCT_CACHE_MAX_SIZE = "candlepin.provided_product_cache.max_size";
+
+    /**
+     * The maximum age, in seconds, of the cached provided product IDs of a pool
+     */
+    public static final String PROVIDED_PRODUCT_CACHE_MAX_AGE = "candlepin.provided_product_cache.max_age";
+
+    /**
+     * Whether pool queries filter on the denormalized attribute columns of pools and products, rather
+     * than on subqueries of their attributes
+     */
+    public static final String POOL_ATTRIBUTE_COLUMNS_ENABLED = "candlepin.pool_attribute_columns.enabled";
+
+    /**
+     * The maximum number of binds accepted by a single bulk bind request
+     */
+    public static final String BULK_BIND_MAX_SIZE = "candlepin.bulk_bind.max_size";
+
+    /**
+     * Enables the pool of initialized rules execution scopes, which runners borrow for each rules
+     * invocation instead of creating their own scopes
+     */
+    public static final String RULES_SCOPE_POOL_ENABLED = "candlepin.rules.scope_pool.enabled";
+
+    /**
+     * The maximum number of rules execution scopes pooled per rules namespace
+     */
+    public static final String RULES_SCOPE_POOL_SIZE = "candlepin.rules.scope_pool.size";
+
+    /**
+     * The number of rules execution scopes initialized per rules namespace whenever the rules are
+     * compiled
+     */
+    public static final String RULES_SCOPE_POOL_PREWARM = "candlepin.rules.scope_pool.prewarm";
+
+    /**
+     * The maximum time, in milliseconds, to wait for a pooled rules execution scope to be returned
+     * before creating an unpooled one
+     */
+    public static final String RULES_SCOPE_POOL_MAX_WAIT = "candlepin.rules.scope_pool.max_wait";
+
+    /**
+     * The interval, in seconds, at which each node checks whether the rules have been changed by
+     * another node of the cluster. A value of 0 disables the checks.
+     */
+    public static final String RULES_VERSION_POLL_INTERVAL = "candlepin.rules.version_poll_interval";
+
+    /**
+     * Whether the version of the rules is checked against the database on every request, rather
+     * than only when notified of, or polling for, rules changes
+     */
+    public static final String RULES_REQUEST_VERSION_CHECK = "candlepin.rules.request_version_check";
+
+    /**
+     * Whether the arguments of rules calls are handed to rules supporting it as javascript objects,
+     * rather than as a JSON string to be parsed by the rules
+     */
+    public static final String RULES_NATIVE_CONTEXTS = "candlepin.rules.native_contexts";
+
+    /**
+     * The directory in which the classes the rules are compiled to are cached, so they need not be
+     * compiled again by nodes starting later. An empty value, the default, disables the cache.
+     * Cached classes are run by the server, so the directory must be owned by, and only writable by,
+     * the user running candlepin; entries are not loaded from a directory anyone else can write to.
+     */
+    public static final String RULES_COMPILED_CACHE_DIR = "candlepin.rules.compiled_cache_dir";
+
+    /**
+     * Whether the time taken by each phase of every rules call, and the size of the arguments and
+     * results of the calls, are recorded
+     */
+    public static final String RULES_PROFILER_ENABLED = "candlepin.rules.profiler.enabled";
+
+    /**
+     * Enables the cache of the serialized pools sent to the rules
+     */
+    public static final String RULES_FRAGMENT_CACHE_ENABLED = "candlepin.rules.fragment_cache.enabled";
+
+    /**
+     * The maximum number of serialized pools held by the rules fragment cache
+     */
+    public static final String RULES_FRAGMENT_CACHE_MAX_SIZE = "candlepin.rules.fragment_cache.max_size";
+
+    /**
+     * Enables the cache of the compliance statuses calculated by the rules
+     */
+    public static final String COMPLIANCE_CACHE_ENABLED = "candlepin.compliance.cache.enabled";
+
+    /**
+     * The maximum number of consumers for which to cache a compliance status
+     */
+    public static final String COMPLIANCE_CACHE_MAX_SIZE = "candlepin.compliance.cache.max_size";
+
+    /**
+     * The maximum age, in seconds, of a cached compliance status
+     */
+    public static final String COMPLIANCE_CACHE_MAX_AGE = "candlepin.compliance.cache.max_age";
+
+    /**
+     * The length, in seconds, of the date buckets compliance statuses are cached for; a status is
+     * reused for any date within the bucket of the date it was calculated for
+     */
+    public static final String COMPLIANCE_CACHE_DATE_BUCKET = "candlepin.compliance.cache.date_bucket";
+
+    /**
+     * The number of worker threads on which the compliance statuses of a batch of consumers are
+     * calculated. A value of 0 uses one thread per available processor; a value of 1 calculates
+     * them on the requesting thread.
+     */
+    public static final String COMPLIANCE_BATCH_THREADS = "candlepin.compliance.batch.threads";
+
+    /**
+     * Whether compliance statuses are recalculated incrementally when a consumer's entitlements
+     * change, running the rules only for the stacks and installed products affected by the change
+     * and merging the result into the status last cached for the consumer. Requires the compliance
+     * status cache.
+     */
+    public static final String COMPLIANCE_INCREMENTAL_ENABLED = "candlepin.compliance.incremental.enabled";
+
+    /**
+     * Whether incrementally calculated compliance statuses are checked against a full calculation.
+     * The full status is used, and a warning logged, whenever the two differ.
+     */
+    public static final String COMPLIANCE_INCREMENTAL_VERIFY = "candlepin.compliance.incremental.verify";
+
+    /**
+     * Enables the pool of RSA key pairs generated ahead of time for consumer certificates
+     */
+    public static final String KEY_PAIR_POOL_ENABLED = "candlepin.pki.key_pair_pool.enabled";
+
+    /**
+     * The maximum number of pre-generated key pairs held by the key pair pool
+     */
+    public static final String KEY_PAIR_POOL_SIZE = "candlepin.pki.key_pair_pool.size";
+
+    /**
+     * The number of background threads generating key pairs to refill the key pair pool
+     */
+    public static final String KEY_PAIR_POOL_THREADS = "candlepin.pki.key_pair_pool.threads";
+
+    /**
+     * Whether the private keys held by the key pair pool are kept encrypted, with a key generated
+     * at startup, until they are drawn from the pool
+     */
+    public static final String KEY_PAIR_POOL_ENCRYPTED = "candlepin.pki.key_pair_pool.encrypted";
+
+    /**
+     * Enables the cache of the encoded content sections of V3 entitlement certificates
+     */
+    public static final String CONTENT_PAYLOAD_CACHE_ENABLED = "candlepin.cert.content_payload_cache.enabled";
+
+    /**
+     * The maximum number of encoded content sections held by the content payload cache
+     */
+    public static final String CONTENT_PAYLOAD_CACHE_MAX_SIZE =
+        "candlepin.cert.content_payload_cache.max_size";
+
+    /**
+     * Whether certificates regenerated for an owner's product or an environment's content are
+     * signed in parallel and written back in batches, rather than one entitlement at a time
+     */
+    public static final String CERT_REGENERATION_ENABLED = "candlepin.cert.regeneration.enabled";
+
+    /**
+     * The number of threads signing regenerated certificates; 0 uses one thread per processor
+     */
+    public static final String CERT_REGENERATION_THREADS = "candlepin.cert.regeneration.threads";
+
+    /**
+     * The number of entitlements whose certificates are regenerated and committed together
+     */
+    public static final String CERT_REGENERATION_BATCH_SIZE = "candlepin.cert.regeneration.batch_size";
+
+    /**
+     * Whether entitlements marked dirty are regenerated in the background by the
+     * RegenDirtyEntitlementCertsJob, rather than only when their consumers next fetch them
+     */
+    public static final String CERT_DRAINER_ENABLED = "candlepin.cert.drainer.enabled";
+
+    /**
+     * The share of the server's processors the background regeneration of dirty entitlements may
+     * keep busy, from 0 to 1
+     */
+    public static final String CERT_DRAINER_CPU_BUDGET = "candlepin.cert.drainer.cpu_budget";
+
+    /**
+     * The maximum number of dirty entitlements regenerated by each run of the
+     * RegenDirtyEntitlementCertsJob
+     */
+    public static final String CERT_DRAINER_MAX_PER_RUN = "candlepin.cert.drainer.max_per_run";
+
+    /**
+     * The number of days after which a consumer which has not checked in is no longer expected
+     * to, and its dirty entitlements are left to be regenerated on demand; 0 drains the
+     * entitlements of every consumer
+     */
+    public static final String CERT_DRAINER_STALE_CHECKIN_DAYS = "candlepin.cert.drainer.stale_checkin_days";
+
     public static final String INTEGER_FACTS = "candlepin.integer_facts";
     private static final String INTEGER_FACT_LIST = "";
 
@@ -356,6 +633,9 @@ public class ConfigProperties {
             this.put("org.quartz.threadPool.threadPriority", "5");
             this.put(DEFAULT_TASKS, StringUtils.join(DEFAULT_TASK_LIST, ","));
             this.put(ENTITLER_JOB_THROTTLE, "7");
+            this.put(HEAL_ORG_JOB_THREADS, "0");
+            this.put(HEAL_ORG_JOB_CHUNK_SIZE, "25");
+            this.put(HEAL_ORG_JOB_RETRIES, "3");
             this.put(BATCH_BIND_NUMBER_OF_POOLS_LIMIT, "100");
 
             // AMQP (Qpid) configuration used by events
@@ -400,6 +680,51 @@ public class ConfigProperties {
              */
             this.put(PRODUCT_CACHE_MAX, "100");
 
+            this.put(POOL_INDEX_ENABLED, "false");
+            this.put(POOL_INDEX_MAX_AGE, "600");
+            this.put(AUTOBIND_ENGINE, "js");
+            this.put(AUTOBIND_CACHE_ENABLED, "false");
+            this.put(AUTOBIND_CACHE_MAX_SIZE, "1000");
+            this.put(AUTOBIND_CACHE_MAX_AGE, "300");
+            this.put(POOL_CONSUMPTION_STRIPES, "0");
+            this.put(POOL_CONSUMPTION_MIN_QUANTITY, "100");
+            this.put(PROVIDED_PRODUCT_CACHE_ENABLED, "false");
+            this.put(PROVIDED_PRODUCT_CACHE_MAX_SIZE, "10000");
+            this.put(PROVIDED_PRODUCT_CACHE_MAX_AGE, "600");
+            this.put(POOL_ATTRIBUTE_COLUMNS_ENABLED, "true");
+            this.put(BULK_BIND_MAX_SIZE, "1000");
+            this.put(RULES_SCOPE_POOL_ENABLED, "true");
+            this.put(RULES_SCOPE_POOL_SIZE, "32");
+            this.put(RULES_SCOPE_POOL_PREWARM, "2");
+            this.put(RULES_SCOPE_POOL_MAX_WAIT, "50");
+            this.put(RULES_VERSION_POLL_INTERVAL, "30");
+            this.put(RULES_REQUEST_VERSION_CHECK, "false");
+            this.put(RULES_NATIVE_CONTEXTS, "true");
+            this.put(RULES_COMPILED_CACHE_DIR, "");
+            this.put(RULES_PROFILER_ENABLED, "false");
+            this.put(RULES_FRAGMENT_CACHE_ENABLED, "false");
+            this.put(RULES_FRAGMENT_CACHE_MAX_SIZE, "10000");
+            this.put(COMPLIANCE_CACHE_ENABLED, "false");
+            this.put(COMPLIANCE_CACHE_MAX_SIZE, "10000");
+            this.put(COMPLIANCE_CACHE_MAX_AGE, "300");
+            this.put(COMPLIANCE_CACHE_DATE_BUCKET, "60");
+            this.put(COMPLIANCE_BATCH_THREADS, "4");
+            this.put(COMPLIANCE_INCREMENTAL_ENABLED, "false");
+            this.put(COMPLIANCE_INCREMENTAL_VERIFY, "false");
+            this.put(KEY_PAIR_POOL_ENABLED, "false");
+            this.put(KEY_PAIR_POOL_SIZE, "100");
+            this.put(KEY_PAIR_POOL_THREADS, "1");
+            this.put(KEY_PAIR_POOL_ENCRYPTED, "false");
+            this.put(CONTENT_PAYLOAD_CACHE_ENABLED, "false");
+            this.put(CONTENT_PAYLOAD_CACHE_MAX_SIZE, "1000");
+            this.put(CERT_REGENERATION_ENABLED, "false");
+            this.put(CERT_REGENERATION_THREADS, "0");
+            this.put(CERT_REGENERATION_BATCH_SIZE, "100");
+            this.put(CERT_DRAINER_ENABLED, "false");
+            this.put(CERT_DRAINER_CPU_BUDGET, "0.25");
+            this.put(CERT_DRAINER_MAX_PER_RUN, "10000");
+            this.put(CERT_DRAINER_STALE_CHECKIN_DAYS, "7");
+
             /**
              * As we do math on some facts and attributes, we need to constrain
              * some values
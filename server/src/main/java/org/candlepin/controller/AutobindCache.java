@@ -0,0 +1,458 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.controller;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.model.Consumer;
+import org.candlepin.model.ConsumerCurator;
+import org.candlepin.model.ConsumerType.ConsumerTypeEnum;
+import org.candlepin.model.GuestId;
+import org.candlepin.model.Owner;
+import org.candlepin.model.Pool;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * The AutobindCache memoizes autobind decisions (the pools and quantities selected by the
+ * autobind rules) for consumers which present identical rules inputs, such as cloned guests
+ * registering with the same installed products, facts and service level.
+ * <p></p>
+ * Cache keys are built from the consumer's rules-relevant inputs and a per-owner pool set
+ * version, which is incremented whenever the pool manager's changes to the owner's pools are
+ * committed. Changes to pool consumption do not change the version; instead, cached decisions are
+ * re-validated by the entitlement rules when they are bound, and callers are expected to evict
+ * any decision which is refused.
+ * <p></p>
+ * Only system consumers without existing entitlements are cached, as the rules' decision for any
+ * other consumer depends on its current compliance status. Since pools modified outside of the
+ * pool manager do not change the pool set version, entries also expire after a configurable age.
+ */
+@Singleton
+public class AutobindCache {
+    private static Logger log = LoggerFactory.getLogger(AutobindCache.class);
+
+    /** Consumer facts considered by the autobind and pre-entitlement rules */
+    private static final List<String> RULES_FACTS = Arrays.asList(
+        "cpu.cpu_socket(s)",
+        "cpu.core(s)_per_socket",
+        "memory.memtotal",
+        "uname.machine",
+        "virt.is_guest",
+        "band.storage.usage",
+        "system.certificate_version"
+    );
+
+    /** The maximum difference between "now" and an entitlement date for a request to be cached */
+    private static final long MAX_DATE_SKEW = 60000L;
+
+    private final ConsumerCurator consumerCurator;
+    private final boolean enabled;
+    private final int maxSize;
+    private final long maxAge;
+
+    private final ConcurrentMap<String, AtomicLong> ownerVersions;
+    private final Map<Key, Decision> decisions;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong rejections;
+    private final AtomicLong evictions;
+    private final AtomicLong computeTime;
+    private final AtomicLong computeCount;
+
+    @Inject
+    public AutobindCache(ConsumerCurator consumerCurator, Configuration config) {
+        this.consumerCurator = consumerCurator;
+
+        this.enabled = config.getBoolean(ConfigProperties.AUTOBIND_CACHE_ENABLED, false);
+        this.maxSize = config.getInt(ConfigProperties.AUTOBIND_CACHE_MAX_SIZE, 1000);
+        this.maxAge = config.getLong(ConfigProperties.AUTOBIND_CACHE_MAX_AGE, 300L) * 1000L;
+
+        this.ownerVersions = new ConcurrentHashMap<>();
+        this.decisions = new LinkedHashMap<Key, Decision>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Decision> eldest) {
+                boolean evict = this.size() > maxSize;
+                if (evict) {
+                    evictions.incrementAndGet();
+                }
+
+                return evict;
+            }
+        };
+
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.rejections = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.computeTime = new AtomicLong();
+        this.computeCount = new AtomicLong();
+    }
+
+    /**
+     * Checks if the autobind cache has been enabled by configuration.
+     *
+     * @return
+     *  true if the autobind cache is enabled; false otherwise
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Builds the cache key for an autobind request. If the cache is disabled, or the request
+     * cannot be cached, this method returns null.
+     *
+     * @param consumer
+     *  The consumer being autobound
+     *
+     * @param productIds
+     *  The IDs of the products for which the consumer is requesting entitlements
+     *
+     * @param entitleDate
+     *  The date on which the entitlements should be active, or null for the current date
+     *
+     * @param fromPools
+     *  The IDs of the pools from which entitlements may be selected, if restricted
+     *
+     * @return
+     *  the cache key for the request, or null if the request cannot be cached
+     */
+    public Key buildKey(Consumer consumer, String[] productIds, Date entitleDate,
+        Collection<String> fromPools) {
+
+        if (!this.enabled || consumer == null || consumer.getOwner() == null ||
+            consumer.getOwner().getId() == null || productIds == null || productIds.length == 0) {
+            return null;
+        }
+
+        if (consumer.getType() == null ||
+            !ConsumerTypeEnum.SYSTEM.getLabel().equals(consumer.getType().getLabel()) ||
+            consumer.isDev() || consumer.getEntitlementCount() != 0) {
+            return null;
+        }
+
+        if (entitleDate != null && Math.abs(System.currentTimeMillis() - entitleDate.getTime()) >
+            MAX_DATE_SKEW) {
+            return null;
+        }
+
+        Owner owner = consumer.getOwner();
+        List<Object> values = new ArrayList<>();
+
+        values.add(owner.getId());
+        values.add(this.getVersion(owner.getId()).get());
+        values.add(owner.getDefaultServiceLevel());
+        values.add(consumer.getServiceLevel());
+        values.add(consumer.getUsername());
+        values.add(new ArrayList<>(new TreeSet<>(Arrays.asList(productIds))));
+        values.add(fromPools != null ? new ArrayList<>(new TreeSet<>(fromPools)) : null);
+
+        for (String fact : RULES_FACTS) {
+            values.add(consumer.getFact(fact));
+        }
+
+        // Guests may use pools restricted to their host
+        if (consumer.hasFact("virt.uuid")) {
+            Consumer host = this.consumerCurator.getHost(consumer, owner);
+            values.add(host != null ? host.getUuid() : "");
+        }
+        else {
+            values.add(null);
+        }
+
+        values.add(this.countActiveGuests(consumer));
+
+        return new Key(values);
+    }
+
+    private int countActiveGuests(Consumer consumer) {
+        int count = 0;
+
+        if (consumer.getGuestIds() != null) {
+            for (GuestId guest : consumer.getGuestIds()) {
+                Map<String, String> attribs = guest.getAttributes();
+
+                if (attribs != null && "libvirt".equals(attribs.get("virtWhoType")) &&
+                    "1".equals(attribs.get("active"))) {
+                    ++count;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private AtomicLong getVersion(String ownerId) {
+        AtomicLong version = this.ownerVersions.get(ownerId);
+
+        if (version == null) {
+            AtomicLong created = new AtomicLong();
+            version = this.ownerVersions.putIfAbsent(ownerId, created);
+
+            if (version == null) {
+                version = created;
+            }
+        }
+
+        return version;
+    }
+
+    /**
+     * Fetches the cached autobind decision for the given key.
+     *
+     * @param key
+     *  The cache key built for the autobind request; may be null
+     *
+     * @return
+     *  a map of pool IDs to quantities to bind, or null if no decision has been cached
+     */
+    public Map<String, Integer> get(Key key) {
+        if (key == null) {
+            return null;
+        }
+
+        Decision decision;
+        synchronized (this.decisions) {
+            decision = this.decisions.get(key);
+
+            if (decision != null && System.currentTimeMillis() - decision.created > this.maxAge) {
+                this.decisions.remove(key);
+                decision = null;
+            }
+        }
+
+        if (decision == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+
+        this.hits.incrementAndGet();
+        log.debug("Using cached autobind decision: {}", decision.poolQuantities);
+
+        return new HashMap<>(decision.poolQuantities);
+    }
+
+    /**
+     * Caches the autobind decision for the given key.
+     *
+     * @param key
+     *  The cache key built for the autobind request; may be null
+     *
+     * @param poolQuantities
+     *  A map of pool IDs to the quantities selected by the autobind rules
+     *
+     * @param elapsed
+     *  The time, in milliseconds, taken to compute the decision
+     */
+    public void put(Key key, Map<String, Integer> poolQuantities, long elapsed) {
+        if (key == null || poolQuantities == null) {
+            return;
+        }
+
+        this.computeTime.addAndGet(elapsed);
+        this.computeCount.incrementAndGet();
+
+        Decision decision = new Decision(Collections.unmodifiableMap(new HashMap<>(poolQuantities)));
+        synchronized (this.decisions) {
+            this.decisions.put(key, decision);
+        }
+    }
+
+    /**
+     * Removes a cached decision which was refused by the entitlement rules when it was bound.
+     *
+     * @param key
+     *  The cache key of the refused decision; may be null
+     */
+    public void reject(Key key) {
+        if (key == null) {
+            return;
+        }
+
+        this.rejections.incrementAndGet();
+        synchronized (this.decisions) {
+            this.decisions.remove(key);
+        }
+    }
+
+    /**
+     * Increments the pool set version of the owners of the given pools once the current
+     * transaction has been committed, preventing decisions cached for those owners from being
+     * used. Decisions computed from the owners' previous pools by other requests before the
+     * commit are therefore not reused either.
+     *
+     * @param pools
+     *  A collection of pools which have been created, modified or deleted
+     */
+    public void poolsChanged(Collection<Pool> pools) {
+        if (!this.enabled || pools == null) {
+            return;
+        }
+
+        final List<String> ownerIds = new ArrayList<>();
+        boolean unknownOwner = false;
+        for (Pool pool : pools) {
+            if (pool == null) {
+                continue;
+            }
+
+            if (pool.getOwner() == null || pool.getOwner().getId() == null) {
+                // We can't tell which owner is affected; assume they all are
+                unknownOwner = true;
+                break;
+            }
+
+            if (!ownerIds.contains(pool.getOwner().getId())) {
+                ownerIds.add(pool.getOwner().getId());
+            }
+        }
+
+        if (!unknownOwner && ownerIds.isEmpty()) {
+            return;
+        }
+
+        final boolean allOwners = unknownOwner;
+        this.consumerCurator.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                if (allOwners) {
+                    invalidateAll();
+                    return;
+                }
+
+                for (String ownerId : ownerIds) {
+                    getVersion(ownerId).incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Prevents any decision cached for the given owner from being used.
+     *
+     * @param owner
+     *  The owner for which to invalidate cached decisions
+     */
+    public void invalidate(Owner owner) {
+        if (owner != null && owner.getId() != null) {
+            this.getVersion(owner.getId()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Discards every cached decision.
+     */
+    public void invalidateAll() {
+        for (AtomicLong version : this.ownerVersions.values()) {
+            version.incrementAndGet();
+        }
+
+        synchronized (this.decisions) {
+            this.decisions.clear();
+        }
+    }
+
+    /**
+     * Fetches the statistics of this cache. The estimated time saved is the number of hits
+     * multiplied by the average time taken to compute a decision on a miss.
+     *
+     * @return
+     *  a map of statistic names to values
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+
+        long hitCount = this.hits.get();
+        long computed = this.computeCount.get();
+        long average = computed > 0 ? this.computeTime.get() / computed : 0;
+
+        int size;
+        synchronized (this.decisions) {
+            size = this.decisions.size();
+        }
+
+        stats.put("enabled", this.enabled);
+        stats.put("size", size);
+        stats.put("hits", hitCount);
+        stats.put("misses", this.misses.get());
+        stats.put("rejections", this.rejections.get());
+        stats.put("evictions", this.evictions.get());
+        stats.put("averageComputeTimeMillis", average);
+        stats.put("estimatedTimeSavedMillis", hitCount * average);
+
+        return stats;
+    }
+
+    /**
+     * The key of a cached autobind decision
+     */
+    public static final class Key {
+        private final List<Object> values;
+
+        private Key(List<Object> values) {
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && this.values.equals(((Key) obj).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.values.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "AutobindCache.Key " + this.values;
+        }
+    }
+
+    /**
+     * A cached autobind decision
+     */
+    private static class Decision {
+        private final Map<String, Integer> poolQuantities;
+        private final long created;
+
+        Decision(Map<String, Integer> poolQuantities) {
+            this.poolQuantities = poolQuantities;
+            this.created = System.currentTimeMillis();
+        }
+    }
+}
@@ -20,7 +20,9 @@ import org.candlepin.audit.Event.Type;
 import org.candlepin.audit.EventBuilder;
 import org.candlepin.audit.EventFactory;
 import org.candlepin.audit.EventSink;
+import org.candlepin.bind.BindChain;
 import org.candlepin.bind.BindChainFactory;
+import org.candlepin.bind.BulkBindResults;
 import org.candlepin.common.config.Configuration;
 import org.candlepin.common.paging.Page;
 import org.candlepin.common.paging.PageRequest;
@@ -59,6 +61,7 @@ import org.candlepin.policy.js.activationkey.ActivationKeyRules;
 import org.candlepin.policy.js.autobind.AutobindRules;
 import org.candlepin.policy.js.compliance.ComplianceRules;
 import org.candlepin.policy.js.compliance.ComplianceStatus;
+import org.candlepin.policy.js.compliance.ComplianceStatusCache;
 import org.candlepin.policy.js.entitlement.Enforcer;
 import org.candlepin.policy.js.entitlement.Enforcer.CallerType;
 import org.candlepin.policy.js.pool.PoolRules;
@@ -84,15 +87,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeSet;
 
 
 
@@ -128,6 +134,11 @@ public class CandlepinPoolManager implements PoolManager {
     private PinsetterKernel pinsetterKernel;
     private OwnerManager ownerManager;
     private BindChainFactory bindChainFactory;
+    private PoolIndex poolIndex;
+    private AutobindCache autobindCache;
+    private PoolConsumptionLedger consumptionLedger;
+    private ProvidedProductCache providedProductCache;
+    private ComplianceStatusCache complianceStatusCache;
 
     /**
      * @param poolCurator
@@ -159,7 +170,12 @@ public class CandlepinPoolManager implements PoolManager {
         OwnerManager ownerManager,
         PinsetterKernel pinsetterKernel,
         I18n i18n,
-        BindChainFactory bindChainFactory) {
+        BindChainFactory bindChainFactory,
+        PoolIndex poolIndex,
+        AutobindCache autobindCache,
+        PoolConsumptionLedger consumptionLedger,
+        ProvidedProductCache providedProductCache,
+        ComplianceStatusCache complianceStatusCache) {
 
         this.poolCurator = poolCurator;
         this.sink = sink;
@@ -185,6 +201,11 @@ public class CandlepinPoolManager implements PoolManager {
         this.pinsetterKernel = pinsetterKernel;
         this.i18n = i18n;
         this.bindChainFactory = bindChainFactory;
+        this.poolIndex = poolIndex;
+        this.autobindCache = autobindCache;
+        this.consumptionLedger = consumptionLedger;
+        this.providedProductCache = providedProductCache;
+        this.complianceStatusCache = complianceStatusCache;
     }
 
     /*
@@ -627,11 +648,13 @@ public class CandlepinPoolManager implements PoolManager {
 
             // save changes for the pool. We'll flush these changes later.
             this.poolCurator.merge(existingPool);
+            this.poolsUpdated(Collections.singletonList(existingPool));
             flush = true;
 
             // quantity has changed. delete any excess entitlements from pool
             // the quantity has not yet been expressed on the pool itself
             if (updatedPool.getQuantityChanged()) {
+                this.consumptionLedger.fold(Collections.singletonList(existingPool));
                 RevocationOp revPlan = new RevocationOp(poolCurator, Collections.singletonList(existingPool));
                 revPlan.execute(this);
             }
@@ -751,6 +774,8 @@ public class CandlepinPoolManager implements PoolManager {
                 pool = this.poolCurator.merge(pool);
                 log.debug("  updated pool: {}", pool);
             }
+
+            this.poolsUpdated(Collections.singletonList(pool));
         }
 
         return pool;
@@ -769,6 +794,7 @@ public class CandlepinPoolManager implements PoolManager {
             }
 
             poolCurator.saveOrUpdateAll(pools, false, false);
+            this.poolsUpdated(pools);
 
             for (Pool pool : pools) {
                 if (pool != null && !updatedPoolIds.contains(pool.getId())) {
@@ -1115,7 +1141,29 @@ public class CandlepinPoolManager implements PoolManager {
             bestPools.add(pq);
         }
         else {
+            // Consumers presenting the same rules inputs as a previous request can reuse its
+            // decision; the quantities are re-validated under lock when binding.
+            AutobindCache.Key cacheKey = this.autobindCache.buildKey(consumer, productIds, entitleDate,
+                fromPools);
+
+            Map<String, Integer> cached = this.autobindCache.get(cacheKey);
+            if (cached != null) {
+                try {
+                    return entitleByPools(consumer, cached);
+                }
+                catch (EntitlementRefusedException e) {
+                    log.debug("Cached autobind decision refused for consumer {}; selecting pools", consumer);
+                    this.autobindCache.reject(cacheKey);
+                }
+            }
+
+            long start = System.currentTimeMillis();
             bestPools = getBestPools(consumer, productIds, entitleDate, owner, null, fromPools);
+
+            if (bestPools != null) {
+                long elapsed = System.currentTimeMillis() - start;
+                this.autobindCache.put(cacheKey, convertToMap(bestPools), elapsed);
+            }
         }
 
         if (bestPools == null) {
@@ -1224,6 +1272,7 @@ public class CandlepinPoolManager implements PoolManager {
             allOwnerPools.remove(ent.getPool());
         }
         List<Pool> filteredPools = new LinkedList<>();
+        List<PoolQuantity> candidatePools = new ArrayList<>();
 
         ComplianceStatus guestCompliance = complianceRules.getStatus(guest, entitleDate, false);
         Set<String> tmpSet = new HashSet<>();
@@ -1245,10 +1294,10 @@ public class CandlepinPoolManager implements PoolManager {
 
         // Bulk fetch our provided and derived provided product IDs so we're not hitting the DB
         // several times for this lookup.
-        Map<String, Set<String>> providedProductIds = this.poolCurator
+        Map<String, Set<String>> providedProductIds = this.providedProductCache
             .getProvidedProductIds(allOwnerPools);
 
-        Map<String, Set<String>> derivedProvidedProductIds = this.poolCurator
+        Map<String, Set<String>> derivedProvidedProductIds = this.providedProductCache
             .getDerivedProvidedProductIds(allOwnerPools);
 
         for (Pool pool : allOwnerPools) {
@@ -1297,23 +1346,12 @@ public class CandlepinPoolManager implements PoolManager {
             }
 
             if (providesProduct) {
-                ValidationResult result = enforcer.preEntitlement(host, pool, 1, CallerType.BEST_POOLS);
-
-                if (result.hasErrors() || result.hasWarnings()) {
-                    // Just keep the last one around, if we need it
-                    failedResults.put(pool.getId(), result);
-                    if (log.isDebugEnabled()) {
-                        log.debug("Pool filtered from candidates due to failed rule(s): {}", pool);
-                        log.debug("  warnings: {}", Util.collectionToString(result.getWarnings()));
-                        log.debug("  errors: {}", Util.collectionToString(result.getErrors()));
-                    }
-                }
-                else {
-                    filteredPools.add(pool);
-                }
+                candidatePools.add(new PoolQuantity(pool, 1));
             }
         }
 
+        this.validateCandidatePools(host, candidatePools, filteredPools, failedResults);
+
         // Only throw refused exception if we actually hit the rules:
         if (filteredPools.size() == 0 && !failedResults.isEmpty()) {
             throw new EntitlementRefusedException(failedResults);
@@ -1353,7 +1391,7 @@ public class CandlepinPoolManager implements PoolManager {
 
         // Bulk fetch our provided product IDs so we're not hitting the DB several times
         // for this lookup.
-        Map<String, Set<String>> providedProductIds = this.poolCurator
+        Map<String, Set<String>> providedProductIds = this.providedProductCache
             .getProvidedProductIds(allOwnerPoolsForGuest);
 
         for (Pool pool : allOwnerPoolsForGuest) {
@@ -1413,6 +1451,7 @@ public class CandlepinPoolManager implements PoolManager {
             consumer, null, owner, null, null, activePoolDate, false,
             poolFilter, null, false, false, null).getPageData();
         List<Pool> filteredPools = new LinkedList<>();
+        List<PoolQuantity> candidatePools = new ArrayList<>();
 
         // We have to check compliance status here so we can replace an empty
         // array of product IDs with the array the consumer actually needs. (i.e. during
@@ -1435,7 +1474,8 @@ public class CandlepinPoolManager implements PoolManager {
 
         // Bulk fetch our provided product IDs so we're not hitting the DB several times
         // for this lookup.
-        Map<String, Set<String>> providedProductIds = this.poolCurator.getProvidedProductIds(allOwnerPools);
+        Map<String, Set<String>> providedProductIds = this.providedProductCache
+            .getProvidedProductIds(allOwnerPools);
 
         for (Pool pool : allOwnerPools) {
             boolean providesProduct = false;
@@ -1471,18 +1511,12 @@ public class CandlepinPoolManager implements PoolManager {
             }
 
             if (providesProduct) {
-                ValidationResult result = enforcer.preEntitlement(consumer, pool, 1, CallerType.BEST_POOLS);
-
-                if (result.hasErrors() || result.hasWarnings()) {
-                    failedResults.put(pool.getId(), result);
-                    log.debug("Pool filtered from candidates due to rules failure: {}", pool.getId());
-                }
-                else {
-                    filteredPools.add(pool);
-                }
+                candidatePools.add(new PoolQuantity(pool, 1));
             }
         }
 
+        this.validateCandidatePools(consumer, candidatePools, filteredPools, failedResults);
+
         // Only throw refused exception if we actually hit the rules:
         if (filteredPools.size() == 0 && !failedResults.isEmpty()) {
             throw new EntitlementRefusedException(failedResults);
@@ -1496,6 +1530,52 @@ public class CandlepinPoolManager implements PoolManager {
         return enforced;
     }
 
+    /**
+     * Runs the pre-entitlement rules for all of the given candidate pools in a single rules
+     * invocation. Pools which pass validation are added to the filtered pool list in their
+     * original order, while the results for pools which fail or produce warnings are added to
+     * the failed results map.
+     *
+     * @param consumer
+     *  The consumer to validate the candidate pools against
+     *
+     * @param candidatePools
+     *  The candidate pools to validate, each with a requested quantity of one
+     *
+     * @param filteredPools
+     *  The list to receive the pools which passed validation
+     *
+     * @param failedResults
+     *  The map to receive the validation results for pools which failed validation
+     */
+    private void validateCandidatePools(Consumer consumer, List<PoolQuantity> candidatePools,
+        List<Pool> filteredPools, Map<String, ValidationResult> failedResults) {
+
+        if (candidatePools.isEmpty()) {
+            return;
+        }
+
+        Map<String, ValidationResult> results = enforcer.preEntitlement(consumer, candidatePools,
+            CallerType.BEST_POOLS);
+
+        for (PoolQuantity candidate : candidatePools) {
+            Pool pool = candidate.getPool();
+            ValidationResult result = results.get(pool.getId());
+
+            if (result != null && (result.hasErrors() || result.hasWarnings())) {
+                failedResults.put(pool.getId(), result);
+                if (log.isDebugEnabled()) {
+                    log.debug("Pool filtered from candidates due to failed rule(s): {}", pool);
+                    log.debug("  warnings: {}", Util.collectionToString(result.getWarnings()));
+                    log.debug("  errors: {}", Util.collectionToString(result.getErrors()));
+                }
+            }
+            else {
+                filteredPools.add(pool);
+            }
+        }
+    }
+
     private Map<String, Integer> convertToMap(List<PoolQuantity> poolQuantities) {
         Map<String, Integer> result = new HashMap<>();
         for (PoolQuantity poolQuantity : poolQuantities) {
@@ -1527,6 +1607,70 @@ public class CandlepinPoolManager implements PoolManager {
         return new ArrayList<>();
     }
 
+    /**
+     * Binds many consumers at once. The chain of every consumer is prepared first, which runs the
+     * pre-entitlement rules and generates the certificates without holding any pool locks. The
+     * pools of all of the prepared chains are then locked together, once each and in id order,
+     * after which the chains are executed one after the other against the locked pools. A consumer
+     * whose bind is refused does not receive any entitlements, but does not prevent the other
+     * consumers from being bound.
+     * <p></p>
+     * Consumers are locked as their chains are prepared, in UUID order, so concurrent bulk binds
+     * acquire their locks in the same order as each other.
+     */
+    @Override
+    @Transactional
+    public BulkBindResults entitleByPools(Map<Consumer, Map<String, Integer>> consumerPoolQuantities) {
+        BulkBindResults results = new BulkBindResults();
+
+        List<Consumer> consumers = new ArrayList<>(consumerPoolQuantities.keySet());
+        Collections.sort(consumers, new Comparator<Consumer>() {
+            @Override
+            public int compare(Consumer c1, Consumer c2) {
+                return c1.getUuid().compareTo(c2.getUuid());
+            }
+        });
+
+        Map<Consumer, BindChain> chains = new LinkedHashMap<>();
+        Set<String> poolIds = new TreeSet<>();
+
+        for (Consumer consumer : consumers) {
+            Map<String, Integer> poolQuantities = consumerPoolQuantities.get(consumer);
+            if (MapUtils.isEmpty(poolQuantities)) {
+                continue;
+            }
+
+            BindChain chain = bindChainFactory.create(consumer, new HashMap<>(poolQuantities),
+                CallerType.BIND);
+
+            if (chain.prepare()) {
+                chains.put(consumer, chain);
+                poolIds.addAll(chain.getPoolIdsToLock());
+            }
+            else {
+                results.addRefusal(consumer, chain.getException());
+            }
+        }
+
+        log.debug("Prepared {} of {} bulk binds; locking {} pools", chains.size(), consumers.size(),
+            poolIds.size());
+
+        // Pools bound outside of the ledger must not hand out quantity already given to its slots
+        Collection<Pool> lockedPools = this.consumptionLedger.lockAndFold(poolIds);
+
+        for (Map.Entry<Consumer, BindChain> entry : chains.entrySet()) {
+            try {
+                results.addEntitlements(entry.getKey(), entry.getValue().execute(lockedPools));
+            }
+            catch (EntitlementRefusedException e) {
+                results.addRefusal(entry.getKey(), e);
+            }
+        }
+
+        poolCurator.flush();
+        return results;
+    }
+
     @Override
     @Transactional
     /*
@@ -1551,6 +1695,7 @@ public class CandlepinPoolManager implements PoolManager {
             throw new RuntimeException("Unable to lock pool for entitlement: " + entitlement);
         }
 
+        this.consumptionLedger.fold(Collections.singletonList(pool));
         log.debug("Locked pool: {} consumed: {}", pool, pool.getConsumed());
 
         ValidationResult result = enforcer.update(consumer, entitlement, change);
@@ -1650,6 +1795,7 @@ public class CandlepinPoolManager implements PoolManager {
             .run();
 
         poolCurator.flush();
+        this.complianceStatusCache.entitlementsChanged(consumer);
 
         return new ArrayList<>(ents);
     }
@@ -1703,11 +1849,13 @@ public class CandlepinPoolManager implements PoolManager {
      * environment, all provided products for each entitlement, and check if any product
      * provides any of the modified content set IDs.
      *
+     * Certificates regenerated in batches are committed as each batch completes, so no
+     * transaction is started here.
+     *
      * @param e Environment where the content was promoted/demoted.
      * @param affectedContent List of content set IDs promoted/demoted.
      */
     @Override
-    @Transactional
     public void regenerateCertificatesOf(Environment e, Set<String> affectedContent, boolean lazy) {
         this.ecGenerator.regenerateCertificatesOf(e, affectedContent, lazy);
     }
@@ -1722,7 +1870,6 @@ public class CandlepinPoolManager implements PoolManager {
     }
 
     @Override
-    @Transactional
     public void regenerateCertificatesOf(Owner owner, String productId, boolean lazy) {
         this.ecGenerator.regenerateCertificatesOf(owner, productId, lazy);
     }
@@ -1766,11 +1913,12 @@ public class CandlepinPoolManager implements PoolManager {
             log.trace("Additional pool IDs: {}", getPoolIds(poolsToDelete));
         }
 
-        List<Pool> poolsToLock = new ArrayList<>();
-        poolsToLock.addAll(poolsToDelete);
+        Set<String> poolIdsToLock = new HashSet<>(getPoolIds(poolsToDelete));
 
         for (Entitlement ent: entsToRevoke) {
-            poolsToLock.add(ent.getPool());
+            if (ent.getPool() != null) {
+                poolIdsToLock.add(ent.getPool().getId());
+            }
 
             // If we are deleting a developer entitlement, be sure to delete the
             // associated pool as well.
@@ -1779,7 +1927,7 @@ public class CandlepinPoolManager implements PoolManager {
             }
         }
 
-        poolCurator.lockAndLoad(poolsToLock);
+        this.consumptionLedger.lockAndFold(poolIdsToLock);
         log.info("Batch revoking {} entitlements", entsToRevoke.size());
         entsToRevoke = new ArrayList<>(entsToRevoke);
 
@@ -1837,6 +1985,7 @@ public class CandlepinPoolManager implements PoolManager {
 
         log.info("Starting batch delete of pools");
         poolCurator.batchDelete(poolsToDelete, alreadyDeletedPools);
+        this.poolsRemoved(poolsToDelete);
         log.info("Starting batch delete of entitlements");
         entitlementCurator.batchDelete(entsToRevoke);
         log.info("Starting delete flush");
@@ -1851,6 +2000,7 @@ public class CandlepinPoolManager implements PoolManager {
         // post unbind actions
         for (Entitlement ent : entsToRevoke) {
             enforcer.postUnbind(ent.getConsumer(), this, ent);
+            this.complianceStatusCache.entitlementsChanged(ent.getConsumer());
         }
 
         if (!regenCertsAndStatuses) {
@@ -1973,7 +2123,8 @@ public class CandlepinPoolManager implements PoolManager {
 
             List<Pool> subPools = poolCurator.getSubPoolForStackIds(entry.getKey(), stackIds);
             if (CollectionUtils.isNotEmpty(subPools)) {
-                poolRules.updatePoolsFromStack(entry.getKey(), subPools, alreadyDeletedPools, true);
+                this.updatePoolIndex(
+                    poolRules.updatePoolsFromStack(entry.getKey(), subPools, alreadyDeletedPools, true));
             }
         }
     }
@@ -2015,6 +2166,7 @@ public class CandlepinPoolManager implements PoolManager {
         }
 
         poolCurator.delete(pool);
+        this.poolsRemoved(Collections.singletonList(pool));
         sink.queueEvent(event);
     }
 
@@ -2092,7 +2244,7 @@ public class CandlepinPoolManager implements PoolManager {
         }
 
         // Lock pools we're going to delete (also, fetch them for event generation/slow deletes)
-        pools = this.poolCurator.lockAndLoadByIds(poolIds);
+        pools = this.consumptionLedger.lockAndFold(poolIds);
 
         if (!pools.isEmpty()) {
             log.info("Locked {} pools for deletion...", pools.size());
@@ -2146,6 +2298,7 @@ public class CandlepinPoolManager implements PoolManager {
             log.info("Deleting {} pools...", pools.size());
             this.poolCurator.batchDelete(pools, alreadyDeletedPoolIds);
             this.poolCurator.flush();
+            this.poolsRemoved(pools);
             log.info("Pools successfully deleted");
 
             if (!entitlements.isEmpty()) {
@@ -2191,6 +2344,7 @@ public class CandlepinPoolManager implements PoolManager {
                     }
                 }
 
+                this.consumptionLedger.fold(poolsToSave);
                 this.poolCurator.updateAll(poolsToSave, false, false);
                 this.consumerCurator.updateAll(consumerStackedEnts.keySet(), false, false);
                 this.consumerCurator.flush();
@@ -2219,8 +2373,8 @@ public class CandlepinPoolManager implements PoolManager {
                                     log.debug("Updating {} stacking pools for consumer: {}",
                                         subPools.size(), consumer);
 
-                                    this.poolRules.updatePoolsFromStack(
-                                        consumer, subPools, alreadyDeletedPoolIds, true);
+                                    this.updatePoolIndex(this.poolRules.updatePoolsFromStack(
+                                        consumer, subPools, alreadyDeletedPoolIds, true));
                                 }
                             }
                         }
@@ -2290,6 +2444,7 @@ public class CandlepinPoolManager implements PoolManager {
     @Override
     public Pool updatePoolQuantity(Pool pool, long adjust) {
         pool = poolCurator.lockAndLoad(pool);
+        this.consumptionLedger.fold(Collections.singletonList(pool));
         long newCount = pool.getQuantity() + adjust;
         if (newCount < 0) {
             newCount = 0;
@@ -2309,6 +2464,7 @@ public class CandlepinPoolManager implements PoolManager {
     @Override
     public Pool setPoolQuantity(Pool pool, long set) {
         pool = poolCurator.lockAndLoad(pool);
+        this.consumptionLedger.fold(Collections.singletonList(pool));
         pool.setQuantity(set);
         return poolCurator.merge(pool);
     }
@@ -2389,6 +2545,7 @@ public class CandlepinPoolManager implements PoolManager {
             if (CollectionUtils.isNotEmpty(subPoolsForStackIds)) {
                 poolRules.updatePoolsFromStack(consumer, subPoolsForStackIds, false);
                 poolCurator.mergeAll(subPoolsForStackIds, false);
+                this.poolsUpdated(subPoolsForStackIds);
             }
         }
         else {
@@ -2416,22 +2573,123 @@ public class CandlepinPoolManager implements PoolManager {
             filters.addAttributeFilter(Pool.Attributes.DEVELOPMENT_POOL, "!true");
         }
 
-        Page<List<Pool>> page = this.poolCurator.listAvailableEntitlementPools(consumer,
-            owner, productId, subscriptionId, activeOn, filters, pageRequest, postFilter,
-            addFuture, onlyFuture, after);
+        if (postFilter && pageRequest != null && pageRequest.isKeyset()) {
+            return this.listFilteredPoolsByKeyset(consumer, key, owner, productId, subscriptionId,
+                activeOn, includeWarnings, filters, pageRequest, addFuture, onlyFuture, after);
+        }
+
+        Page<List<Pool>> page = this.fetchAvailableEntitlementPools(consumer, owner, productId,
+            subscriptionId, activeOn, filters, pageRequest, postFilter, addFuture, onlyFuture, after);
 
         if (consumer == null && key == null) {
             return page;
         }
 
-        // If the consumer was specified, we need to filter out any
-        // pools that the consumer will not be able to attach.
+        List<Pool> resultingPools = this.filterAvailablePools(consumer, key, page.getPageData(),
+            includeWarnings);
+
+        // Set maxRecords once we are done filtering
+        page.setMaxRecords(resultingPools.size());
+
+        if (pageRequest != null && pageRequest.isPaging()) {
+            resultingPools = poolCurator.takeSubList(pageRequest, resultingPools);
+        }
+
+        page.setPageData(resultingPools);
+        return page;
+    }
+
+    /**
+     * Lists a keyset page of the pools available to the given consumer or activation key. Since the
+     * pools are filtered after being fetched, batches of pools are fetched by keyset until enough of
+     * them pass the filters to fill the page, rather than fetching and filtering every pool in the
+     * owner only to return a slice of them.
+     */
+    private Page<List<Pool>> listFilteredPoolsByKeyset(Consumer consumer, ActivationKey key, Owner owner,
+        String productId, String subscriptionId, Date activeOn, boolean includeWarnings,
+        PoolFilterBuilder filters, PageRequest pageRequest, boolean addFuture, boolean onlyFuture,
+        Date after) {
+
+        PageRequest batchRequest = new PageRequest();
+        batchRequest.setPage(pageRequest.getPage());
+        batchRequest.setPerPage(pageRequest.getPerPage());
+        batchRequest.setSortBy(pageRequest.getSortBy());
+        batchRequest.setOrder(pageRequest.getOrder());
+        batchRequest.setCursor(pageRequest.getCursor());
+
+        List<Pool> resultingPools = new ArrayList<>();
+        String nextCursor = null;
+
+        while (true) {
+            Page<List<Pool>> batch = this.fetchAvailableEntitlementPools(consumer, owner, productId,
+                subscriptionId, activeOn, filters, batchRequest, false, addFuture, onlyFuture, after);
+
+            List<Pool> fetched = batch.getPageData();
+            List<Pool> filtered = this.filterAvailablePools(consumer, key, fetched, includeWarnings);
+            int remaining = pageRequest.getPerPage() - resultingPools.size();
+
+            if (filtered.size() >= remaining) {
+                resultingPools.addAll(filtered.subList(0, remaining));
+                Pool last = resultingPools.get(resultingPools.size() - 1);
+
+                // The page continues after its last pool, unless that pool was the last one left
+                if (batch.getNextCursor() != null || last != fetched.get(fetched.size() - 1)) {
+                    nextCursor = this.poolCurator.buildCursor(pageRequest, last);
+                }
+
+                break;
+            }
+
+            resultingPools.addAll(filtered);
+
+            if (batch.getNextCursor() == null) {
+                break;
+            }
+
+            batchRequest.setCursor(batch.getNextCursor());
+        }
+
+        Page<List<Pool>> page = new Page<>();
+        page.setKeyset(true);
+        page.setNextCursor(nextCursor);
+        page.setPageRequest(pageRequest);
+        page.setPageData(resultingPools);
+
+        return page;
+    }
+
+    /**
+     * Fetches the pools matching the given criteria, from the in-memory pool index if it's enabled
+     * and able to answer the query, and from the database otherwise.
+     */
+    private Page<List<Pool>> fetchAvailableEntitlementPools(Consumer consumer, Owner owner,
+        String productId, String subscriptionId, Date activeOn, PoolFilterBuilder filters,
+        PageRequest pageRequest, boolean postFilter, boolean addFuture, boolean onlyFuture, Date after) {
+
+        Page<List<Pool>> page = this.poolIndex.listAvailableEntitlementPools(consumer, owner,
+            (productId != null ? Arrays.asList(productId) : null), subscriptionId, activeOn, filters,
+            pageRequest, postFilter, addFuture, onlyFuture, after);
+
+        if (page == null) {
+            page = this.poolCurator.listAvailableEntitlementPools(consumer, owner, productId,
+                subscriptionId, activeOn, filters, pageRequest, postFilter, addFuture, onlyFuture, after);
+        }
+
+        return page;
+    }
+
+    /**
+     * Filters out any pools that the consumer or activation key will not be able to attach.
+     */
+    private List<Pool> filterAvailablePools(Consumer consumer, ActivationKey key, List<Pool> pools,
+        boolean includeWarnings) {
+
         // If querying for pools available to a specific consumer, we need
         // to do a rules pass to verify the entitlement will be granted.
         // Note that something could change between the time we list a pool as
         // available, and the consumer requests the actual entitlement, and the
         // request still could fail.
-        List<Pool> resultingPools = page.getPageData();
+        List<Pool> resultingPools = pools;
 
         if (consumer != null) {
             resultingPools = enforcer.filterPools(consumer, resultingPools, includeWarnings);
@@ -2441,15 +2699,7 @@ public class CandlepinPoolManager implements PoolManager {
             resultingPools = this.filterPoolsForActKey(key, resultingPools, includeWarnings);
         }
 
-        // Set maxRecords once we are done filtering
-        page.setMaxRecords(resultingPools.size());
-
-        if (pageRequest != null && pageRequest.isPaging()) {
-            resultingPools = poolCurator.takeSubList(pageRequest, resultingPools);
-        }
-
-        page.setPageData(resultingPools);
-        return page;
+        return resultingPools;
     }
 
     /**
@@ -2523,7 +2773,61 @@ public class CandlepinPoolManager implements PoolManager {
 
     @Override
     public void updatePoolsFromStack(Consumer consumer, List<Pool> pools) {
-        poolRules.updatePoolsFromStack(consumer, pools, false);
+        this.updatePoolIndex(poolRules.updatePoolsFromStack(consumer, pools, false));
+    }
+
+    /**
+     * Notifies the pool index and the pool caches of the pools modified by the given pool
+     * updates.
+     */
+    private void updatePoolIndex(Collection<PoolUpdate> updates) {
+        if (updates != null) {
+            List<Pool> pools = new ArrayList<>(updates.size());
+
+            for (PoolUpdate update : updates) {
+                if (update != null && update.getPool() != null) {
+                    pools.add(update.getPool());
+                }
+            }
+
+            this.poolsUpdated(pools);
+        }
+    }
+
+    /**
+     * Notifies the pool index and the pool caches of created or modified pools. The compliance
+     * status cache is only notified once the changes have been committed.
+     */
+    private void poolsUpdated(Collection<Pool> pools) {
+        this.poolIndex.updatePools(pools);
+        this.autobindCache.poolsChanged(pools);
+        this.providedProductCache.poolsChanged(pools);
+
+        final List<Pool> updated = new ArrayList<>(pools);
+        this.poolCurator.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                complianceStatusCache.poolsChanged(updated);
+            }
+        });
+    }
+
+    /**
+     * Notifies the pool index and the pool caches of deleted pools. The compliance status cache is
+     * only notified once the deletion has been committed.
+     */
+    private void poolsRemoved(Collection<Pool> pools) {
+        this.poolIndex.removePools(pools);
+        this.autobindCache.poolsChanged(pools);
+        this.providedProductCache.poolsChanged(pools);
+
+        final List<Pool> removed = new ArrayList<>(pools);
+        this.poolCurator.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                complianceStatusCache.poolsRemoved(removed);
+            }
+        });
     }
 
     public List<Pool> getOwnerSubPoolsForStackId(Owner owner, String stackId) {
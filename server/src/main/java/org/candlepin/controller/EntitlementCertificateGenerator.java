@@ -69,13 +69,14 @@ public class EntitlementCertificateGenerator {
     private ProductCurator productCurator;
     private EventSink eventSink;
     private EventFactory eventFactory;
+    private EntitlementCertificateRegenerator regenerator;
 
 
     @Inject
     public EntitlementCertificateGenerator(EntitlementCertificateCurator entitlementCertificateCurator,
         EntitlementCertServiceAdapter entCertServiceAdapter, EntitlementCurator entitlementCurator,
         PoolCurator poolCurator, EventSink eventSink, EventFactory eventFactory,
-        ProductCurator productCurator) {
+        ProductCurator productCurator, EntitlementCertificateRegenerator regenerator) {
 
         this.entitlementCertificateCurator = entitlementCertificateCurator;
         this.entCertServiceAdapter = entCertServiceAdapter;
@@ -85,6 +86,7 @@ public class EntitlementCertificateGenerator {
         this.eventSink = eventSink;
         this.eventFactory = eventFactory;
         this.productCurator = productCurator;
+        this.regenerator = regenerator;
     }
 
     /**
@@ -273,7 +275,9 @@ public class EntitlementCertificateGenerator {
     }
 
     /**
-     * Regenerates the certificates for the specified contents in a given environment.
+     * Regenerates the certificates for the specified contents in a given environment. When batched
+     * regeneration is enabled, certificates regenerated immediately are committed in batches,
+     * unless this is called within a transaction.
      *
      * @param environment
      *  The environment in which the entitlements should be regenerated
@@ -285,7 +289,6 @@ public class EntitlementCertificateGenerator {
      *  Whether or not to generate the certificate immediately, or mark them dirty and allow them to
      *  be regenerated on-demand
      */
-    @Transactional
     public void regenerateCertificatesOf(Environment environment, Collection<String> contentIds,
         boolean lazy) {
 
@@ -316,12 +319,24 @@ public class EntitlementCertificateGenerator {
         }
 
         log.info("Found {} certificates to regenerate.", entsToRegen.size());
-        this.regenerateCertificatesOf(entsToRegen, lazy);
+
+        if (!lazy && this.regenerator.isEnabled()) {
+            List<String> entitlementIds = new LinkedList<>();
+            for (Entitlement entitlement : entsToRegen) {
+                entitlementIds.add(entitlement.getId());
+            }
+
+            this.regenerator.regenerate(entitlementIds);
+        }
+        else {
+            this.regenerateCertificatesOf(entsToRegen, lazy);
+        }
     }
 
     /**
      * Regenerates the entitlement certificates of all entitlements for pools using the specified
-     * product.
+     * product. When batched regeneration is enabled, certificates regenerated immediately are
+     * committed in batches, unless this is called within a transaction.
      *
      * @param owner
      *  The owner for which to regenerate entitlement certificates
@@ -333,17 +348,35 @@ public class EntitlementCertificateGenerator {
      *  Whether or not to generate the certificate immediately, or mark it dirty and allow it to be
      *  regenerated on-demand
      */
-    @Transactional
     public void regenerateCertificatesOf(Owner owner, String productId, boolean lazy) {
         List<Pool> pools = this.poolCurator.listAvailableEntitlementPools(
             null, owner, productId, new Date()
         );
 
+        if (!lazy && this.regenerator.isEnabled()) {
+            this.regenerator.regenerate(this.getEntitlementIdsOf(pools));
+        }
+        else {
+            this.regenerateCertificatesOfPools(pools, lazy);
+        }
+    }
+
+    @Transactional
+    void regenerateCertificatesOfPools(Collection<Pool> pools, boolean lazy) {
         for (Pool pool : pools) {
             this.regenerateCertificatesOf(pool.getEntitlements(), lazy);
         }
     }
 
+    private Collection<String> getEntitlementIdsOf(Collection<Pool> pools) {
+        List<String> poolIds = new LinkedList<>();
+        for (Pool pool : pools) {
+            poolIds.add(pool.getId());
+        }
+
+        return this.poolCurator.getEntitlementIdsForPools(poolIds);
+    }
+
     /**
      * Regenerates the entitlement certificates of all entitlements for pools using the specified
      * product.
@@ -358,7 +391,6 @@ public class EntitlementCertificateGenerator {
      *  Whether or not to generate the certificate immediately, or mark it dirty and allow it to be
      *  regenerated on-demand
      */
-    @Transactional
     public void regenerateCertificatesOf(Owner owner, Product product, boolean lazy) {
         this.regenerateCertificatesOf(owner, product.getId(), lazy);
     }
@@ -404,6 +436,11 @@ public class EntitlementCertificateGenerator {
             }
         }
 
+        if (!lazy && this.regenerator.isEnabled()) {
+            this.regenerator.regenerate(this.getEntitlementIdsOf(pools));
+            return;
+        }
+
         for (Pool pool : pools) {
             this.regenerateCertificatesOf(pool.getEntitlements(), lazy);
         }
@@ -0,0 +1,506 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.controller;
+
+import org.candlepin.audit.EventFactory;
+import org.candlepin.audit.EventSink;
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.model.CertificateSerial;
+import org.candlepin.model.CertificateSerialCurator;
+import org.candlepin.model.Entitlement;
+import org.candlepin.model.EntitlementCertificate;
+import org.candlepin.model.EntitlementCertificateCurator;
+import org.candlepin.model.EntitlementCurator;
+import org.candlepin.service.EntitlementCertServiceAdapter;
+import org.candlepin.util.CertificateSizeException;
+
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.persist.Transactional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * The EntitlementCertificateRegenerator regenerates the certificates of large numbers of
+ * entitlements at once, such as those affected by a change to a product or to the content of an
+ * environment.
+ * <p></p>
+ * Entitlements are processed in batches of their IDs. For each batch, everything requiring the
+ * database is done on the calling thread, while the certificates are signed on a pool of worker
+ * threads; the new certificates and serials of the batch are then written back together, and the
+ * batch committed on its own when no transaction encloses the regeneration.
+ * <p></p>
+ * Before any certificate is regenerated, every affected entitlement is marked dirty. The dirty
+ * flag is cleared as each batch is committed, so should regeneration be interrupted, the
+ * entitlements left to regenerate remain dirty: they are regenerated on demand as before, and
+ * {@link #resume()} regenerates the remainder, skipping the entitlements already done.
+ * <p></p>
+ * Entitlements marked dirty for lazy regeneration can also be drained in the background with
+ * {@link #drain(int, double)}, which regenerates them soonest expected check-in first while
+ * keeping within a share of the server's processors. Consumers which have not checked in for
+ * longer than the configured threshold are not expected to, and their entitlements are left to be
+ * regenerated on demand. Entitlements whose certificates could not be regenerated by an earlier
+ * drain are only retried once no other dirty entitlement is waiting, so they cannot hold back
+ * those of consumers still checking in.
+ */
+@Singleton
+public class EntitlementCertificateRegenerator {
+    private static Logger log = LoggerFactory.getLogger(EntitlementCertificateRegenerator.class);
+
+    private final EntitlementCurator entitlementCurator;
+    private final EntitlementCertificateCurator entitlementCertificateCurator;
+    private final CertificateSerialCurator serialCurator;
+    private final EntitlementCertServiceAdapter entCertServiceAdapter;
+    private final EventSink eventSink;
+    private final EventFactory eventFactory;
+
+    private final boolean enabled;
+    private final int threads;
+    private final int batchSize;
+    private final int staleCheckinDays;
+
+    private final Set<String> drainFailures;
+
+    private final AtomicLong runs;
+    private final AtomicLong batches;
+    private final AtomicLong regenerated;
+    private final AtomicLong failed;
+    private final AtomicLong skipped;
+    private final AtomicLong signingTime;
+    private final AtomicLong persistingTime;
+    private final AtomicLong runningTime;
+    private final AtomicLong drained;
+    private final AtomicLong throttledTime;
+
+    private volatile double lastThroughput;
+
+    @Inject
+    public EntitlementCertificateRegenerator(Configuration config, EntitlementCurator entitlementCurator,
+        EntitlementCertificateCurator entitlementCertificateCurator, CertificateSerialCurator serialCurator,
+        EntitlementCertServiceAdapter entCertServiceAdapter, EventSink eventSink,
+        EventFactory eventFactory) {
+
+        this.entitlementCurator = entitlementCurator;
+        this.entitlementCertificateCurator = entitlementCertificateCurator;
+        this.serialCurator = serialCurator;
+        this.entCertServiceAdapter = entCertServiceAdapter;
+        this.eventSink = eventSink;
+        this.eventFactory = eventFactory;
+
+        int threads = config.getInt(ConfigProperties.CERT_REGENERATION_THREADS, 0);
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.batchSize = Math.max(config.getInt(ConfigProperties.CERT_REGENERATION_BATCH_SIZE, 100), 1);
+        this.enabled = config.getBoolean(ConfigProperties.CERT_REGENERATION_ENABLED, false);
+        this.staleCheckinDays = config.getInt(ConfigProperties.CERT_DRAINER_STALE_CHECKIN_DAYS, 7);
+
+        this.drainFailures = ConcurrentHashMap.newKeySet();
+
+        this.runs = new AtomicLong();
+        this.batches = new AtomicLong();
+        this.regenerated = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.skipped = new AtomicLong();
+        this.signingTime = new AtomicLong();
+        this.persistingTime = new AtomicLong();
+        this.runningTime = new AtomicLong();
+        this.drained = new AtomicLong();
+        this.throttledTime = new AtomicLong();
+    }
+
+    /**
+     * Checks if batched regeneration has been enabled by configuration.
+     *
+     * @return
+     *  true if batched regeneration is enabled; false otherwise
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Regenerates the certificates of the given entitlements. The entitlements are first marked
+     * dirty, then regenerated in batches.
+     *
+     * @param entitlementIds
+     *  The IDs of the entitlements for which to regenerate certificates
+     *
+     * @return
+     *  the number of entitlements whose certificates were regenerated
+     */
+    public int regenerate(Collection<String> entitlementIds) {
+        if (entitlementIds == null || entitlementIds.isEmpty()) {
+            return 0;
+        }
+
+        // Sorted, so the batches follow the order in which dirty entitlements are resumed
+        List<String> ids = new ArrayList<>(new TreeSet<>(entitlementIds));
+
+        log.info("Regenerating certificates of {} entitlement(s) in batches of {} on {} thread(s)",
+            ids.size(), this.batchSize, this.threads);
+
+        this.entitlementCurator.markEntitlementsDirty(ids);
+
+        long start = System.nanoTime();
+        int count = 0;
+
+        ExecutorService executor = this.createExecutor(ids.size());
+        try {
+            for (List<String> batch : Iterables.partition(ids, this.batchSize)) {
+                count += this.regenerateBatch(batch, executor, null);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            this.completeRun(count, System.nanoTime() - start);
+        }
+
+        return count;
+    }
+
+    /**
+     * Regenerates the certificates of every entitlement marked dirty, such as those left over by
+     * an interrupted regeneration.
+     *
+     * @return
+     *  the number of entitlements whose certificates were regenerated
+     */
+    public int resume() {
+        long start = System.nanoTime();
+        int count = 0;
+
+        ExecutorService executor = this.createExecutor(this.batchSize);
+        try {
+            String lastId = null;
+            List<String> batch;
+
+            while (!(batch = this.entitlementCurator.listDirtyEntitlementIds(lastId, this.batchSize))
+                .isEmpty()) {
+
+                count += this.regenerateBatch(batch, executor, null);
+                lastId = batch.get(batch.size() - 1);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            this.completeRun(count, System.nanoTime() - start);
+        }
+
+        log.info("Regenerated certificates of {} dirty entitlement(s)", count);
+        return count;
+    }
+
+    /**
+     * Regenerates the certificates of dirty entitlements, soonest expected check-in first, so
+     * consumers checking in find their certificates already regenerated rather than waiting on
+     * their regeneration.
+     * <p></p>
+     * Entitlements of consumers which have not checked in within the configured number of days
+     * are skipped. Entitlements whose certificates could not be regenerated by an earlier drain,
+     * such as those too large for a certificate, are only retried after every other dirty
+     * entitlement.
+     * <p></p>
+     * The CPU budget is the share of the server's processors the regeneration may keep busy. It
+     * bounds the number of signing threads, and after each batch the regeneration pauses long
+     * enough that, were every thread busy throughout the batch, its processor time would remain
+     * within the budget.
+     *
+     * @param limit
+     *  The maximum number of entitlements to regenerate
+     *
+     * @param cpuBudget
+     *  The share of the server's processors to use, from 0 to 1
+     *
+     * @return
+     *  the number of entitlements whose certificates were regenerated
+     */
+    public int drain(int limit, double cpuBudget) {
+        if (limit < 1 || !(cpuBudget > 0)) {
+            return 0;
+        }
+
+        List<String> ids = this.listDrainableIds(limit);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        double capacity = Math.min(cpuBudget, 1.0) * Runtime.getRuntime().availableProcessors();
+        int threads = (int) Math.max(1, Math.min(this.threads, Math.ceil(capacity)));
+        double pauseRatio = Math.max(threads / capacity - 1.0, 0.0);
+
+        log.info("Draining certificates of {} dirty entitlement(s) on {} thread(s)", ids.size(), threads);
+
+        long start = System.nanoTime();
+        int count = 0;
+
+        ExecutorService executor = this.createExecutor(threads);
+        try {
+            for (List<String> batch : Iterables.partition(ids, this.batchSize)) {
+                long batchStart = System.nanoTime();
+                count += this.regenerateBatch(batch, executor, this.drainFailures);
+
+                long pause = (long) ((System.nanoTime() - batchStart) * pauseRatio / 1000000);
+                if (pause > 0) {
+                    this.throttledTime.addAndGet(pause * 1000000);
+                    Thread.sleep(pause);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            log.warn("Draining of dirty entitlements interrupted", e);
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            executor.shutdownNow();
+            this.drained.addAndGet(count);
+            this.completeRun(count, System.nanoTime() - start);
+        }
+
+        log.info("Drained certificates of {} dirty entitlement(s)", count);
+        return count;
+    }
+
+    /**
+     * Lists the IDs of up to limit dirty entitlements to drain: those of consumers expected to
+     * check in, soonest first, followed by any which failed to regenerate in earlier drains.
+     */
+    private List<String> listDrainableIds(int limit) {
+        Date checkedInSince = null;
+        if (this.staleCheckinDays > 0) {
+            checkedInSince = new Date(System.currentTimeMillis() -
+                TimeUnit.DAYS.toMillis(this.staleCheckinDays));
+        }
+
+        // Forget failures which have since been regenerated on demand, or deleted
+        if (!this.drainFailures.isEmpty()) {
+            this.drainFailures.retainAll(
+                this.entitlementCurator.filterDirtyEntitlementIds(new ArrayList<>(this.drainFailures)));
+        }
+
+        // Enough are listed that, with every previous failure among them, limit remain
+        List<String> listed = this.entitlementCurator.listDirtyEntitlementIdsByCheckin(checkedInSince,
+            limit + this.drainFailures.size());
+
+        List<String> ids = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+
+        for (String id : listed) {
+            if (this.drainFailures.contains(id)) {
+                failures.add(id);
+            }
+            else if (ids.size() < limit) {
+                ids.add(id);
+            }
+        }
+
+        for (String id : failures) {
+            if (ids.size() >= limit) {
+                break;
+            }
+
+            ids.add(id);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Regenerates the certificates of those of the given entitlements still marked dirty, signing
+     * the certificates with the given executor.
+     *
+     * @param entitlementIds
+     *  The IDs of the entitlements of the batch
+     *
+     * @param executor
+     *  The executor on which to sign the certificates
+     *
+     * @param failures
+     *  A set to which the IDs of entitlements whose certificates could not be regenerated are
+     *  added, and from which those regenerated are removed; may be null
+     *
+     * @return
+     *  the number of entitlements whose certificates were regenerated
+     */
+    @Transactional
+    protected int regenerateBatch(List<String> entitlementIds, ExecutorService executor,
+        Set<String> failures) {
+
+        List<String> dirtyIds = this.entitlementCurator.filterDirtyEntitlementIds(entitlementIds);
+        List<Entitlement> entitlements = dirtyIds.isEmpty() ?
+            new ArrayList<>() :
+            this.entitlementCurator.listAllByIds(dirtyIds).list();
+
+        // Entitlements already regenerated, or deleted in the meantime, are skipped
+        this.skipped.addAndGet(entitlementIds.size() - entitlements.size());
+        this.batches.incrementAndGet();
+
+        if (entitlements.isEmpty()) {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        Map<String, EntitlementCertificate> generated;
+
+        try {
+            generated = this.entCertServiceAdapter.generateEntitlementCerts(entitlements, executor);
+        }
+        catch (CertificateSizeException cse) {
+            throw cse;
+        }
+        catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+
+        long signed = System.nanoTime();
+        this.signingTime.addAndGet(signed - start);
+
+        List<CertificateSerial> serials = new ArrayList<>();
+        List<EntitlementCertificate> certs = new ArrayList<>();
+        List<EntitlementCertificate> revoked = new ArrayList<>();
+        List<Entitlement> regenerated = new ArrayList<>();
+        List<String> regeneratedIds = new ArrayList<>();
+
+        for (Entitlement entitlement : entitlements) {
+            EntitlementCertificate cert = generated.get(entitlement.getId());
+
+            if (cert == null) {
+                // The old certificates are kept, and the entitlement left dirty
+                entitlement.setDirty(true);
+                this.failed.incrementAndGet();
+
+                if (failures != null) {
+                    failures.add(entitlement.getId());
+                }
+
+                continue;
+            }
+
+            revoked.addAll(entitlement.getCertificates());
+            cert.setEntitlement(entitlement);
+
+            serials.add(cert.getSerial());
+            certs.add(cert);
+            regenerated.add(entitlement);
+            regeneratedIds.add(entitlement.getId());
+        }
+
+        // Serials need to be saved before the certs.
+        this.serialCurator.saveOrUpdateAll(serials, true, false);
+
+        for (EntitlementCertificate cert : revoked) {
+            log.debug("Deleting entitlementCertificate: #{}", cert.getId());
+            this.entitlementCertificateCurator.delete(cert);
+        }
+
+        for (EntitlementCertificate cert : certs) {
+            cert.getEntitlement().getCertificates().add(cert);
+        }
+
+        this.entitlementCertificateCurator.saveOrUpdateAll(certs, true, false);
+
+        for (Entitlement entitlement : regenerated) {
+            entitlement.setDirty(false);
+            this.eventSink.queueEvent(this.eventFactory.entitlementChanged(entitlement));
+        }
+
+        // The entitlements may have been loaded before they were marked dirty, so the flag is
+        // cleared in the database directly
+        this.entitlementCurator.markEntitlementsClean(regeneratedIds);
+
+        // Flush the batch and release it from the session, so that regenerating many batches in
+        // one unit of work neither accumulates their entities nor re-checks them on every flush
+        this.entitlementCertificateCurator.flush();
+        this.entitlementCertificateCurator.evictAll(certs);
+        this.serialCurator.evictAll(serials);
+        this.entitlementCurator.evictAll(entitlements);
+
+        if (failures != null) {
+            failures.removeAll(regeneratedIds);
+        }
+
+        this.persistingTime.addAndGet(System.nanoTime() - signed);
+        this.regenerated.addAndGet(regenerated.size());
+
+        log.debug("Regenerated certificates of {} of {} entitlement(s)", regenerated.size(),
+            entitlementIds.size());
+
+        return regenerated.size();
+    }
+
+    private ExecutorService createExecutor(int entitlements) {
+        return Executors.newFixedThreadPool(Math.max(Math.min(this.threads, entitlements), 1),
+            new ThreadFactoryBuilder()
+                .setNameFormat("cert-regeneration-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    private void completeRun(int count, long elapsed) {
+        this.runs.incrementAndGet();
+        this.runningTime.addAndGet(elapsed);
+        this.lastThroughput = elapsed > 0 ? count * 1000000000.0 / elapsed : 0.0;
+    }
+
+    /**
+     * Fetches the statistics collected by this regenerator since startup. Times are reported in
+     * milliseconds, and throughputs in certificates per second.
+     *
+     * @return
+     *  a map of statistic names to values
+     */
+    public Map<String, Object> getStatistics() {
+        long regenerated = this.regenerated.get();
+        long running = this.runningTime.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", this.enabled);
+        stats.put("threads", this.threads);
+        stats.put("batch_size", this.batchSize);
+        stats.put("runs", this.runs.get());
+        stats.put("batches", this.batches.get());
+        stats.put("regenerated", regenerated);
+        stats.put("failed", this.failed.get());
+        stats.put("skipped", this.skipped.get());
+        stats.put("signing_ms", this.signingTime.get() / 1000000);
+        stats.put("persisting_ms", this.persistingTime.get() / 1000000);
+        stats.put("running_ms", running / 1000000);
+        stats.put("drained", this.drained.get());
+        stats.put("drain_failures", this.drainFailures.size());
+        stats.put("throttled_ms", this.throttledTime.get() / 1000000);
+        stats.put("throughput_per_second", running > 0 ? regenerated * 1000000000.0 / running : 0.0);
+        stats.put("last_run_throughput_per_second", this.lastThroughput);
+
+        return stats;
+    }
+}
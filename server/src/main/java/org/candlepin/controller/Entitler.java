@@ -17,6 +17,7 @@ package org.candlepin.controller;
 import org.candlepin.audit.Event;
 import org.candlepin.audit.EventFactory;
 import org.candlepin.audit.EventSink;
+import org.candlepin.bind.BulkBindResults;
 import org.candlepin.common.config.Configuration;
 import org.candlepin.common.exceptions.BadRequestException;
 import org.candlepin.common.exceptions.ForbiddenException;
@@ -151,6 +152,54 @@ public class Entitler {
         }
     }
 
+    /**
+     * Binds many consumers to pools at once. Consumers whose binds are refused do not prevent the
+     * others from being bound; the reasons they were refused can be translated to messages with
+     * getRefusalMessages.
+     *
+     * @param consumerPoolQuantities
+     *  A map of consumers to the pool IDs and quantities they are to be bound to
+     *
+     * @return
+     *  the entitlements created for each consumer, and the reasons any binds were refused
+     */
+    public BulkBindResults bindByPoolQuantities(Map<Consumer, Map<String, Integer>> consumerPoolQuantities) {
+        try {
+            BulkBindResults results = poolManager.entitleByPools(consumerPoolQuantities);
+            log.debug("Bulk bind created entitlements for {} consumers; refused {} consumers",
+                results.getEntitlements().size(), results.getRefusals().size());
+
+            return results;
+        }
+        catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Translates the reasons a bind was refused into messages, one for each pool which could not
+     * be bound.
+     *
+     * @param exception
+     *  The exception thrown or recorded when the bind was refused
+     *
+     * @return
+     *  a list of messages describing why the bind was refused
+     */
+    public List<String> getRefusalMessages(EntitlementRefusedException exception) {
+        List<String> messages = new ArrayList<>();
+
+        for (Entry<String, ValidationResult> entry : exception.getResults().entrySet()) {
+            if (!entry.getValue().isSuccessful()) {
+                Pool pool = poolCurator.find(entry.getKey());
+                messages.add(messageTranslator.poolErrorToMessage(pool,
+                    entry.getValue().getErrors().get(0)));
+            }
+        }
+
+        return messages;
+    }
+
     public void adjustEntitlementQuantity(Consumer consumer, Entitlement ent,
         Integer quantity) {
         // Attempt to adjust an entitlement:
@@ -564,6 +613,63 @@ public class Entitler {
         return revokeUnmappedGuestEntitlements(null);
     }
 
+    /**
+     * Heals a chunk of an owner's consumers within a single transaction. The consumers are locked
+     * in the order of their IDs before any of them is healed, so concurrent chunks acquire their
+     * consumer locks in a consistent order. Consumers whose binds are refused are skipped, and do
+     * not affect the rest of the chunk; any other failure rolls back the chunk as a whole.
+     *
+     * @param owner
+     *  The owner of the consumers to heal
+     *
+     * @param consumerUuids
+     *  The UUIDs of the consumers to heal
+     *
+     * @param entitleDate
+     *  The date on which the consumers should be compliant
+     *
+     * @throws AutobindDisabledForOwnerException
+     *  if auto-attach is disabled for the owner
+     *
+     * @return
+     *  the number of consumers healed
+     */
+    @Transactional
+    public int healConsumers(Owner owner, Collection<String> consumerUuids, Date entitleDate)
+        throws AutobindDisabledForOwnerException {
+
+        if (consumerUuids == null || consumerUuids.isEmpty()) {
+            return 0;
+        }
+
+        // Checked once for the chunk, rather than by failing the bind of every consumer in it
+        if (owner.isAutobindDisabled()) {
+            throw new AutobindDisabledForOwnerException(i18n.tr("Auto-attach is disabled for owner \"{0}\".",
+                owner.getKey()));
+        }
+
+        List<Consumer> consumers = this.consumerCurator.findByUuidsAndOwner(consumerUuids, owner).list();
+        int healed = 0;
+
+        for (Consumer consumer : this.consumerCurator.lockAndLoad(consumers)) {
+            // Do not send in product IDs. CandlepinPoolManager will take care of looking up the
+            // non or partially compliant products to bind.
+            AutobindData data = AutobindData.create(consumer).on(entitleDate);
+
+            try {
+                this.sendEvents(this.bindByProducts(data, true));
+                ++healed;
+            }
+            catch (ForbiddenException e) {
+                // Refused binds are reported as a ForbiddenException, and are not retried
+                log.debug("Healing failed for UUID \"{}\" with message: {}", consumer.getUuid(),
+                    e.getMessage());
+            }
+        }
+
+        return healed;
+    }
+
     public void sendEvents(List<Entitlement> entitlements) {
         if (entitlements != null) {
             for (Entitlement entitlement : entitlements) {
@@ -0,0 +1,385 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.controller;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.model.Consumer;
+import org.candlepin.model.Pool;
+import org.candlepin.model.PoolConsumptionSlot;
+import org.candlepin.model.PoolConsumptionSlotCurator;
+import org.candlepin.model.PoolCurator;
+
+import com.google.common.collect.Iterables;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.persist.Transactional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+
+/**
+ * The PoolConsumptionLedger records the consumption of hot pools without taking the pool's row
+ * lock for every bind.
+ * <p></p>
+ * The unconsumed quantity of a pool is split across a number of slots (stripes). A bind reserves
+ * its quantity on a single slot with a conditional update, which the database only applies while
+ * the slot has enough unreserved capacity; concurrent binds against the pool therefore only
+ * contend when they land on the same slot. The pool's row is only locked when its slots are first
+ * allocated, or when no single slot can satisfy a request, at which point the slots are folded
+ * back into the pool and the remaining quantity is redistributed.
+ * <p></p>
+ * Since the sum of the slot capacities never exceeds the quantity left unconsumed on the pool, a
+ * pool recorded in the ledger can never be oversubscribed. The consumption recorded on the slots
+ * is folded back into the pool's consumed count whenever the pool manager locks the pool, such as
+ * when entitlements are revoked or the pool's quantity changes, and periodically by the
+ * PoolConsumptionFoldJob. Binds which are not recorded in the ledger, such as those of
+ * distributors, fold the slots of the pools they lock before checking the quantity left, so
+ * they cannot take quantity which has already been handed to the slots.
+ * <p></p>
+ * Until folded, the pool's consumed count lags behind its actual consumption. Anything reporting
+ * or checking a pool's consumption, such as the pool listings and the rules, reads
+ * {@link Pool#getTotalConsumed()}, which includes the consumption recorded on the slots.
+ * <p></p>
+ * To avoid deadlocks, every lock is taken in the same order: pools in order of their IDs, and for
+ * each pool, its row before its slots. Pools are therefore locked and folded one at a time by
+ * {@link #lockAndFold(Collection)} rather than all rows first, binds reserve their pools in order
+ * of their IDs, and a transaction reserves on each pool at most once, as a second reservation
+ * could need the pool's row while the transaction already holds one of its slots. Binds of many
+ * consumers in a single transaction lock their pools instead of reserving on the slots.
+ */
+@Singleton
+public class PoolConsumptionLedger {
+    private static Logger log = LoggerFactory.getLogger(PoolConsumptionLedger.class);
+
+    private static final int FOLD_BLOCK_SIZE = 100;
+
+    private PoolCurator poolCurator;
+    private PoolConsumptionSlotCurator slotCurator;
+
+    private int stripes;
+    private long minQuantity;
+
+    @Inject
+    public PoolConsumptionLedger(PoolCurator poolCurator, PoolConsumptionSlotCurator slotCurator,
+        Configuration config) {
+
+        this.poolCurator = poolCurator;
+        this.slotCurator = slotCurator;
+
+        this.stripes = Math.max(0, config.getInt(ConfigProperties.POOL_CONSUMPTION_STRIPES, 0));
+        this.minQuantity = config.getLong(ConfigProperties.POOL_CONSUMPTION_MIN_QUANTITY, 100L);
+    }
+
+    /**
+     * Checks if the ledger is enabled
+     *
+     * @return
+     *  true if the consumption of hot pools is recorded in the ledger; false otherwise
+     */
+    public boolean isEnabled() {
+        return this.stripes > 0;
+    }
+
+    /**
+     * Checks if the consumption of the given pool by the given consumer is recorded in the ledger
+     * rather than on the pool itself. Unlimited pools, pools smaller than the configured minimum
+     * quantity, and binds by distributors or share consumers, which also update the pool's
+     * exported or shared counts, always use the pool's row lock.
+     *
+     * @param consumer
+     *  The consumer binding to the pool
+     *
+     * @param pool
+     *  The pool being bound
+     *
+     * @return
+     *  true if the consumption is recorded in the ledger; false otherwise
+     */
+    public boolean records(Consumer consumer, Pool pool) {
+        return this.isEnabled() && consumer != null && pool != null && pool.getId() != null &&
+            pool.getQuantity() != null && !pool.isUnlimited() && pool.getQuantity() >= this.minQuantity &&
+            !consumer.isManifestDistributor() && !consumer.isShare();
+    }
+
+    /**
+     * Reserves the given quantity of the pool. The reservation is made on one of the pool's
+     * slots, falling back to locking the pool and redistributing its remaining quantity when no
+     * slot can satisfy the quantity. A transaction must not reserve on the same pool twice.
+     *
+     * @param pool
+     *  The pool on which to reserve the quantity
+     *
+     * @param quantity
+     *  The quantity to reserve
+     *
+     * @return
+     *  the reservation, or null if the pool does not have enough quantity left
+     */
+    public Reservation reserve(Pool pool, long quantity) {
+        if (quantity <= 0) {
+            return new Reservation(pool, null, 0L);
+        }
+
+        Map<String, Long> capacities = this.slotCurator.getAvailableCapacities(pool.getId());
+        if (!capacities.isEmpty()) {
+            // Start on a random slot to spread concurrent binds across the stripes
+            List<String> slotIds = new ArrayList<>(capacities.keySet());
+            int offset = ThreadLocalRandom.current().nextInt(slotIds.size());
+
+            for (int i = 0; i < slotIds.size(); ++i) {
+                String slotId = slotIds.get((offset + i) % slotIds.size());
+
+                if (capacities.get(slotId) >= quantity && this.slotCurator.reserve(slotId, quantity)) {
+                    pool.setLedgerConsumed(pool.getLedgerConsumed() + quantity);
+                    return new Reservation(pool, slotId, quantity);
+                }
+            }
+        }
+
+        return this.redistribute(pool, quantity) ? new Reservation(pool, null, quantity) : null;
+    }
+
+    /**
+     * Releases a reservation made by the current transaction. A reservation held on a slot is
+     * released from that slot alone, which the transaction already holds, so that releasing never
+     * waits on the slots of other binds.
+     *
+     * @param reservation
+     *  The reservation to release
+     */
+    public void release(Reservation reservation) {
+        if (reservation == null || reservation.getQuantity() <= 0) {
+            return;
+        }
+
+        long quantity = reservation.getQuantity();
+        if (reservation.getSlotId() != null && this.slotCurator.release(reservation.getSlotId(), quantity)) {
+            Pool pool = reservation.getPool();
+            pool.setLedgerConsumed(Math.max(0L, pool.getLedgerConsumed() - quantity));
+            return;
+        }
+
+        // The reservation was recorded on the pool when redistributing, or the slot has since been
+        // folded back into the pool by this transaction; either way its row is already held
+        Pool locked = this.poolCurator.lockAndLoad(reservation.getPool());
+        this.fold(Collections.singletonList(locked));
+        locked.setConsumed(locked.getConsumed() - quantity);
+        this.poolCurator.flush();
+    }
+
+    /**
+     * Locks the pool and its slots, folds the consumption recorded on the slots into the pool,
+     * records the given quantity directly on the pool and splits what is left across the slots.
+     * The pool's row is locked before any of its slots, as everywhere else; the calling
+     * transaction holds none of the pool's slots, as it reserves on each pool only once.
+     */
+    private boolean redistribute(Pool pool, long quantity) {
+        Pool locked = this.poolCurator.lockAndLoad(pool);
+        if (locked == null) {
+            return false;
+        }
+
+        List<PoolConsumptionSlot> slots = this.slotCurator
+            .lockByPoolIds(Collections.singletonList(locked.getId()));
+
+        long consumed = locked.getConsumed();
+        for (PoolConsumptionSlot slot : slots) {
+            consumed += slot.getConsumed();
+        }
+
+        long available = locked.getQuantity() - consumed;
+        if (available < quantity) {
+            log.debug("Pool {} has {} unconsumed; unable to reserve {}", locked.getId(), available, quantity);
+            return false;
+        }
+
+        locked.setConsumed(consumed + quantity);
+        locked.setLedgerConsumed(0L);
+
+        long remaining = available - quantity;
+        int count = (int) Math.min(this.stripes, remaining);
+
+        // Slots are reused in place, as their pool and stripe uniquely identify them
+        for (int stripe = 0; stripe < Math.max(count, slots.size()); ++stripe) {
+            if (stripe >= count) {
+                this.slotCurator.delete(slots.get(stripe));
+                continue;
+            }
+
+            long capacity = remaining / count + (stripe < remaining % count ? 1 : 0);
+
+            if (stripe < slots.size()) {
+                PoolConsumptionSlot slot = slots.get(stripe);
+                slot.setStripe(stripe);
+                slot.setCapacity(capacity);
+                slot.setConsumed(0L);
+                slot.setPoolQuantity(locked.getQuantity());
+            }
+            else {
+                this.slotCurator.create(
+                    new PoolConsumptionSlot(locked.getId(), stripe, capacity, locked.getQuantity()), false);
+            }
+        }
+
+        this.slotCurator.flush();
+        log.debug("Redistributed {} unconsumed across {} slots of pool {}", remaining, count, locked.getId());
+
+        return true;
+    }
+
+    /**
+     * Locks the given pools and folds the consumption recorded on their slots back into them.
+     * The pools are locked one at a time in order of their IDs, each immediately followed by its
+     * slots, so that a bind holding a slot of one pool can still lock the pools it reserves on
+     * next. Locking every pool before any of their slots could otherwise deadlock with it.
+     *
+     * @param poolIds
+     *  The IDs of the pools to lock
+     *
+     * @return
+     *  the locked pools, in order of their IDs
+     */
+    public List<Pool> lockAndFold(Collection<String> poolIds) {
+        List<Pool> locked = new ArrayList<>();
+        if (poolIds == null || poolIds.isEmpty()) {
+            return locked;
+        }
+
+        if (!this.isEnabled()) {
+            // Nothing reserves on slots while the ledger is disabled, so the pools can be locked
+            // together; any slots left from before it was disabled are still folded
+            locked.addAll(this.poolCurator.lockAndLoadByIds(poolIds));
+            this.fold(locked);
+
+            return locked;
+        }
+
+        Set<String> sortedIds = new TreeSet<>();
+        for (String poolId : poolIds) {
+            if (poolId != null) {
+                sortedIds.add(poolId);
+            }
+        }
+
+        for (String poolId : sortedIds) {
+            Pool pool = this.poolCurator.lockAndLoadById(poolId);
+            if (pool != null) {
+                this.fold(Collections.singletonList(pool));
+                locked.add(pool);
+            }
+        }
+
+        return locked;
+    }
+
+    /**
+     * Folds the consumption recorded on the slots of the given pools back into the pools'
+     * consumed counts, and removes the slots. The pools must have been locked by the caller, or
+     * be about to be written by it. Callers locking several pools should use
+     * {@link #lockAndFold(Collection)} instead, which takes the locks in a deadlock-free order.
+     *
+     * @param pools
+     *  The pools for which to fold consumption
+     */
+    public void fold(Collection<Pool> pools) {
+        if (pools == null || pools.isEmpty()) {
+            return;
+        }
+
+        Map<String, Pool> poolMap = new HashMap<>();
+        for (Pool pool : pools) {
+            if (pool != null && pool.getId() != null) {
+                poolMap.put(pool.getId(), pool);
+                pool.setLedgerConsumed(0L);
+            }
+        }
+
+        for (PoolConsumptionSlot slot : this.slotCurator.lockByPoolIds(poolMap.keySet())) {
+            Pool pool = poolMap.get(slot.getPoolId());
+            if (pool != null) {
+                pool.setConsumed(pool.getConsumed() + slot.getConsumed());
+            }
+
+            this.slotCurator.delete(slot);
+        }
+    }
+
+    /**
+     * Folds the consumption recorded on the slots of every pool back into the pools' consumed
+     * counts. Slots are folded even while the ledger is disabled, so that consumption recorded
+     * before it was disabled is not lost.
+     *
+     * @return
+     *  the number of pools folded
+     */
+    @Transactional
+    public int foldAll() {
+        int count = 0;
+
+        List<String> poolIds = new ArrayList<>(new TreeSet<>(this.slotCurator.getPoolIdsWithSlots()));
+        for (List<String> block : Iterables.partition(poolIds, FOLD_BLOCK_SIZE)) {
+            List<Pool> pools = this.lockAndFold(block);
+            this.poolCurator.flush();
+
+            count += pools.size();
+        }
+
+        return count;
+    }
+
+    /**
+     * A quantity reserved on a pool by the current transaction, along with the slot holding it
+     */
+    public static final class Reservation {
+        private final Pool pool;
+        private final String slotId;
+        private final long quantity;
+
+        Reservation(Pool pool, String slotId, long quantity) {
+            this.pool = pool;
+            this.slotId = slotId;
+            this.quantity = quantity;
+        }
+
+        public Pool getPool() {
+            return this.pool;
+        }
+
+        /**
+         * @return
+         *  the ID of the slot holding the reservation, or null if it was recorded on the pool
+         */
+        public String getSlotId() {
+            return this.slotId;
+        }
+
+        public long getQuantity() {
+            return this.quantity;
+        }
+    }
+}
@@ -0,0 +1,633 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.controller;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.common.paging.Page;
+import org.candlepin.common.paging.PageRequest;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.model.Consumer;
+import org.candlepin.model.ConsumerCurator;
+import org.candlepin.model.Owner;
+import org.candlepin.model.Pool;
+import org.candlepin.model.PoolCurator;
+import org.candlepin.model.PoolFilterBuilder;
+import org.candlepin.model.Product;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+
+/**
+ * The PoolIndex is an optional, in-memory index of the pool properties used to select candidate
+ * pools for a consumer. It is maintained per owner, is built lazily the first time an owner's
+ * pools are requested, and is kept up to date by the pool manager as pools are created, updated
+ * and deleted.
+ * <p></p>
+ * Changes made within a transaction are only applied to the index once the transaction has been
+ * committed, so a rollback leaves the index untouched. An owner's index is built once per node
+ * from a projection of the pool properties it tracks, and changes committed while it is being
+ * built take precedence over the rows it was built from.
+ * <p></p>
+ * Only the filtering is answered from memory; the matching pools are then fetched by ID in a
+ * single query, as pool entities are bound to the session which loaded them. Queries which use
+ * filters the index does not track (subscription IDs, "matches" text searches or arbitrary
+ * attributes) are not handled by the index and should fall back to the pool curator.
+ * <p></p>
+ * Pools modified outside of the pool manager will not be reflected in the index until the owner's
+ * index expires, or is explicitly invalidated.
+ */
+@Singleton
+public class PoolIndex {
+    private static Logger log = LoggerFactory.getLogger(PoolIndex.class);
+
+    private final PoolCurator poolCurator;
+    private final ConsumerCurator consumerCurator;
+    private final boolean enabled;
+    private final long maxAge;
+
+    private final ConcurrentMap<String, OwnerPoolIndex> ownerIndices;
+
+    @Inject
+    public PoolIndex(PoolCurator poolCurator, ConsumerCurator consumerCurator, Configuration config) {
+        this.poolCurator = poolCurator;
+        this.consumerCurator = consumerCurator;
+
+        this.enabled = config.getBoolean(ConfigProperties.POOL_INDEX_ENABLED, false);
+        this.maxAge = config.getLong(ConfigProperties.POOL_INDEX_MAX_AGE, 600L) * 1000L;
+
+        this.ownerIndices = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Checks if the pool index has been enabled by configuration.
+     *
+     * @return
+     *  true if the pool index is enabled; false otherwise
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Lists the pools available to the given consumer and/or owner using the in-memory index. If
+     * the index is disabled, or the given filters cannot be answered by the index, this method
+     * returns null and the caller is expected to fall back to the pool curator.
+     *
+     * @return
+     *  a page of matching pools, or null if the query cannot be answered by the index
+     */
+    public Page<List<Pool>> listAvailableEntitlementPools(Consumer consumer, Owner owner,
+        Collection<String> productIds, String subscriptionId, Date activeOn, PoolFilterBuilder filters,
+        PageRequest pageRequest, boolean postFilter, boolean addFuture, boolean onlyFuture, Date after) {
+
+        if (!this.enabled || subscriptionId != null || !this.isIndexable(filters)) {
+            return null;
+        }
+
+        if (consumer != null) {
+            if (owner != null && !owner.equals(consumer.getOwner())) {
+                // Let the curator deal with this (odd) case
+                return null;
+            }
+
+            owner = consumer.getOwner();
+        }
+
+        if (owner == null || owner.getId() == null) {
+            return null;
+        }
+
+        Collection<String> products = productIds == null && filters != null ?
+            filters.getProductIdFilter() :
+            productIds;
+
+        Collection<String> poolIds = filters != null ? filters.getIdFilters() : null;
+        boolean excludeDevPools = filters != null &&
+            filters.getAttributeFilters().containsKey(Pool.Attributes.DEVELOPMENT_POOL);
+
+        PoolQuery query = new PoolQuery();
+        query.productIds = products != null && !products.isEmpty() ? products : null;
+        query.poolIds = poolIds != null && !poolIds.isEmpty() ? new HashSet<>(poolIds) : null;
+        query.activeOn = activeOn;
+        query.addFuture = addFuture;
+        query.onlyFuture = onlyFuture;
+        query.after = after;
+        query.excludeDevPools = excludeDevPools;
+
+        if (consumer != null) {
+            if (consumer.isManifestDistributor()) {
+                query.excludeHostRestricted = true;
+            }
+            else if (!consumer.isGuest()) {
+                query.excludeVirtOnly = true;
+            }
+            else if (consumer.hasFact("virt.uuid")) {
+                Consumer host = this.consumerCurator.getHost(consumer);
+
+                query.restrictToHost = true;
+                query.hostUuid = host != null ? host.getUuid() : "";
+            }
+        }
+
+        List<String> candidates = this.getOwnerIndex(owner).find(query);
+        log.debug("Pool index found {} candidate pools for owner: {}", candidates.size(), owner);
+
+        if (candidates.isEmpty()) {
+            Page<List<Pool>> output = new Page<>();
+            output.setPageData(Collections.<Pool>emptyList());
+            output.setMaxRecords(0);
+
+            return output;
+        }
+
+        return this.poolCurator.listByIds(candidates, pageRequest, postFilter);
+    }
+
+    /**
+     * Checks whether or not the given filter only uses filters which are tracked by the index.
+     */
+    private boolean isIndexable(PoolFilterBuilder filters) {
+        if (filters == null) {
+            return true;
+        }
+
+        if (filters.getSubscriptionIdFilter() != null || filters.hasMatchFilters()) {
+            return false;
+        }
+
+        for (Map.Entry<String, List<String>> entry : filters.getAttributeFilters().entrySet()) {
+            // The only attribute filter we track is the one used to hide development pools
+            List<String> values = entry.getValue();
+
+            if (!Pool.Attributes.DEVELOPMENT_POOL.equals(entry.getKey()) || values == null ||
+                values.size() != 1 || !"!true".equalsIgnoreCase(values.get(0))) {
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds or updates the given pools in the index once the current transaction is committed.
+     * Pools belonging to owners which have not yet been indexed are ignored, as they will be
+     * picked up when the owner's index is built.
+     *
+     * @param pools
+     *  A collection of pools which have been created or modified
+     */
+    public void updatePools(Collection<Pool> pools) {
+        if (!this.enabled || pools == null) {
+            return;
+        }
+
+        // Snapshot the pools now, while they are still attached to the caller's session
+        final Map<String, List<PoolEntry>> entries = new HashMap<>();
+        final Set<String> unindexed = new HashSet<>();
+
+        for (Pool pool : pools) {
+            if (pool == null || pool.getId() == null || pool.getOwner() == null) {
+                continue;
+            }
+
+            String ownerId = pool.getOwner().getId();
+            if (this.ownerIndices.containsKey(ownerId)) {
+                List<PoolEntry> ownerEntries = entries.get(ownerId);
+                if (ownerEntries == null) {
+                    ownerEntries = new ArrayList<>();
+                    entries.put(ownerId, ownerEntries);
+                }
+
+                ownerEntries.add(new PoolEntry(pool));
+            }
+            else {
+                unindexed.add(ownerId);
+            }
+        }
+
+        if (entries.isEmpty() && unindexed.isEmpty()) {
+            return;
+        }
+
+        this.poolCurator.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<String, List<PoolEntry>> entry : entries.entrySet()) {
+                    OwnerPoolIndex index = ownerIndices.get(entry.getKey());
+
+                    if (index != null) {
+                        for (PoolEntry poolEntry : entry.getValue()) {
+                            index.put(poolEntry);
+                        }
+                    }
+                }
+
+                // An index built for one of these owners since may have missed the change
+                for (String ownerId : unindexed) {
+                    ownerIndices.remove(ownerId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the given pools from the index once the current transaction is committed.
+     *
+     * @param pools
+     *  A collection of pools which have been deleted
+     */
+    public void removePools(Collection<Pool> pools) {
+        if (!this.enabled || pools == null) {
+            return;
+        }
+
+        // Pool IDs mapped to their owner's ID, which is null for pools without an owner
+        final Map<String, String> poolIds = new HashMap<>();
+
+        for (Pool pool : pools) {
+            if (pool != null && pool.getId() != null) {
+                poolIds.put(pool.getId(), pool.getOwner() != null ? pool.getOwner().getId() : null);
+            }
+        }
+
+        if (poolIds.isEmpty()) {
+            return;
+        }
+
+        this.poolCurator.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<String, String> entry : poolIds.entrySet()) {
+                    if (entry.getValue() != null) {
+                        OwnerPoolIndex index = ownerIndices.get(entry.getValue());
+                        if (index != null) {
+                            index.remove(entry.getKey());
+                        }
+                    }
+                    else {
+                        for (OwnerPoolIndex index : ownerIndices.values()) {
+                            index.remove(entry.getKey());
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Discards the index for the given owner. The index will be rebuilt the next time the owner's
+     * pools are requested.
+     *
+     * @param owner
+     *  The owner for which to discard the pool index
+     */
+    public void invalidate(Owner owner) {
+        if (owner != null && owner.getId() != null) {
+            this.ownerIndices.remove(owner.getId());
+        }
+    }
+
+    /**
+     * Discards the pool index for every owner.
+     */
+    public void invalidateAll() {
+        this.ownerIndices.clear();
+    }
+
+    /**
+     * Fetches the index of the given owner's pools, building it if it has not yet been built or
+     * has expired. Concurrent requests for the same owner wait for a single build.
+     */
+    private OwnerPoolIndex getOwnerIndex(Owner owner) {
+        OwnerPoolIndex index = this.ownerIndices.get(owner.getId());
+
+        if (index != null && System.currentTimeMillis() - index.created > this.maxAge) {
+            this.ownerIndices.remove(owner.getId(), index);
+            index = null;
+        }
+
+        if (index == null) {
+            // Installed before its pools are loaded, so that changes committed while it is being
+            // built are recorded on it
+            OwnerPoolIndex created = new OwnerPoolIndex();
+            index = this.ownerIndices.putIfAbsent(owner.getId(), created);
+            index = index != null ? index : created;
+        }
+
+        synchronized (index.buildLock) {
+            if (!index.isLoaded()) {
+                long start = System.currentTimeMillis();
+                index.load(this.loadEntries(owner));
+
+                log.debug("Built pool index for owner {} with {} pools in {}ms", owner.getKey(),
+                    index.size(), System.currentTimeMillis() - start);
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Loads the entries of every pool of the given owner from a projection of the properties the
+     * index tracks, without loading the pool entities themselves.
+     */
+    private List<PoolEntry> loadEntries(Owner owner) {
+        Map<String, Set<String>> providedProducts = this.poolCurator.getProvidedProductIdsByOwner(owner);
+        List<Object[]> rows = this.poolCurator.getPoolIndexRows(owner);
+        List<PoolEntry> entries = new ArrayList<>(rows.size());
+
+        for (Object[] row : rows) {
+            String poolId = (String) row[0];
+            Set<String> products = new HashSet<>();
+
+            if (row[1] != null) {
+                products.add((String) row[1]);
+            }
+
+            if (providedProducts.containsKey(poolId)) {
+                products.addAll(providedProducts.get(poolId));
+            }
+
+            // Attributes defined on the pool take precedence over those defined on its product
+            Boolean virtOnly = row[4] != null ? (Boolean) row[4] : (Boolean) row[7];
+            Boolean devPool = row[5] != null ? (Boolean) row[5] : (Boolean) row[8];
+
+            entries.add(new PoolEntry(poolId, products, (Date) row[2], (Date) row[3],
+                Boolean.TRUE.equals(virtOnly), Boolean.TRUE.equals(devPool), (String) row[6]));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Resolves an attribute the same way the pool curator's attribute filters do: a value defined
+     * on the pool takes precedence over the value defined on its product.
+     */
+    private static String getEffectiveAttribute(Pool pool, String key) {
+        if (pool.hasAttribute(key)) {
+            return pool.getAttributeValue(key);
+        }
+
+        Product product = pool.getProduct();
+        return product != null ? product.getAttributeValue(key) : null;
+    }
+
+    /**
+     * The criteria of a single index lookup
+     */
+    private static class PoolQuery {
+        Collection<String> productIds;
+        Set<String> poolIds;
+        Date activeOn;
+        boolean addFuture;
+        boolean onlyFuture;
+        Date after;
+        boolean excludeDevPools;
+        boolean excludeVirtOnly;
+        boolean excludeHostRestricted;
+        boolean restrictToHost;
+        String hostUuid;
+    }
+
+    /**
+     * An immutable snapshot of the filterable properties of a single pool
+     */
+    private static class PoolEntry {
+        final String id;
+        final Set<String> productIds;
+        final long startDate;
+        final long endDate;
+        final boolean virtOnly;
+        final boolean developmentPool;
+        final String requiresHost;
+        final boolean hasRequiresHost;
+
+        PoolEntry(Pool pool) {
+            this.id = pool.getId();
+
+            Set<String> products = new HashSet<>();
+            if (pool.getProduct() != null) {
+                products.add(pool.getProduct().getId());
+            }
+
+            for (Product provided : pool.getProvidedProducts()) {
+                products.add(provided.getId());
+            }
+
+            this.productIds = Collections.unmodifiableSet(products);
+            this.startDate = pool.getStartDate() != null ? pool.getStartDate().getTime() : Long.MIN_VALUE;
+            this.endDate = pool.getEndDate() != null ? pool.getEndDate().getTime() : Long.MAX_VALUE;
+            this.virtOnly = "true".equalsIgnoreCase(getEffectiveAttribute(pool, Pool.Attributes.VIRT_ONLY));
+            this.developmentPool = "true".equalsIgnoreCase(
+                getEffectiveAttribute(pool, Pool.Attributes.DEVELOPMENT_POOL));
+
+            // Host requirements are only ever checked against the pool's own attributes
+            this.hasRequiresHost = pool.hasAttribute(Pool.Attributes.REQUIRES_HOST);
+            this.requiresHost = pool.getAttributeValue(Pool.Attributes.REQUIRES_HOST);
+        }
+
+        PoolEntry(String id, Set<String> productIds, Date startDate, Date endDate, boolean virtOnly,
+            boolean developmentPool, String requiresHost) {
+
+            this.id = id;
+            this.productIds = Collections.unmodifiableSet(productIds);
+            this.startDate = startDate != null ? startDate.getTime() : Long.MIN_VALUE;
+            this.endDate = endDate != null ? endDate.getTime() : Long.MAX_VALUE;
+            this.virtOnly = virtOnly;
+            this.developmentPool = developmentPool;
+            this.hasRequiresHost = requiresHost != null;
+            this.requiresHost = requiresHost;
+        }
+
+        boolean matches(PoolQuery query) {
+            if (query.poolIds != null && !query.poolIds.contains(this.id)) {
+                return false;
+            }
+
+            if (query.activeOn != null) {
+                long activeOn = query.activeOn.getTime();
+
+                if (query.onlyFuture) {
+                    if (this.startDate < activeOn) {
+                        return false;
+                    }
+                }
+                else if (!query.addFuture) {
+                    if (this.startDate > activeOn || this.endDate < activeOn) {
+                        return false;
+                    }
+                }
+                else if (this.endDate < activeOn) {
+                    return false;
+                }
+            }
+
+            if (query.after != null && this.startDate <= query.after.getTime()) {
+                return false;
+            }
+
+            if (query.excludeDevPools && this.developmentPool) {
+                return false;
+            }
+
+            if (query.excludeVirtOnly && this.virtOnly) {
+                return false;
+            }
+
+            if (query.excludeHostRestricted && this.hasRequiresHost) {
+                return false;
+            }
+
+            if (query.restrictToHost && this.requiresHost != null &&
+                !this.requiresHost.equalsIgnoreCase(query.hostUuid)) {
+
+                return false;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * The index of a single owner's pools. Pools are tracked by ID and by the IDs of the products
+     * they provide (including their marketing product).
+     */
+    private static class OwnerPoolIndex {
+        final long created = System.currentTimeMillis();
+
+        /** Held while the index is loaded, so that only one request loads it */
+        final Object buildLock = new Object();
+
+        private final Map<String, PoolEntry> pools = new HashMap<>();
+        private final Map<String, Set<String>> poolsByProduct = new HashMap<>();
+
+        /** The IDs of the pools changed while the index is being loaded; null once it is loaded */
+        private Set<String> changed = new HashSet<>();
+
+        synchronized boolean isLoaded() {
+            return this.changed == null;
+        }
+
+        /**
+         * Loads the given entries into the index. Pools changed since the index was created are
+         * more recent than the entries loaded for them, which are skipped.
+         */
+        synchronized void load(Collection<PoolEntry> entries) {
+            for (PoolEntry entry : entries) {
+                if (!this.changed.contains(entry.id)) {
+                    this.add(entry);
+                }
+            }
+
+            this.changed = null;
+        }
+
+        synchronized void put(PoolEntry entry) {
+            this.remove(entry.id);
+            this.add(entry);
+        }
+
+        private void add(PoolEntry entry) {
+            this.pools.put(entry.id, entry);
+
+            for (String productId : entry.productIds) {
+                Set<String> poolIds = this.poolsByProduct.get(productId);
+                if (poolIds == null) {
+                    poolIds = new HashSet<>();
+                    this.poolsByProduct.put(productId, poolIds);
+                }
+
+                poolIds.add(entry.id);
+            }
+        }
+
+        synchronized void remove(String poolId) {
+            if (this.changed != null) {
+                this.changed.add(poolId);
+            }
+
+            PoolEntry existing = this.pools.remove(poolId);
+
+            if (existing != null) {
+                for (String productId : existing.productIds) {
+                    Set<String> poolIds = this.poolsByProduct.get(productId);
+
+                    if (poolIds != null) {
+                        poolIds.remove(poolId);
+
+                        if (poolIds.isEmpty()) {
+                            this.poolsByProduct.remove(productId);
+                        }
+                    }
+                }
+            }
+        }
+
+        synchronized int size() {
+            return this.pools.size();
+        }
+
+        synchronized List<String> find(PoolQuery query) {
+            Collection<PoolEntry> candidates;
+
+            if (query.productIds != null) {
+                Set<String> poolIds = new HashSet<>();
+
+                for (String productId : query.productIds) {
+                    Set<String> providing = this.poolsByProduct.get(productId);
+                    if (providing != null) {
+                        poolIds.addAll(providing);
+                    }
+                }
+
+                candidates = new ArrayList<>(poolIds.size());
+                for (String poolId : poolIds) {
+                    candidates.add(this.pools.get(poolId));
+                }
+            }
+            else {
+                candidates = this.pools.values();
+            }
+
+            List<String> result = new ArrayList<>();
+            for (PoolEntry entry : candidates) {
+                if (entry.matches(query)) {
+                    result.add(entry.id);
+                }
+            }
+
+            return result;
+        }
+    }
+
+}
@@ -14,6 +14,7 @@
  */
 package org.candlepin.controller;
 
+import org.candlepin.bind.BulkBindResults;
 import org.candlepin.common.paging.Page;
 import org.candlepin.common.paging.PageRequest;
 import org.candlepin.model.CandlepinQuery;
@@ -103,6 +104,18 @@ public interface PoolManager {
     List<Entitlement> entitleByPools(Consumer consumer, Map<String, Integer> poolQuantities)
         throws EntitlementRefusedException;
 
+    /**
+     * Request entitlements for many consumers at once, by pool id and quantity. All binds are made
+     * in a single transaction, and each pool is locked only once, regardless of the number of
+     * consumers binding to it.
+     *
+     * @param consumerPoolQuantities a map of consumers to the pool ids and respective quantities
+     *        they are to consume from
+     * @return BulkBindResults holding the entitlements created for each consumer, and the reasons
+     *         any binds were refused
+     */
+    BulkBindResults entitleByPools(Map<Consumer, Map<String, Integer>> consumerPoolQuantities);
+
     /**
      * Request an entitlement by product.
      *
@@ -28,6 +28,7 @@ import org.candlepin.model.ProductContent;
 import org.candlepin.model.ProductCurator;
 import org.candlepin.model.dto.ContentData;
 import org.candlepin.model.dto.ProductData;
+import org.candlepin.policy.js.compliance.ComplianceStatusCache;
 import org.candlepin.util.Traceable;
 import org.candlepin.util.TraceableParam;
 import org.candlepin.model.dto.ProductContentData;
@@ -67,17 +68,22 @@ public class ProductManager {
     private OwnerProductCurator ownerProductCurator;
     private ProductCurator productCurator;
     private ModelTranslator modelTranslator;
+    private ProvidedProductCache providedProductCache;
+    private ComplianceStatusCache complianceStatusCache;
 
     @Inject
     public ProductManager(EntitlementCertificateGenerator entitlementCertGenerator,
         OwnerContentCurator ownerContentCurator, OwnerProductCurator ownerProductCurator,
-        ProductCurator productCurator, ModelTranslator modelTranslator) {
+        ProductCurator productCurator, ModelTranslator modelTranslator,
+        ProvidedProductCache providedProductCache, ComplianceStatusCache complianceStatusCache) {
 
         this.entitlementCertGenerator = entitlementCertGenerator;
         this.ownerContentCurator = ownerContentCurator;
         this.ownerProductCurator = ownerProductCurator;
         this.productCurator = productCurator;
         this.modelTranslator = modelTranslator;
+        this.providedProductCache = providedProductCache;
+        this.complianceStatusCache = complianceStatusCache;
     }
 
     /**
@@ -239,6 +245,8 @@ public class ProductManager {
 
                 this.ownerProductCurator.updateOwnerProductReferences(owner,
                     Collections.<String, String>singletonMap(entity.getUuid(), alt.getUuid()));
+                this.providedProductCache.invalidateAll();
+                this.complianceStatusCache.invalidateAll();
 
                 if (regenerateEntitlementCerts) {
                     this.entitlementCertGenerator.regenerateCertificatesOf(
@@ -257,6 +265,8 @@ public class ProductManager {
             log.debug("Applying in-place update to product: {}", updated);
 
             updated = this.productCurator.merge(this.applyProductChanges(entity, update, owner));
+            this.providedProductCache.invalidateAll();
+            this.complianceStatusCache.invalidateAll();
 
             if (regenerateEntitlementCerts) {
                 this.entitlementCertGenerator.regenerateCertificatesOf(
@@ -277,6 +287,8 @@ public class ProductManager {
 
         this.ownerProductCurator.updateOwnerProductReferences(owner,
             Collections.<String, String>singletonMap(entity.getUuid(), updated.getUuid()));
+        this.providedProductCache.invalidateAll();
+        this.complianceStatusCache.invalidateAll();
 
         if (regenerateEntitlementCerts) {
             this.entitlementCertGenerator.regenerateCertificatesOf(
@@ -456,6 +468,10 @@ public class ProductManager {
         }
 
         this.ownerProductCurator.updateOwnerProductReferences(owner, productUuidMap);
+        if (!productUuidMap.isEmpty()) {
+            this.providedProductCache.invalidateAll();
+            this.complianceStatusCache.invalidateAll();
+        }
 
         // Return
         return importResult;
@@ -565,6 +581,8 @@ public class ProductManager {
             // Remove owner references to all the products. This will leave the products orphaned,
             // to be eventually deleted by the orphan removal job
             this.ownerProductCurator.removeOwnerProductReferences(owner, productUuids);
+            this.providedProductCache.invalidateAll();
+            this.complianceStatusCache.invalidateAll();
         }
     }
 
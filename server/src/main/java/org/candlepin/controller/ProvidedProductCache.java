@@ -0,0 +1,300 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.controller;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.model.Pool;
+import org.candlepin.model.PoolCurator;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * The ProvidedProductCache is an optional, bounded cache of the IDs of the products provided by
+ * pools, and of the products provided by their derived products. It is shared by every request,
+ * and allows candidate pools to be matched against the products a consumer needs without
+ * querying the pools' provided products on every bind.
+ * <p></p>
+ * The cache is kept up to date by the pool manager, which invalidates the pools it creates,
+ * updates (including the updates made by the pool rules) and deletes, and by the product
+ * manager, which discards the whole cache whenever products are changed or removed. Each
+ * invalidation increments the cache's version; mappings loaded from the database while an
+ * invalidation takes place are not cached, as they may have been read before the change.
+ * Invalidations are applied both when the change is made and again once its transaction has
+ * been committed, so that mappings read by other requests before the commit are not kept.
+ * <p></p>
+ * Pools modified outside of the pool manager will not be reflected in the cache until their
+ * entries expire.
+ */
+@Singleton
+public class ProvidedProductCache {
+    private static Logger log = LoggerFactory.getLogger(ProvidedProductCache.class);
+
+    private final PoolCurator poolCurator;
+    private final boolean enabled;
+    private final int maxSize;
+    private final long maxAge;
+
+    private final AtomicLong version;
+    private final Map<String, Entry> provided;
+    private final Map<String, Entry> derivedProvided;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    @Inject
+    public ProvidedProductCache(PoolCurator poolCurator, Configuration config) {
+        this.poolCurator = poolCurator;
+
+        this.enabled = config.getBoolean(ConfigProperties.PROVIDED_PRODUCT_CACHE_ENABLED, false);
+        this.maxSize = config.getInt(ConfigProperties.PROVIDED_PRODUCT_CACHE_MAX_SIZE, 10000);
+        this.maxAge = config.getLong(ConfigProperties.PROVIDED_PRODUCT_CACHE_MAX_AGE, 600L) * 1000L;
+
+        this.version = new AtomicLong();
+        this.provided = this.createStore();
+        this.derivedProvided = this.createStore();
+
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    private Map<String, Entry> createStore() {
+        return new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return this.size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Checks if the provided product cache has been enabled by configuration.
+     *
+     * @return
+     *  true if the provided product cache is enabled; false otherwise
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Fetches a mapping of pool IDs to sets of product IDs representing the provided products of
+     * the given pools. Pools which do not provide any products are not included in the mapping.
+     * The returned map and sets may be freely modified by the caller.
+     *
+     * @param pools
+     *  A collection of pools for which to fetch provided product IDs
+     *
+     * @return
+     *  A mapping of pool IDs to provided product IDs
+     */
+    public Map<String, Set<String>> getProvidedProductIds(Collection<Pool> pools) {
+        if (!this.enabled) {
+            return this.poolCurator.getProvidedProductIds(pools);
+        }
+
+        return this.lookup(this.provided, pools, false);
+    }
+
+    /**
+     * Fetches a mapping of pool IDs to sets of product IDs representing the provided products of
+     * the derived products of the given pools. Pools which do not provide any derived products are
+     * not included in the mapping. The returned map and sets may be freely modified by the caller.
+     *
+     * @param pools
+     *  A collection of pools for which to fetch derived provided product IDs
+     *
+     * @return
+     *  A mapping of pool IDs to derived provided product IDs
+     */
+    public Map<String, Set<String>> getDerivedProvidedProductIds(Collection<Pool> pools) {
+        if (!this.enabled) {
+            return this.poolCurator.getDerivedProvidedProductIds(pools);
+        }
+
+        return this.lookup(this.derivedProvided, pools, true);
+    }
+
+    private Map<String, Set<String>> lookup(Map<String, Entry> store, Collection<Pool> pools,
+        boolean derived) {
+
+        Map<String, Set<String>> output = new HashMap<>();
+        // Missing pools are cached in the order they were requested, which the eviction order follows
+        Set<String> missing = new LinkedHashSet<>();
+        long now = System.currentTimeMillis();
+
+        if (pools == null || pools.isEmpty()) {
+            return output;
+        }
+
+        synchronized (store) {
+            for (Pool pool : pools) {
+                if (pool == null || pool.getId() == null) {
+                    continue;
+                }
+
+                Entry entry = store.get(pool.getId());
+
+                if (entry != null && now - entry.loaded <= this.maxAge) {
+                    if (!entry.productIds.isEmpty()) {
+                        output.put(pool.getId(), new HashSet<>(entry.productIds));
+                    }
+                }
+                else {
+                    missing.add(pool.getId());
+                }
+            }
+        }
+
+        this.hits.addAndGet(pools.size() - missing.size());
+        this.misses.addAndGet(missing.size());
+
+        if (!missing.isEmpty()) {
+            long loadVersion = this.version.get();
+            Map<String, Set<String>> loaded = derived ?
+                this.poolCurator.getDerivedProvidedProductIdsByPoolIds(missing) :
+                this.poolCurator.getProvidedProductIdsByPoolIds(missing);
+
+            synchronized (store) {
+                // Don't cache anything loaded while pools or products were being invalidated
+                if (this.version.get() == loadVersion) {
+                    for (String poolId : missing) {
+                        Set<String> productIds = loaded.get(poolId);
+
+                        store.put(poolId, new Entry(productIds != null ?
+                            Collections.unmodifiableSet(new HashSet<>(productIds)) :
+                            Collections.<String>emptySet(), now));
+                    }
+                }
+            }
+
+            output.putAll(loaded);
+        }
+
+        return output;
+    }
+
+    /**
+     * Invalidates the cached product IDs of the given pools, both immediately and once the
+     * current transaction has been committed.
+     *
+     * @param pools
+     *  A collection of pools which have been created, modified or deleted
+     */
+    public void poolsChanged(Collection<Pool> pools) {
+        if (!this.enabled || pools == null || pools.isEmpty()) {
+            return;
+        }
+
+        final Set<String> poolIds = new HashSet<>();
+        for (Pool pool : pools) {
+            if (pool != null && pool.getId() != null) {
+                poolIds.add(pool.getId());
+            }
+        }
+
+        Runnable invalidation = new Runnable() {
+            @Override
+            public void run() {
+                version.incrementAndGet();
+
+                for (Map<String, Entry> store : Arrays.asList(provided, derivedProvided)) {
+                    synchronized (store) {
+                        store.keySet().removeAll(poolIds);
+                    }
+                }
+            }
+        };
+
+        invalidation.run();
+        this.poolCurator.afterCommit(invalidation);
+    }
+
+    /**
+     * Discards the cached product IDs of every pool, both immediately and once the current
+     * transaction has been committed. Since a product may be provided by any number of pools,
+     * this is used whenever products are changed or removed.
+     */
+    public void invalidateAll() {
+        if (!this.enabled) {
+            return;
+        }
+
+        Runnable invalidation = new Runnable() {
+            @Override
+            public void run() {
+                version.incrementAndGet();
+
+                for (Map<String, Entry> store : Arrays.asList(provided, derivedProvided)) {
+                    synchronized (store) {
+                        store.clear();
+                    }
+                }
+
+                log.debug("Provided product cache invalidated");
+            }
+        };
+
+        invalidation.run();
+        this.poolCurator.afterCommit(invalidation);
+    }
+
+    /**
+     * Fetches the statistics of this cache.
+     *
+     * @return
+     *  a map of statistic names to values
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+
+        stats.put("enabled", this.enabled);
+        stats.put("version", this.version.get());
+        stats.put("hits", this.hits.get());
+        stats.put("misses", this.misses.get());
+
+        return stats;
+    }
+
+    /**
+     * The cached product IDs of a single pool
+     */
+    private static final class Entry {
+        private final Set<String> productIds;
+        private final long loaded;
+
+        private Entry(Set<String> productIds, long loaded) {
+            this.productIds = productIds;
+            this.loaded = loaded;
+        }
+    }
+}
@@ -77,7 +77,7 @@ public class PoolTranslator extends TimestampedEntityTranslator<Pool, PoolDTO> {
         dest.setContractNumber(source.getContractNumber());
         dest.setAccountNumber(source.getAccountNumber());
         dest.setOrderNumber(source.getOrderNumber());
-        dest.setConsumed(source.getConsumed());
+        dest.setConsumed(source.getTotalConsumed());
         dest.setExported(source.getExported());
         dest.setShared(source.getShared());
         dest.setCalculatedAttributes(source.getCalculatedAttributes());
@@ -73,7 +73,7 @@ public class PoolTranslator implements ObjectTranslator<Pool, PoolDTO> {
         dest.setEndDate(source.getEndDate());
         dest.setAttributes(source.getAttributes());
         dest.setRestrictedToUsername(source.getRestrictedToUsername());
-        dest.setConsumed(source.getConsumed());
+        dest.setConsumed(source.getTotalConsumed());
         dest.setProductId(source.getProductId());
         dest.setProductAttributes(source.getProductAttributes());
         dest.setDerivedProductId(source.getDerivedProductId());
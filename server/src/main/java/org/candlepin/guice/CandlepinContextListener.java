@@ -33,7 +33,9 @@ import org.candlepin.controller.SuspendModeTransitioner;
 import org.candlepin.logging.LoggerContextListener;
 import org.candlepin.model.Status;
 import org.candlepin.pinsetter.core.PinsetterContextListener;
+import org.candlepin.pki.KeyPairPool;
 import org.candlepin.pki.impl.BouncyCastleProviderLoader;
+import org.candlepin.policy.js.RulesVersionPoller;
 import org.candlepin.resteasy.ResourceLocatorMap;
 import org.candlepin.swagger.CandlepinSwaggerModelConverter;
 import org.candlepin.util.Util;
@@ -93,6 +95,8 @@ public class CandlepinContextListener extends GuiceResteasyBootstrapServletConte
     private ActiveMQContextListener activeMQContextListener;
     private PinsetterContextListener pinsetterListener;
     private LoggerContextListener loggerListener;
+    private RulesVersionPoller rulesVersionPoller;
+    private KeyPairPool keyPairPool;
 
     // a bit of application-initialization code. Not sure if this is the
     // best spot for it.
@@ -169,6 +173,12 @@ public class CandlepinContextListener extends GuiceResteasyBootstrapServletConte
             mw.startPeriodicExecutions();
         }
 
+        rulesVersionPoller = injector.getInstance(RulesVersionPoller.class);
+        rulesVersionPoller.startPeriodicExecutions();
+
+        keyPairPool = injector.getInstance(KeyPairPool.class);
+        keyPairPool.start();
+
         if (config.getBoolean(ACTIVEMQ_ENABLED)) {
             try {
                 activeMQContextListener = injector.getInstance(ActiveMQContextListener.class);
@@ -207,6 +217,8 @@ public class CandlepinContextListener extends GuiceResteasyBootstrapServletConte
         }
         pinsetterListener.contextDestroyed();
         loggerListener.contextDestroyed();
+        rulesVersionPoller.stop();
+        keyPairPool.stop();
 
         // if amqp is enabled, close all connections.
         if (config.getBoolean(ConfigProperties.AMQP_INTEGRATION_ENABLED)) {
@@ -76,6 +76,7 @@ import org.candlepin.pinsetter.tasks.JobCleaner;
 import org.candlepin.pinsetter.tasks.RefreshPoolsJob;
 import org.candlepin.pinsetter.tasks.SweepBarJob;
 import org.candlepin.pinsetter.tasks.UnpauseJob;
+import org.candlepin.pki.KeyPairPool;
 import org.candlepin.pki.PKIReader;
 import org.candlepin.pki.PKIUtility;
 import org.candlepin.pki.impl.BouncyCastlePKIReader;
@@ -83,7 +84,9 @@ import org.candlepin.pki.impl.BouncyCastlePKIUtility;
 import org.candlepin.policy.criteria.CriteriaRules;
 import org.candlepin.policy.js.JsRunner;
 import org.candlepin.policy.js.JsRunnerProvider;
+import org.candlepin.policy.js.RulesFragmentCache;
 import org.candlepin.policy.js.RulesObjectMapper;
+import org.candlepin.policy.js.RulesProfiler;
 import org.candlepin.policy.js.entitlement.Enforcer;
 import org.candlepin.policy.js.entitlement.EntitlementRules;
 import org.candlepin.policy.js.entitlement.EntitlementRulesTranslator;
@@ -144,6 +147,7 @@ import org.candlepin.sync.Exporter;
 import org.candlepin.sync.MetaExporter;
 import org.candlepin.sync.RulesExporter;
 import org.candlepin.util.AttributeValidator;
+import org.candlepin.util.ContentPayloadCache;
 import org.candlepin.util.DateSource;
 import org.candlepin.util.DateSourceImpl;
 import org.candlepin.util.ExpiryDateFunction;
@@ -206,6 +210,7 @@ public class CandlepinModule extends AbstractModule {
 
         bind(PKIUtility.class).to(BouncyCastlePKIUtility.class).asEagerSingleton();
         bind(PKIReader.class).to(BouncyCastlePKIReader.class).asEagerSingleton();
+        bind(KeyPairPool.class).asEagerSingleton();
         bind(X509ExtensionUtil.class);
         bind(ResolverUtil.class);
         bind(GuestMigration.class);
@@ -265,8 +270,11 @@ public class CandlepinModule extends AbstractModule {
         bind(JAXBMarshalExceptionMapper.class);
         bind(JAXBUnmarshalExceptionMapper.class);
         bind(Principal.class).toProvider(PrincipalProvider.class);
+        bind(RulesProfiler.class).asEagerSingleton();
         bind(JsRunnerProvider.class).asEagerSingleton();
         bind(JsRunner.class).toProvider(JsRunnerProvider.class);
+        bind(RulesFragmentCache.class).asEagerSingleton();
+        bind(ContentPayloadCache.class).asEagerSingleton();
         bind(RulesObjectMapper.class).asEagerSingleton();
         bind(UserResource.class);
         bind(UniqueIdGenerator.class).to(DefaultUniqueIdGenerator.class);
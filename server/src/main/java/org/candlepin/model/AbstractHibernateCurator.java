@@ -17,6 +17,7 @@ package org.candlepin.model;
 import org.candlepin.auth.Principal;
 import org.candlepin.auth.permissions.Permission;
 import org.candlepin.common.config.Configuration;
+import org.candlepin.common.exceptions.BadRequestException;
 import org.candlepin.common.exceptions.ConcurrentModificationException;
 import org.candlepin.common.paging.Page;
 import org.candlepin.common.paging.PageRequest;
@@ -34,6 +35,7 @@ import org.hibernate.Criteria;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.SQLQuery;
+import org.hibernate.Transaction;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Order;
@@ -47,6 +49,7 @@ import org.hibernate.internal.SessionImpl;
 import org.hibernate.jpa.AvailableSettings;
 import org.hibernate.metadata.ClassMetadata;
 import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.resource.transaction.spi.TransactionStatus;
 import org.hibernate.transform.ResultTransformer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,6 +59,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -78,6 +82,8 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Path;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 
 
 
@@ -216,7 +222,9 @@ public abstract class AbstractHibernateCurator<E extends Persisted> {
     @Transactional
     public Page<List<E>> listAll(PageRequest pageRequest, boolean postFilter) {
         Page<List<E>> resultsPage;
-        if (postFilter) {
+        // Keyset requests are always paged by the database; callers filtering the results must
+        // request further pages by cursor rather than loading every result
+        if (postFilter && (pageRequest == null || !pageRequest.isKeyset())) {
             // Create a copy of the page request with just the order and sort by values.
             // Since we are filtering after the results are returned, we don't want
             // to send the page or page size values in.
@@ -241,6 +249,10 @@ public abstract class AbstractHibernateCurator<E extends Persisted> {
     @SuppressWarnings("unchecked")
     @Transactional
     public Page<List<E>> listAll(PageRequest pageRequest) {
+        if (pageRequest != null && pageRequest.isKeyset()) {
+            return this.listByKeyset(createSecureCriteria(), pageRequest);
+        }
+
         Page<List<E>> page = new Page<>();
 
         if (pageRequest != null) {
@@ -286,6 +298,253 @@ public abstract class AbstractHibernateCurator<E extends Persisted> {
         }
     }
 
+    /**
+     * Lists a single page of the entities matching the given criteria, starting after the position
+     * identified by the request's cursor rather than after a number of skipped results. Any
+     * ordering already applied to the criteria is replaced by the keyset ordering, as the results
+     * must be sorted by exactly the properties encoded in the cursor.
+     * <p></p>
+     * Keyset pages are not counted, as counting the results would cost as much as fetching them;
+     * the page instead carries the cursor of the page which follows it, if any.
+     *
+     * @param c
+     *  The criteria to use for fetching the entities
+     *
+     * @param pageRequest
+     *  The keyset page request
+     *
+     * @throws BadRequestException
+     *  if the request's cursor is malformed or the requested sort field cannot be paged by keyset
+     *
+     * @return
+     *  a page containing the requested entities
+     */
+    @SuppressWarnings("unchecked")
+    protected Page<List<E>> listByKeyset(Criteria c, PageRequest pageRequest) {
+        Iterator<CriteriaImpl.OrderEntry> orderings = ((CriteriaImpl) c).iterateOrderings();
+        while (orderings.hasNext()) {
+            orderings.next();
+            orderings.remove();
+        }
+
+        Criterion restriction = this.createKeysetRestriction(pageRequest);
+        if (restriction != null) {
+            c.add(restriction);
+        }
+
+        for (Order order : this.createKeysetOrders(pageRequest)) {
+            c.addOrder(order);
+        }
+
+        // Fetch one extra entity to find out whether or not there is a following page
+        c.setFirstResult(0);
+        c.setMaxResults(pageRequest.getPerPage() + 1);
+
+        List<E> results = c.list();
+
+        Page<List<E>> page = new Page<>();
+        page.setKeyset(true);
+        page.setPageRequest(pageRequest);
+
+        if (results.size() > pageRequest.getPerPage()) {
+            results = new ArrayList<>(results.subList(0, pageRequest.getPerPage()));
+            page.setNextCursor(this.buildCursor(pageRequest, results.get(results.size() - 1)));
+        }
+
+        page.setPageData(results);
+        return page;
+    }
+
+    /**
+     * Applies keyset paging to the given query, restricting it to the page following the position
+     * identified by the request's cursor. Unlike Criteria, the query does not expose its existing
+     * ordering, so it must not be ordered by the caller.
+     * <p></p>
+     * The returned page contains the query itself, along with the cursor of the page following the
+     * one the query fetches, if any.
+     *
+     * @param query
+     *  The query to page
+     *
+     * @param pageRequest
+     *  The keyset page request
+     *
+     * @throws BadRequestException
+     *  if the request's cursor is malformed or the requested sort field cannot be paged by keyset
+     *
+     * @return
+     *  a page containing the paged query
+     */
+    public Page<CandlepinQuery<E>> paginateByKeyset(CandlepinQuery<E> query, PageRequest pageRequest) {
+        Criterion restriction = this.createKeysetRestriction(pageRequest);
+        if (restriction != null) {
+            query.addRestriction(restriction);
+        }
+
+        for (Order order : this.createKeysetOrders(pageRequest)) {
+            query.addOrder(order);
+        }
+
+        Page<CandlepinQuery<E>> page = new Page<>();
+        page.setKeyset(true);
+        page.setPageRequest(pageRequest);
+
+        // Look up the last entity of the page and the one following it, if any, to build the cursor
+        // of the next page without fetching the page itself
+        List<E> boundary = query.setFirstResult(pageRequest.getPerPage() - 1)
+            .setMaxResults(2)
+            .list();
+
+        if (boundary.size() > 1) {
+            page.setNextCursor(this.buildCursor(pageRequest, boundary.get(0)));
+        }
+
+        query.setFirstResult(0);
+        query.setMaxResults(pageRequest.getPerPage());
+
+        page.setPageData(query);
+        return page;
+    }
+
+    /**
+     * Builds the continuation token of the keyset page which starts after the given entity.
+     *
+     * @param pageRequest
+     *  The keyset page request which fetched the entity
+     *
+     * @param entity
+     *  The last entity of a page
+     *
+     * @throws BadRequestException
+     *  if the requested sort field cannot be paged by keyset
+     *
+     * @return
+     *  the continuation token of the page starting after the given entity
+     */
+    public String buildCursor(PageRequest pageRequest, E entity) {
+        ClassMetadata metadata = this.getClassMetadata();
+        String sortBy = this.getKeysetSortField(pageRequest);
+
+        Object value = sortBy.equals(metadata.getIdentifierPropertyName()) ?
+            null :
+            metadata.getPropertyValue(entity, sortBy);
+
+        return new KeysetCursor(sortBy, this.getKeysetOrder(pageRequest), value,
+            metadata.getIdentifier(entity, (SessionImpl) this.currentSession())).encode();
+    }
+
+    private ClassMetadata getClassMetadata() {
+        return this.currentSession().getSessionFactory().getClassMetadata(this.entityType);
+    }
+
+    private PageRequest.Order getKeysetOrder(PageRequest pageRequest) {
+        return pageRequest.getOrder() != null ? pageRequest.getOrder() : PageRequest.DEFAULT_ORDER;
+    }
+
+    /**
+     * Fetches and validates the property by which the keyset pages of the given request are sorted.
+     * Keyset pages can be sorted by the identifier, or by any non-nullable property holding dates,
+     * strings, numbers or booleans; the creation and update dates, which are always populated,
+     * are also allowed.
+     */
+    private String getKeysetSortField(PageRequest pageRequest) {
+        ClassMetadata metadata = this.getClassMetadata();
+        String sortBy = pageRequest.getSortBy() != null ?
+            pageRequest.getSortBy() :
+            AbstractHibernateObject.DEFAULT_SORT_FIELD;
+
+        if (sortBy.equals(metadata.getIdentifierPropertyName())) {
+            return sortBy;
+        }
+
+        String[] properties = metadata.getPropertyNames();
+        boolean[] nullability = metadata.getPropertyNullability();
+
+        for (int i = 0; i < properties.length; ++i) {
+            if (!properties[i].equals(sortBy)) {
+                continue;
+            }
+
+            Class<?> type = metadata.getPropertyTypes()[i].getReturnedClass();
+            boolean keyed = Date.class.isAssignableFrom(type) || String.class.equals(type) ||
+                Integer.class.equals(type) || Long.class.equals(type) || Boolean.class.equals(type);
+
+            if (keyed && (!nullability[i] || sortBy.equals(AbstractHibernateObject.DEFAULT_SORT_FIELD) ||
+                sortBy.equals("updated"))) {
+
+                return sortBy;
+            }
+        }
+
+        throw new BadRequestException(i18n.tr("Results cannot be paged by cursor when sorted by \"{0}\"",
+            sortBy));
+    }
+
+    private List<Order> createKeysetOrders(PageRequest pageRequest) {
+        String sortBy = this.getKeysetSortField(pageRequest);
+        String idField = this.getClassMetadata().getIdentifierPropertyName();
+        boolean ascending = this.getKeysetOrder(pageRequest) == PageRequest.Order.ASCENDING;
+
+        List<Order> orders = new ArrayList<>();
+        orders.add(ascending ? Order.asc(sortBy) : Order.desc(sortBy));
+
+        // Entities sharing a sort value are ordered by their identifier, so every entity has a
+        // stable position in the results
+        if (!sortBy.equals(idField)) {
+            orders.add(ascending ? Order.asc(idField) : Order.desc(idField));
+        }
+
+        return orders;
+    }
+
+    /**
+     * Creates the restriction selecting the entities which follow the position identified by the
+     * request's cursor, or null if the request is for the first page.
+     */
+    private Criterion createKeysetRestriction(PageRequest pageRequest) {
+        if (pageRequest.getCursor() == null || pageRequest.getCursor().isEmpty()) {
+            return null;
+        }
+
+        String sortBy = this.getKeysetSortField(pageRequest);
+        PageRequest.Order order = this.getKeysetOrder(pageRequest);
+        KeysetCursor cursor;
+
+        try {
+            cursor = KeysetCursor.decode(pageRequest.getCursor());
+        }
+        catch (IllegalArgumentException e) {
+            throw new BadRequestException(i18n.tr("Invalid cursor: {0}", pageRequest.getCursor()), e);
+        }
+
+        if (!cursor.getSortBy().equals(sortBy) || cursor.getOrder() != order) {
+            throw new BadRequestException(
+                i18n.tr("The cursor was not issued for results sorted by \"{0}\" in {1} order",
+                sortBy, order.name().toLowerCase()));
+        }
+
+        String idField = this.getClassMetadata().getIdentifierPropertyName();
+        boolean ascending = order == PageRequest.Order.ASCENDING;
+
+        Criterion after = ascending ?
+            Restrictions.gt(idField, cursor.getId()) :
+            Restrictions.lt(idField, cursor.getId());
+
+        if (sortBy.equals(idField)) {
+            return after;
+        }
+
+        if (cursor.getValue() == null) {
+            throw new BadRequestException(i18n.tr("Invalid cursor: {0}", pageRequest.getCursor()));
+        }
+
+        return Restrictions.or(
+            ascending ?
+                Restrictions.gt(sortBy, cursor.getValue()) :
+                Restrictions.lt(sortBy, cursor.getValue()),
+            Restrictions.and(Restrictions.eq(sortBy, cursor.getValue()), after));
+    }
+
     private Integer findRowCount(Criteria c) {
         c.setProjection(Projections.rowCount());
         return ((Long) c.uniqueResult()).intValue();
@@ -295,7 +554,14 @@ public abstract class AbstractHibernateCurator<E extends Persisted> {
     public Page<ResultIterator<E>> paginateResults(CandlepinQuery<E> query, PageRequest pageRequest) {
         Page<ResultIterator<E>> page = new Page<>();
 
-        if (pageRequest != null) {
+        if (pageRequest != null && pageRequest.isKeyset()) {
+            Page<CandlepinQuery<E>> keysetPage = this.paginateByKeyset(query, pageRequest);
+
+            page.setKeyset(true);
+            page.setNextCursor(keysetPage.getNextCursor());
+            page.setPageRequest(pageRequest);
+        }
+        else if (pageRequest != null) {
             page.setMaxRecords(query.getRowCount());
 
             query.addOrder(this.createPagingOrder(pageRequest));
@@ -321,7 +587,9 @@ public abstract class AbstractHibernateCurator<E extends Persisted> {
     @Transactional
     public Page<List<E>> listByCriteria(Criteria query, PageRequest pageRequest, boolean postFilter) {
         Page<List<E>> resultsPage;
-        if (postFilter) {
+        // Keyset requests are always paged by the database; callers filtering the results must
+        // request further pages by cursor rather than loading every result
+        if (postFilter && (pageRequest == null || !pageRequest.isKeyset())) {
             // Create a copy of the page request with just the order and sort by values.
             // Since we are filtering after the results are returned, we don't want
             // to send the page or page size values in.
@@ -488,6 +756,10 @@ public abstract class AbstractHibernateCurator<E extends Persisted> {
     @SuppressWarnings("unchecked")
     @Transactional
     public Page<List<E>> listByCriteria(Criteria c, PageRequest pageRequest) {
+        if (pageRequest != null && pageRequest.isKeyset()) {
+            return this.listByKeyset(c, pageRequest);
+        }
+
         Page<List<E>> page = new Page<>();
 
         if (pageRequest != null) {
@@ -589,6 +861,37 @@ public abstract class AbstractHibernateCurator<E extends Persisted> {
         return factory.openSession();
     }
 
+    /**
+     * Runs the given task once the current transaction has been committed, or immediately if
+     * there is no transaction in progress. The task is dropped if the transaction is rolled back.
+     * Used to update in-memory state, such as caches, which must not reflect uncommitted changes.
+     *
+     * @param task
+     *  The task to run after the current transaction has been committed
+     */
+    public void afterCommit(final Runnable task) {
+        Transaction transaction = this.currentSession().getTransaction();
+
+        if (transaction == null || transaction.getStatus() != TransactionStatus.ACTIVE) {
+            task.run();
+            return;
+        }
+
+        transaction.registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // Intentionally left empty
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    task.run();
+                }
+            }
+        });
+    }
+
     public EntityManager getEntityManager() {
         return entityManager.get();
     }
@@ -279,6 +279,38 @@ public class ConsumerCurator extends AbstractHibernateCurator<Consumer> {
         return this.cpQueryFactory.<Consumer>buildQuery(this.currentSession(), criteria);
     }
 
+    /**
+     * Loads the entitlements of the given consumers, along with the pools of the entitlements, in
+     * blocks of consumers, rather than with a query per consumer as the entitlements of each
+     * consumer are first accessed. The consumers must be attached to the current session.
+     *
+     * @param consumers
+     *  A collection of consumers for which to load entitlements
+     */
+    public void fetchEntitlements(Collection<Consumer> consumers) {
+        if (consumers == null || consumers.isEmpty()) {
+            return;
+        }
+
+        List<String> consumerIds = new ArrayList<>(consumers.size());
+        for (Consumer consumer : consumers) {
+            if (consumer.getId() != null) {
+                consumerIds.add(consumer.getId());
+            }
+        }
+
+        // Fetching the consumers again initializes the entitlement collections of the instances
+        // already in the session
+        String jpql = "SELECT DISTINCT c FROM Consumer c " +
+            "LEFT JOIN FETCH c.entitlements e LEFT JOIN FETCH e.pool " +
+            "WHERE c.id IN (:consumer_ids)";
+
+        TypedQuery<Consumer> query = this.getEntityManager().createQuery(jpql, Consumer.class);
+        for (List<String> block : this.partition(consumerIds)) {
+            query.setParameter("consumer_ids", block).getResultList();
+        }
+    }
+
     @Transactional
     public CandlepinQuery<Consumer> findByUuidsAndOwner(Collection<String> uuids, Owner owner) {
         DetachedCriteria criteria = DetachedCriteria.forClass(Consumer.class)
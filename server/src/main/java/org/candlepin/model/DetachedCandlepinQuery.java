@@ -24,6 +24,7 @@ import org.hibernate.LockMode;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projection;
@@ -223,6 +224,19 @@ public class DetachedCandlepinQuery<T> implements CandlepinQuery<T> {
         return this;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CandlepinQuery<T> addRestriction(Criterion criterion) {
+        if (criterion == null) {
+            throw new IllegalArgumentException("criterion is null");
+        }
+
+        this.criteria.add(criterion);
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
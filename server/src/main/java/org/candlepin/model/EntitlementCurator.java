@@ -661,6 +661,124 @@ public class EntitlementCurator extends AbstractHibernateCurator<Entitlement> {
         return count;
     }
 
+    /**
+     * Marks the given entitlements as clean, once their certificates have been regenerated.
+     *
+     * @param entitlementIds
+     *  A collection of IDs of the entitlements to mark clean
+     *
+     * @return
+     *  The number of entitlements updated
+     */
+    @Transactional
+    public int markEntitlementsClean(Iterable<String> entitlementIds) {
+        int count = 0;
+
+        if (entitlementIds != null && entitlementIds.iterator().hasNext()) {
+            String hql = "UPDATE Entitlement SET dirty = false WHERE id IN (:entIds)";
+            Query query = this.getEntityManager().createQuery(hql);
+
+            for (List<String> block : this.partition(entitlementIds)) {
+                count += query.setParameter("entIds", block).executeUpdate();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Given a collection of entitlement IDs, determine which are still marked dirty.
+     *
+     * @param entitlementIds
+     *  The entitlement IDs to filter
+     *
+     * @return
+     *  the IDs of the given entitlements which are marked dirty, in ascending order
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> filterDirtyEntitlementIds(Iterable<String> entitlementIds) {
+        List<String> filteredIds = new ArrayList<>();
+
+        if (entitlementIds != null && entitlementIds.iterator().hasNext()) {
+            String hql = "SELECT e.id FROM Entitlement e WHERE e.dirty = true AND e.id IN (:entIds)";
+            Query query = this.getEntityManager().createQuery(hql);
+
+            for (List<String> block : this.partition(entitlementIds)) {
+                filteredIds.addAll(query.setParameter("entIds", block).getResultList());
+            }
+        }
+
+        Collections.sort(filteredIds);
+        return filteredIds;
+    }
+
+    /**
+     * Lists the IDs of dirty entitlements in ascending order, starting after the given ID. This
+     * allows all dirty entitlements to be walked through a page at a time, whether or not the
+     * entitlements of previous pages were cleaned in the meantime.
+     *
+     * @param afterId
+     *  The ID after which to start listing, or null to start from the first dirty entitlement
+     *
+     * @param limit
+     *  The maximum number of IDs to list
+     *
+     * @return
+     *  the IDs of up to limit dirty entitlements following the given ID
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> listDirtyEntitlementIds(String afterId, int limit) {
+        String hql = "SELECT e.id FROM Entitlement e WHERE e.dirty = true" +
+            (afterId != null ? " AND e.id > :afterId" : "") +
+            " ORDER BY e.id";
+
+        Query query = this.getEntityManager().createQuery(hql)
+            .setMaxResults(limit);
+
+        if (afterId != null) {
+            query.setParameter("afterId", afterId);
+        }
+
+        return query.getResultList();
+    }
+
+    /**
+     * Lists the IDs of dirty entitlements in the order their consumers are expected to next check
+     * in. Consumers check in at regular intervals, so those having gone the longest without
+     * checking in are listed first; entitlements of consumers which have never checked in are
+     * listed last.
+     * <p></p>
+     * Consumers which have not checked in since the given date are no longer expected to check
+     * in, and their entitlements are left out; so are those of consumers which have never checked
+     * in and were registered before that date.
+     *
+     * @param checkedInSince
+     *  The date since which consumers must have checked in, or null to list the entitlements of
+     *  every consumer
+     *
+     * @param limit
+     *  The maximum number of IDs to list
+     *
+     * @return
+     *  the IDs of up to limit dirty entitlements, soonest expected check-in first
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> listDirtyEntitlementIdsByCheckin(Date checkedInSince, int limit) {
+        String hql = "SELECT e.id FROM Entitlement e JOIN e.consumer c WHERE e.dirty = true " +
+            (checkedInSince != null ? "AND (c.lastCheckin >= :since " +
+                "OR (c.lastCheckin IS NULL AND c.created >= :since)) " : "") +
+            "ORDER BY c.lastCheckin ASC NULLS LAST, e.id ASC";
+
+        Query query = this.getEntityManager().createQuery(hql)
+            .setMaxResults(limit);
+
+        if (checkedInSince != null) {
+            query.setParameter("since", checkedInSince);
+        }
+
+        return query.getResultList();
+    }
+
     /**
      * @deprecated
      *  This method is a utility method for revokeEntitlements and, as it has no communication with
@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.model;
+
+import org.candlepin.common.paging.PageRequest;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+
+
+/**
+ * The KeysetCursor is the decoded form of the continuation token handed out with keyset pages.
+ * It identifies the last entity of a page by the value of the property the page is sorted by,
+ * and by the entity's identifier, which breaks ties between entities sharing a sort value.
+ * <p></p>
+ * Clients are expected to treat the encoded token as opaque; it is only meaningful when paired
+ * with the sort order of the request which produced it.
+ */
+public class KeysetCursor {
+
+    private static final String SEPARATOR = "\n";
+
+    private final String sortBy;
+    private final PageRequest.Order order;
+    private final Object value;
+    private final Serializable id;
+
+    public KeysetCursor(String sortBy, PageRequest.Order order, Object value, Serializable id) {
+        if (sortBy == null) {
+            throw new IllegalArgumentException("sortBy is null");
+        }
+
+        if (order == null) {
+            throw new IllegalArgumentException("order is null");
+        }
+
+        if (id == null) {
+            throw new IllegalArgumentException("id is null");
+        }
+
+        this.sortBy = sortBy;
+        this.order = order;
+        this.value = value;
+        this.id = id;
+    }
+
+    public String getSortBy() {
+        return this.sortBy;
+    }
+
+    public PageRequest.Order getOrder() {
+        return this.order;
+    }
+
+    public Object getValue() {
+        return this.value;
+    }
+
+    public Serializable getId() {
+        return this.id;
+    }
+
+    /**
+     * Encodes this cursor as an opaque, URL-safe continuation token.
+     *
+     * @return
+     *  the continuation token representing this cursor
+     */
+    public String encode() {
+        // The value goes last, as it is the only field which may contain the separator
+        String token = this.sortBy + SEPARATOR + this.order.name() + SEPARATOR +
+            encodeValue(this.id) + SEPARATOR + encodeValue(this.value);
+
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a continuation token previously created by the encode method.
+     *
+     * @param token
+     *  The continuation token to decode
+     *
+     * @throws IllegalArgumentException
+     *  if the token is null or malformed
+     *
+     * @return
+     *  the cursor represented by the token
+     */
+    public static KeysetCursor decode(String token) {
+        if (token == null) {
+            throw new IllegalArgumentException("token is null");
+        }
+
+        String[] fields = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8)
+            .split(SEPARATOR, 4);
+
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("Malformed cursor: " + token);
+        }
+
+        Object id = decodeValue(fields[2]);
+        if (!(id instanceof Serializable)) {
+            throw new IllegalArgumentException("Malformed cursor: " + token);
+        }
+
+        return new KeysetCursor(fields[0], PageRequest.Order.valueOf(fields[1]), decodeValue(fields[3]),
+            (Serializable) id);
+    }
+
+    private static String encodeValue(Object value) {
+        if (value == null) {
+            return "n";
+        }
+        else if (value instanceof Date) {
+            return "d" + ((Date) value).getTime();
+        }
+        else if (value instanceof String) {
+            return "s" + value;
+        }
+        else if (value instanceof Integer) {
+            return "i" + value;
+        }
+        else if (value instanceof Long) {
+            return "l" + value;
+        }
+        else if (value instanceof Boolean) {
+            return "b" + value;
+        }
+
+        throw new IllegalArgumentException("Unsupported cursor value type: " + value.getClass());
+    }
+
+    private static Object decodeValue(String encoded) {
+        if (encoded.isEmpty()) {
+            throw new IllegalArgumentException("Malformed cursor value");
+        }
+
+        String value = encoded.substring(1);
+
+        switch (encoded.charAt(0)) {
+            case 'n':
+                return null;
+
+            case 'd':
+                return new Date(Long.parseLong(value));
+
+            case 's':
+                return value;
+
+            case 'i':
+                return Integer.valueOf(value);
+
+            case 'l':
+                return Long.valueOf(value);
+
+            case 'b':
+                return Boolean.valueOf(value);
+
+            default:
+                throw new IllegalArgumentException("Malformed cursor value: " + encoded);
+        }
+    }
+}
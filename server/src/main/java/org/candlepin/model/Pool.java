@@ -33,6 +33,7 @@ import org.hibernate.annotations.BatchSize;
 import org.hibernate.annotations.Cascade;
 import org.hibernate.annotations.Fetch;
 import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.Formula;
 import org.hibernate.annotations.GenericGenerator;
 import org.hibernate.annotations.LazyCollection;
 import org.hibernate.annotations.LazyCollectionOption;
@@ -61,6 +62,8 @@ import javax.persistence.ManyToOne;
 import javax.persistence.MapKeyColumn;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import javax.validation.constraints.Min;
@@ -310,6 +313,18 @@ public class Pool extends AbstractHibernateObject<Pool> implements Owned, Named,
     @JsonDeserialize(using = CandlepinAttributeDeserializer.class)
     private Map<String, String> attributes;
 
+    // Denormalized copies of the attributes the pool queries filter on. These are maintained by
+    // updateAttributeFlags, and are never set directly.
+    @Column(name = "attr_virt_only")
+    private Boolean virtOnlyFlag;
+
+    @Column(name = "attr_dev_pool")
+    private Boolean devPoolFlag;
+
+    @Column(name = "attr_requires_host")
+    @Size(max = 255)
+    private String requiresHostFlag;
+
     @OneToMany(mappedBy = "pool")
     @LazyCollection(LazyCollectionOption.EXTRA)
     private Set<Entitlement> entitlements;
@@ -330,6 +345,15 @@ public class Pool extends AbstractHibernateObject<Pool> implements Owned, Named,
     @NotNull
     private Long consumed;
 
+    /**
+     * The consumption reserved on this pool's slots in the pool consumption ledger which has not
+     * yet been folded into the consumed count. Read-only; maintained by the ledger within a
+     * transaction.
+     */
+    @Formula("(SELECT COALESCE(SUM(slot.consumed), 0) FROM " + PoolConsumptionSlot.DB_TABLE +
+        " slot WHERE slot.pool_id = id)")
+    private Long ledgerConsumed;
+
     @Column(name = "quantity_exported")
     @NotNull
     private Long exported;
@@ -524,6 +548,35 @@ public class Pool extends AbstractHibernateObject<Pool> implements Owned, Named,
         this.consumed = consumed;
     }
 
+    /**
+     * @return quantity consumed through the pool consumption ledger and not yet folded into the
+     * consumed count.
+     */
+    @JsonIgnore
+    public Long getLedgerConsumed() {
+        return ledgerConsumed == null ? 0 : ledgerConsumed;
+    }
+
+    /**
+     * @param ledgerConsumed quantity consumed through the pool consumption ledger.
+     */
+    public void setLedgerConsumed(Long ledgerConsumed) {
+        // Calculated at DB fetch time; set by the ledger for changes in a single transaction
+        this.ledgerConsumed = ledgerConsumed;
+    }
+
+    /**
+     * The consumed count only includes the consumption recorded in the pool consumption ledger
+     * once it has been folded, so anything reporting or checking the pool's consumption must use
+     * this total instead.
+     *
+     * @return quantity currently consumed, including the ledger's unfolded consumption.
+     */
+    @JsonIgnore
+    public Long getTotalConsumed() {
+        return getConsumed() + getLedgerConsumed();
+    }
+
     /**
      * @return quantity currently exported.
      */
@@ -738,6 +791,8 @@ public class Pool extends AbstractHibernateObject<Pool> implements Owned, Named,
         // effort to fix all of these inconsistencies with a massive database update, we can't
         // perform any input sanitation/massaging.
         this.attributes.put(key, value);
+        this.updateAttributeFlags();
+
         return this;
     }
 
@@ -761,6 +816,8 @@ public class Pool extends AbstractHibernateObject<Pool> implements Owned, Named,
         boolean present = this.attributes.containsKey(key);
 
         this.attributes.remove(key);
+        this.updateAttributeFlags();
+
         return present;
     }
 
@@ -772,6 +829,8 @@ public class Pool extends AbstractHibernateObject<Pool> implements Owned, Named,
      */
     public Pool clearAttributes() {
         this.attributes.clear();
+        this.updateAttributeFlags();
+
         return this;
     }
 
@@ -792,6 +851,7 @@ public class Pool extends AbstractHibernateObject<Pool> implements Owned, Named,
             this.attributes.putAll(attributes);
         }
 
+        this.updateAttributeFlags();
         return this;
     }
 
@@ -858,7 +918,7 @@ public class Pool extends AbstractHibernateObject<Pool> implements Owned, Named,
             return true;
         }
 
-        if (getConsumed() + quantityToConsume.intValue() <= getQuantity()) {
+        if (getTotalConsumed() + quantityToConsume.intValue() <= getQuantity()) {
             return true;
         }
         return false;
@@ -1166,7 +1226,7 @@ public class Pool extends AbstractHibernateObject<Pool> implements Owned, Named,
         if (this.quantity == -1) {
             return false;
         }
-        return getConsumed() > this.quantity;
+        return getTotalConsumed() > this.quantity;
     }
 
     /**
@@ -1525,4 +1585,51 @@ public class Pool extends AbstractHibernateObject<Pool> implements Owned, Named,
         this.cert = cert;
     }
 
+    Boolean getVirtOnlyFlag() {
+        return this.virtOnlyFlag;
+    }
+
+    Boolean getDevPoolFlag() {
+        return this.devPoolFlag;
+    }
+
+    String getRequiresHostFlag() {
+        return this.requiresHostFlag;
+    }
+
+    /**
+     * Updates the denormalized attribute columns from the attributes of this pool. This is called
+     * by every method which modifies the attributes, as changes to the attribute collection alone
+     * do not trigger the update callbacks of unversioned entities, and again before the pool is
+     * persisted or updated.
+     */
+    @PrePersist
+    @PreUpdate
+    protected void updateAttributeFlags() {
+        this.virtOnlyFlag = toAttributeFlag(this.attributes, Attributes.VIRT_ONLY);
+        this.devPoolFlag = toAttributeFlag(this.attributes, Attributes.DEVELOPMENT_POOL);
+        this.requiresHostFlag = this.attributes.get(Attributes.REQUIRES_HOST);
+    }
+
+    /**
+     * Converts the value of a boolean attribute to its denormalized column value.
+     *
+     * @param attributes
+     *  The attributes from which to read the attribute
+     *
+     * @param key
+     *  The name/key of the attribute
+     *
+     * @return
+     *  null if the attribute is not defined; true if its value is "true", ignoring case; false
+     *  otherwise
+     */
+    static Boolean toAttributeFlag(Map<String, String> attributes, String key) {
+        if (attributes == null || !attributes.containsKey(key)) {
+            return null;
+        }
+
+        return "true".equalsIgnoreCase(attributes.get(key));
+    }
+
 }
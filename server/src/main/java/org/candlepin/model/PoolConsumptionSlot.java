@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.model;
+
+import org.hibernate.annotations.GenericGenerator;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+
+
+/**
+ * A PoolConsumptionSlot holds a share of the unconsumed quantity of a pool. Binds against the pool
+ * record their consumption on one of its slots rather than on the pool itself, allowing concurrent
+ * binds to proceed without contending for the pool's row lock. The consumption recorded on the
+ * slots is periodically folded back into the pool's consumed count.
+ */
+@Entity
+@Table(name = PoolConsumptionSlot.DB_TABLE)
+public class PoolConsumptionSlot extends AbstractHibernateObject {
+
+    /** Name of the table backing this object in the database */
+    public static final String DB_TABLE = "cp_pool_consumption_slot";
+
+    @Id
+    @GeneratedValue(generator = "system-uuid")
+    @GenericGenerator(name = "system-uuid", strategy = "uuid")
+    @Column(length = 32)
+    @NotNull
+    private String id;
+
+    /**
+     * using the id instead of the actual Pool, as slots are only ever updated in bulk and should
+     * never be loaded alongside the pool.
+     */
+    @Column(name = "pool_id", length = 32, nullable = false)
+    @Size(max = 32)
+    @NotNull
+    private String poolId;
+
+    @Column(nullable = false)
+    @NotNull
+    private Integer stripe;
+
+    @Column(nullable = false)
+    @NotNull
+    private Long capacity;
+
+    @Column(nullable = false)
+    @NotNull
+    private Long consumed;
+
+    /**
+     * The quantity of the pool at the time the slot was allocated. Slots are only usable while the
+     * pool's quantity remains unchanged.
+     */
+    @Column(name = "pool_quantity", nullable = false)
+    @NotNull
+    private Long poolQuantity;
+
+    public PoolConsumptionSlot(String poolId, int stripe, long capacity, long poolQuantity) {
+        this.poolId = poolId;
+        this.stripe = stripe;
+        this.capacity = capacity;
+        this.consumed = 0L;
+        this.poolQuantity = poolQuantity;
+    }
+
+    public PoolConsumptionSlot() {
+
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @param id the db id.
+     */
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getPoolId() {
+        return poolId;
+    }
+
+    public void setPoolId(String poolId) {
+        this.poolId = poolId;
+    }
+
+    public Integer getStripe() {
+        return stripe;
+    }
+
+    public void setStripe(Integer stripe) {
+        this.stripe = stripe;
+    }
+
+    public Long getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(Long capacity) {
+        this.capacity = capacity;
+    }
+
+    public Long getConsumed() {
+        return consumed;
+    }
+
+    public void setConsumed(Long consumed) {
+        this.consumed = consumed;
+    }
+
+    public Long getPoolQuantity() {
+        return poolQuantity;
+    }
+
+    public void setPoolQuantity(Long poolQuantity) {
+        this.poolQuantity = poolQuantity;
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
+
+
+
+/**
+ * PoolConsumptionSlotCurator
+ *
+ * Slots are never loaded while binding; reservations and releases are issued as conditional bulk
+ * updates so that the database, rather than the pool's row lock, guards the pool's quantity.
+ */
+public class PoolConsumptionSlotCurator extends AbstractHibernateCurator<PoolConsumptionSlot> {
+
+    public PoolConsumptionSlotCurator() {
+        super(PoolConsumptionSlot.class);
+    }
+
+    /**
+     * Fetches the unreserved capacity of each of the slots of the given pool, as of the time the
+     * query was executed.
+     *
+     * @param poolId
+     *  The ID of the pool for which to fetch slot capacities
+     *
+     * @return
+     *  A map of slot IDs to their unreserved capacity, ordered by stripe
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Long> getAvailableCapacities(String poolId) {
+        Map<String, Long> capacities = new LinkedHashMap<>();
+
+        if (poolId != null) {
+            String hql = "SELECT s.id, s.capacity - s.consumed FROM PoolConsumptionSlot s " +
+                "WHERE s.poolId = :pool_id ORDER BY s.stripe";
+
+            List<Object[]> rows = this.getEntityManager()
+                .createQuery(hql)
+                .setParameter("pool_id", poolId)
+                .getResultList();
+
+            for (Object[] row : rows) {
+                capacities.put((String) row[0], ((Number) row[1]).longValue());
+            }
+        }
+
+        return capacities;
+    }
+
+    /**
+     * Reserves the given quantity on the specified slot, provided the slot has enough unreserved
+     * capacity and the quantity of its pool has not changed since the slot was allocated.
+     *
+     * @param slotId
+     *  The ID of the slot on which to reserve the quantity
+     *
+     * @param quantity
+     *  The quantity to reserve
+     *
+     * @return
+     *  true if the quantity was reserved; false otherwise
+     */
+    public boolean reserve(String slotId, long quantity) {
+        String hql = "UPDATE PoolConsumptionSlot s SET s.consumed = s.consumed + :quantity " +
+            "WHERE s.id = :slot_id AND s.consumed + :quantity <= s.capacity " +
+            "AND s.poolQuantity = (SELECT p.quantity FROM Pool p WHERE p.id = s.poolId)";
+
+        return this.getEntityManager()
+            .createQuery(hql)
+            .setParameter("quantity", quantity)
+            .setParameter("slot_id", slotId)
+            .executeUpdate() == 1;
+    }
+
+    /**
+     * Releases the given quantity from the specified slot, provided the slot has at least that
+     * much quantity reserved.
+     *
+     * @param slotId
+     *  The ID of the slot from which to release the quantity
+     *
+     * @param quantity
+     *  The quantity to release
+     *
+     * @return
+     *  true if the quantity was released; false otherwise
+     */
+    public boolean release(String slotId, long quantity) {
+        String hql = "UPDATE PoolConsumptionSlot s SET s.consumed = s.consumed - :quantity " +
+            "WHERE s.id = :slot_id AND s.consumed >= :quantity";
+
+        return this.getEntityManager()
+            .createQuery(hql)
+            .setParameter("quantity", quantity)
+            .setParameter("slot_id", slotId)
+            .executeUpdate() == 1;
+    }
+
+    /**
+     * Loads the slots of the given pools with a pessimistic write lock. Any slots of the pools
+     * already present in the session are refreshed, as reservations bypass the session.
+     *
+     * @param poolIds
+     *  The IDs of the pools for which to lock slots
+     *
+     * @return
+     *  a list of the locked slots of the given pools
+     */
+    @SuppressWarnings("unchecked")
+    public List<PoolConsumptionSlot> lockByPoolIds(Iterable<String> poolIds) {
+        List<PoolConsumptionSlot> slots = new ArrayList<>();
+
+        if (poolIds != null && poolIds.iterator().hasNext()) {
+            String hql = "SELECT s FROM PoolConsumptionSlot s WHERE s.poolId IN (:pool_ids) " +
+                "ORDER BY s.poolId, s.stripe";
+            Query query = this.getEntityManager().createQuery(hql)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE);
+
+            for (List<String> block : this.partition(poolIds)) {
+                slots.addAll(query.setParameter("pool_ids", block).getResultList());
+            }
+
+            for (PoolConsumptionSlot slot : slots) {
+                this.getEntityManager().refresh(slot);
+            }
+        }
+
+        return slots;
+    }
+
+    /**
+     * Fetches the IDs of all pools which currently have slots allocated.
+     *
+     * @return
+     *  a list of IDs of pools with slots
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getPoolIdsWithSlots() {
+        return this.getEntityManager()
+            .createQuery("SELECT DISTINCT s.poolId FROM PoolConsumptionSlot s")
+            .getResultList();
+    }
+
+    /**
+     * Deletes all slots of the given pools.
+     *
+     * @param poolIds
+     *  The IDs of the pools for which to delete slots
+     *
+     * @return
+     *  the number of slots deleted
+     */
+    public int deleteByPoolIds(Iterable<String> poolIds) {
+        int count = 0;
+
+        if (poolIds != null && poolIds.iterator().hasNext()) {
+            Query query = this.getEntityManager()
+                .createQuery("DELETE FROM PoolConsumptionSlot s WHERE s.poolId IN (:pool_ids)");
+
+            for (List<String> block : this.partition(poolIds)) {
+                count += query.setParameter("pool_ids", block).executeUpdate();
+            }
+        }
+
+        return count;
+    }
+}
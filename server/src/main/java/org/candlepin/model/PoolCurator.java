@@ -16,6 +16,7 @@ package org.candlepin.model;
 
 import org.candlepin.common.paging.Page;
 import org.candlepin.common.paging.PageRequest;
+import org.candlepin.config.ConfigProperties;
 import org.candlepin.model.Pool.PoolType;
 import org.candlepin.model.activationkeys.ActivationKey;
 import org.candlepin.model.activationkeys.ActivationKeyPool;
@@ -75,6 +76,13 @@ public class PoolCurator extends AbstractHibernateCurator<Pool> {
     /** The recommended number of expired pools to fetch in a single call to listExpiredPools */
     public static final int EXPIRED_POOL_BLOCK_SIZE = 2048;
 
+    /** The boolean attributes which have been denormalized to columns of pools and products */
+    private static final Map<String, String> ATTRIBUTE_FLAG_COLUMNS = new HashMap<>();
+    static {
+        ATTRIBUTE_FLAG_COLUMNS.put(Pool.Attributes.VIRT_ONLY, "virtOnlyFlag");
+        ATTRIBUTE_FLAG_COLUMNS.put(Pool.Attributes.DEVELOPMENT_POOL, "devPoolFlag");
+    }
+
     private static Logger log = LoggerFactory.getLogger(PoolCurator.class);
     private ConsumerCurator consumerCurator;
     @Inject
@@ -123,6 +131,23 @@ public class PoolCurator extends AbstractHibernateCurator<Pool> {
         return this.cpQueryFactory.<Pool>buildQuery(this.currentSession(), criteria);
     }
 
+    /**
+     * Returns all pools owned by the given owner, regardless of the state of their subscription.
+     *
+     * @param owner
+     *  The owner for which to fetch pools
+     *
+     * @return
+     *  a query to fetch all pools owned by the given owner
+     */
+    @Transactional
+    public CandlepinQuery<Pool> listAllByOwner(Owner owner) {
+        DetachedCriteria criteria = DetachedCriteria.forClass(Pool.class)
+            .add(Restrictions.eq("owner", owner));
+
+        return this.cpQueryFactory.<Pool>buildQuery(this.currentSession(), criteria);
+    }
+
     @Transactional
     public CandlepinQuery<Pool> listByOwnerAndType(Owner owner, PoolType type) {
         DetachedCriteria criteria = DetachedCriteria.forClass(Pool.class)
@@ -359,7 +384,12 @@ public class PoolCurator extends AbstractHibernateCurator<Pool> {
             // We'll set the owner restriction later
             owner = consumer.getOwner();
 
-            if (consumer.isManifestDistributor()) {
+            boolean useColumns = this.useAttributeColumns();
+
+            if (consumer.isManifestDistributor() && useColumns) {
+                criteria.add(Restrictions.isNull("Pool.requiresHostFlag"));
+            }
+            else if (consumer.isManifestDistributor()) {
                 DetachedCriteria hostPoolSubquery = DetachedCriteria.forClass(Pool.class, "PoolI")
                     .createAlias("PoolI.attributes", "attrib")
                     .setProjection(Projections.id())
@@ -369,8 +399,14 @@ public class PoolCurator extends AbstractHibernateCurator<Pool> {
                 criteria.add(Subqueries.notExists(hostPoolSubquery));
             }
             else if (!consumer.isGuest()) {
-                criteria.add(Restrictions.not(
-                    this.addAttributeFilterSubquery(Pool.Attributes.VIRT_ONLY, Arrays.asList("true"))
+                criteria.add(this.addBooleanAttributeFilter(Pool.Attributes.VIRT_ONLY, false));
+            }
+            else if (consumer.hasFact("virt.uuid") && useColumns) {
+                Consumer host = this.consumerCurator.getHost(consumer);
+
+                criteria.add(Restrictions.or(
+                    Restrictions.isNull("Pool.requiresHostFlag"),
+                    Restrictions.eq("Pool.requiresHostFlag", host != null ? host.getUuid() : "").ignoreCase()
                 ));
             }
             else if (consumer.hasFact("virt.uuid")) {
@@ -517,12 +553,15 @@ public class PoolCurator extends AbstractHibernateCurator<Pool> {
                         }
 
                         if (!positives.isEmpty()) {
-                            criteria.add(this.addAttributeFilterSubquery(attrib, positives));
+                            criteria.add(this.isBooleanAttributeFilter(attrib, positives) ?
+                                this.addBooleanAttributeFilter(attrib, true) :
+                                this.addAttributeFilterSubquery(attrib, positives));
                         }
 
                         if (!negatives.isEmpty()) {
-                            criteria.add(Restrictions.not(
-                                this.addAttributeFilterSubquery(attrib, negatives)));
+                            criteria.add(this.isBooleanAttributeFilter(attrib, negatives) ?
+                                this.addBooleanAttributeFilter(attrib, false) :
+                                Restrictions.not(this.addAttributeFilterSubquery(attrib, negatives)));
                         }
                     }
                     else {
@@ -556,6 +595,110 @@ public class PoolCurator extends AbstractHibernateCurator<Pool> {
         return output;
     }
 
+    /**
+     * Lists the pools with the given IDs, applying the current principal's permissions and the
+     * specified paging.
+     *
+     * @param poolIds
+     *  A collection of IDs of the pools to list
+     *
+     * @param pageRequest
+     *  used to specify paging criteria
+     *
+     * @param postFilter
+     *  if you plan on filtering the list in java
+     *
+     * @return
+     *  a page containing the pools with the given IDs
+     */
+    @Transactional
+    public Page<List<Pool>> listByIds(Collection<String> poolIds, PageRequest pageRequest,
+        boolean postFilter) {
+
+        if (poolIds == null || poolIds.isEmpty()) {
+            Page<List<Pool>> output = new Page<>();
+            output.setPageData(Collections.<Pool>emptyList());
+            output.setMaxRecords(0);
+
+            return output;
+        }
+
+        Criteria criteria = this.createSecureCriteria()
+            .add(CPRestrictions.in("id", poolIds));
+
+        return this.listByCriteria(criteria, pageRequest, postFilter);
+    }
+
+    /**
+     * Checks if pool queries should filter on the denormalized attribute columns of pools and
+     * products, rather than on subqueries of their attributes.
+     *
+     * @return
+     *  true if the attribute columns should be used; false otherwise
+     */
+    protected boolean useAttributeColumns() {
+        return this.config == null ||
+            this.config.getBoolean(ConfigProperties.POOL_ATTRIBUTE_COLUMNS_ENABLED, true);
+    }
+
+    /**
+     * Checks if the given attribute filter only matches the value "true" of an attribute which has
+     * been denormalized to the attribute columns, and can be built with addBooleanAttributeFilter.
+     */
+    private boolean isBooleanAttributeFilter(String key, List<String> values) {
+        return ATTRIBUTE_FLAG_COLUMNS.containsKey(key) && values.size() == 1 &&
+            "true".equalsIgnoreCase(values.get(0)) && this.useAttributeColumns();
+    }
+
+    /**
+     * Builds a criterion matching pools on which the given boolean attribute is, or is not, set to
+     * "true", ignoring case. As with the attribute subqueries, an attribute defined on the pool
+     * takes precedence over the same attribute on its product. Unless the attribute columns have
+     * been disabled, the criterion is built on the denormalized attribute columns of the pool and
+     * its product, which must be joined under the "Pool" and "Product" aliases.
+     *
+     * @param key
+     *  The name/key of the attribute
+     *
+     * @param value
+     *  Whether to match pools on which the attribute is "true", or pools on which it is not
+     *
+     * @return
+     *  a criterion matching pools by the value of the attribute
+     */
+    private Criterion addBooleanAttributeFilter(String key, boolean value) {
+        String column = ATTRIBUTE_FLAG_COLUMNS.get(key);
+
+        if (column == null || !this.useAttributeColumns()) {
+            Criterion criterion = this.addAttributeFilterSubquery(key, Arrays.asList("true"));
+            return value ? criterion : Restrictions.not(criterion);
+        }
+
+        String poolColumn = "Pool." + column;
+        String productColumn = "Product." + column;
+
+        // Impl note:
+        // The columns are null where the attribute is not defined, so the negated criterion is
+        // spelled out rather than built with Restrictions.not, which would not match nulls.
+        if (value) {
+            return Restrictions.or(
+                Restrictions.eq(poolColumn, Boolean.TRUE),
+                Restrictions.and(
+                    Restrictions.isNull(poolColumn),
+                    Restrictions.eq(productColumn, Boolean.TRUE)
+                )
+            );
+        }
+
+        return Restrictions.or(
+            Restrictions.eq(poolColumn, Boolean.FALSE),
+            Restrictions.and(Restrictions.isNull(poolColumn), Restrictions.or(
+                Restrictions.isNull(productColumn),
+                Restrictions.eq(productColumn, Boolean.FALSE)
+            ))
+        );
+    }
+
     @SuppressWarnings("checkstyle:indentation")
     private Criterion addAttributeFilterSubquery(String key, Collection<String> values) {
         // key = this.sanitizeMatchesFilter(key);
@@ -1458,8 +1601,7 @@ public class PoolCurator extends AbstractHibernateCurator<Pool> {
             .setProjection(Projections.distinct(Projections.id()));
 
         criteria.add(Restrictions.eq("owner", consumer.getOwner()))
-            .add(this.addAttributeFilterSubquery(
-                Pool.Attributes.DEVELOPMENT_POOL, Arrays.asList("true")))
+            .add(this.addBooleanAttributeFilter(Pool.Attributes.DEVELOPMENT_POOL, true))
             .add(this.addAttributeFilterSubquery(
                 Pool.Attributes.REQUIRES_CONSUMER, Arrays.asList(consumer.getUuid())));
 
@@ -1775,6 +1917,64 @@ public class PoolCurator extends AbstractHibernateCurator<Pool> {
         return providedProductMap;
     }
 
+    /**
+     * Fetches the properties filtered on by the pool index for every pool of the given owner,
+     * without loading the pool entities. Each row holds, in order, the pool's ID, the ID of its
+     * product, its start and end dates, its virt_only, dev_pool and requires_host attribute
+     * columns, and the virt_only and dev_pool attribute columns of its product.
+     *
+     * @param owner
+     *  The owner for which to fetch pool properties
+     *
+     * @return
+     *  A list of pool property rows
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object[]> getPoolIndexRows(Owner owner) {
+        String jpql = "SELECT p.id, prod.id, p.startDate, p.endDate, p.virtOnlyFlag, p.devPoolFlag, " +
+            "p.requiresHostFlag, prod.virtOnlyFlag, prod.devPoolFlag " +
+            "FROM Pool p LEFT JOIN p.product prod WHERE p.owner.id = :owner_id";
+
+        return (List<Object[]>) this.getEntityManager().createQuery(jpql)
+            .setParameter("owner_id", owner.getId())
+            .getResultList();
+    }
+
+    /**
+     * Fetches a mapping of pool IDs to sets of product IDs representing the provided products of
+     * every pool of the given owner.
+     *
+     * @param owner
+     *  The owner for which to fetch provided product IDs
+     *
+     * @return
+     *  A mapping of pool IDs to provided product IDs
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Set<String>> getProvidedProductIdsByOwner(Owner owner) {
+        Map<String, Set<String>> providedProductMap = new HashMap<>();
+
+        String jpql = "SELECT p.id, pp.id FROM Pool p JOIN p.providedProducts pp " +
+            "WHERE p.owner.id = :owner_id";
+
+        List<Object[]> rows = this.getEntityManager().createQuery(jpql)
+            .setParameter("owner_id", owner.getId())
+            .getResultList();
+
+        for (Object[] cols : rows) {
+            Set<String> providedProducts = providedProductMap.get((String) cols[0]);
+
+            if (providedProducts == null) {
+                providedProducts = new HashSet<>();
+                providedProductMap.put((String) cols[0], providedProducts);
+            }
+
+            providedProducts.add((String) cols[1]);
+        }
+
+        return providedProductMap;
+    }
+
     @Transactional
     public void removeCdn(Cdn cdn) {
         if (cdn == null) {
@@ -222,6 +222,16 @@ public class Product extends AbstractHibernateObject implements SharedEntity, Li
     @Column(name = "entity_version")
     private Integer entityVersion;
 
+    // Denormalized copies of the attributes the pool queries filter on, maintained by
+    // updateAttributeFlags
+    @XmlTransient
+    @Column(name = "attr_virt_only")
+    private Boolean virtOnlyFlag;
+
+    @XmlTransient
+    @Column(name = "attr_dev_pool")
+    private Boolean devPoolFlag;
+
     @XmlTransient
     @Column
     @Type(type = "org.hibernate.type.NumericBooleanType")
@@ -567,6 +577,8 @@ public class Product extends AbstractHibernateObject implements SharedEntity, Li
         // effort to fix all of these inconsistencies with a massive database update, we can't
         // perform any input sanitation/massaging.
         this.attributes.put(key, value);
+        this.updateAttributeFlags();
+
         return this;
     }
 
@@ -590,6 +602,8 @@ public class Product extends AbstractHibernateObject implements SharedEntity, Li
         boolean present = this.attributes.containsKey(key);
 
         this.attributes.remove(key);
+        this.updateAttributeFlags();
+
         return present;
     }
 
@@ -601,6 +615,8 @@ public class Product extends AbstractHibernateObject implements SharedEntity, Li
      */
     public Product clearAttributes() {
         this.attributes.clear();
+        this.updateAttributeFlags();
+
         return this;
     }
 
@@ -621,6 +637,7 @@ public class Product extends AbstractHibernateObject implements SharedEntity, Li
             this.attributes.putAll(attributes);
         }
 
+        this.updateAttributeFlags();
         return this;
     }
 
@@ -1133,6 +1150,25 @@ public class Product extends AbstractHibernateObject implements SharedEntity, Li
     @PreUpdate
     public void updateEntityVersion() {
         this.entityVersion = this.getEntityVersion();
+        this.updateAttributeFlags();
+    }
+
+    /**
+     * Updates the denormalized attribute columns from the attributes of this product. This is
+     * called by every method which modifies the attributes, and again before the product is
+     * persisted or updated.
+     */
+    protected void updateAttributeFlags() {
+        this.virtOnlyFlag = Pool.toAttributeFlag(this.attributes, Attributes.VIRT_ONLY);
+        this.devPoolFlag = Pool.toAttributeFlag(this.attributes, Pool.Attributes.DEVELOPMENT_POOL);
+    }
+
+    Boolean getVirtOnlyFlag() {
+        return this.virtOnlyFlag;
+    }
+
+    Boolean getDevPoolFlag() {
+        return this.devPoolFlag;
     }
 
 }
@@ -14,6 +14,8 @@
  */
 package org.candlepin.pinsetter.core;
 
+import org.candlepin.pinsetter.tasks.HealEntireOrgExecutor;
+
 import com.google.inject.Inject;
 
 /**
@@ -22,10 +24,12 @@ import com.google.inject.Inject;
  */
 public class PinsetterContextListener {
     private PinsetterKernel kernel;
+    private HealEntireOrgExecutor healExecutor;
 
     @Inject
-    public PinsetterContextListener(PinsetterKernel kernel) {
+    public PinsetterContextListener(PinsetterKernel kernel, HealEntireOrgExecutor healExecutor) {
         this.kernel = kernel;
+        this.healExecutor = healExecutor;
     }
 
     public void contextInitialized() {
@@ -45,5 +49,9 @@ public class PinsetterContextListener {
         catch (PinsetterException e) {
             e.printStackTrace();
         }
+        finally {
+            // The jobs using the shared workers have finished, or been interrupted, by now
+            healExecutor.stop();
+        }
     }
 }
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.pinsetter.tasks;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+
+
+/**
+ * The HealEntireOrgExecutor holds the worker threads on which the HealEntireOrgJob heals the
+ * chunks of an org's consumers. The workers are shared by every heal and are long-lived, so the
+ * event sessions the event sink keeps per thread are reused from one heal to the next.
+ * <p></p>
+ * The workers are created the first time a heal needs them, sized by the configured thread
+ * count, and are stopped along with Pinsetter.
+ */
+@Singleton
+public class HealEntireOrgExecutor {
+    private static Logger log = LoggerFactory.getLogger(HealEntireOrgExecutor.class);
+
+    private static final int STOP_TIMEOUT = 5;
+
+    private final int threads;
+
+    private ExecutorService executor;
+    private boolean stopped;
+
+    @Inject
+    public HealEntireOrgExecutor(Configuration config) {
+        int threads = config.getInt(ConfigProperties.HEAL_ORG_JOB_THREADS, 0);
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Fetches the workers, creating them if no heal has needed them yet.
+     *
+     * @throws RejectedExecutionException
+     *  if the workers have been stopped
+     *
+     * @return
+     *  the executor running the workers
+     */
+    public synchronized ExecutorService getExecutor() {
+        if (this.stopped) {
+            throw new RejectedExecutionException("Heal workers have been stopped");
+        }
+
+        if (this.executor == null) {
+            this.executor = Executors.newFixedThreadPool(this.threads, new ThreadFactoryBuilder()
+                .setNameFormat("heal-org-%d")
+                .setDaemon(true)
+                .build());
+        }
+
+        return this.executor;
+    }
+
+    /**
+     * Stops the workers, interrupting any chunk still being healed and waiting briefly for them
+     * to finish. No heal may use the workers afterwards.
+     */
+    public synchronized void stop() {
+        this.stopped = true;
+
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+
+            try {
+                if (!this.executor.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS)) {
+                    log.warn("Heal workers did not stop within {} seconds", STOP_TIMEOUT);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            this.executor = null;
+        }
+    }
+}
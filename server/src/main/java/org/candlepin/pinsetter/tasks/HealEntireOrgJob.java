@@ -16,24 +16,27 @@ package org.candlepin.pinsetter.tasks;
 
 import static org.quartz.JobBuilder.*;
 
+import org.candlepin.audit.EventSink;
+import org.candlepin.auth.Principal;
 import org.candlepin.common.filter.LoggingFilter;
+import org.candlepin.config.ConfigProperties;
 import org.candlepin.controller.AutobindDisabledForOwnerException;
 import org.candlepin.controller.Entitler;
-import org.candlepin.model.Consumer;
-import org.candlepin.model.ConsumerCurator;
-import org.candlepin.model.Entitlement;
+import org.candlepin.guice.CandlepinRequestScope;
+import org.candlepin.model.JobCurator;
 import org.candlepin.model.Owner;
 import org.candlepin.model.OwnerCurator;
 import org.candlepin.pinsetter.core.model.JobStatus;
-import org.candlepin.resource.dto.AutobindData;
+import org.candlepin.util.RdbmsExceptionTranslator;
 import org.candlepin.util.Util;
 
-import org.apache.log4j.MDC;
-import org.jboss.resteasy.spi.BadRequestException;
-
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
-import com.google.inject.persist.Transactional;
+import com.google.inject.Provider;
 
+import org.apache.log4j.MDC;
+import org.jboss.resteasy.spi.BadRequestException;
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
 import org.quartz.JobExecutionContext;
@@ -42,26 +45,62 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xnap.commons.i18n.I18n;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
 
 /**
  * HealEntireOrgJob
+ *
+ * The consumers of the org are sorted by UUID and split into chunks, which are healed in
+ * parallel on the bounded pool of workers shared by all heals, held by the
+ * {@link HealEntireOrgExecutor}. Each chunk reloads the owner and is healed in its own
+ * transaction, locking its consumers in a consistent order before binding. Consumers whose binds
+ * are refused are skipped without failing their chunk. A chunk which fails on a lock conflict,
+ * such as when it deadlocks with another chunk over a shared pool, is rolled back and retried;
+ * once its retries are exhausted, or if it fails for any other reason, its consumers are healed
+ * one at a time, so a single consumer that cannot be healed does not prevent the rest of its
+ * chunk from being healed.
  */
 public class HealEntireOrgJob extends UniqueByEntityJob {
     private static Logger log = LoggerFactory.getLogger(HealEntireOrgJob.class);
     protected static String prefix = "heal_entire_org_";
 
+    /** The minimum interval, in milliseconds, between progress updates to the job's status */
+    private static final long PROGRESS_INTERVAL = 5000;
+
     protected OwnerCurator ownerCurator;
-    protected Entitler entitler;
-    protected ConsumerCurator consumerCurator;
+    protected Provider<Entitler> entitlerProvider;
+    protected JobCurator jobCurator;
+    private EventSink eventSink;
+    private CandlepinRequestScope requestScope;
+    private RdbmsExceptionTranslator exceptionTranslator;
+    private HealEntireOrgExecutor healExecutor;
     private I18n i18n;
 
     @Inject
-    public HealEntireOrgJob(Entitler e, ConsumerCurator c, OwnerCurator o, I18n i18n) {
-        this.entitler = e;
-        this.consumerCurator = c;
-        this.ownerCurator = o;
+    public HealEntireOrgJob(Provider<Entitler> entitlerProvider, OwnerCurator ownerCurator,
+        JobCurator jobCurator, EventSink eventSink, CandlepinRequestScope requestScope,
+        RdbmsExceptionTranslator exceptionTranslator, HealEntireOrgExecutor healExecutor, I18n i18n) {
+
+        this.entitlerProvider = entitlerProvider;
+        this.ownerCurator = ownerCurator;
+        this.jobCurator = jobCurator;
+        this.eventSink = eventSink;
+        this.requestScope = requestScope;
+        this.exceptionTranslator = exceptionTranslator;
+        this.healExecutor = healExecutor;
         this.i18n = i18n;
     }
 
@@ -80,19 +119,11 @@ public class HealEntireOrgJob extends UniqueByEntityJob {
 
             Date entitleDate = (Date) map.get("entitle_date");
 
-            for (String uuid : ownerCurator.getConsumerUuids(owner).list()) {
-                // Do not send in product IDs.  CandlepinPoolManager will take care
-                // of looking up the non or partially compliant products to bind.
-                try {
-                    Consumer consumer = consumerCurator.getConsumer(uuid);
-                    healSingleConsumer(consumer, entitleDate);
-                }
-                // We want to catch everything and continue.
-                // Perhaps add something to surface errors later
-                catch (Exception e) {
-                    log.debug("Healing failed for UUID \"{}\" with message: {}", uuid, e.getMessage());
-                }
-            }
+            List<String> uuids = new ArrayList<>(ownerCurator.getConsumerUuids(owner).list());
+            Collections.sort(uuids);
+
+            Progress progress = this.healConsumers(ctx, owner, uuids, entitleDate);
+            ctx.setResult(progress.toString());
         }
         catch (Exception e) {
             log.error("EntitlerJob encountered a problem.", e);
@@ -101,13 +132,287 @@ public class HealEntireOrgJob extends UniqueByEntityJob {
         }
     }
 
-    /*
-     * Each consumer heal should be a separate transaction
+    /**
+     * Heals the given consumers in chunks on the shared pool of workers, reporting progress to the
+     * job's status as chunks complete.
      */
-    @Transactional
-    private void healSingleConsumer(Consumer consumer, Date date) throws AutobindDisabledForOwnerException {
-        List<Entitlement> ents = entitler.bindByProducts(AutobindData.create(consumer).on(date), true);
-        entitler.sendEvents(ents);
+    protected Progress healConsumers(JobExecutionContext ctx, Owner owner, List<String> uuids,
+        Date entitleDate) throws InterruptedException {
+
+        List<List<String>> chunks = Lists.partition(uuids, this.getChunkSize());
+        Progress progress = new Progress(uuids.size(), chunks.size());
+
+        if (chunks.isEmpty()) {
+            return progress;
+        }
+
+        log.info("Healing {} consumers of owner {} in {} chunks", uuids.size(), owner.getKey(),
+            chunks.size());
+
+        // Workers inherit the principal of the job, as they bind on its behalf
+        Principal principal = ResteasyProviderFactory.getContextData(Principal.class);
+
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(
+            this.healExecutor.getExecutor());
+        List<Future<Integer>> futures = new ArrayList<>(chunks.size());
+
+        try {
+            // Chunks reload the owner by its key, as its entity belongs to this thread's session
+            for (List<String> chunk : chunks) {
+                futures.add(completion.submit(
+                    new ChunkHealer(principal, owner.getKey(), chunk, entitleDate, progress)));
+            }
+
+            long lastUpdate = System.currentTimeMillis();
+            for (int i = 0; i < chunks.size(); ++i) {
+                try {
+                    completion.take().get();
+                }
+                catch (ExecutionException e) {
+                    // Chunks handle their own failures; this should only happen on programming errors
+                    log.error("Unexpected failure while healing chunk", e.getCause());
+                }
+
+                progress.chunkCompleted();
+
+                long now = System.currentTimeMillis();
+                if (now - lastUpdate >= PROGRESS_INTERVAL) {
+                    this.reportProgress(ctx, progress);
+                    lastUpdate = now;
+                }
+            }
+        }
+        finally {
+            // Chunks still pending if the job was interrupted must not hold the shared workers
+            for (Future<Integer> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        log.info("Finished healing owner {}: {}", owner.getKey(), progress);
+        return progress;
+    }
+
+    /**
+     * Writes the current progress of the heal to the job's status
+     */
+    private void reportProgress(JobExecutionContext ctx, Progress progress) {
+        try {
+            JobStatus status = this.jobCurator.find(ctx.getJobDetail().getKey().getName());
+
+            if (status != null) {
+                status.setResult(progress.toString());
+                status.setResultData(progress.toMap());
+                this.jobCurator.merge(status);
+            }
+        }
+        catch (RuntimeException e) {
+            // Progress is informational; it must never fail the heal itself
+            log.warn("Unable to update job progress: {}", e.getMessage());
+        }
+    }
+
+    protected int getChunkSize() {
+        return Math.max(1, this.getConfigInt(ConfigProperties.HEAL_ORG_JOB_CHUNK_SIZE, 25));
+    }
+
+    protected int getChunkRetries() {
+        return Math.max(0, this.getConfigInt(ConfigProperties.HEAL_ORG_JOB_RETRIES, 3));
+    }
+
+    private int getConfigInt(String key, int defaultValue) {
+        // config may be null if this Job object has been created by hand
+        return this.config != null ? this.config.getInt(key, defaultValue) : defaultValue;
+    }
+
+    /**
+     * Heals a single chunk of consumers on a worker thread, with its own unit of work, request
+     * scope and event session.
+     */
+    private class ChunkHealer implements Callable<Integer> {
+        private final Principal principal;
+        private final String ownerKey;
+        private final List<String> uuids;
+        private final Date entitleDate;
+        private final Progress progress;
+
+        public ChunkHealer(Principal principal, String ownerKey, List<String> uuids, Date entitleDate,
+            Progress progress) {
+
+            this.principal = principal;
+            this.ownerKey = ownerKey;
+            this.uuids = uuids;
+            this.entitleDate = entitleDate;
+            this.progress = progress;
+        }
+
+        @Override
+        public Integer call() {
+            if (this.principal != null) {
+                ResteasyProviderFactory.pushContext(Principal.class, this.principal);
+            }
+
+            requestScope.enter();
+
+            try {
+                int retries = getChunkRetries();
+
+                for (int attempt = 0; attempt <= retries; ++attempt) {
+                    if (attempt > 0) {
+                        this.progress.chunkRetried();
+                    }
+
+                    try {
+                        int healed = this.heal(this.uuids);
+
+                        this.progress.consumersHealed(healed);
+                        this.progress.consumersFailed(this.uuids.size() - healed);
+                        return healed;
+                    }
+                    catch (AutobindDisabledForOwnerException e) {
+                        // None of the consumers can be healed; healing them one at a time won't help
+                        this.progress.consumersFailed(this.uuids.size());
+                        return 0;
+                    }
+                    catch (Exception e) {
+                        // Only lock conflicts are transient; anything else would fail again
+                        if (!exceptionTranslator.isLockConflict(e)) {
+                            break;
+                        }
+                    }
+                }
+
+                // Isolate the consumers which cannot be healed from the rest of the chunk
+                log.debug("Chunk of {} consumers failed; healing consumers individually",
+                    this.uuids.size());
+
+                int healed = 0;
+                for (String uuid : this.uuids) {
+                    try {
+                        int result = this.heal(Collections.singletonList(uuid));
+
+                        this.progress.consumersHealed(result);
+                        this.progress.consumersFailed(1 - result);
+                        healed += result;
+                    }
+                    // We want to catch everything and continue.
+                    catch (Exception e) {
+                        this.progress.consumersFailed(1);
+                    }
+                }
+
+                return healed;
+            }
+            finally {
+                requestScope.exit();
+                ResteasyProviderFactory.clearContextData();
+            }
+        }
+
+        /**
+         * Heals the given consumers in a single transaction, dispatching the resulting events only
+         * once the transaction has been committed. The owner is loaded within the heal's own unit
+         * of work.
+         *
+         * @return the number of consumers healed
+         */
+        private int heal(List<String> consumerUuids) throws Exception {
+            boolean startedUow = startUnitOfWork();
+
+            try {
+                Owner owner = ownerCurator.lookupByKey(this.ownerKey);
+                if (owner == null) {
+                    // The owner was deleted while it was being healed, along with its consumers
+                    return 0;
+                }
+
+                int healed = entitlerProvider.get().healConsumers(owner, consumerUuids,
+                    this.entitleDate);
+                eventSink.sendEvents();
+
+                return healed;
+            }
+            catch (Exception e) {
+                log.debug("Healing failed for {} consumers starting with UUID \"{}\" with message: {}",
+                    consumerUuids.size(), consumerUuids.get(0), e.getMessage());
+
+                eventSink.rollback();
+                throw e;
+            }
+            finally {
+                if (startedUow) {
+                    endUnitOfWork();
+                }
+            }
+        }
+    }
+
+    /**
+     * Tracks the progress of a heal across its workers
+     */
+    protected static class Progress {
+        private final int consumers;
+        private final int chunks;
+        private final AtomicInteger healed = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicInteger retried = new AtomicInteger();
+
+        public Progress(int consumers, int chunks) {
+            this.consumers = consumers;
+            this.chunks = chunks;
+        }
+
+        public void consumersHealed(int count) {
+            this.healed.addAndGet(count);
+        }
+
+        public void consumersFailed(int count) {
+            this.failed.addAndGet(count);
+        }
+
+        public void chunkCompleted() {
+            this.completed.incrementAndGet();
+        }
+
+        public void chunkRetried() {
+            this.retried.incrementAndGet();
+        }
+
+        public int getHealed() {
+            return this.healed.get();
+        }
+
+        public int getFailed() {
+            return this.failed.get();
+        }
+
+        public int getCompletedChunks() {
+            return this.completed.get();
+        }
+
+        public int getRetriedChunks() {
+            return this.retried.get();
+        }
+
+        public Map<String, Integer> toMap() {
+            Map<String, Integer> map = new LinkedHashMap<>();
+            map.put("consumers", this.consumers);
+            map.put("healed", this.getHealed());
+            map.put("failed", this.getFailed());
+            map.put("chunks", this.chunks);
+            map.put("completedChunks", this.getCompletedChunks());
+            map.put("retriedChunks", this.getRetriedChunks());
+
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Healed %d of %d consumers (%d failed); %d of %d chunks complete, " +
+                "%d retries", this.getHealed(), this.consumers, this.getFailed(), this.getCompletedChunks(),
+                this.chunks, this.getRetriedChunks());
+        }
     }
 
     public static JobDetail healEntireOrg(String ownerId, Date entitleDate) {
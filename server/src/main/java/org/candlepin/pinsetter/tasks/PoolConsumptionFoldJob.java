@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2009 - 2012 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.pinsetter.tasks;
+
+import org.candlepin.controller.PoolConsumptionLedger;
+
+import com.google.inject.Inject;
+
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PoolConsumptionFoldJob: Runs periodically to fold the consumption recorded in the pool
+ * consumption ledger back into the consumed counts of the pools.
+ *
+ * The job runs regardless of whether the ledger is enabled, so that consumption recorded before
+ * the ledger was disabled is eventually folded back.
+ */
+public class PoolConsumptionFoldJob extends KingpinJob {
+
+    // Every five minutes:
+    public static final String DEFAULT_SCHEDULE = "0 0/5 * * * ?";
+
+    private PoolConsumptionLedger ledger;
+
+    private static Logger log = LoggerFactory.getLogger(PoolConsumptionFoldJob.class);
+
+    @Inject
+    public PoolConsumptionFoldJob(PoolConsumptionLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    public void toExecute(JobExecutionContext ctx) throws JobExecutionException {
+        int count = this.ledger.foldAll();
+        log.debug("Folded the ledger consumption of {} pools", count);
+    }
+}
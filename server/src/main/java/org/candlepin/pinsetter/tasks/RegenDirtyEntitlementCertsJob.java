@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.pinsetter.tasks;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.controller.EntitlementCertificateRegenerator;
+
+import com.google.inject.Inject;
+
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * RegenDirtyEntitlementCertsJob: Runs periodically to regenerate the certificates of entitlements
+ * marked dirty, so consumers find their certificates already regenerated when they next check in
+ * rather than waiting on their regeneration.
+ *
+ * Entitlements are regenerated soonest expected check-in first, up to a configured number per
+ * run, while keeping within the configured share of the server's processors. Entitlements left
+ * dirty are picked up by the next run, or regenerated on demand as before; so are those of
+ * consumers which have stopped checking in.
+ */
+@DisallowConcurrentExecution
+public class RegenDirtyEntitlementCertsJob extends KingpinJob {
+
+    // Every five minutes:
+    public static final String DEFAULT_SCHEDULE = "0 0/5 * * * ?";
+
+    private static final double DEFAULT_CPU_BUDGET = 0.25;
+
+    private static Logger log = LoggerFactory.getLogger(RegenDirtyEntitlementCertsJob.class);
+
+    private EntitlementCertificateRegenerator regenerator;
+    private boolean enabled;
+    private double cpuBudget;
+    private int maxPerRun;
+
+    @Inject
+    public RegenDirtyEntitlementCertsJob(Configuration conf, EntitlementCertificateRegenerator regenerator) {
+        this.regenerator = regenerator;
+
+        this.enabled = conf.getBoolean(ConfigProperties.CERT_DRAINER_ENABLED, false);
+        this.maxPerRun = conf.getInt(ConfigProperties.CERT_DRAINER_MAX_PER_RUN, 10000);
+
+        String budget = conf.getString(ConfigProperties.CERT_DRAINER_CPU_BUDGET,
+            String.valueOf(DEFAULT_CPU_BUDGET));
+
+        try {
+            this.cpuBudget = Double.parseDouble(budget);
+        }
+        catch (NumberFormatException e) {
+            log.warn("Invalid {}: {}; using {}", ConfigProperties.CERT_DRAINER_CPU_BUDGET, budget,
+                DEFAULT_CPU_BUDGET);
+
+            this.cpuBudget = DEFAULT_CPU_BUDGET;
+        }
+    }
+
+    public void toExecute(JobExecutionContext ctx) throws JobExecutionException {
+        if (!this.enabled) {
+            log.debug("Background regeneration of dirty entitlements is disabled");
+            return;
+        }
+
+        int count = this.regenerator.drain(this.maxPerRun, this.cpuBudget);
+        log.debug("Regenerated certificates of {} dirty entitlement(s)", count);
+    }
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.pki;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+
+
+/**
+ * The KeyPairPool holds RSA key pairs generated ahead of time by background threads, so the key
+ * pairs of consumer certificates need not be generated while a client waits on its registration
+ * or certificates. RSA key generation is by far the most expensive step of issuing a consumer's
+ * first certificate.
+ * <p></p>
+ * The pool is bounded; its threads generate key pairs until it is full, and resume as pairs are
+ * drawn from it. When the pool is empty or disabled, key pairs are generated on the calling
+ * thread instead. Private keys may be kept encrypted while pooled, with a key generated when
+ * the pool is created and never stored.
+ */
+@Singleton
+public class KeyPairPool {
+    private static Logger log = LoggerFactory.getLogger(KeyPairPool.class);
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int CIPHER_KEY_SIZE = 128;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+    private static final int STOP_TIMEOUT = 5;
+
+    private final PKIUtility pki;
+    private final boolean enabled;
+    private final int size;
+    private final int threads;
+    private final BlockingQueue<PooledKeyPair> pairs;
+
+    private final SecureRandom random;
+    private final SecretKey secretKey;
+
+    private final AtomicLong generated;
+    private final AtomicLong drawn;
+    private final AtomicLong inline;
+    private final AtomicLong failures;
+
+    private ExecutorService executor;
+    private long started;
+
+    @Inject
+    public KeyPairPool(Configuration config, PKIUtility pki) {
+        this.pki = pki;
+        this.size = config.getInt(ConfigProperties.KEY_PAIR_POOL_SIZE, 100);
+        this.threads = config.getInt(ConfigProperties.KEY_PAIR_POOL_THREADS, 1);
+        this.enabled = config.getBoolean(ConfigProperties.KEY_PAIR_POOL_ENABLED, false) &&
+            this.size > 0 && this.threads > 0;
+
+        this.pairs = new ArrayBlockingQueue<>(Math.max(this.size, 1));
+        this.random = new SecureRandom();
+        this.secretKey = this.enabled && config.getBoolean(ConfigProperties.KEY_PAIR_POOL_ENCRYPTED, false) ?
+            this.generateSecretKey() :
+            null;
+
+        this.generated = new AtomicLong();
+        this.drawn = new AtomicLong();
+        this.inline = new AtomicLong();
+        this.failures = new AtomicLong();
+    }
+
+    /**
+     * Checks if the key pair pool has been enabled by configuration.
+     *
+     * @return
+     *  true if the key pair pool is enabled; false otherwise
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Starts the background threads filling the pool, if it is enabled.
+     */
+    public synchronized void start() {
+        if (!this.enabled) {
+            log.info("Key pair pool is disabled");
+            return;
+        }
+
+        if (this.executor != null) {
+            return;
+        }
+
+        log.info("Pre-generating up to {} key pairs on {} thread(s){}", this.size, this.threads,
+            this.secretKey != null ? ", encrypted while pooled" : "");
+
+        this.started = System.currentTimeMillis();
+        this.executor = Executors.newFixedThreadPool(this.threads, new ThreadFactoryBuilder()
+            .setNameFormat("key-pair-pool-%d")
+            .setDaemon(true)
+            .setPriority(Thread.MIN_PRIORITY)
+            .build());
+
+        for (int i = 0; i < this.threads; ++i) {
+            this.executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    refill();
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops the background threads filling the pool, waiting briefly for any key pair being
+     * generated. Key pairs already pooled may still be drawn.
+     */
+    public synchronized void stop() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+
+            try {
+                if (!this.executor.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS)) {
+                    log.warn("Key pair pool threads did not stop within {} seconds", STOP_TIMEOUT);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Fetches a key pair from the pool, generating one on the calling thread if the pool is
+     * empty or disabled. Each key pair is only ever returned once.
+     *
+     * @throws NoSuchAlgorithmException
+     *  if a key pair has to be generated and RSA keys are not supported
+     *
+     * @return
+     *  an RSA key pair
+     */
+    public KeyPair getKeyPair() throws NoSuchAlgorithmException {
+        PooledKeyPair pooled = this.enabled ? this.pairs.poll() : null;
+
+        if (pooled != null) {
+            try {
+                KeyPair pair = this.unwrap(pooled);
+                this.drawn.incrementAndGet();
+
+                return pair;
+            }
+            catch (GeneralSecurityException e) {
+                log.error("Unable to decrypt pooled key pair; generating a new one", e);
+                this.failures.incrementAndGet();
+            }
+        }
+
+        this.inline.incrementAndGet();
+        return this.pki.generateNewKeyPair();
+    }
+
+    /**
+     * Fetches the statistics of this pool: its capacity and current depth, the number of key
+     * pairs generated in the background, drawn from the pool or generated inline because the
+     * pool was empty, and the rate at which the pool has been refilled since it was started.
+     *
+     * @return
+     *  a map of statistics of the key pair pool
+     */
+    public Map<String, Object> getStatistics() {
+        long generated = this.generated.get();
+        long elapsed = this.started > 0 ? System.currentTimeMillis() - this.started : 0;
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", this.enabled);
+        stats.put("encrypted", this.secretKey != null);
+        stats.put("size", this.size);
+        stats.put("threads", this.threads);
+        stats.put("depth", this.pairs.size());
+        stats.put("generated", generated);
+        stats.put("drawn", this.drawn.get());
+        stats.put("inline", this.inline.get());
+        stats.put("failures", this.failures.get());
+        stats.put("refill_rate_per_minute", elapsed > 0 ? generated * 60000.0 / elapsed : 0.0);
+
+        return stats;
+    }
+
+    /**
+     * Generates key pairs until the pool is full, then waits for room and resumes, until the
+     * thread is interrupted.
+     */
+    protected void refill() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                PooledKeyPair pooled = this.wrap(this.pki.generateNewKeyPair());
+
+                this.pairs.put(pooled);
+                this.generated.incrementAndGet();
+            }
+        }
+        catch (InterruptedException e) {
+            log.debug("Key pair pool refill thread stopped");
+        }
+        catch (Exception e) {
+            // Key generation failing once will fail every time; leave it to the inline fallback
+            log.error("Unable to pre-generate key pairs; key pairs will be generated inline", e);
+            this.failures.incrementAndGet();
+        }
+    }
+
+    private SecretKey generateSecretKey() {
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(CIPHER_KEY_SIZE, this.random);
+
+            return generator.generateKey();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private PooledKeyPair wrap(KeyPair pair) throws GeneralSecurityException {
+        if (this.secretKey == null) {
+            return new PooledKeyPair(pair.getPublic(), pair.getPrivate(), null, null);
+        }
+
+        byte[] iv = new byte[IV_LENGTH];
+        this.random.nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, this.secretKey, new GCMParameterSpec(TAG_LENGTH, iv));
+
+        return new PooledKeyPair(pair.getPublic(), null, iv, cipher.doFinal(pair.getPrivate().getEncoded()));
+    }
+
+    private KeyPair unwrap(PooledKeyPair pooled) throws GeneralSecurityException {
+        if (pooled.privateKey != null) {
+            return new KeyPair(pooled.publicKey, pooled.privateKey);
+        }
+
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, this.secretKey, new GCMParameterSpec(TAG_LENGTH, pooled.iv));
+
+        PrivateKey privateKey = KeyFactory.getInstance("RSA")
+            .generatePrivate(new PKCS8EncodedKeySpec(cipher.doFinal(pooled.encryptedPrivateKey)));
+
+        return new KeyPair(pooled.publicKey, privateKey);
+    }
+
+    /**
+     * A pooled key pair, holding either its private key or the encrypted encoding of it.
+     */
+    private static class PooledKeyPair {
+        private final PublicKey publicKey;
+        private final PrivateKey privateKey;
+        private final byte[] iv;
+        private final byte[] encryptedPrivateKey;
+
+        public PooledKeyPair(PublicKey publicKey, PrivateKey privateKey, byte[] iv,
+            byte[] encryptedPrivateKey) {
+
+            this.publicKey = publicKey;
+            this.privateKey = privateKey;
+            this.iv = iv;
+            this.encryptedPrivateKey = encryptedPrivateKey;
+        }
+    }
+}
@@ -30,4 +30,11 @@ public class ArgumentJsContext extends JsContext {
         }
     }
 
+    @Override
+    public void removeFrom(Scriptable scope) {
+        for (String key : this.contextArgs.keySet()) {
+            scope.delete(key);
+        }
+    }
+
 }
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js;
+
+import org.candlepin.dto.rules.v1.PoolDTO;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.ContextualSerializer;
+import com.fasterxml.jackson.databind.ser.ResolvableSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+
+
+/**
+ * Jackson JsonSerializer writing the pools sent to the rules from the fragments of the
+ * {@link RulesFragmentCache}. Fragments missing from the cache are serialized by the default
+ * serializer of the pool and cached.
+ * <p></p>
+ * JSON contexts have the fragment written into them as raw JSON. Native contexts, which are built
+ * as a tree through a TokenBuffer, have the fragment's tree embedded into them; the tree is shared
+ * by every context the pool is written to, and must not be modified.
+ */
+class FragmentCachingSerializer extends JsonSerializer<Object>
+    implements ContextualSerializer, ResolvableSerializer {
+
+    private final JsonSerializer<Object> base;
+    private final RulesFragmentCache cache;
+    private final ObjectMapper mapper;
+
+    FragmentCachingSerializer(JsonSerializer<Object> base, RulesFragmentCache cache, ObjectMapper mapper) {
+        this.base = base;
+        this.cache = cache;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public void serialize(Object value, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+
+        RulesFragmentCache.Fragment fragment = this.cache.getFragment((PoolDTO) value);
+        if (fragment == null) {
+            this.base.serialize(value, gen, provider);
+            return;
+        }
+
+        if (gen instanceof TokenBuffer) {
+            JsonNode tree = fragment.getTree();
+            if (tree == null) {
+                TokenBuffer buffer = new TokenBuffer(this.mapper, false);
+                this.base.serialize(value, buffer, provider);
+
+                tree = this.mapper.readTree(buffer.asParser());
+                fragment.setTree(tree);
+            }
+
+            gen.writeEmbeddedObject(tree);
+        }
+        else {
+            String json = fragment.getJson();
+            if (json == null) {
+                StringWriter writer = new StringWriter();
+                try (JsonGenerator fragmentGen = this.mapper.getFactory().createGenerator(writer)) {
+                    this.base.serialize(value, fragmentGen, provider);
+                }
+
+                json = writer.toString();
+                fragment.setJson(json);
+            }
+
+            gen.writeRawValue(json);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public JsonSerializer<?> createContextual(SerializerProvider provider, BeanProperty property)
+        throws JsonMappingException {
+
+        if (this.base instanceof ContextualSerializer) {
+            JsonSerializer<?> contextual = ((ContextualSerializer) this.base)
+                .createContextual(provider, property);
+
+            if (contextual != this.base) {
+                return new FragmentCachingSerializer((JsonSerializer<Object>) contextual, this.cache,
+                    this.mapper);
+            }
+        }
+
+        return this;
+    }
+
+    @Override
+    public void resolve(SerializerProvider provider) throws JsonMappingException {
+        if (this.base instanceof ResolvableSerializer) {
+            ((ResolvableSerializer) this.base).resolve(provider);
+        }
+    }
+
+    @Override
+    public Class<Object> handledType() {
+        return this.base.handledType();
+    }
+}
@@ -44,4 +44,21 @@ public abstract class JsContext {
      * @param scope the {@link Scriptable} to inject the arguments into.
      */
     public abstract void applyTo(Scriptable scope);
+
+    /**
+     * Remove this context's arguments from the specified {@link Scriptable}, allowing the
+     * scope to be reused by other contexts.
+     *
+     * @param scope the {@link Scriptable} to remove the arguments from.
+     */
+    public abstract void removeFrom(Scriptable scope);
+
+    /**
+     * Fetches the size of the arguments last applied by this context, once serialized.
+     *
+     * @return the length of the serialized arguments, or -1 if the arguments are not serialized.
+     */
+    public long getPayloadSize() {
+        return -1;
+    }
 }
@@ -14,6 +14,8 @@
  */
 package org.candlepin.policy.js;
 
+import org.candlepin.policy.js.RulesProfiler.Phase;
+
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.RhinoException;
@@ -28,6 +30,13 @@ import org.slf4j.LoggerFactory;
  * JsRunner - Responsible for running the javascript rules methods in all
  * namespaces.
  * Used by the various "Rules" classes.
+ * <p></p>
+ * Runners created by the {@link JsRunnerProvider} borrow a pooled scope for each
+ * invocation, so the arguments of an invocation are only visible to that invocation.
+ * <p></p>
+ * When rules profiling is enabled, the time taken to serialize the arguments of each call, to
+ * run the rules function and, as reported by the rules classes, to deserialize its result, is
+ * recorded by the {@link RulesProfiler}.
  */
 public class JsRunner {
 
@@ -36,6 +45,8 @@ public class JsRunner {
     private Object rulesNameSpace;
     private String namespace;
     private Scriptable scope;
+    private JsScopePool scopePool;
+    private RulesProfiler profiler;
 
     private boolean initialized = false;
 
@@ -43,6 +54,16 @@ public class JsRunner {
         this.scope = scope;
     }
 
+    JsRunner(Scriptable scope, RulesProfiler profiler) {
+        this.scope = scope;
+        this.profiler = profiler;
+    }
+
+    JsRunner(JsScopePool scopePool, RulesProfiler profiler) {
+        this.scopePool = scopePool;
+        this.profiler = profiler;
+    }
+
     /**
      * initialize the javascript rules for the provided namespace. you must run
      * this
@@ -55,6 +76,12 @@ public class JsRunner {
         this.namespace = namespace;
 
         if (!initialized) {
+            if (scopePool != null) {
+                // Borrow a scope to make sure the namespace exists; it is kept warm for later use
+                scopePool.release(scopePool.borrow(namespace), null);
+                this.initialized = true;
+                return;
+            }
 
             Context context = Context.enter();
             try {
@@ -79,6 +106,18 @@ public class JsRunner {
         init(namespace);
     }
 
+    /**
+     * Checks if this runner may run functions from several threads at once. Runners borrowing
+     * their scopes from a scope pool run each call in its own scope; other runners share a single
+     * scope between every call.
+     *
+     * @return
+     *  true if functions may be run concurrently; false otherwise
+     */
+    public boolean isConcurrent() {
+        return this.scopePool != null;
+    }
+
     Object unwrapReturnValue(Object result) {
         if (result instanceof Wrapper) {
             result = ((Wrapper) result).unwrap();
@@ -87,14 +126,25 @@ public class JsRunner {
         return result instanceof Undefined ? null : result;
     }
 
-    @SuppressWarnings("unchecked")
     public <T> T invokeMethod(String method)
         throws NoSuchMethodException, RhinoException {
-        Scriptable localScope = Context.toObject(this.rulesNameSpace, scope);
+        if (scopePool != null) {
+            return this.invokePooled(method, null);
+        }
+
+        return this.invokeMethod(method, this.rulesNameSpace, this.scope);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T invokeMethod(String method, Object rulesNameSpace, Scriptable scope)
+        throws NoSuchMethodException, RhinoException {
+        Scriptable localScope = Context.toObject(rulesNameSpace, scope);
         Object func = ScriptableObject.getProperty(localScope, method);
         if (!(func instanceof Function)) {
             throw new NoSuchMethodException("no such javascript method: " + method);
         }
+        long start = this.isProfiling() ? System.nanoTime() : 0;
+
         Context context = Context.enter();
         try {
             return (T) unwrapReturnValue(((Function) func).call(context, scope,
@@ -102,22 +152,97 @@ public class JsRunner {
         }
         finally {
             Context.exit();
+
+            if (this.isProfiling()) {
+                profiler.recordTime(namespace, method, Phase.SCRIPT, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void applyContext(String method, JsContext context, Scriptable scope) {
+        if (!this.isProfiling()) {
+            context.applyTo(scope);
+            return;
+        }
+
+        long start = System.nanoTime();
+        context.applyTo(scope);
+        profiler.recordTime(namespace, method, Phase.SERIALIZATION, System.nanoTime() - start);
+    }
+
+    private void recordPayload(String method, JsContext context, Object result) {
+        if (this.isProfiling()) {
+            profiler.recordPayload(namespace, method,
+                context != null ? context.getPayloadSize() : -1,
+                result instanceof String ? ((String) result).length() : -1);
+        }
+    }
+
+    private boolean isProfiling() {
+        return profiler != null && profiler.isEnabled();
+    }
+
+    /**
+     * Records the time taken by a rules class to deserialize the result of a rules function,
+     * if rules profiling is enabled.
+     *
+     * @param function the rules function whose result was deserialized
+     * @param start the value of {@link System#nanoTime()} when deserialization started
+     */
+    public void recordDeserialization(String function, long start) {
+        if (this.isProfiling()) {
+            profiler.recordTime(namespace, function, Phase.DESERIALIZATION, System.nanoTime() - start);
+        }
+    }
+
+    private <T> T invokePooled(String method, JsContext context)
+        throws NoSuchMethodException, RhinoException {
+        if (!initialized) {
+            throw new IllegalStateException("JsRunner has not been initialized to a namespace");
+        }
+
+        JsScopePool.PooledScope pooled = scopePool.borrow(namespace);
+        try {
+            if (context != null) {
+                this.applyContext(method, context, pooled.getScope());
+            }
+
+            T result = this.invokeMethod(method, pooled.getNamespaceObject(), pooled.getScope());
+            this.recordPayload(method, context, result);
+
+            return result;
+        }
+        finally {
+            scopePool.release(pooled, context);
         }
     }
 
-    @SuppressWarnings("unchecked")
     public <T> T invokeMethod(String method, JsContext context)
         throws NoSuchMethodException, RhinoException {
-        context.applyTo(scope);
-        return (T) invokeMethod(method);
+        if (scopePool != null) {
+            return this.invokePooled(method, context);
+        }
+
+        this.applyContext(method, context, scope);
+
+        T result = this.invokeMethod(method);
+        this.recordPayload(method, context, result);
+
+        return result;
     }
 
     public <T> T invokeRule(String ruleName) {
+        return this.invokeRule(ruleName, null);
+    }
+
+    public <T> T invokeRule(String ruleName, JsContext context) {
         log.debug("Running rule: {} in namespace: {}", ruleName, namespace);
 
         T returner = null;
         try {
-            returner = this.invokeMethod(ruleName);
+            returner = context != null ?
+                this.<T>invokeMethod(ruleName, context) :
+                this.<T>invokeMethod(ruleName);
         }
         catch (NoSuchMethodException ex) {
             log.info("No rule found: {} in namespace: {}", ruleName, namespace);
@@ -128,11 +253,6 @@ public class JsRunner {
         return returner;
     }
 
-    public <T> T invokeRule(String ruleName, JsContext context) {
-        context.applyTo(scope);
-        return invokeRule(ruleName);
-    }
-
     public <T extends Object> T runJsFunction(Class<T> clazz, String function,
         JsContext context) {
         T returner = null;
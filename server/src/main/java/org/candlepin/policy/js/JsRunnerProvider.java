@@ -14,6 +14,8 @@
  */
 package org.candlepin.policy.js;
 
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
 import org.candlepin.model.Rules;
 import org.candlepin.model.Rules.RulesSourceEnum;
 import org.candlepin.model.RulesCurator;
@@ -21,15 +23,24 @@ import org.candlepin.model.RulesCurator;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 
+import org.apache.commons.lang.StringUtils;
+import org.mozilla.javascript.CompilerEnvirons;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.GeneratedClassLoader;
 import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.optimizer.ClassCompiler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -37,10 +48,25 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * Reads/compiles our javascript rules and the standard js objects only
  * once across the JVM lifetime (and whenever the rules require a recompile), and creates
  * lightweight execution scopes per thread/request.
+ * <p></p>
+ * The rules are recompiled when they are uploaded, deleted or imported through this node, and
+ * when the {@link RulesVersionPoller} finds they have been changed by another node. Checking the
+ * rules version in the database on every request is only done when enabled by configuration.
+ * <p></p>
+ * When the rules scope pool is enabled, the execution scopes are kept in a {@link JsScopePool}
+ * per compiled version of the rules, and are borrowed by runners for each rules invocation
+ * rather than created for every runner.
+ * <p></p>
+ * When a compiled rules cache directory is configured, the classes the rules are compiled to are
+ * stored in a {@link RulesClassCache}, and loaded from it rather than compiled again by nodes
+ * starting later or picking up the same rules change.
  */
 public class JsRunnerProvider implements Provider<JsRunner> {
     private static Logger log = LoggerFactory.getLogger(JsRunnerProvider.class);
 
+    private static final int OPTIMIZATION_LEVEL = 9;
+    private static final String COMPILED_RULES_CLASS = "org.candlepin.policy.js.gen.CompiledRules";
+
     private RulesCurator rulesCurator;
     private Provider<JsRunnerRequestCache> cacheProvider;
     private Script script;
@@ -61,6 +87,24 @@ public class JsRunnerProvider implements Provider<JsRunner> {
     // Use this lock to access script, scope and updated
     private ReadWriteLock scriptLock = new ReentrantReadWriteLock();
 
+    private final boolean requestVersionCheck;
+    private final boolean nativeContexts;
+    private final boolean scopePoolEnabled;
+    private final int scopePoolSize;
+    private final int scopePoolPrewarm;
+    private final long scopePoolMaxWait;
+    private final JsScopePool.Statistics scopePoolStats = new JsScopePool.Statistics();
+    private volatile JsScopePool scopePool;
+    private final RulesClassCache classCache;
+    private final RulesProfiler profiler;
+
+    // Compile statistics are updated within the write lock
+    private final Map<String, Object> compileStats = new LinkedHashMap<>();
+    private long warmLoads;
+    private long warmLoadTime;
+    private long coldCompiles;
+    private long coldCompileTime;
+
     /**
      * DynamicScopeContextFactory - replace the standard rhino context factory with one that
      * enables dynamic scopes. Dynamic scopes allow us to define a global var (ie pools) in
@@ -81,10 +125,45 @@ public class JsRunnerProvider implements Provider<JsRunner> {
         ContextFactory.initGlobal(new DynamicScopeContextFactory());
     }
 
-    @Inject
     public JsRunnerProvider(RulesCurator rulesCurator, Provider<JsRunnerRequestCache> cacheProvider) {
+        this(rulesCurator, cacheProvider, null);
+    }
+
+    public JsRunnerProvider(RulesCurator rulesCurator, Provider<JsRunnerRequestCache> cacheProvider,
+        Configuration config) {
+        this(rulesCurator, cacheProvider, config, new RulesProfiler(config));
+    }
+
+    @Inject
+    public JsRunnerProvider(RulesCurator rulesCurator, Provider<JsRunnerRequestCache> cacheProvider,
+        Configuration config, RulesProfiler profiler) {
         this.rulesCurator = rulesCurator;
         this.cacheProvider = cacheProvider;
+        this.profiler = profiler;
+
+        if (config != null) {
+            this.requestVersionCheck = config.getBoolean(ConfigProperties.RULES_REQUEST_VERSION_CHECK,
+                false);
+            this.nativeContexts = config.getBoolean(ConfigProperties.RULES_NATIVE_CONTEXTS, true);
+            this.scopePoolEnabled = config.getBoolean(ConfigProperties.RULES_SCOPE_POOL_ENABLED, true);
+            this.scopePoolSize = config.getInt(ConfigProperties.RULES_SCOPE_POOL_SIZE, 32);
+            this.scopePoolPrewarm = config.getInt(ConfigProperties.RULES_SCOPE_POOL_PREWARM, 2);
+            this.scopePoolMaxWait = config.getLong(ConfigProperties.RULES_SCOPE_POOL_MAX_WAIT, 50L);
+
+            String cacheDir = config.getString(ConfigProperties.RULES_COMPILED_CACHE_DIR, null);
+            this.classCache = StringUtils.isNotBlank(cacheDir) ?
+                new RulesClassCache(new File(cacheDir)) :
+                null;
+        }
+        else {
+            this.requestVersionCheck = false;
+            this.nativeContexts = true;
+            this.scopePoolEnabled = true;
+            this.scopePoolSize = 32;
+            this.scopePoolPrewarm = 2;
+            this.scopePoolMaxWait = 50L;
+            this.classCache = null;
+        }
 
         log.debug("Compiling rules for initial load");
         this.rulesCurator.updateDbRules();
@@ -114,18 +193,60 @@ public class JsRunnerProvider implements Provider<JsRunner> {
 
             log.info("Recompiling rules with timestamp: {}", newUpdated);
 
+            long start = System.nanoTime();
+            boolean warm = false;
+
             Context context = Context.enter();
-            context.setOptimizationLevel(9);
+            context.setOptimizationLevel(OPTIMIZATION_LEVEL);
             scope = context.initStandardObjects(null, true);
             try {
                 Rules rules = rulesCurator.getRules();
                 rulesVersion = rules.getVersion();
                 rulesSource = rules.getRulesSource();
-                script = context.compileString(
-                    rules.getRules(), "rules", 1, null);
+
+                if (this.classCache != null) {
+                    String checksum = RulesClassCache.checksum(rules.getRules(),
+                        context.getImplementationVersion(), OPTIMIZATION_LEVEL);
+
+                    script = this.loadCachedScript(context, checksum);
+                    warm = script != null;
+
+                    if (!warm) {
+                        script = this.compileToCache(context, rules.getRules(), checksum);
+                    }
+                }
+                else {
+                    script = context.compileString(
+                        rules.getRules(), "rules", 1, null);
+                }
+
                 script.exec(context, scope);
+
+                // Rules predating native contexts only understand the JSON string contexts
+                if (this.nativeContexts &&
+                    ScriptableObject.getProperty(scope, "parse_json_context") instanceof Function) {
+                    scope.put(JsonJsContext.NATIVE_CONTEXT_FLAG, scope, Boolean.TRUE);
+                }
+
                 ((ScriptableObject) scope).sealObject();
                 this.currentRulesUpdated = newUpdated;
+
+                // Scopes of the previous rules are discarded as soon as they are returned
+                JsScopePool previous = this.scopePool;
+                if (previous != null) {
+                    previous.invalidate();
+                }
+
+                this.scopePool = null;
+                if (this.scopePoolEnabled) {
+                    JsScopePool pool = new JsScopePool(scope, this.scopePoolSize, this.scopePoolMaxWait,
+                        this.scopePoolStats);
+                    pool.prewarm(this.scopePoolPrewarm);
+
+                    this.scopePool = pool;
+                }
+
+                this.recordCompile(warm, System.nanoTime() - start);
             }
             finally {
                 Context.exit();
@@ -136,29 +257,156 @@ public class JsRunnerProvider implements Provider<JsRunner> {
         }
     }
 
+    /**
+     * Loads the compiled classes of the current rules version from the compiled rules cache.
+     *
+     * @return
+     *  the rules script, or null if the rules are not cached or the cached classes are unusable
+     */
+    private Script loadCachedScript(Context context, String checksum) {
+        Map<String, byte[]> classes = this.classCache.get(this.rulesVersion, checksum);
+        if (classes == null) {
+            return null;
+        }
+
+        try {
+            return this.defineScript(context, classes);
+        }
+        catch (RuntimeException | LinkageError e) {
+            log.warn("Unable to load cached rules {}; compiling them instead", this.rulesVersion, e);
+            return null;
+        }
+    }
+
+    /**
+     * Compiles the rules to Java classes, storing them in the compiled rules cache.
+     *
+     * @return
+     *  the rules script
+     */
+    private Script compileToCache(Context context, String rules, String checksum) {
+        CompilerEnvirons env = new CompilerEnvirons();
+        env.initFromContext(context);
+
+        Object[] output = new ClassCompiler(env).compileToClassFiles(rules, "rules", 1,
+            COMPILED_RULES_CLASS);
+
+        // The compiler returns the main class first, followed by any auxiliary classes
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (int i = 0; i < output.length; i += 2) {
+            classes.put((String) output[i], (byte[]) output[i + 1]);
+        }
+
+        Script compiled = this.defineScript(context, classes);
+        this.classCache.put(this.rulesVersion, checksum, classes);
+
+        return compiled;
+    }
+
+    private Script defineScript(Context context, Map<String, byte[]> classes) {
+        GeneratedClassLoader loader = context.createClassLoader(Context.class.getClassLoader());
+        Class<?> main = null;
+
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            Class<?> defined = loader.defineClass(entry.getKey(), entry.getValue());
+            if (main == null) {
+                main = defined;
+            }
+        }
+
+        if (main == null) {
+            throw new RuleParseException("No compiled rules classes");
+        }
+
+        loader.linkClass(main);
+
+        try {
+            return (Script) main.newInstance();
+        }
+        catch (InstantiationException | IllegalAccessException e) {
+            throw new RuleParseException(e);
+        }
+    }
+
+    private void recordCompile(boolean warm, long elapsed) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(elapsed);
+
+        if (warm) {
+            this.warmLoads++;
+            this.warmLoadTime += millis;
+            log.info("Loaded compiled rules {} from the rules cache in {} ms", this.rulesVersion, millis);
+        }
+        else {
+            this.coldCompiles++;
+            this.coldCompileTime += millis;
+            log.info("Compiled rules {} in {} ms", this.rulesVersion, millis);
+        }
+
+        String load = warm ? "warm" : "cold";
+        if (!this.compileStats.containsKey("startup")) {
+            this.compileStats.put("startup", load);
+            this.compileStats.put("startup_time_ms", millis);
+        }
+
+        this.compileStats.put("last_load", load);
+        this.compileStats.put("last_load_time_ms", millis);
+    }
+
+    /**
+     * Recompiles the rules if the version stored in the database differs from the compiled one.
+     * This is how rules changed by other nodes of a cluster are picked up.
+     *
+     * @return
+     *  true if the rules were recompiled; false otherwise
+     */
+    public boolean refreshRules() {
+        Date updated = rulesCurator.getUpdated();
+        if (updated == null || updated.equals(this.currentRulesUpdated)) {
+            return false;
+        }
+
+        compileRules();
+        return true;
+    }
+
     public JsRunner get() {
-        /**
-         * Even though JsRunnerProvider is singleton, the
-         * following cache is being retrieved fresh for
-         * every new HTTP Request
-         */
-        JsRunnerRequestCache cache = cacheProvider.get();
-        Date updated = cache.getUpdated();
-        if (updated == null) {
-            updated = rulesCurator.getUpdated();
-            cache.setUpdated(updated);
+        if (this.requestVersionCheck) {
+            /**
+             * Even though JsRunnerProvider is singleton, the
+             * following cache is being retrieved fresh for
+             * every new HTTP Request
+             */
+            JsRunnerRequestCache cache = cacheProvider.get();
+            Date updated = cache.getUpdated();
+            if (updated == null) {
+                updated = rulesCurator.getUpdated();
+                cache.setUpdated(updated);
+            }
+
+            // Avoid a write lock if we can
+            if (!updated.equals(this.currentRulesUpdated)) {
+                compileRules();
+            }
         }
+
         /*
          * Create a new thread/request local javascript scope for the JsRules,
          * based on the preinitialized global one (which contains our js rules).
+         * Rules changes are pushed by compileRules, so there's nothing to check here.
          */
-        // Avoid a write lock if we can
-        if (!updated.equals(this.currentRulesUpdated)) {
-            compileRules();
+        JsScopePool pool = this.scopePool;
+        if (pool != null && !pool.isInvalidated()) {
+            return new JsRunner(pool, this.profiler);
         }
+
         Scriptable rulesScope;
         scriptLock.readLock().lock();
         try {
+            pool = this.scopePool;
+            if (pool != null) {
+                return new JsRunner(pool, this.profiler);
+            }
+
             Context context = Context.enter();
             rulesScope = context.newObject(scope);
             rulesScope.setPrototype(scope);
@@ -169,7 +417,76 @@ public class JsRunnerProvider implements Provider<JsRunner> {
             scriptLock.readLock().unlock();
         }
 
-        return new JsRunner(rulesScope);
+        return new JsRunner(rulesScope, this.profiler);
+    }
+
+    /**
+     * Fetches the usage statistics of the rules scope pool.
+     *
+     * @return
+     *  a map of statistic names to values
+     */
+    public Map<String, Object> getScopePoolStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        JsScopePool pool = this.scopePool;
+
+        stats.put("enabled", this.scopePoolEnabled);
+        stats.put("size", this.scopePoolSize);
+        stats.put("idle", pool != null ? pool.getIdleCount() : 0);
+        stats.put("active", this.scopePoolStats.getActive());
+        stats.put("borrowed", this.scopePoolStats.getBorrowed());
+        stats.put("reused", this.scopePoolStats.getReused());
+        stats.put("created", this.scopePoolStats.getCreated());
+        stats.put("overflows", this.scopePoolStats.getOverflows());
+        stats.put("waits", this.scopePoolStats.getWaits());
+        stats.put("wait_time_ms", this.scopePoolStats.getWaitTimeMillis());
+        stats.put("invalidations", this.scopePoolStats.getInvalidations());
+
+        return stats;
+    }
+
+    /**
+     * Fetches the times taken to compile the rules, or to load them from the compiled rules cache.
+     * The time taken by the initial load of the rules is reported as the startup time, and loads
+     * from the cache (warm) are reported separately from compiles (cold).
+     *
+     * @return
+     *  a map of statistic names to values
+     */
+    public Map<String, Object> getCompileStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+
+        scriptLock.readLock().lock();
+        try {
+            stats.put("cache_enabled", this.classCache != null);
+            stats.put("rules_version", this.rulesVersion);
+
+            stats.putAll(this.compileStats);
+
+            stats.put("warm_loads", this.warmLoads);
+            stats.put("warm_load_time_ms", this.warmLoadTime);
+            stats.put("cold_compiles", this.coldCompiles);
+            stats.put("cold_compile_time_ms", this.coldCompileTime);
+        }
+        finally {
+            scriptLock.readLock().unlock();
+        }
+
+        return stats;
+    }
+
+    /**
+     * Fetches the profiler recording the rules calls of the runners created by this provider.
+     *
+     * @return
+     *  the rules profiler
+     */
+    public RulesProfiler getProfiler() {
+        return this.profiler;
+    }
+
+    JsScopePool getScopePool() {
+        return this.scopePool;
     }
 
     public String getRulesVersion() {
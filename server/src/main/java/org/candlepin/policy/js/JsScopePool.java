@@ -0,0 +1,362 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+import org.mozilla.javascript.Wrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * The JsScopePool holds initialized execution scopes for a single compiled version of the rules,
+ * along with the namespace objects returned by the rules' namespace functions. Rather than creating
+ * a scope for every runner, runners borrow a scope for the duration of each rules invocation and
+ * return it afterwards, with the arguments of the invocation removed.
+ * <p></p>
+ * At most maxSize scopes are pooled per namespace. Once every pooled scope of a namespace is in
+ * use, borrowers wait up to maxWait milliseconds for one to be returned before falling back to a
+ * scope which is discarded after use.
+ * <p></p>
+ * A pool is invalidated when the rules are recompiled. Runners created before the recompile keep
+ * using the rules they were created with, but the scopes they return are discarded.
+ */
+class JsScopePool {
+    private static Logger log = LoggerFactory.getLogger(JsScopePool.class);
+
+    /**
+     * The variable the rules assign their parsed context to without declaring it, leaving it on
+     * the scope the rules were invoked in
+     */
+    private static final String RULES_CONTEXT_VARIABLE = "context";
+
+    private final Scriptable globalScope;
+    private final int maxSize;
+    private final long maxWait;
+    private final Statistics stats;
+
+    private final ConcurrentMap<String, BlockingQueue<PooledScope>> idle;
+    private final ConcurrentMap<String, AtomicInteger> created;
+    private volatile boolean invalidated;
+
+    JsScopePool(Scriptable globalScope, int maxSize, long maxWait, Statistics stats) {
+        this.globalScope = globalScope;
+        this.maxSize = maxSize;
+        this.maxWait = maxWait;
+        this.stats = stats;
+
+        this.idle = new ConcurrentHashMap<>();
+        this.created = new ConcurrentHashMap<>();
+        this.invalidated = false;
+    }
+
+    /**
+     * Initializes scopes for every namespace defined by the rules, so the first invocations of
+     * each namespace need not create them.
+     *
+     * @param count
+     *  the number of scopes to initialize per namespace
+     */
+    void prewarm(int count) {
+        List<String> namespaces = new ArrayList<>();
+        for (Object id : ((ScriptableObject) this.globalScope).getAllIds()) {
+            if (id instanceof String && ((String) id).endsWith("_name_space") &&
+                ScriptableObject.getProperty(this.globalScope, (String) id) instanceof Function) {
+                namespaces.add((String) id);
+            }
+        }
+
+        for (String namespace : namespaces) {
+            int warmed = Math.min(count, this.maxSize);
+
+            for (int i = 0; i < warmed; i++) {
+                this.getCreatedCount(namespace).incrementAndGet();
+                this.getIdleScopes(namespace).offer(this.createScope(namespace, true));
+            }
+        }
+
+        log.debug("Prewarmed rules scopes for namespaces: {}", namespaces);
+    }
+
+    /**
+     * Borrows an initialized scope for the given namespace. The scope must be returned with the
+     * release method once the invocation using it is complete.
+     *
+     * @param namespace
+     *  the rules namespace the scope is to be initialized for
+     *
+     * @throws RuleParseException
+     *  if the namespace function of the rules fails
+     *
+     * @return
+     *  an initialized scope
+     */
+    PooledScope borrow(String namespace) {
+        this.stats.borrowed.incrementAndGet();
+
+        BlockingQueue<PooledScope> scopes = this.getIdleScopes(namespace);
+        PooledScope scope = scopes.poll();
+
+        if (scope == null) {
+            AtomicInteger count = this.getCreatedCount(namespace);
+
+            if (!this.invalidated && count.incrementAndGet() <= this.maxSize) {
+                try {
+                    scope = this.createScope(namespace, true);
+                }
+                catch (RuntimeException e) {
+                    count.decrementAndGet();
+                    throw e;
+                }
+            }
+            else {
+                count.decrementAndGet();
+                scope = this.await(scopes, namespace);
+            }
+        }
+        else {
+            this.stats.reused.incrementAndGet();
+        }
+
+        this.stats.active.incrementAndGet();
+        return scope;
+    }
+
+    private PooledScope await(BlockingQueue<PooledScope> scopes, String namespace) {
+        PooledScope scope = null;
+
+        if (!this.invalidated && this.maxWait > 0) {
+            long start = System.nanoTime();
+
+            try {
+                scope = scopes.poll(this.maxWait, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            this.stats.waits.incrementAndGet();
+            this.stats.waitTime.addAndGet(System.nanoTime() - start);
+        }
+
+        if (scope != null) {
+            this.stats.reused.incrementAndGet();
+            return scope;
+        }
+
+        // Every pooled scope is busy; use one which is thrown away afterwards
+        this.stats.overflows.incrementAndGet();
+        return this.createScope(namespace, false);
+    }
+
+    /**
+     * Returns a borrowed scope to the pool, removing the arguments of the given context from it,
+     * along with the context the rules left on it.
+     *
+     * @param scope
+     *  the scope to return
+     *
+     * @param context
+     *  the context applied to the scope while it was borrowed, or null if no context was applied
+     */
+    void release(PooledScope scope, JsContext context) {
+        this.stats.active.decrementAndGet();
+
+        if (!scope.pooled) {
+            return;
+        }
+
+        if (context != null) {
+            context.removeFrom(scope.scope);
+        }
+
+        // Otherwise the whole object graph of the last invocation stays reachable while idle
+        scope.scope.delete(RULES_CONTEXT_VARIABLE);
+
+        if (this.invalidated) {
+            this.getCreatedCount(scope.namespace).decrementAndGet();
+            return;
+        }
+
+        this.getIdleScopes(scope.namespace).offer(scope);
+    }
+
+    /**
+     * Discards the idle scopes of this pool. Scopes returned after the pool has been invalidated
+     * are discarded as well.
+     */
+    void invalidate() {
+        this.invalidated = true;
+
+        for (BlockingQueue<PooledScope> scopes : this.idle.values()) {
+            scopes.clear();
+        }
+
+        this.stats.invalidations.incrementAndGet();
+    }
+
+    boolean isInvalidated() {
+        return this.invalidated;
+    }
+
+    int getIdleCount() {
+        int count = 0;
+        for (BlockingQueue<PooledScope> scopes : this.idle.values()) {
+            count += scopes.size();
+        }
+
+        return count;
+    }
+
+    private BlockingQueue<PooledScope> getIdleScopes(String namespace) {
+        BlockingQueue<PooledScope> scopes = this.idle.get(namespace);
+        if (scopes == null) {
+            this.idle.putIfAbsent(namespace, new LinkedBlockingQueue<PooledScope>());
+            scopes = this.idle.get(namespace);
+        }
+
+        return scopes;
+    }
+
+    private AtomicInteger getCreatedCount(String namespace) {
+        AtomicInteger count = this.created.get(namespace);
+        if (count == null) {
+            this.created.putIfAbsent(namespace, new AtomicInteger());
+            count = this.created.get(namespace);
+        }
+
+        return count;
+    }
+
+    /**
+     * Creates a thread/request local scope based on the global one, and calls the namespace
+     * function of the rules within it.
+     */
+    private PooledScope createScope(String namespace, boolean pooled) {
+        Context context = Context.enter();
+        try {
+            Scriptable scope = context.newObject(this.globalScope);
+            scope.setPrototype(this.globalScope);
+            scope.setParentScope(null);
+
+            Object func = ScriptableObject.getProperty(scope, namespace);
+            if (!(func instanceof Function)) {
+                throw new RuleParseException("No such rules namespace: " + namespace);
+            }
+
+            Object namespaceObject = ((Function) func).call(context, scope, scope, Context.emptyArgs);
+            if (namespaceObject instanceof Wrapper) {
+                namespaceObject = ((Wrapper) namespaceObject).unwrap();
+            }
+
+            this.stats.created.incrementAndGet();
+            return new PooledScope(namespace, scope,
+                namespaceObject instanceof Undefined ? null : namespaceObject, pooled);
+        }
+        catch (RhinoException e) {
+            throw new RuleParseException(e);
+        }
+        finally {
+            Context.exit();
+        }
+    }
+
+    /**
+     * A scope initialized for a single rules namespace
+     */
+    static final class PooledScope {
+        private final String namespace;
+        private final Scriptable scope;
+        private final Object namespaceObject;
+        private final boolean pooled;
+
+        private PooledScope(String namespace, Scriptable scope, Object namespaceObject, boolean pooled) {
+            this.namespace = namespace;
+            this.scope = scope;
+            this.namespaceObject = namespaceObject;
+            this.pooled = pooled;
+        }
+
+        Scriptable getScope() {
+            return this.scope;
+        }
+
+        Object getNamespaceObject() {
+            return this.namespaceObject;
+        }
+    }
+
+    /**
+     * The usage statistics of the scope pools, shared by every version of the rules
+     */
+    static final class Statistics {
+        private final AtomicLong borrowed = new AtomicLong();
+        private final AtomicLong reused = new AtomicLong();
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong overflows = new AtomicLong();
+        private final AtomicLong waits = new AtomicLong();
+        private final AtomicLong waitTime = new AtomicLong();
+        private final AtomicLong invalidations = new AtomicLong();
+        private final AtomicLong active = new AtomicLong();
+
+        long getBorrowed() {
+            return this.borrowed.get();
+        }
+
+        long getReused() {
+            return this.reused.get();
+        }
+
+        long getCreated() {
+            return this.created.get();
+        }
+
+        long getOverflows() {
+            return this.overflows.get();
+        }
+
+        long getWaits() {
+            return this.waits.get();
+        }
+
+        long getWaitTimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(this.waitTime.get());
+        }
+
+        long getInvalidations() {
+            return this.invalidations.get();
+        }
+
+        long getActive() {
+            return this.active.get();
+        }
+    }
+}
@@ -14,7 +14,11 @@
  */
 package org.candlepin.policy.js;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.mozilla.javascript.ScriptRuntime;
 import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
 
 /**
  * JsonContext
@@ -23,11 +27,24 @@ import org.mozilla.javascript.Scriptable;
  * a single JSON string. It also provides the ability to specify
  * non-serializable objects which are passed directly to the called
  * JS function.
+ *
+ * When the compiled rules support native contexts, the context args
+ * are instead provided as a function building them as javascript
+ * objects from their JSON tree, which skips writing and parsing the
+ * JSON string.
  */
 public class JsonJsContext extends JsContext {
 
+    /**
+     * The global variable set by the {@link JsRunnerProvider} when the
+     * compiled rules accept native contexts.
+     */
+    public static final String NATIVE_CONTEXT_FLAG = "native_contexts_enabled";
+
     private final RulesObjectMapper rulesObjectMapper;
     private ArgumentJsContext nonSerializableContext;
+    private String json;
+    private JsonNode tree;
 
     public JsonJsContext(RulesObjectMapper rulesObjectMapper) {
         this.rulesObjectMapper = rulesObjectMapper;
@@ -36,10 +53,46 @@ public class JsonJsContext extends JsContext {
 
     @Override
     public void applyTo(Scriptable scope) {
-        scope.put("json_context", scope, this.rulesObjectMapper.toJsonString(contextArgs));
+        if (isNativeContextEnabled(scope)) {
+            this.json = null;
+            this.tree = this.rulesObjectMapper.toJsonTree(contextArgs);
+
+            NativeContextFunction context = new NativeContextFunction(this.tree);
+            ScriptRuntime.setFunctionProtoAndParent(context, scope);
+
+            scope.put("native_context", scope, context);
+        }
+        else {
+            this.tree = null;
+            this.json = this.rulesObjectMapper.toJsonString(contextArgs);
+
+            scope.put("json_context", scope, this.json);
+        }
+
         nonSerializableContext.applyTo(scope);
     }
 
+    static boolean isNativeContextEnabled(Scriptable scope) {
+        return Boolean.TRUE.equals(ScriptableObject.getProperty(scope, NATIVE_CONTEXT_FLAG));
+    }
+
+    @Override
+    public void removeFrom(Scriptable scope) {
+        scope.delete("json_context");
+        scope.delete("native_context");
+        nonSerializableContext.removeFrom(scope);
+    }
+
+    @Override
+    public long getPayloadSize() {
+        if (this.json != null) {
+            return this.json.length();
+        }
+
+        // Native contexts are never written out; measure what they would have been
+        return this.tree != null ? this.tree.toString().length() : -1;
+    }
+
     public void put(String contextKey, Object contextVal, boolean serializable) {
         if (!serializable) {
             nonSerializableContext.put(contextKey, contextVal);
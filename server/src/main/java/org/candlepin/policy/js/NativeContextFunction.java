@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+
+import java.util.Iterator;
+import java.util.Map;
+
+
+
+/**
+ * The NativeContextFunction hands the arguments of a rules call to the rules as native javascript
+ * objects, built directly from the JSON tree of the arguments rather than from a serialized JSON
+ * string.
+ * <p></p>
+ * Every call builds a new copy of the context, exactly as JSON.parse would, since the rules modify
+ * the contexts they are given and may parse the context more than once during a single call.
+ */
+public class NativeContextFunction extends BaseFunction {
+
+    private static final long serialVersionUID = 2317640215637318411L;
+
+    private final transient JsonNode tree;
+
+    public NativeContextFunction(JsonNode tree) {
+        this.tree = tree;
+    }
+
+    @Override
+    public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+        return toNative(cx, scope, this.tree);
+    }
+
+    /**
+     * Converts a JSON tree to the javascript value JSON.parse would produce for its text.
+     *
+     * @param cx
+     *  the current javascript context
+     *
+     * @param scope
+     *  the scope in which to create javascript objects
+     *
+     * @param node
+     *  the JSON tree to convert
+     *
+     * @return
+     *  the javascript value of the tree
+     */
+    public static Object toNative(Context cx, Scriptable scope, JsonNode node) {
+        if (node == null || node.isNull() || node.isMissingNode()) {
+            return null;
+        }
+
+        if (node.isObject()) {
+            Scriptable object = cx.newObject(scope);
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                Object value = toNative(cx, scope, field.getValue());
+
+                // Numeric keys are stored as indices, as done by JSON.parse
+                long index = ScriptRuntime.indexFromString(field.getKey());
+                if (index < 0) {
+                    object.put(field.getKey(), object, value);
+                }
+                else {
+                    object.put((int) index, object, value);
+                }
+            }
+
+            return object;
+        }
+
+        if (node.isArray()) {
+            Object[] elements = new Object[node.size()];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = toNative(cx, scope, node.get(i));
+            }
+
+            return cx.newArray(scope, elements);
+        }
+
+        if (node.isNumber()) {
+            double value = node.doubleValue();
+
+            // JSON.parse produces integers for integral values within the range of an int
+            if (value == (int) value) {
+                return Integer.valueOf((int) value);
+            }
+
+            return Double.valueOf(value);
+        }
+
+        if (node.isBoolean()) {
+            return node.booleanValue() ? Boolean.TRUE : Boolean.FALSE;
+        }
+
+        return node.asText();
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+
+/**
+ * The RulesClassCache stores the Java classes the rules are compiled to, so nodes starting later,
+ * or picking up a rules change, can load them instead of compiling the rules again.
+ * <p></p>
+ * Compiled rules are keyed by the version of the rules and a checksum of the rules text, the Rhino
+ * version and the optimization level the rules were compiled with. Entries are written to a
+ * temporary file and moved into place, so concurrent writers never expose a partially written
+ * entry. Entries which cannot be read are deleted, and the rules compiled as usual.
+ * <p></p>
+ * The cached classes are defined and run in the server, and the checksum in an entry's header only
+ * guards against stale or corrupt entries, not tampering. Entries are therefore only loaded when
+ * both the cache directory and the entry are owned by the user running candlepin, are not symbolic
+ * links, and cannot be written by any other user. The directory is created accessible to its owner
+ * only.
+ */
+public class RulesClassCache {
+    private static Logger log = LoggerFactory.getLogger(RulesClassCache.class);
+
+    private static final int MAGIC = 0x43505243;
+    private static final String PREFIX = "rules-";
+    private static final String SUFFIX = ".classes";
+
+    /** The number of entries kept in the cache directory */
+    private static final int MAX_ENTRIES = 5;
+
+    private final File directory;
+
+    public RulesClassCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Calculates the checksum of the given rules, as compiled by the given version of Rhino at the
+     * given optimization level.
+     *
+     * @param rules
+     *  the text of the rules
+     *
+     * @param rhinoVersion
+     *  the implementation version of Rhino compiling the rules
+     *
+     * @param optimizationLevel
+     *  the optimization level the rules are compiled at
+     *
+     * @return
+     *  the checksum of the compiled rules
+     */
+    public static String checksum(String rules, String rhinoVersion, int optimizationLevel) {
+        return DigestUtils.sha256Hex(rhinoVersion + "\n" + optimizationLevel + "\n" + rules);
+    }
+
+    /**
+     * Fetches the compiled classes of the given version of the rules.
+     *
+     * @param version
+     *  the version of the rules
+     *
+     * @param checksum
+     *  the checksum of the rules, as calculated by the checksum method
+     *
+     * @return
+     *  a map of class names to class bytes, starting with the main class of the rules, or null if
+     *  the rules are not cached
+     */
+    public Map<String, byte[]> get(String version, String checksum) {
+        File file = this.getFile(version, checksum);
+        if (!file.isFile() || !this.isTrusted(this.directory) || !this.isTrusted(file)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(file)))) {
+
+            if (in.readInt() != MAGIC || !checksum.equals(in.readUTF())) {
+                throw new IOException("Invalid compiled rules header");
+            }
+
+            Map<String, byte[]> classes = new LinkedHashMap<>();
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+
+                classes.put(name, bytes);
+            }
+
+            return classes;
+        }
+        catch (IOException e) {
+            log.warn("Unable to read compiled rules from {}; discarding them", file, e);
+            file.delete();
+
+            return null;
+        }
+    }
+
+    /**
+     * Stores the compiled classes of the given version of the rules.
+     *
+     * @param version
+     *  the version of the rules
+     *
+     * @param checksum
+     *  the checksum of the rules, as calculated by the checksum method
+     *
+     * @param classes
+     *  a map of class names to class bytes, starting with the main class of the rules
+     */
+    public void put(String version, String checksum, Map<String, byte[]> classes) {
+        File file = this.getFile(version, checksum);
+        File temp = null;
+
+        try {
+            if (!this.directory.isDirectory()) {
+                if (!this.directory.mkdirs()) {
+                    throw new IOException("Unable to create directory " + this.directory);
+                }
+
+                Files.setPosixFilePermissions(this.directory.toPath(),
+                    PosixFilePermissions.fromString("rwx------"));
+            }
+
+            if (!this.isTrusted(this.directory)) {
+                // Nothing written here would ever be loaded again
+                return;
+            }
+
+            // Created readable and writable by its owner only
+            temp = Files.createTempFile(this.directory.toPath(), PREFIX, ".tmp").toFile();
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp)))) {
+
+                out.writeInt(MAGIC);
+                out.writeUTF(checksum);
+                out.writeInt(classes.size());
+
+                for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+            }
+
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+            log.debug("Stored compiled rules in {}", file);
+            this.prune();
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            log.warn("Unable to store compiled rules in {}", file, e);
+
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes all but the most recently written entries of the cache.
+     */
+    private void prune() {
+        File[] files = this.directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+
+        if (files == null || files.length <= MAX_ENTRIES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f2.lastModified(), f1.lastModified());
+            }
+        });
+
+        for (int i = MAX_ENTRIES; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * Checks that the given file or directory can only have been written by the user running
+     * candlepin: it must be owned by that user, must not be a symbolic link, and must not be
+     * writable by its group or by other users.
+     */
+    boolean isTrusted(File file) {
+        Path path = file.toPath();
+
+        try {
+            PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS);
+
+            Set<PosixFilePermission> permissions = attributes.permissions();
+            String owner = attributes.owner().getName();
+
+            if (attributes.isSymbolicLink() || !owner.equals(System.getProperty("user.name")) ||
+                permissions.contains(PosixFilePermission.GROUP_WRITE) ||
+                permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+
+                log.warn("Not loading compiled rules from {}: it must be owned and only writable by {}, " +
+                    "but is owned by {} with permissions {}", path, System.getProperty("user.name"), owner,
+                    PosixFilePermissions.toString(permissions));
+
+                return false;
+            }
+
+            return true;
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            log.warn("Not loading compiled rules from {}: unable to verify its owner and permissions",
+                path, e);
+
+            return false;
+        }
+    }
+
+    File getFile(String version, String checksum) {
+        String safeVersion = version != null ? version.replaceAll("[^A-Za-z0-9._-]", "_") : "unknown";
+        return new File(this.directory, PREFIX + safeVersion + "-" + checksum + SUFFIX);
+    }
+}
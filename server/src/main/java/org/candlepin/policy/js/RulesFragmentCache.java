@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.dto.rules.v1.PoolDTO;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * The RulesFragmentCache holds the serialized form of the pools sent to the rules, so pools
+ * appearing in many rules calls, such as the pools of a large owner or the pools of the
+ * entitlements of many consumers, are serialized once rather than for every call.
+ * <p></p>
+ * Fragments are keyed by pool ID, and hold a copy of the pool they were serialized from. Since
+ * pools are modified in memory well before their updated timestamp changes, a fragment is only
+ * used when its copy is equal to the pool being serialized, which also covers changes to the
+ * attributes and provided products of the pool's products. Fragments are kept both as JSON text,
+ * written as-is into JSON rules contexts, and as JSON trees, shared by native rules contexts.
+ */
+@Singleton
+public class RulesFragmentCache {
+
+    private final boolean enabled;
+    private final int maxSize;
+    private final Map<String, Fragment> fragments;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    @Inject
+    public RulesFragmentCache(Configuration config) {
+        this.enabled = config.getBoolean(ConfigProperties.RULES_FRAGMENT_CACHE_ENABLED, false);
+        this.maxSize = config.getInt(ConfigProperties.RULES_FRAGMENT_CACHE_MAX_SIZE, 10000);
+
+        this.fragments = new LinkedHashMap<String, Fragment>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Fragment> eldest) {
+                boolean evict = this.size() > maxSize;
+                if (evict) {
+                    evictions.incrementAndGet();
+                }
+
+                return evict;
+            }
+        };
+
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Checks if the rules fragment cache has been enabled by configuration.
+     *
+     * @return
+     *  true if the rules fragment cache is enabled; false otherwise
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Fetches the fragment for the given pool. If the cached fragment for the pool was serialized
+     * from a different version of the pool, or the pool has not been cached, a new, empty fragment
+     * is cached for it and returned.
+     *
+     * @param pool
+     *  the pool to fetch the fragment for
+     *
+     * @return
+     *  the fragment of the pool, or null if the pool cannot be cached
+     */
+    public Fragment getFragment(PoolDTO pool) {
+        if (!this.enabled || pool == null || pool.getId() == null) {
+            return null;
+        }
+
+        synchronized (this.fragments) {
+            Fragment fragment = this.fragments.get(pool.getId());
+
+            if (fragment != null && fragment.source.equals(pool)) {
+                this.hits.incrementAndGet();
+                return fragment;
+            }
+
+            this.misses.incrementAndGet();
+
+            // Copied into a new instance, as clone shares the collections of the pool
+            fragment = new Fragment(new PoolDTO().populate(pool));
+            this.fragments.put(pool.getId(), fragment);
+
+            return fragment;
+        }
+    }
+
+    /**
+     * Removes every fragment from the cache.
+     */
+    public void invalidateAll() {
+        synchronized (this.fragments) {
+            this.fragments.clear();
+        }
+    }
+
+    /**
+     * Fetches the hit and miss statistics of the cache.
+     *
+     * @return
+     *  a map of statistic names to values
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+
+        stats.put("enabled", this.enabled);
+        synchronized (this.fragments) {
+            stats.put("size", this.fragments.size());
+        }
+
+        stats.put("hits", this.hits.get());
+        stats.put("misses", this.misses.get());
+        stats.put("evictions", this.evictions.get());
+
+        return stats;
+    }
+
+    /**
+     * The serialized forms of a single version of a pool. Each form is serialized the first time
+     * it is needed.
+     */
+    public static final class Fragment {
+        private final PoolDTO source;
+        private volatile String json;
+        private volatile JsonNode tree;
+
+        private Fragment(PoolDTO source) {
+            this.source = source;
+        }
+
+        String getJson() {
+            return this.json;
+        }
+
+        void setJson(String json) {
+            this.json = json;
+        }
+
+        JsonNode getTree() {
+            return this.tree;
+        }
+
+        void setTree(JsonNode tree) {
+            this.tree = tree;
+        }
+    }
+}
@@ -15,16 +15,23 @@
 package org.candlepin.policy.js;
 
 import org.candlepin.common.exceptions.IseException;
+import org.candlepin.dto.rules.v1.PoolDTO;
 import org.candlepin.jackson.ProductCachedSerializationModule;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.AnnotationIntrospector;
+import com.fasterxml.jackson.databind.BeanDescription;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationConfig;
 import com.fasterxml.jackson.databind.introspect.AnnotationIntrospectorPair;
 import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
 import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
 import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import com.fasterxml.jackson.datatype.hibernate5.Hibernate5Module;
@@ -51,6 +58,8 @@ import java.util.Map.Entry;
  * expensive to create a jackson ObjectMapper and it is preferred
  * to have it instantiated once.
  *
+ * When the {@link RulesFragmentCache} is enabled, pools are written
+ * from their cached serialized fragments.
  */
 public class RulesObjectMapper {
 
@@ -58,9 +67,14 @@ public class RulesObjectMapper {
 
     private ObjectMapper mapper;
 
+    public RulesObjectMapper(ProductCachedSerializationModule poolCachedSerializationModule) {
+        this(poolCachedSerializationModule, null);
+    }
+
     @Inject
     @SuppressWarnings("checkstyle:indentation")
-    public RulesObjectMapper(ProductCachedSerializationModule poolCachedSerializationModule) {
+    public RulesObjectMapper(ProductCachedSerializationModule poolCachedSerializationModule,
+        final RulesFragmentCache fragmentCache) {
         this.mapper = new ObjectMapper();
 
         SimpleFilterProvider filterProvider = new SimpleFilterProvider()
@@ -86,6 +100,25 @@ public class RulesObjectMapper {
 
         mapper.registerModule(hbm);
         mapper.registerModule(poolCachedSerializationModule);
+
+        if (fragmentCache != null && fragmentCache.isEnabled()) {
+            SimpleModule fragmentModule = new SimpleModule();
+            fragmentModule.setSerializerModifier(new BeanSerializerModifier() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public JsonSerializer<?> modifySerializer(SerializationConfig config,
+                    BeanDescription beanDesc, JsonSerializer<?> serializer) {
+                    if (beanDesc.getBeanClass() == PoolDTO.class) {
+                        return new FragmentCachingSerializer((JsonSerializer<Object>) serializer,
+                            fragmentCache, mapper);
+                    }
+
+                    return serializer;
+                }
+            });
+
+            mapper.registerModule(fragmentModule);
+        }
         // Very important for deployments so new rules files can return additional
         // properties that this current server doesn't know how to serialize, but still
         // shouldn't fail on.
@@ -112,6 +145,31 @@ public class RulesObjectMapper {
         }
     }
 
+    /**
+     * Serializes the given objects into a single JSON tree, identical to the one represented by
+     * the output of toJsonString, without writing it out as a string.
+     *
+     * @param toSerialize
+     *  a map of property names to the objects to serialize
+     *
+     * @return
+     *  the JSON tree of the objects
+     */
+    public JsonNode toJsonTree(Map<String, Object> toSerialize) {
+        ObjectNode mainNode = this.mapper.createObjectNode();
+        for (Entry<String, Object> entry : toSerialize.entrySet()) {
+            mainNode.putPOJO(entry.getKey(), entry.getValue());
+        }
+
+        try {
+            return this.mapper.valueToTree(mainNode);
+        }
+        catch (Exception e) {
+            log.error("Unable to serialize objects to JSON.", e);
+            throw new IseException("Unable to serialize objects to JSON.", e);
+        }
+    }
+
     public <T extends Object> T toObject(String json, Class<T> clazz) {
         try {
             return mapper.readValue(json, clazz);
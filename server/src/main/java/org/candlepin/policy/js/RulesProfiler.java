@@ -0,0 +1,306 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+
+import com.google.inject.Inject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+
+/**
+ * The RulesProfiler records, per rules function, the time taken to serialize the arguments of
+ * each call, to run the function, and to deserialize its result, along with the size of the
+ * serialized arguments and result.
+ * <p></p>
+ * Profiling is disabled unless enabled by configuration, in which case every phase of every call
+ * is added to a histogram of its duration. Statistics are kept per function and summed per rules
+ * namespace, so the namespace and phase dominating the time spent in the rules can be told apart.
+ */
+public class RulesProfiler {
+
+    /**
+     * The phases of a rules call
+     */
+    public enum Phase {
+        SERIALIZATION("serialization"),
+        SCRIPT("script"),
+        DESERIALIZATION("deserialization");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return this.label;
+        }
+    }
+
+    /** The upper bounds, in microseconds, of the histogram buckets; the last bucket is unbounded */
+    private static final long[] BUCKETS = { 100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000 };
+    private static final String[] BUCKET_LABELS = { "<0.1ms", "<0.5ms", "<1ms", "<5ms", "<10ms", "<50ms",
+        "<100ms", "<500ms", "<1s", ">=1s" };
+
+    private final boolean enabled;
+    private final ConcurrentMap<String, FunctionProfile> profiles;
+
+    @Inject
+    public RulesProfiler(Configuration config) {
+        this(config != null && config.getBoolean(ConfigProperties.RULES_PROFILER_ENABLED, false));
+    }
+
+    public RulesProfiler(boolean enabled) {
+        this.enabled = enabled;
+        this.profiles = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Checks whether rules calls are profiled.
+     *
+     * @return
+     *  true if rules calls are profiled; false otherwise
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Records the duration of a phase of a call to the given rules function.
+     *
+     * @param namespace
+     *  the rules namespace of the function
+     *
+     * @param function
+     *  the name of the function
+     *
+     * @param phase
+     *  the phase of the call
+     *
+     * @param nanos
+     *  the duration of the phase, in nanoseconds
+     */
+    public void recordTime(String namespace, String function, Phase phase, long nanos) {
+        if (this.enabled) {
+            this.getProfile(namespace, function).times[phase.ordinal()].add(nanos);
+        }
+    }
+
+    /**
+     * Records the sizes of the serialized arguments and result of a call to the given rules
+     * function. Negative sizes are not recorded.
+     *
+     * @param namespace
+     *  the rules namespace of the function
+     *
+     * @param function
+     *  the name of the function
+     *
+     * @param inputSize
+     *  the length of the serialized arguments of the call
+     *
+     * @param outputSize
+     *  the length of the serialized result of the call
+     */
+    public void recordPayload(String namespace, String function, long inputSize, long outputSize) {
+        if (this.enabled) {
+            FunctionProfile profile = this.getProfile(namespace, function);
+
+            if (inputSize >= 0) {
+                profile.input.add(inputSize);
+            }
+
+            if (outputSize >= 0) {
+                profile.output.add(outputSize);
+            }
+        }
+    }
+
+    /**
+     * Discards every recorded statistic.
+     */
+    public void reset() {
+        this.profiles.clear();
+    }
+
+    /**
+     * Fetches the recorded statistics, per rules namespace. Each namespace lists the total time
+     * spent in each phase of the calls to its functions, followed by the statistics of each of its
+     * functions.
+     *
+     * @return
+     *  a map of statistic names to values
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", this.enabled);
+
+        Map<String, Map<String, Object>> functions = new TreeMap<>();
+        Map<String, long[]> totals = new TreeMap<>();
+
+        for (FunctionProfile profile : new TreeMap<>(this.profiles).values()) {
+            Map<String, Object> namespaceFunctions = functions.get(profile.namespace);
+            long[] namespaceTotals = totals.get(profile.namespace);
+
+            if (namespaceFunctions == null) {
+                namespaceFunctions = new LinkedHashMap<>();
+                functions.put(profile.namespace, namespaceFunctions);
+
+                namespaceTotals = new long[Phase.values().length];
+                totals.put(profile.namespace, namespaceTotals);
+            }
+
+            Map<String, Object> function = new LinkedHashMap<>();
+            for (Phase phase : Phase.values()) {
+                Histogram histogram = profile.times[phase.ordinal()];
+                namespaceTotals[phase.ordinal()] += histogram.total.get();
+
+                function.put(phase.getLabel(), histogram.getTimeStatistics());
+            }
+
+            function.put("input_size", profile.input.getSizeStatistics());
+            function.put("output_size", profile.output.getSizeStatistics());
+
+            namespaceFunctions.put(profile.function, function);
+        }
+
+        Map<String, Object> namespaces = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Object>> entry : functions.entrySet()) {
+            Map<String, Object> namespace = new LinkedHashMap<>();
+            long[] namespaceTotals = totals.get(entry.getKey());
+
+            for (Phase phase : Phase.values()) {
+                namespace.put(phase.getLabel() + "_ms", toMillis(namespaceTotals[phase.ordinal()]));
+            }
+
+            namespace.put("functions", entry.getValue());
+            namespaces.put(entry.getKey(), namespace);
+        }
+
+        stats.put("namespaces", namespaces);
+        return stats;
+    }
+
+    private FunctionProfile getProfile(String namespace, String function) {
+        String key = namespace + "." + function;
+
+        FunctionProfile profile = this.profiles.get(key);
+        if (profile == null) {
+            this.profiles.putIfAbsent(key, new FunctionProfile(namespace, function));
+            profile = this.profiles.get(key);
+        }
+
+        return profile;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * The statistics of a single rules function
+     */
+    private static final class FunctionProfile {
+        private final String namespace;
+        private final String function;
+        private final Histogram[] times;
+        private final Histogram input;
+        private final Histogram output;
+
+        private FunctionProfile(String namespace, String function) {
+            this.namespace = namespace;
+            this.function = function;
+
+            this.times = new Histogram[Phase.values().length];
+            for (int i = 0; i < this.times.length; i++) {
+                this.times[i] = new Histogram();
+            }
+
+            this.input = new Histogram();
+            this.output = new Histogram();
+        }
+    }
+
+    /**
+     * A count, total, maximum and, for durations, bucketed distribution of recorded values
+     */
+    private static final class Histogram {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+
+        private void add(long value) {
+            this.count.incrementAndGet();
+            this.total.addAndGet(value);
+
+            long current = this.max.get();
+            while (value > current && !this.max.compareAndSet(current, value)) {
+                current = this.max.get();
+            }
+
+            long micros = TimeUnit.NANOSECONDS.toMicros(value);
+            int bucket = 0;
+            while (bucket < BUCKETS.length && micros >= BUCKETS[bucket]) {
+                bucket++;
+            }
+
+            this.buckets.incrementAndGet(bucket);
+        }
+
+        private Map<String, Object> getTimeStatistics() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            long count = this.count.get();
+            long total = this.total.get();
+
+            stats.put("count", count);
+            stats.put("total_ms", toMillis(total));
+            stats.put("mean_ms", count > 0 ? toMillis(total / count) : 0.0);
+            stats.put("max_ms", toMillis(this.max.get()));
+
+            Map<String, Long> histogram = new LinkedHashMap<>();
+            for (int i = 0; i < BUCKET_LABELS.length; i++) {
+                histogram.put(BUCKET_LABELS[i], this.buckets.get(i));
+            }
+
+            stats.put("histogram", histogram);
+            return stats;
+        }
+
+        private Map<String, Object> getSizeStatistics() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            long count = this.count.get();
+            long total = this.total.get();
+
+            stats.put("count", count);
+            stats.put("total", total);
+            stats.put("mean", count > 0 ? total / count : 0);
+            stats.put("max", this.max.get());
+
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+
+import com.google.inject.Inject;
+import com.google.inject.persist.UnitOfWork;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+
+/**
+ * The RulesVersionPoller periodically checks the version of the rules stored in the database,
+ * and has the {@link JsRunnerProvider} recompile them when they have been changed by another
+ * node of the cluster.
+ * <p></p>
+ * Rules changed through this node are recompiled as soon as they are uploaded, deleted or
+ * imported; the poller only bounds how long other nodes keep running the previous rules.
+ */
+public class RulesVersionPoller implements Runnable {
+    private static Logger log = LoggerFactory.getLogger(RulesVersionPoller.class);
+
+    private final int interval;
+
+    /**
+     * Single threaded periodic task.
+     */
+    private ScheduledExecutorService execService;
+    private JsRunnerProvider jsProvider;
+    private UnitOfWork unitOfWork;
+
+    @Inject
+    public RulesVersionPoller(Configuration config, ScheduledExecutorService execService,
+        JsRunnerProvider jsProvider, UnitOfWork unitOfWork) {
+        this.execService = execService;
+        this.jsProvider = jsProvider;
+        this.unitOfWork = unitOfWork;
+
+        this.interval = config.getInt(ConfigProperties.RULES_VERSION_POLL_INTERVAL, 30);
+    }
+
+    /**
+     * Checks whether the periodic rules version checks are enabled by configuration.
+     *
+     * @return
+     *  true if the rules version is polled; false otherwise
+     */
+    public boolean isEnabled() {
+        return this.interval > 0;
+    }
+
+    /**
+     * Starts the periodic rules version checks, if they are enabled.
+     */
+    public void startPeriodicExecutions() {
+        if (!this.isEnabled()) {
+            log.info("Rules version polling is disabled");
+            return;
+        }
+
+        log.info("Checking the rules version every {} seconds", this.interval);
+        this.execService.scheduleWithFixedDelay(this, this.interval, this.interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic rules version checks.
+     */
+    public void stop() {
+        this.execService.shutdownNow();
+    }
+
+    @Override
+    public void run() {
+        boolean startedUow = this.startUnitOfWork();
+
+        try {
+            if (this.jsProvider.refreshRules()) {
+                log.info("Rules changed by another node have been recompiled");
+            }
+        }
+        catch (Throwable t) {
+            // Keep the task scheduled; the next check may well succeed
+            log.error("Error while checking the rules version", t);
+        }
+        finally {
+            if (startedUow) {
+                this.endUnitOfWork();
+            }
+        }
+    }
+
+    protected boolean startUnitOfWork() {
+        if (unitOfWork != null) {
+            try {
+                unitOfWork.begin();
+                return true;
+            }
+            catch (IllegalStateException e) {
+                log.debug("Already have an open unit of work");
+                return false;
+            }
+        }
+        return false;
+    }
+
+    protected void endUnitOfWork() {
+        if (unitOfWork != null) {
+            try {
+                unitOfWork.end();
+            }
+            catch (IllegalStateException e) {
+                log.debug("Unit of work is already closed, doing nothing");
+            }
+        }
+    }
+}
@@ -14,6 +14,8 @@
  */
 package org.candlepin.policy.js.autobind;
 
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
 import org.candlepin.dto.ModelTranslator;
 import org.candlepin.dto.rules.v1.ConsumerDTO;
 import org.candlepin.dto.rules.v1.OwnerDTO;
@@ -53,20 +55,32 @@ public class AutobindRules {
 
     protected static final String SELECT_POOL_FUNCTION = "select_pools";
 
+    public static final String JS_ENGINE = "js";
+    public static final String JAVA_ENGINE = "java";
+
     private JsRunner jsRules;
     private static Logger log = LoggerFactory.getLogger(AutobindRules.class);
     private RulesObjectMapper mapper;
     private ProductCurator productCurator;
     private ModelTranslator translator;
+    private JavaAutobindEngine javaEngine;
 
     @Inject
     public AutobindRules(JsRunner jsRules, ProductCurator productCurator, RulesObjectMapper mapper,
-        ModelTranslator translator) {
+        ModelTranslator translator, Configuration config) {
         this.jsRules = jsRules;
         this.productCurator = productCurator;
         this.mapper = mapper;
         this.translator = translator;
         jsRules.init("autobind_name_space");
+
+        String engine = config.getString(ConfigProperties.AUTOBIND_ENGINE, JS_ENGINE);
+        if (JAVA_ENGINE.equalsIgnoreCase(engine)) {
+            this.javaEngine = new JavaAutobindEngine();
+        }
+        else if (engine != null && !JS_ENGINE.equalsIgnoreCase(engine)) {
+            log.warn("Unknown autobind engine \"{}\"; using the rules engine", engine);
+        }
     }
 
     public List<PoolQuantity> selectBestPools(Consumer consumer, String[] productIds,
@@ -100,6 +114,50 @@ public class AutobindRules {
             }
         }
 
+        Map<String, Integer> result = null;
+        if (this.javaEngine != null) {
+            result = this.javaEngine.selectPools(consumer, productIds, pools, compliance,
+                serviceLevelOverride, exemptLevels, considerDerived);
+        }
+        else {
+            try {
+                result = this.selectPoolsWithRules(consumer, productIds, pools, compliance,
+                    serviceLevelOverride, exemptLevels, considerDerived);
+            }
+            catch (NoSuchMethodException e) {
+                log.warn("No method found: {}", SELECT_POOL_FUNCTION);
+                log.warn("Resorting to default pool selection behavior.");
+                return selectBestPoolDefault(pools);
+            }
+        }
+
+        if (pools.size() > 0 && (result == null || result.isEmpty())) {
+            logProducts("Rules did not select a pool for products: {} and consumer installed products: {}",
+                productIds, consumer, false);
+            return bestPools;
+        }
+
+        for (Pool p : pools) {
+            for (Entry<String, Integer> entry : result.entrySet()) {
+                if (p.getId().equals(entry.getKey())) {
+                    log.debug("Best pool: {}", p);
+
+                    int quantity = entry.getValue();
+                    bestPools.add(new PoolQuantity(p, quantity));
+                }
+            }
+        }
+
+        return bestPools;
+    }
+
+    /**
+     * Invokes the select_pools rules function, returning the selected pool IDs and quantities.
+     */
+    private Map<String, Integer> selectPoolsWithRules(Consumer consumer, String[] productIds,
+        List<Pool> pools, ComplianceStatus compliance, String serviceLevelOverride,
+        Set<String> exemptLevels, boolean considerDerived) throws NoSuchMethodException {
+
         List<PoolDTO> poolDTOs = new ArrayList<>();
         for (Pool pool : pools) {
             poolDTOs.add(this.translator.translate(pool, PoolDTO.class));
@@ -119,41 +177,21 @@ public class AutobindRules {
         args.put("guestIds", consumer.getGuestIds());
 
         // Convert the JSON returned into a Map object:
-        Map<String, Integer> result = null;
         try {
             String json = jsRules.invokeMethod(SELECT_POOL_FUNCTION, args);
-            result = mapper.toObject(json, Map.class);
             if (log.isDebugEnabled()) {
                 log.debug("Executed javascript rule: {}", SELECT_POOL_FUNCTION);
             }
-        }
-        catch (NoSuchMethodException e) {
-            log.warn("No method found: {}", SELECT_POOL_FUNCTION);
-            log.warn("Resorting to default pool selection behavior.");
-            return selectBestPoolDefault(pools);
+
+            long start = System.nanoTime();
+            Map<String, Integer> result = mapper.toObject(json, Map.class);
+            jsRules.recordDeserialization(SELECT_POOL_FUNCTION, start);
+
+            return result;
         }
         catch (RhinoException e) {
             throw new RuleExecutionException(e);
         }
-
-        if (pools.size() > 0 && (result == null || result.isEmpty())) {
-            logProducts("Rules did not select a pool for products: {} and consumer installed products: {}",
-                productIds, consumer, false);
-            return bestPools;
-        }
-
-        for (Pool p : pools) {
-            for (Entry<String, Integer> entry : result.entrySet()) {
-                if (p.getId().equals(entry.getKey())) {
-                    log.debug("Best pool: {}", p);
-
-                    int quantity = entry.getValue();
-                    bestPools.add(new PoolQuantity(p, quantity));
-                }
-            }
-        }
-
-        return bestPools;
     }
 
     private void logProducts(String message, String[] productIds, Consumer consumer, boolean debug) {
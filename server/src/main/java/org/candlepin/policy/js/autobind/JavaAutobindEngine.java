@@ -0,0 +1,1474 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js.autobind;
+
+import org.candlepin.model.Consumer;
+import org.candlepin.model.Entitlement;
+import org.candlepin.model.GuestId;
+import org.candlepin.model.Owner;
+import org.candlepin.model.Pool;
+import org.candlepin.model.Product;
+import org.candlepin.policy.js.compliance.ComplianceStatus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+
+
+/**
+ * The JavaAutobindEngine is a native implementation of the pool selection performed by the
+ * select_pools function of the autobind rules. It builds entitlement groups from the candidate
+ * pools, completes partial stacks and scores the groups exactly as the rules do, including the
+ * rules' handling of loosely-typed attribute and fact values, so both engines select the same
+ * pools and quantities for the same input.
+ * <p></p>
+ * Any change to the autobind portion of the rules must be reflected here as well; the
+ * AutobindEngineParityTest runs both engines against generated fleets to catch divergences.
+ */
+public class JavaAutobindEngine {
+    private static Logger log = LoggerFactory.getLogger(JavaAutobindEngine.class);
+
+    // Consumer fact names
+    private static final String SOCKET_FACT = "cpu.cpu_socket(s)";
+    private static final String RAM_FACT = "memory.memtotal";
+    private static final String CORES_FACT = "cpu.core(s)_per_socket";
+    private static final String ARCH_FACT = "uname.machine";
+    private static final String IS_VIRT_GUEST_FACT = "virt.is_guest";
+    private static final String STORAGE_BAND_FACT = "band.storage.usage";
+
+    // Product attribute names
+    private static final String SOCKETS = Product.Attributes.SOCKETS;
+    private static final String CORES = Product.Attributes.CORES;
+    private static final String ARCH = Product.Attributes.ARCHITECTURE;
+    private static final String RAM = Product.Attributes.RAM;
+    private static final String VCPU = Product.Attributes.VCPU;
+    private static final String GUEST_LIMIT = Product.Attributes.GUEST_LIMIT;
+    private static final String STORAGE_BAND = "storage_band";
+    private static final String INSTANCE_MULTIPLIER = Product.Attributes.INSTANCE_MULTIPLIER;
+    private static final String STACKING_ID = Product.Attributes.STACKING_ID;
+    private static final String SUPPORT_LEVEL = Product.Attributes.SUPPORT_LEVEL;
+    private static final String VIRT_ONLY = Product.Attributes.VIRT_ONLY;
+    private static final String MULTI_ENTITLEMENT = Pool.Attributes.MULTI_ENTITLEMENT;
+    private static final String REQUIRES_HOST = Pool.Attributes.REQUIRES_HOST;
+
+    private static final List<String> PHYSICAL_ATTRIBUTES =
+        Arrays.asList(SOCKETS, CORES, RAM, ARCH, GUEST_LIMIT, STORAGE_BAND);
+
+    private static final List<String> VIRT_ATTRIBUTES =
+        Arrays.asList(VCPU, RAM, ARCH, GUEST_LIMIT, STORAGE_BAND);
+
+    private static final List<String> UNCHECKED_WHEN_HOST_RESTRICTED = Arrays.asList(RAM, VCPU);
+
+    private static final List<String> PRIORITY_ATTRIBUTES = Arrays.asList(SOCKETS, CORES, RAM, VCPU);
+
+    private static final Pattern JS_DECIMAL = Pattern.compile(
+        "[+-]?(Infinity|(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?)");
+
+    private static final Pattern JS_HEX = Pattern.compile("0[xX][0-9a-fA-F]+");
+
+    /**
+     * Selects the best pools and quantities to attach to the given consumer. The parameters are
+     * identical to those passed to the select_pools rules function.
+     *
+     * @return
+     *  a map of pool IDs to the quantity to attach from each pool; never null
+     */
+    public Map<String, Integer> selectPools(Consumer consumer, String[] productIds, List<Pool> pools,
+        ComplianceStatus compliance, String serviceLevelOverride, Set<String> exemptLevels,
+        boolean considerDerived) {
+
+        Selection selection = new Selection(consumer);
+
+        List<Ent> attachedEnts = this.getAttachedEnts(compliance);
+        List<PoolInfo> validPools = selection.getValidPools(pools, serviceLevelOverride, exemptLevels);
+
+        List<String> installed = new ArrayList<>();
+        if (productIds != null) {
+            installed.addAll(Arrays.asList(productIds));
+        }
+
+        // Filter compliant products from this list
+        for (String productId : compliance.getCompliantProducts().keySet()) {
+            installed.remove(productId);
+        }
+
+        List<EntitlementGroup> entGroups = selection.buildEntitlementGroups(validPools, installed,
+            attachedEnts, considerDerived);
+        log.debug("Total ent groups: {}", entGroups.size());
+
+        List<EntitlementGroup> validGroups = new ArrayList<>();
+        for (int i = entGroups.size() - 1; i >= 0; --i) {
+            EntitlementGroup group = entGroups.get(i);
+
+            if (group.validate()) {
+                // Only consider the group if it provides a necessary product, or stacks with an
+                // existing partial stack
+                if (!getCommonProducts(installed, group).isEmpty() || !attachedEnts.isEmpty()) {
+                    validGroups.add(group);
+                    group.removeExtraAttributes();
+                    group.prunePools();
+                }
+                else {
+                    log.debug("Group {} provides no installed products", group.stackId);
+                }
+            }
+            else {
+                log.debug("Group {} failed validation.", group.stackId);
+            }
+        }
+
+        log.debug("valid ent groups size: {}", validGroups.size());
+
+        List<EntitlementGroup> bestGroups = this.getBestEntitlementGroups(validGroups, installed,
+            compliance);
+        log.debug("best_groups size: {}", bestGroups.size());
+
+        Map<String, Integer> selected = new LinkedHashMap<>();
+        for (EntitlementGroup group : bestGroups) {
+            selected.putAll(group.getPoolQuantity());
+        }
+
+        return selected;
+    }
+
+    /**
+     * Collects the entitlements already attached to the consumer from the partial stacks,
+     * partially compliant products and compliant products of the compliance status, in that order.
+     */
+    private List<Ent> getAttachedEnts(ComplianceStatus compliance) {
+        List<Ent> attached = new ArrayList<>();
+
+        List<Map<String, Set<Entitlement>>> entMaps = Arrays.asList(compliance.getPartialStacks(),
+            compliance.getPartiallyCompliantProducts(), compliance.getCompliantProducts());
+
+        for (Map<String, Set<Entitlement>> entMap : entMaps) {
+            for (Set<Entitlement> ents : entMap.values()) {
+                for (Entitlement ent : ents) {
+                    boolean found = false;
+                    for (Ent existing : attached) {
+                        if (Objects.equals(existing.id, ent.getId())) {
+                            found = true;
+                            break;
+                        }
+                    }
+
+                    if (!found) {
+                        Integer quantity = ent.getQuantity();
+                        attached.add(new Ent(ent.getId(), new PoolInfo(ent.getPool()),
+                            quantity != null ? quantity : 0));
+                    }
+                }
+            }
+        }
+
+        return attached;
+    }
+
+    private List<EntitlementGroup> getBestEntitlementGroups(List<EntitlementGroup> groups,
+        List<String> installed, ComplianceStatus compliance) {
+
+        List<EntitlementGroup> best = new ArrayList<>();
+
+        for (String stackId : compliance.getPartialStacks().keySet()) {
+            for (EntitlementGroup group : groups) {
+                if (Objects.equals(group.stackId, stackId)) {
+                    // Don't have to worry about products that other stacks are handling
+                    List<String> inCommon = getCommonProducts(installed, group);
+                    group.installed = inCommon;
+                    best.add(group);
+                    installed.removeAll(inCommon);
+                }
+            }
+        }
+
+        EntitlementGroup group = this.findBestEntitlementGroup(groups, installed);
+        while (group != null) {
+            best.add(group);
+            List<String> inCommon = getCommonProducts(installed, group);
+            installed.removeAll(inCommon);
+            group.installed = inCommon;
+
+            group = this.findBestEntitlementGroup(groups, installed);
+        }
+
+        return best;
+    }
+
+    private EntitlementGroup findBestEntitlementGroup(List<EntitlementGroup> groups,
+        List<String> installed) {
+
+        int maxProvide = 0;
+        boolean stacked = false;
+        EntitlementGroup best = null;
+        double totalPoolQuantity = Double.MAX_VALUE;
+        double bestAvgPriority = 0;
+        int bestNumHostSpecific = 0;
+        int bestNumVirtOnly = 0;
+        boolean virtOnlyFound = false;
+        boolean hostSpecificFound = false;
+
+        for (EntitlementGroup group : groups) {
+            double groupAvgPriority = group.getAveragePriority();
+            int intersection = getCommonProducts(installed, group).size();
+            double groupPoolQuantity = group.getTotalQuantity();
+            int groupNumHostSpecific = group.countHostSpecific();
+            int groupNumVirtOnly = group.countVirtOnly();
+
+            // Skip this group if we've found virt or host specific groups and this group is not
+            if (intersection <= 0 ||
+                (hostSpecificFound && groupNumHostSpecific < bestNumHostSpecific) ||
+                (virtOnlyFound && groupNumVirtOnly < bestNumVirtOnly)) {
+                continue;
+            }
+
+            boolean newBestFound = false;
+            if (groupNumHostSpecific > bestNumHostSpecific) {
+                hostSpecificFound = true;
+                newBestFound = true;
+            }
+            else if (groupNumHostSpecific < bestNumHostSpecific) {
+                newBestFound = false;
+            }
+            else if (groupNumVirtOnly > bestNumVirtOnly) {
+                virtOnlyFound = true;
+                newBestFound = true;
+            }
+            else if (groupNumVirtOnly < bestNumVirtOnly) {
+                newBestFound = false;
+            }
+            else if (intersection > maxProvide) {
+                newBestFound = true;
+            }
+            else if (intersection < maxProvide) {
+                newBestFound = false;
+            }
+            else if (groupAvgPriority > bestAvgPriority) {
+                newBestFound = true;
+            }
+            else if (groupAvgPriority < bestAvgPriority) {
+                newBestFound = false;
+            }
+            else if (groupPoolQuantity < totalPoolQuantity) {
+                newBestFound = true;
+            }
+            else if (groupPoolQuantity > totalPoolQuantity) {
+                newBestFound = false;
+            }
+            else if (stacked && !group.stackable) {
+                newBestFound = true;
+            }
+
+            if (newBestFound) {
+                stacked = group.stackable;
+                maxProvide = intersection;
+                totalPoolQuantity = groupPoolQuantity;
+                bestAvgPriority = groupAvgPriority;
+                best = group;
+                bestNumHostSpecific = groupNumHostSpecific;
+                bestNumVirtOnly = groupNumVirtOnly;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Returns the product IDs the group will cover which are also present in the given list of
+     * installed product IDs.
+     */
+    private static List<String> getCommonProducts(List<String> installed, EntitlementGroup group) {
+        List<String> common = new ArrayList<>();
+        for (String productId : group.getProvidedProducts()) {
+            if (installed.contains(productId)) {
+                common.add(productId);
+            }
+        }
+
+        return common;
+    }
+
+    /**
+     * Emulates the rules' JavaScript parseInt on a string value, returning NaN if the value does
+     * not start with an integer.
+     */
+    static double parseInt(String value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+
+        String str = value.trim();
+        int idx = 0;
+        boolean negative = false;
+
+        if (idx < str.length() && (str.charAt(idx) == '+' || str.charAt(idx) == '-')) {
+            negative = str.charAt(idx) == '-';
+            ++idx;
+        }
+
+        int radix = 10;
+        if (str.startsWith("0x", idx) || str.startsWith("0X", idx)) {
+            radix = 16;
+            idx += 2;
+        }
+
+        double result = 0;
+        int start = idx;
+        for (; idx < str.length(); ++idx) {
+            int digit = Character.digit(str.charAt(idx), radix);
+            if (digit < 0) {
+                break;
+            }
+
+            result = result * radix + digit;
+        }
+
+        if (idx == start) {
+            return Double.NaN;
+        }
+
+        return negative ? -result : result;
+    }
+
+    /**
+     * Emulates the rules' JavaScript parseInt on an accumulated numeric value.
+     */
+    static double parseInt(Object value) {
+        if (value instanceof Double) {
+            double number = (Double) value;
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                return Double.NaN;
+            }
+
+            return number < 0 ? Math.ceil(number) : Math.floor(number);
+        }
+
+        return value instanceof String ? parseInt((String) value) : Double.NaN;
+    }
+
+    /**
+     * Emulates the JavaScript conversion of a string to a number, as performed when a fact value
+     * is used in an arithmetic expression or numeric comparison.
+     */
+    static double toNumber(String value) {
+        String str = value.trim();
+
+        if (str.isEmpty()) {
+            return 0;
+        }
+
+        if (JS_HEX.matcher(str).matches()) {
+            return Long.parseLong(str.substring(2), 16);
+        }
+
+        if (!JS_DECIMAL.matcher(str).matches()) {
+            return Double.NaN;
+        }
+
+        return str.endsWith("Infinity") ?
+            (str.startsWith("-") ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY) :
+            Double.parseDouble(str);
+    }
+
+    /**
+     * Emulates the JavaScript ToInt32 conversion performed by the rules' "value | 0" expressions.
+     */
+    static double toInt32(Object value) {
+        if (!(value instanceof Double)) {
+            return 0;
+        }
+
+        double number = (Double) value;
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            return 0;
+        }
+
+        return (int) (long) number;
+    }
+
+    /**
+     * Emulates the rules' Utils.equalsIgnoreCase function. Note that null does not equal "".
+     */
+    static boolean equalsIgnoreCase(String str1, String str2) {
+        if (str1 == null || str2 == null) {
+            return str1 == str2;
+        }
+
+        return str1.toLowerCase(Locale.ROOT).equals(str2.toLowerCase(Locale.ROOT));
+    }
+
+    private static boolean isTruthy(String value) {
+        return value != null && !value.isEmpty();
+    }
+
+    private static boolean architectureMatches(String productArch, String consumerArch,
+        String consumerType) {
+
+        // Non-system consumers without an architecture fact can pass this rule regardless of
+        // what arch the product requires.
+        if (!isTruthy(consumerArch) && !"system".equals(consumerType)) {
+            return true;
+        }
+
+        if (productArch != null) {
+            List<String> supported = new ArrayList<>(
+                Arrays.asList(productArch.toUpperCase(Locale.ROOT).split(",", -1)));
+
+            // If X86 is supported, add all variants to this list
+            if (supported.contains("X86")) {
+                supported.add("I386");
+                supported.add("I586");
+                supported.add("I686");
+            }
+
+            if (!supported.contains("ALL") && (!isTruthy(consumerArch) ||
+                !supported.contains(consumerArch.toUpperCase(Locale.ROOT)))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static List<Ent> concat(List<Ent> ents, List<Ent> attached) {
+        List<Ent> result = new ArrayList<>(ents.size() + attached.size());
+        result.addAll(ents);
+        result.addAll(attached);
+        return result;
+    }
+
+    /**
+     * A read-only view of a pool which resolves attributes the way the rules do: attributes with
+     * a value of "0" are considered unset, and lookups fall back from pool to product attributes
+     * or vice versa.
+     */
+    private static class PoolInfo {
+        private final Pool pool;
+        private final String id;
+        private final Map<String, String> attributes;
+        private final Map<String, String> productAttributes;
+        private final double quantity;
+        private final double consumed;
+
+        private List<String> products;
+        private List<String> derivedProducts;
+        private Double priority;
+
+        // The number of entitlements from this pool the autobind may use
+        private double currentlyAvailable;
+
+        PoolInfo(Pool pool) {
+            this.pool = pool;
+            this.id = pool.getId();
+            this.attributes = pool.getAttributes() != null ?
+                pool.getAttributes() : Collections.<String, String>emptyMap();
+            this.productAttributes = pool.getProductAttributes();
+            this.quantity = pool.getQuantity() != null ? pool.getQuantity() : 0;
+            this.consumed = pool.getTotalConsumed();
+        }
+
+        private static String findAttributeIn(String name, Map<String, String> attributes) {
+            String value = attributes.get(name);
+            return value == null || "0".equals(value) ? null : value;
+        }
+
+        String getAttribute(String name) {
+            String value = findAttributeIn(name, this.attributes);
+            return value != null ? value : findAttributeIn(name, this.productAttributes);
+        }
+
+        String getProductAttribute(String name) {
+            String value = findAttributeIn(name, this.productAttributes);
+            return value != null ? value : findAttributeIn(name, this.attributes);
+        }
+
+        boolean hasProductAttribute(String name) {
+            return this.getProductAttribute(name) != null;
+        }
+
+        boolean isStacked() {
+            return this.productAttributes.containsKey(STACKING_ID);
+        }
+
+        String getStackId() {
+            return this.getProductAttribute(STACKING_ID);
+        }
+
+        boolean isMultiEnt() {
+            return equalsIgnoreCase(this.getProductAttribute(MULTI_ENTITLEMENT), "yes");
+        }
+
+        boolean isVirtOnly() {
+            return equalsIgnoreCase(this.getProductAttribute(VIRT_ONLY), "true");
+        }
+
+        boolean isHostSpecific() {
+            return this.getAttribute(REQUIRES_HOST) != null;
+        }
+
+        boolean isUnlimited() {
+            return this.quantity < 0;
+        }
+
+        double getAvailable() {
+            return this.quantity - this.consumed;
+        }
+
+        double getInstanceMulti() {
+            double multi = parseInt(this.getAttribute(INSTANCE_MULTIPLIER));
+            return Double.isNaN(multi) || multi == 0 ? 1 : multi;
+        }
+
+        Date getEndDate() {
+            return this.pool.getEndDate();
+        }
+
+        List<String> getProducts() {
+            if (this.products == null) {
+                this.products = new ArrayList<>();
+                this.products.add(this.pool.getProductId());
+                for (Product product : this.pool.getProvidedProducts()) {
+                    this.products.add(product.getId());
+                }
+            }
+
+            return this.products;
+        }
+
+        boolean hasDerived() {
+            return this.pool.getDerivedProductId() != null;
+        }
+
+        List<String> getDerivedProducts() {
+            if (this.derivedProducts == null) {
+                this.derivedProducts = new ArrayList<>();
+                if (this.hasDerived()) {
+                    this.derivedProducts.add(this.pool.getDerivedProductId());
+                    for (Product product : this.pool.getDerivedProvidedProducts()) {
+                        this.derivedProducts.add(product.getId());
+                    }
+                }
+            }
+
+            return this.derivedProducts;
+        }
+    }
+
+    /**
+     * An entitlement, either attached to the consumer or simulated from a candidate pool.
+     */
+    private static class Ent {
+        private final String id;
+        private final PoolInfo pool;
+        private double quantity;
+
+        Ent(String id, PoolInfo pool, double quantity) {
+            this.id = id;
+            this.pool = pool;
+            this.quantity = quantity;
+        }
+    }
+
+    /**
+     * The result of a coverage check; the reasons are the names of the uncovered attributes.
+     */
+    private static class Coverage {
+        private final boolean covered;
+        private final List<String> reasons;
+
+        Coverage(boolean covered, List<String> reasons) {
+            this.covered = covered;
+            this.reasons = reasons;
+        }
+    }
+
+    /**
+     * The state of a single pool selection for a given consumer.
+     */
+    private static class Selection {
+        private final Consumer consumer;
+        private final Map<String, String> facts;
+        private final boolean guest;
+        private final List<String> complianceAttributes;
+        private final Map<String, Double> factValues;
+
+        Selection(Consumer consumer) {
+            this.consumer = consumer;
+            this.facts = consumer.getFacts() != null ?
+                consumer.getFacts() : Collections.<String, String>emptyMap();
+
+            String isGuest = this.facts.get(IS_VIRT_GUEST_FACT);
+            this.guest = isTruthy(isGuest) && equalsIgnoreCase("true", isGuest);
+            this.complianceAttributes = this.guest ? VIRT_ATTRIBUTES : PHYSICAL_ATTRIBUTES;
+            this.factValues = new HashMap<>();
+        }
+
+        private double getRawFact(String fact) {
+            String value = this.facts.get(fact);
+            return isTruthy(value) ? toNumber(value) : 1;
+        }
+
+        /**
+         * Calculates the consumer value to compare against the given product attribute when
+         * determining coverage.
+         */
+        double getFact(String attribute) {
+            Double value = this.factValues.get(attribute);
+
+            if (value == null) {
+                switch (attribute) {
+                    case RAM:
+                        String ram = this.facts.get(RAM_FACT);
+                        double ramGb = parseInt(isTruthy(ram) ? ram : "1") / 1024 / 1024;
+                        value = Double.isNaN(ramGb) ? ramGb : Math.floor(ramGb + 0.5);
+                        break;
+
+                    case CORES:
+                        value = this.getRawFact(CORES_FACT) * this.getFact(SOCKETS);
+                        break;
+
+                    case VCPU:
+                        value = this.getFact(CORES);
+                        break;
+
+                    case GUEST_LIMIT:
+                        value = (double) this.countActiveGuests();
+                        break;
+
+                    case SOCKETS:
+                        value = this.getRawFact(SOCKET_FACT);
+                        break;
+
+                    case STORAGE_BAND:
+                        value = this.getRawFact(STORAGE_BAND_FACT);
+                        break;
+
+                    default:
+                        value = 1.0;
+                }
+
+                this.factValues.put(attribute, value);
+            }
+
+            return value;
+        }
+
+        private int countActiveGuests() {
+            int count = 0;
+
+            if (this.consumer.getGuestIds() != null) {
+                for (GuestId guest : this.consumer.getGuestIds()) {
+                    Map<String, String> attribs = guest.getAttributes();
+
+                    if (attribs != null && "libvirt".equals(attribs.get("virtWhoType")) &&
+                        attribs.containsKey("active") && "1".equals(attribs.get("active"))) {
+                        ++count;
+                    }
+                }
+            }
+
+            return count;
+        }
+
+        double getPoolPriority(PoolInfo pool) {
+            if (pool.priority != null) {
+                return pool.priority;
+            }
+
+            double priority = 100;
+
+            // Use virt only if possible
+            if (pool.isVirtOnly()) {
+                priority += 100;
+            }
+
+            // Better still if host specific
+            if (pool.isHostSpecific()) {
+                priority += 150;
+            }
+
+            // Decrease the priority of shared pools slightly so non-shared pools are consumed first
+            if (Boolean.TRUE.equals(pool.pool.hasSharedAncestor())) {
+                priority -= 10;
+            }
+
+            // Match socket counts (and the like) as exactly as possible
+            for (String attribute : PRIORITY_ATTRIBUTES) {
+                if (this.complianceAttributes.contains(attribute)) {
+                    double consumerVal = this.getFact(attribute);
+                    double poolVal = parseInt(pool.getProductAttribute(attribute));
+
+                    if (consumerVal > 0 && poolVal > 0) {
+                        double required = Math.ceil(consumerVal / poolVal);
+                        double multi = SOCKETS.equals(attribute) ? pool.getInstanceMulti() : 1;
+
+                        if (pool.getAvailable() / multi >= required) {
+                            poolVal *= required;
+
+                            // Maximum of 10 with an exact match; half a point is lost for every
+                            // additional quantity. Doubled so it trumps the date comparison.
+                            priority += Math.max(0, 10 - (poolVal - consumerVal) - ((required - 1) / 2)) * 2;
+                        }
+                    }
+                    else {
+                        priority += 20;
+                    }
+                }
+            }
+
+            pool.priority = priority;
+            return priority;
+        }
+
+        List<PoolInfo> getValidPools(List<Pool> pools, String serviceLevelOverride,
+            Set<String> exemptLevels) {
+
+            String consumerSLA = serviceLevelOverride;
+            if (!isTruthy(consumerSLA)) {
+                consumerSLA = this.consumer.getServiceLevel();
+
+                if (!isTruthy(consumerSLA)) {
+                    Owner owner = this.consumer.getOwner();
+                    consumerSLA = owner != null ? owner.getDefaultServiceLevel() : null;
+                }
+            }
+
+            String consumerArch = this.facts.get(ARCH_FACT);
+            List<PoolInfo> valid = new ArrayList<>();
+
+            for (Pool pool : pools) {
+                PoolInfo info = new PoolInfo(pool);
+                info.currentlyAvailable = this.getCurrentlyAvailable(info);
+
+                // The rules pass the consumer type object rather than its label here, so only the
+                // presence of the arch fact is considered for consumers which do not report one.
+                boolean archValid = architectureMatches(info.getProductAttribute(ARCH), consumerArch, null);
+                boolean virtValid = this.guest || !info.hasProductAttribute(VIRT_ONLY) || !info.isVirtOnly();
+                boolean slaValid = this.isSlaValid(info, consumerSLA, exemptLevels);
+                boolean notEmpty = info.currentlyAvailable > 0;
+
+                if (archValid && virtValid && slaValid && notEmpty) {
+                    valid.add(info);
+                }
+                else {
+                    log.debug("Skipping pool {}; arch: {}, virt: {}, sla: {}, available: {}", info.id,
+                        archValid, virtValid, slaValid, notEmpty);
+                }
+            }
+
+            return valid;
+        }
+
+        private boolean isSlaValid(PoolInfo pool, String consumerSLA, Set<String> exemptLevels) {
+            String poolSLA = pool.getProductAttribute(SUPPORT_LEVEL);
+
+            boolean exempt = false;
+            if (exemptLevels != null) {
+                for (String level : exemptLevels) {
+                    if (equalsIgnoreCase(level, poolSLA)) {
+                        exempt = true;
+                        break;
+                    }
+                }
+            }
+
+            return !(isTruthy(poolSLA) && !exempt && isTruthy(consumerSLA) &&
+                !equalsIgnoreCase(consumerSLA, poolSLA));
+        }
+
+        private double getCurrentlyAvailable(PoolInfo pool) {
+            double available;
+
+            if (pool.quantity == -1) {
+                // In the unlimited case, we need at most the number required to cover the system
+                available = pool.isMultiEnt() && pool.hasProductAttribute(STACKING_ID) ?
+                    this.getQuantityToCoverStack(this.createTrackerFromPool(pool), pool,
+                    Collections.<Ent>emptyList()) : 1;
+            }
+            else {
+                available = pool.getAvailable();
+            }
+
+            // If the pool is not multi-entitlable, only one may be used
+            if (available > 0 && !pool.isMultiEnt()) {
+                available = 1;
+            }
+
+            return available;
+        }
+
+        List<EntitlementGroup> buildEntitlementGroups(List<PoolInfo> pools, List<String> installed,
+            List<Ent> attached, boolean considerDerived) {
+
+            List<EntitlementGroup> groups = new ArrayList<>();
+
+            for (PoolInfo pool : pools) {
+                if (pool.isStacked()) {
+                    String stackId = pool.getStackId();
+                    EntitlementGroup found = null;
+
+                    for (EntitlementGroup group : groups) {
+                        if (Objects.equals(group.stackId, stackId)) {
+                            found = group;
+                            break;
+                        }
+                    }
+
+                    if (found == null) {
+                        found = new EntitlementGroup(this, true, stackId, installed, attached,
+                            considerDerived);
+                        groups.add(found);
+                    }
+
+                    found.pools.add(pool);
+                }
+                else {
+                    EntitlementGroup group = new EntitlementGroup(this, false, "", installed, attached,
+                        considerDerived);
+                    group.pools.add(pool);
+                    groups.add(group);
+                }
+            }
+
+            return groups;
+        }
+
+        List<Ent> createMockEnts(List<PoolInfo> pools) {
+            List<Ent> ents = new ArrayList<>(pools.size());
+            for (PoolInfo pool : pools) {
+                ents.add(new Ent(null, pool, pool.currentlyAvailable));
+            }
+
+            return ents;
+        }
+
+        ComplianceTracker createTrackerFromPool(PoolInfo pool) {
+            ComplianceTracker tracker = new ComplianceTracker(this);
+            tracker.updateAccumulatedFromPool(pool, 0);
+            return tracker;
+        }
+
+        Coverage getStackCoverage(String stackId, List<Ent> ents) {
+            ComplianceTracker tracker = new ComplianceTracker(this);
+
+            for (Ent ent : ents) {
+                if (ent.pool.isStacked() && Objects.equals(ent.pool.getStackId(), stackId)) {
+                    tracker.updateAccumulatedFromEnt(ent);
+                }
+            }
+
+            return this.getStackCoverage(tracker, ents);
+        }
+
+        Coverage getEntitlementCoverage(Ent ent, List<Ent> ents) {
+            ComplianceTracker tracker = new ComplianceTracker(this);
+            tracker.updateAccumulatedFromEnt(ent);
+            return this.getStackCoverage(tracker, ents);
+        }
+
+        Coverage getStackCoverage(ComplianceTracker tracker, List<Ent> ents) {
+            // Global attributes are accumulated across every entitlement, not just the stack
+            if (tracker.enforces(GUEST_LIMIT) && this.complianceAttributes.contains(GUEST_LIMIT)) {
+                tracker.accumulated.put(GUEST_LIMIT, this.getGlobalGuestLimit(ents));
+            }
+
+            int coverageCount = 0;
+            List<String> reasons = new ArrayList<>();
+
+            for (String attribute : this.complianceAttributes) {
+                if (!tracker.enforces(attribute) || this.isCovered(tracker, attribute)) {
+                    ++coverageCount;
+                }
+                else {
+                    reasons.add(attribute);
+                }
+            }
+
+            return new Coverage(coverageCount == this.complianceAttributes.size(), reasons);
+        }
+
+        private Double getGlobalGuestLimit(List<Ent> ents) {
+            Double total = null;
+
+            for (Ent ent : ents) {
+                if (ent.pool.hasProductAttribute(GUEST_LIMIT)) {
+                    if (total == null) {
+                        total = 0.0;
+                    }
+
+                    double value = parseInt(ent.pool.getProductAttribute(GUEST_LIMIT));
+                    if (value == -1) {
+                        return value;
+                    }
+
+                    if (value > total) {
+                        total = value;
+                    }
+                }
+            }
+
+            return total;
+        }
+
+        private boolean isCovered(ComplianceTracker tracker, String attribute) {
+            Object value = tracker.accumulated.get(attribute);
+
+            if (ARCH.equals(attribute)) {
+                String consumerArch = this.facts.get(ARCH_FACT);
+                String type = this.consumer.getType() != null ? this.consumer.getType().getLabel() : null;
+
+                if (value instanceof List) {
+                    for (Object arch : (List) value) {
+                        if (!architectureMatches((String) arch, consumerArch, type)) {
+                            return false;
+                        }
+                    }
+                }
+
+                return true;
+            }
+
+            if (GUEST_LIMIT.equals(attribute) && value instanceof Double && (Double) value == -1) {
+                return true;
+            }
+
+            return parseInt(value) >= this.getFact(attribute);
+        }
+
+        /**
+         * Determines the quantity of entitlements needed from a pool in order for the stack to
+         * cover the consumer.
+         */
+        double getQuantityToCoverStack(ComplianceTracker tracker, PoolInfo pool, List<Ent> ents) {
+            // Stacking multiple instances of arch or guest_limit does not change coverage
+            List<String> attributesToUse = new ArrayList<>();
+            for (String attribute : this.complianceAttributes) {
+                if (!ARCH.equals(attribute) && !GUEST_LIMIT.equals(attribute) &&
+                    pool.hasProductAttribute(attribute)) {
+                    attributesToUse.add(attribute);
+                }
+            }
+
+            double increment = pool.hasProductAttribute(INSTANCE_MULTIPLIER) && !this.guest ?
+                parseInt(pool.getProductAttribute(INSTANCE_MULTIPLIER)) : 1;
+
+            boolean covered;
+            double quantity = 0;
+            boolean startedEmpty = tracker.empty;
+
+            do {
+                // If the stack is empty, we can assume at least one is needed. This works around
+                // coverage coming back as 100% because no attributes are being enforced.
+                if (startedEmpty || quantity != 0) {
+                    tracker.updateAccumulatedFromPool(pool, increment);
+                    quantity += increment;
+                }
+
+                startedEmpty = true;
+                Coverage coverage = this.getStackCoverage(tracker, ents);
+
+                covered = true;
+                for (String reason : coverage.reasons) {
+                    if (attributesToUse.contains(reason)) {
+                        covered = false;
+                    }
+                }
+
+                // The rules never terminate for a non-positive increment; we stop instead
+            } while (!covered && increment > 0 &&
+                (quantity + increment <= pool.getAvailable() || pool.isUnlimited()));
+
+            return quantity;
+        }
+    }
+
+    /**
+     * Tracks the accumulated attribute values of a single entitlement or a stack of entitlements.
+     */
+    private static class ComplianceTracker {
+        private final Selection selection;
+        private final Map<String, Object> accumulated;
+        private String hostRestricted;
+        private boolean empty;
+
+        ComplianceTracker(Selection selection) {
+            this.selection = selection;
+            this.accumulated = new HashMap<>();
+            this.empty = true;
+        }
+
+        boolean enforces(String attribute) {
+            // Guests are not subjected to RAM/vCPU limitations if using a host restricted pool
+            if (this.hostRestricted != null && this.selection.guest &&
+                UNCHECKED_WHEN_HOST_RESTRICTED.contains(attribute)) {
+                return false;
+            }
+
+            return this.accumulated.containsKey(attribute);
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object accumulate(String attribute, Object current, String poolValue, PoolInfo pool,
+            double quantity) {
+
+            switch (attribute) {
+                case ARCH:
+                    List<String> arches = current instanceof List ?
+                        (List<String>) current : new ArrayList<>();
+                    arches.add(poolValue);
+                    return arches;
+
+                case SOCKETS:
+                    double increment = parseInt(pool.getProductAttribute(INSTANCE_MULTIPLIER));
+                    if (Double.isNaN(increment) || increment == 0) {
+                        increment = 1;
+                    }
+
+                    // Use the lowest quantity evenly divisible by the instance multiplier
+                    double adjusted = quantity - (quantity % increment);
+                    return toInt32(current) + (parseInt(poolValue) * adjusted) / increment;
+
+                case GUEST_LIMIT:
+                    // Value doesn't matter, it just needs to be enforced
+                    return -1.0;
+
+                default:
+                    return toInt32(current) + parseInt(poolValue) * quantity;
+            }
+        }
+
+        void updateAccumulatedFromPool(PoolInfo pool, double quantity) {
+            if (quantity > 0) {
+                this.empty = false;
+            }
+
+            String requiresHost = pool.getAttribute(REQUIRES_HOST);
+            if (isTruthy(requiresHost)) {
+                this.hostRestricted = requiresHost;
+            }
+
+            for (String attribute : this.selection.complianceAttributes) {
+                String poolValue = pool.getProductAttribute(attribute);
+
+                if (poolValue != null) {
+                    Object current = this.enforces(attribute) ? this.accumulated.get(attribute) : null;
+                    this.accumulated.put(attribute, this.accumulate(attribute, current, poolValue, pool,
+                        quantity));
+                }
+            }
+        }
+
+        void updateAccumulatedFromEnt(Ent ent) {
+            this.empty = false;
+
+            // If quantity is > 1 but the entitlement is not stacked, only calculate compliance for
+            // quantity 1
+            double quantity = ent.quantity;
+            if (!ent.pool.isStacked() && quantity > 1) {
+                quantity = 1;
+            }
+
+            this.updateAccumulatedFromPool(ent.pool, quantity);
+        }
+    }
+
+    /**
+     * An entitlement group allows stacks and individual entitlements to be evaluated uniformly.
+     */
+    private static class EntitlementGroup {
+        private final Selection selection;
+        private final boolean stackable;
+        private final String stackId;
+        private final List<Ent> attached;
+        private final boolean considerDerived;
+
+        private List<PoolInfo> pools;
+        private List<String> installed;
+        private Map<String, Integer> poolQuantity;
+        private Double averagePriority;
+
+        EntitlementGroup(Selection selection, boolean stackable, String stackId, List<String> installed,
+            List<Ent> attached, boolean considerDerived) {
+
+            this.selection = selection;
+            this.stackable = stackable;
+            this.stackId = stackId;
+            this.installed = installed;
+            this.attached = attached;
+            this.considerDerived = considerDerived;
+            this.pools = new ArrayList<>();
+        }
+
+        private List<Ent> getAllEnts(List<PoolInfo> pools) {
+            return concat(this.selection.createMockEnts(pools), this.attached);
+        }
+
+        /**
+         * Checks whether the group can fully cover the consumer. For stacks, pools with attributes
+         * preventing compliance are removed.
+         */
+        boolean validate() {
+            List<Ent> allEnts = this.getAllEnts(this.pools);
+
+            if (allEnts.isEmpty()) {
+                return false;
+            }
+
+            if (!this.stackable) {
+                return this.selection.getEntitlementCoverage(allEnts.get(0), allEnts).covered;
+            }
+
+            Coverage coverage = this.selection.getStackCoverage(this.stackId, allEnts);
+            if (!coverage.covered) {
+                // Remove all pools with attributes we cannot support. Note that the rules compare
+                // the upper-cased reason keys against "arch" here, so an arch mismatch never
+                // short-circuits the validation.
+                List<PoolInfo> poolsWithoutBadAttrs = new ArrayList<>();
+
+                for (int i = this.pools.size() - 1; i >= 0; --i) {
+                    PoolInfo pool = this.pools.get(i);
+                    boolean valid = true;
+
+                    for (String attribute : coverage.reasons) {
+                        if (isTruthy(pool.getProductAttribute(attribute))) {
+                            valid = false;
+                            break;
+                        }
+                    }
+
+                    if (valid) {
+                        poolsWithoutBadAttrs.add(pool);
+                    }
+                }
+
+                this.pools = poolsWithoutBadAttrs;
+                return this.selection.getStackCoverage(this.stackId, this.getAllEnts(this.pools)).covered;
+            }
+
+            return true;
+        }
+
+        /**
+         * Generates the combinations of up to maxLength elements of the given list.
+         */
+        private static List<List<String>> getSets(List<String> list, int maxLength) {
+            if (list.isEmpty()) {
+                List<List<String>> result = new ArrayList<>();
+                result.add(new ArrayList<>());
+                return result;
+            }
+
+            List<List<String>> results = new ArrayList<>();
+            for (List<String> set : getSets(list.subList(1, list.size()), maxLength)) {
+                if (set.size() < maxLength) {
+                    List<String> extended = new ArrayList<>();
+                    extended.add(list.get(0));
+                    extended.addAll(set);
+                    results.add(extended);
+                }
+
+                results.add(set);
+            }
+
+            return results;
+        }
+
+        private List<List<String>> getAttributeSets(List<PoolInfo> pools) {
+            List<String> stackAttributes = new ArrayList<>();
+
+            for (String attribute : this.selection.complianceAttributes) {
+                if (!ARCH.equals(attribute)) {
+                    for (PoolInfo pool : pools) {
+                        if (pool.hasProductAttribute(attribute)) {
+                            stackAttributes.add(attribute);
+                            break;
+                        }
+                    }
+                }
+            }
+
+            List<List<String>> sets = new ArrayList<>();
+            for (List<String> set : getSets(stackAttributes, stackAttributes.size() - 1)) {
+                if (!set.isEmpty()) {
+                    sets.add(set);
+                }
+            }
+
+            return sets;
+        }
+
+        /**
+         * Removes parallel stacks, so we aren't binding two stacks which would be fully compliant
+         * on their own.
+         */
+        void removeExtraAttributes() {
+            List<List<PoolInfo>> possiblePoolSets = new ArrayList<>();
+            possiblePoolSets.add(this.pools);
+
+            int originalProvided = this.getProvidedProducts().size();
+
+            // The rules evaluate the removal of each attribute in each set individually; the
+            // outcome for an attribute never changes, so it is only computed once.
+            Map<String, List<PoolInfo>> candidates = new HashMap<>();
+
+            for (List<String> set : this.getAttributeSets(this.pools)) {
+                for (String attribute : set) {
+                    if (!candidates.containsKey(attribute)) {
+                        List<PoolInfo> poolsWithout = new ArrayList<>();
+                        for (PoolInfo pool : this.pools) {
+                            if (!isTruthy(pool.getProductAttribute(attribute))) {
+                                poolsWithout.add(pool);
+                            }
+                        }
+
+                        boolean covered = this.selection.getStackCoverage(this.stackId,
+                            this.getAllEnts(poolsWithout)).covered;
+
+                        candidates.put(attribute, covered &&
+                            this.getProvidedProducts(poolsWithout).size() == originalProvided ?
+                            poolsWithout : null);
+                    }
+
+                    List<PoolInfo> candidate = candidates.get(attribute);
+                    if (candidate != null) {
+                        possiblePoolSets.add(candidate);
+                    }
+                }
+            }
+
+            int best = 0;
+            double bestPriority = 0.0;
+            int numPools = this.pools.size();
+
+            for (int i = 0; i < possiblePoolSets.size(); ++i) {
+                List<PoolInfo> pools = possiblePoolSets.get(i);
+                double priority = 0;
+
+                for (PoolInfo pool : pools) {
+                    if (pool.isVirtOnly()) {
+                        priority += 100;
+                    }
+
+                    if (pool.isHostSpecific()) {
+                        priority += 150;
+                    }
+                }
+
+                // Priority per pool, so we don't tend towards stacks with more pools
+                priority /= pools.size();
+
+                if (priority > bestPriority) {
+                    bestPriority = priority;
+                    best = i;
+                    numPools = pools.size();
+                }
+                else if (priority == bestPriority && numPools > pools.size()) {
+                    best = i;
+                    numPools = pools.size();
+                }
+            }
+
+            this.pools = new ArrayList<>(possiblePoolSets.get(best));
+        }
+
+        /**
+         * Removes all pools which aren't necessary for compliance.
+         */
+        void prunePools() {
+            // We know this group is required at this point, so we cannot remove the one pool if
+            // it's non-stackable
+            if (!this.stackable) {
+                return;
+            }
+
+            // Sort pools such that we preserve virt_only and host_requires if possible
+            Collections.sort(this.pools, new Comparator<PoolInfo>() {
+                @Override
+                public int compare(PoolInfo pool0, PoolInfo pool1) {
+                    return comparePools(pool0, pool1);
+                }
+            });
+
+            int priorPoolSize = this.pools.size();
+            int providedSize = this.getProvidedProducts().size();
+
+            for (int i = this.pools.size() - 1; i >= 0; --i) {
+                PoolInfo removed = this.pools.remove(i);
+                List<Ent> ents = this.selection.createMockEnts(this.pools);
+
+                if (ents.isEmpty() ||
+                    !this.selection.getStackCoverage(this.stackId, concat(ents, this.attached)).covered ||
+                    this.getProvidedProducts().size() != providedSize) {
+
+                    // If something has broken, we add the pool back
+                    this.pools.add(removed);
+                }
+            }
+
+            log.debug("removed {} of {} pools", priorPoolSize - this.pools.size(), priorPoolSize);
+        }
+
+        /**
+         * Sorts pools by descending priority, preferring pools which expire first.
+         */
+        private int comparePools(PoolInfo pool0, PoolInfo pool1) {
+            if (pool0 == pool1) {
+                return 0;
+            }
+
+            double priority0 = this.selection.getPoolPriority(pool0);
+            double priority1 = this.selection.getPoolPriority(pool1);
+
+            Date end0 = pool0.getEndDate();
+            Date end1 = pool1.getEndDate();
+            if (end0 != null && end1 != null) {
+                if (end0.after(end1)) {
+                    priority1 += 1;
+                }
+                else if (end0.before(end1)) {
+                    priority0 += 1;
+                }
+            }
+
+            double diff = priority1 - priority0;
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+
+        int countHostSpecific() {
+            int count = 0;
+            for (PoolInfo pool : this.pools) {
+                if (pool.isHostSpecific()) {
+                    ++count;
+                }
+            }
+
+            return count;
+        }
+
+        int countVirtOnly() {
+            int count = 0;
+            for (PoolInfo pool : this.pools) {
+                if (pool.isVirtOnly()) {
+                    ++count;
+                }
+            }
+
+            return count;
+        }
+
+        double getTotalQuantity() {
+            double total = 0;
+            for (Integer quantity : this.getPoolQuantity().values()) {
+                total += quantity;
+            }
+
+            return total;
+        }
+
+        double getAveragePriority() {
+            if (this.averagePriority == null) {
+                double total = 0;
+                for (PoolInfo pool : this.pools) {
+                    total += this.selection.getPoolPriority(pool);
+                }
+
+                this.averagePriority = total / this.pools.size();
+            }
+
+            return this.averagePriority;
+        }
+
+        /**
+         * Returns a map of pool ID to quantity for every pool required from this group. Only valid
+         * once the group's pools have been pruned.
+         */
+        Map<String, Integer> getPoolQuantity() {
+            if (this.poolQuantity != null) {
+                return this.poolQuantity;
+            }
+
+            Map<String, Integer> result = new LinkedHashMap<>();
+
+            // Entitlement index matches pool index
+            List<Ent> ents = this.selection.createMockEnts(this.pools);
+            List<Ent> allEnts = concat(ents, this.attached);
+
+            for (int i = 0; i < this.pools.size(); ++i) {
+                PoolInfo pool = this.pools.get(i);
+                Ent current = ents.get(i);
+
+                double increment = pool.hasProductAttribute(INSTANCE_MULTIPLIER) && !this.selection.guest ?
+                    parseInt(pool.getProductAttribute(INSTANCE_MULTIPLIER)) : 1;
+
+                // The rules never terminate for a non-positive increment; we skip the pool instead
+                for (double q = increment; increment > 0 && q <= pool.currentlyAvailable; q += increment) {
+                    current.quantity = q;
+
+                    Coverage coverage = this.stackable ?
+                        this.selection.getStackCoverage(this.stackId, allEnts) :
+                        this.selection.getEntitlementCoverage(current, allEnts);
+
+                    if (coverage.covered) {
+                        result.put(pool.id, (int) q);
+                        break;
+                    }
+                }
+            }
+
+            this.poolQuantity = result;
+            return result;
+        }
+
+        List<String> getProvidedProducts() {
+            return this.getProvidedProducts(this.pools);
+        }
+
+        /**
+         * Returns the installed product IDs provided by the given pools.
+         */
+        List<String> getProvidedProducts(Collection<PoolInfo> pools) {
+            List<String> provided = new ArrayList<>();
+
+            for (PoolInfo pool : pools) {
+                // If we are considering derived provided products, use them instead of the
+                // regular set if the pool has any
+                List<String> poolProducts = this.considerDerived && pool.hasDerived() ?
+                    pool.getDerivedProducts() : pool.getProducts();
+
+                for (String productId : poolProducts) {
+                    if (!provided.contains(productId) && this.installed.contains(productId)) {
+                        provided.add(productId);
+                    }
+                }
+            }
+
+            return provided;
+        }
+    }
+}
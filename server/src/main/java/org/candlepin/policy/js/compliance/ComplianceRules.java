@@ -15,27 +15,47 @@
 package org.candlepin.policy.js.compliance;
 
 import org.candlepin.audit.EventSink;
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
 import org.candlepin.dto.ModelTranslator;
 import org.candlepin.dto.rules.v1.ConsumerDTO;
 import org.candlepin.dto.rules.v1.EntitlementDTO;
 import org.candlepin.model.Consumer;
 import org.candlepin.model.ConsumerCurator;
+import org.candlepin.model.ConsumerInstalledProduct;
 import org.candlepin.model.Entitlement;
 import org.candlepin.model.EntitlementCurator;
+import org.candlepin.model.GuestId;
 import org.candlepin.policy.js.JsRunner;
 import org.candlepin.policy.js.JsonJsContext;
 import org.candlepin.policy.js.RuleExecutionException;
 import org.candlepin.policy.js.RulesObjectMapper;
 import org.candlepin.policy.js.compliance.hash.ComplianceStatusHasher;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
+import com.google.inject.persist.Transactional;
 
+import org.hibernate.Hibernate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -49,6 +69,9 @@ import java.util.stream.Stream;
 public class ComplianceRules {
     private static Logger log = LoggerFactory.getLogger(ComplianceRules.class);
 
+    /** The number of checks of a batch each worker thread may have pending */
+    private static final int BATCH_CHECKS_PER_THREAD = 4;
+
     private JsRunner jsRules;
     private EntitlementCurator entCurator;
     private StatusReasonMessageGenerator generator;
@@ -56,11 +79,15 @@ public class ComplianceRules {
     private ConsumerCurator consumerCurator;
     private RulesObjectMapper mapper;
     private ModelTranslator translator;
+    private ComplianceStatusCache statusCache;
+    private Configuration config;
+    private boolean verifyIncremental;
 
     @Inject
     public ComplianceRules(JsRunner jsRules, EntitlementCurator entCurator,
         StatusReasonMessageGenerator generator, EventSink eventSink, ConsumerCurator consumerCurator,
-        RulesObjectMapper mapper, ModelTranslator translator) {
+        RulesObjectMapper mapper, ModelTranslator translator, ComplianceStatusCache statusCache,
+        Configuration config) {
 
         this.jsRules = jsRules;
         this.entCurator = entCurator;
@@ -69,6 +96,9 @@ public class ComplianceRules {
         this.consumerCurator = consumerCurator;
         this.mapper = mapper;
         this.translator = translator;
+        this.statusCache = statusCache;
+        this.config = config;
+        this.verifyIncremental = config.getBoolean(ConfigProperties.COMPLIANCE_INCREMENTAL_VERIFY, false);
 
         jsRules.init("compliance_name_space");
     }
@@ -142,6 +172,114 @@ public class ComplianceRules {
         calculateCompliantUntil, boolean updateConsumer, boolean calculateProductComplianceDateRanges,
         boolean currentCompliance) {
 
+        StatusCheck check = this.prepareStatus(c, newEntitlements, date, calculateCompliantUntil,
+            updateConsumer, calculateProductComplianceDateRanges, currentCompliance);
+
+        return this.completeStatus(check, this.calculateStatus(check));
+    }
+
+    /**
+     * Check the current compliance status of a batch of consumers. The entitlements of the
+     * consumers are fetched in a few queries up front, and the rules for each consumer are run on
+     * a bounded pool of worker threads. Statuses are passed to the callback on the calling thread
+     * as they complete, in the order of the given consumers, so only the statuses of a few
+     * consumers per worker are held at any time.
+     *
+     * @param consumers Consumers to check; must be attached to the current session.
+     * @param callback Callback receiving each consumer along with its compliance status.
+     */
+    @Transactional
+    public void getStatuses(Collection<Consumer> consumers, BiConsumer<Consumer, ComplianceStatus> callback) {
+        if (consumers == null || consumers.isEmpty()) {
+            return;
+        }
+
+        this.consumerCurator.fetchEntitlements(consumers);
+
+        // Runners without a scope pool share a single scope, and must only be run by one thread
+        int threads = this.jsRules.isConcurrent() ? Math.min(this.getBatchThreads(), consumers.size()) : 1;
+        if (threads <= 1) {
+            for (Consumer consumer : consumers) {
+                callback.accept(consumer, this.getStatus(consumer, null));
+            }
+
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+            .setNameFormat("compliance-%d")
+            .setDaemon(true)
+            .build());
+
+        try {
+            Deque<StatusCheck> pending = new ArrayDeque<>();
+            int window = threads * BATCH_CHECKS_PER_THREAD;
+
+            for (Consumer consumer : consumers) {
+                // Anything loaded lazily must be loaded here, as the session is not thread-safe
+                if (consumer.getGuestIds() != null) {
+                    for (GuestId guest : consumer.getGuestIds()) {
+                        Hibernate.initialize(guest.getAttributes());
+                    }
+                }
+
+                final StatusCheck check = this.prepareStatus(consumer, null, null, true, true, false, true);
+                check.result = executor.submit(new Callable<ComplianceStatus>() {
+                    @Override
+                    public ComplianceStatus call() {
+                        return calculateStatus(check);
+                    }
+                });
+
+                pending.add(check);
+                if (pending.size() >= window) {
+                    this.completeBatchedStatus(pending.poll(), callback);
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                this.completeBatchedStatus(pending.poll(), callback);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void completeBatchedStatus(StatusCheck check, BiConsumer<Consumer, ComplianceStatus> callback) {
+        ComplianceStatus status;
+
+        try {
+            status = check.result.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new RuleExecutionException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuleExecutionException(e);
+        }
+
+        callback.accept(check.consumer, this.completeStatus(check, status));
+    }
+
+    protected int getBatchThreads() {
+        int threads = this.config.getInt(ConfigProperties.COMPLIANCE_BATCH_THREADS, 4);
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Prepares a compliance check on the calling thread, looking up the cached status of the
+     * consumer, or translating the rules inputs if the rules must be run.
+     */
+    private StatusCheck prepareStatus(Consumer c, Collection<Entitlement> newEntitlements, Date date,
+        boolean calculateCompliantUntil, boolean updateConsumer, boolean calculateProductComplianceDateRanges,
+        boolean currentCompliance) {
+
         if (date == null) {
             date = new Date();
         }
@@ -150,37 +288,207 @@ public class ComplianceRules {
             updateEntsOnStart(c);
         }
 
-        Stream<EntitlementDTO> entStream = Stream.concat(
-            newEntitlements != null ? newEntitlements.stream() : Stream.empty(),
-            c.getEntitlements() != null ? c.getEntitlements().stream() : Stream.empty())
-                .map(this.translator.getStreamMapper(Entitlement.class, EntitlementDTO.class));
+        StatusCheck check = new StatusCheck(c, updateConsumer, currentCompliance);
 
         // Do not calculate compliance status for distributors and shares. It is prohibitively
         // expensive and meaningless
         if (c.isManifestDistributor() || c.isShare()) {
-            return new ComplianceStatus(new Date());
+            check.exempt = true;
+            return check;
+        }
+
+        // Statuses including entitlements which have yet to be created are only cached as the base
+        // of incremental recalculations
+        boolean incremental = this.statusCache.isIncremental();
+        check.cacheKey = newEntitlements == null || incremental ?
+            this.statusCache.buildKey(c, newEntitlements, date, calculateCompliantUntil,
+                calculateProductComplianceDateRanges) :
+            null;
+
+        check.cached = this.statusCache.get(check.cacheKey);
+
+        if (check.cached == null) {
+            Stream<EntitlementDTO> entStream = Stream.concat(
+                newEntitlements != null ? newEntitlements.stream() : Stream.empty(),
+                c.getEntitlements() != null ? c.getEntitlements().stream() : Stream.empty())
+                    .map(this.translator.getStreamMapper(Entitlement.class, EntitlementDTO.class));
+
+            ConsumerDTO consumer = this.translator.translate(c, ConsumerDTO.class);
+            Set<EntitlementDTO> entitlements = entStream.collect(Collectors.toSet());
+
+            check.args = this.createStatusArgs(c, consumer, entitlements, date, calculateCompliantUntil,
+                calculateProductComplianceDateRanges);
+
+            // The compliant until date and the product compliance date ranges depend on every
+            // entitlement of the consumer, and are never recalculated incrementally
+            if (incremental && check.cacheKey != null) {
+                this.prepareIncrementalStatus(check, c, consumer, entitlements, date,
+                    !calculateCompliantUntil && !calculateProductComplianceDateRanges);
+            }
         }
 
+        return check;
+    }
+
+    private JsonJsContext createStatusArgs(Consumer c, ConsumerDTO consumer, Set<EntitlementDTO> entitlements,
+        Date date, boolean calculateCompliantUntil, boolean calculateProductComplianceDateRanges) {
+
         JsonJsContext args = new JsonJsContext(mapper);
-        args.put("consumer", this.translator.translate(c, ConsumerDTO.class));
-        args.put("entitlements", entStream.collect(Collectors.toSet()));
+        args.put("consumer", consumer);
+        args.put("entitlements", entitlements);
         args.put("ondate", date);
         args.put("calculateCompliantUntil", calculateCompliantUntil);
         args.put("calculateProductComplianceDateRanges", calculateProductComplianceDateRanges);
         args.put("log", log, false);
         args.put("guestIds", c.getGuestIds());
 
+        return args;
+    }
+
+    /**
+     * Records the scopes of the entitlements of a compliance check, and plans its incremental
+     * recalculation from the cached status of the consumer, if there is one.
+     */
+    private void prepareIncrementalStatus(StatusCheck check, Consumer c, ConsumerDTO consumer,
+        Set<EntitlementDTO> entitlements, Date date, boolean mergeable) {
+
+        Map<String, ComplianceStatusMerger.EntitlementScope> scopes = new HashMap<>();
+        for (EntitlementDTO entitlement : entitlements) {
+            scopes.put(entitlement.getId(), ComplianceStatusMerger.getScope(entitlement));
+        }
+
+        check.scopes = scopes;
+        check.base = mergeable ? this.statusCache.getBase(check.cacheKey) : null;
+
+        if (check.base == null) {
+            return;
+        }
+
+        Set<String> installed = new HashSet<>();
+        if (c.getInstalledProducts() != null) {
+            for (ConsumerInstalledProduct product : c.getInstalledProducts()) {
+                installed.add(product.getProductId());
+            }
+        }
+
+        check.plan = ComplianceStatusMerger.plan(check.base.getKey().getEntitlements(),
+            check.base.getScopes(), check.cacheKey.getEntitlements(), scopes, installed);
+
+        if (check.plan == null) {
+            this.statusCache.recordIncremental(false);
+            return;
+        }
+
+        Set<EntitlementDTO> recalculated = new HashSet<>();
+        for (EntitlementDTO entitlement : entitlements) {
+            if (check.plan.getEntitlements().contains(entitlement.getId())) {
+                recalculated.add(entitlement);
+            }
+        }
+
+        check.partialArgs = this.createStatusArgs(c, consumer, recalculated, date, false, false);
+    }
+
+    /**
+     * Runs the rules for a prepared compliance check, unless its status has been cached, and
+     * converts the result into a ComplianceStatus. Does not touch the session, and may be called
+     * from any thread if the rules runner is concurrent.
+     */
+    private ComplianceStatus calculateStatus(StatusCheck check) {
+        if (check.exempt) {
+            return new ComplianceStatus(new Date());
+        }
+
+        String json;
+
+        if (check.cached != null) {
+            json = check.cached.getJson();
+        }
+        else {
+            json = check.plan != null ?
+                this.calculateIncrementalStatus(check) :
+                jsRules.runJsFunction(String.class, "get_status", check.args);
+
+            check.cached = this.statusCache.put(check.cacheKey, json, check.scopes);
+        }
+
         // Convert the JSON returned into a ComplianceStatus object:
-        String json = jsRules.runJsFunction(String.class, "get_status", args);
         try {
+            long start = System.nanoTime();
             ComplianceStatus status = mapper.toObject(json, ComplianceStatus.class);
+            jsRules.recordDeserialization("get_status", start);
+
+            return status;
+        }
+        catch (Exception e) {
+            throw new RuleExecutionException(e);
+        }
+    }
+
+    /**
+     * Runs the rules over the entitlements touched by the changes since the cached status of the
+     * consumer, and merges the result into the cached status. Falls back to a full calculation
+     * whenever the result cannot be merged, or, if verification is enabled, whenever the merged
+     * status differs from the full status.
+     */
+    private String calculateIncrementalStatus(StatusCheck check) {
+        String partial = jsRules.runJsFunction(String.class, "get_status", check.partialArgs);
+
+        ObjectNode merged = ComplianceStatusMerger.merge(
+            mapper.toObject(check.base.getJson(), ObjectNode.class),
+            mapper.toObject(partial, ObjectNode.class), check.plan);
+
+        this.statusCache.recordIncremental(merged != null);
+        if (merged == null) {
+            return jsRules.runJsFunction(String.class, "get_status", check.args);
+        }
+
+        if (this.verifyIncremental) {
+            String full = jsRules.runJsFunction(String.class, "get_status", check.args);
 
+            if (!ComplianceStatusMerger.isEquivalent(merged, mapper.toObject(full, ObjectNode.class))) {
+                log.warn("Incremental compliance status of consumer {} differs from its full status",
+                    check.consumer.getUuid());
+
+                this.statusCache.recordMismatch();
+                return full;
+            }
+        }
+
+        return merged.toString();
+    }
+
+    /**
+     * Completes a compliance check on the calling thread, generating the messages of the status
+     * and applying it to the consumer.
+     */
+    private ComplianceStatus completeStatus(StatusCheck check, ComplianceStatus status) {
+        if (check.exempt) {
+            return status;
+        }
+
+        Consumer c = check.consumer;
+
+        try {
             for (ComplianceReason reason : status.getReasons()) {
                 generator.setMessage(c, reason, status.getDate());
             }
 
-            if (currentCompliance) {
-                applyStatus(c, status, updateConsumer);
+            if (check.currentCompliance) {
+                // The compliance hash of a cached status can only change along with its cache key,
+                // so a status already applied to the consumer need not be hashed again
+                if (check.cached != null && check.cached.isAppliedTo(c) &&
+                    status.getStatus().equals(c.getEntitlementStatus())) {
+
+                    this.statusCache.recordUnchanged();
+                }
+                else {
+                    applyStatus(c, status, check.updateConsumer);
+
+                    if (check.cached != null) {
+                        check.cached.setAppliedTo(c);
+                    }
+                }
             }
 
             return status;
@@ -190,6 +498,16 @@ public class ComplianceRules {
         }
     }
 
+    /**
+     * Discards the cached compliance status of the given consumer. Called whenever the consumer's
+     * entitlements, facts or installed products change.
+     *
+     * @param c Consumer whose entitlements, facts or installed products have changed.
+     */
+    public void invalidateStatus(Consumer c) {
+        this.statusCache.invalidate(c);
+    }
+
     public void updateEntsOnStart(Consumer c) {
         for (Entitlement ent : c.getEntitlements()) {
             if (!ent.isUpdatedOnStart() && ent.isValid()) {
@@ -256,5 +574,31 @@ public class ComplianceRules {
         return hasher.hash();
     }
 
+    /**
+     * The state of a single compliance check, carried from the thread preparing it to the thread
+     * running the rules, and back.
+     */
+    private static class StatusCheck {
+        private final Consumer consumer;
+        private final boolean updateConsumer;
+        private final boolean currentCompliance;
+
+        private boolean exempt;
+        private ComplianceStatusCache.Key cacheKey;
+        private ComplianceStatusCache.Entry cached;
+        private JsonJsContext args;
+        private Map<String, ComplianceStatusMerger.EntitlementScope> scopes;
+        private ComplianceStatusCache.Entry base;
+        private ComplianceStatusMerger.Plan plan;
+        private JsonJsContext partialArgs;
+        private Future<ComplianceStatus> result;
+
+        public StatusCheck(Consumer consumer, boolean updateConsumer, boolean currentCompliance) {
+            this.consumer = consumer;
+            this.updateConsumer = updateConsumer;
+            this.currentCompliance = currentCompliance;
+        }
+    }
+
 
 }
@@ -0,0 +1,703 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js.compliance;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.model.Consumer;
+import org.candlepin.model.ConsumerCapability;
+import org.candlepin.model.ConsumerInstalledProduct;
+import org.candlepin.model.Entitlement;
+import org.candlepin.model.GuestId;
+import org.candlepin.model.Pool;
+import org.candlepin.policy.js.JsRunnerProvider;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * The ComplianceStatusCache holds the compliance status last calculated by the rules for each
+ * consumer, so repeated compliance checks of consumers which have not changed, such as those made
+ * by reporting tools fetching the compliance of every consumer of an organization, do not run the
+ * rules again.
+ * <p></p>
+ * Statuses are keyed by consumer, the version of the rules, a hash of the consumer's entitlement
+ * set, a hash of the consumer's facts, installed products and other rules inputs, and the date
+ * bucket of the date the status was calculated for. The entitlement set hash covers the
+ * entitlements' quantities and dates, and a version of each of their pools, which is incremented
+ * whenever a change the pool manager makes to the pool is committed, and discarded once the pool
+ * has been deleted; changes to pool consumption do not change it. Statuses are never cached for
+ * dates in a bucket during which one of the consumer's entitlements starts or ends, so a cached
+ * status is valid for every date of its bucket.
+ * <p></p>
+ * Binds, unbinds and consumer updates also invalidate the status of the consumer explicitly, and
+ * the product manager discards every status whenever it repoints or removes an owner's products,
+ * as the rules read product attributes such as sockets, cores and stacking IDs. Since pools
+ * modified outside of the pool manager, or by another node, do not change the pool versions,
+ * entries also expire after a configurable age.
+ * <p></p>
+ * When incremental recalculation is enabled, a consumer's status is kept when its entitlements
+ * change, as the base from which its next status is recalculated by the
+ * {@link ComplianceStatusMerger}. The entitlement set hash still keeps such a status from being
+ * reused as is.
+ */
+@Singleton
+public class ComplianceStatusCache {
+
+    private final JsRunnerProvider jsProvider;
+    private final boolean enabled;
+    private final boolean incremental;
+    private final int maxSize;
+    private final long maxAge;
+    private final long bucketSize;
+
+    private final ConcurrentMap<String, AtomicLong> poolVersions;
+    private final Map<String, Entry> statuses;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong uncacheable;
+    private final AtomicLong invalidations;
+    private final AtomicLong evictions;
+    private final AtomicLong unchanged;
+    private final AtomicLong merged;
+    private final AtomicLong unmergeable;
+    private final AtomicLong mismatched;
+
+    @Inject
+    public ComplianceStatusCache(Configuration config, JsRunnerProvider jsProvider) {
+        this.jsProvider = jsProvider;
+
+        this.enabled = config.getBoolean(ConfigProperties.COMPLIANCE_CACHE_ENABLED, false);
+        this.incremental = this.enabled &&
+            config.getBoolean(ConfigProperties.COMPLIANCE_INCREMENTAL_ENABLED, false);
+        this.maxSize = config.getInt(ConfigProperties.COMPLIANCE_CACHE_MAX_SIZE, 10000);
+        this.maxAge = config.getLong(ConfigProperties.COMPLIANCE_CACHE_MAX_AGE, 300L) * 1000L;
+        this.bucketSize = Math.max(1L, config.getLong(ConfigProperties.COMPLIANCE_CACHE_DATE_BUCKET, 60L)) *
+            1000L;
+
+        this.poolVersions = new ConcurrentHashMap<>();
+        this.statuses = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                boolean evict = this.size() > maxSize;
+                if (evict) {
+                    evictions.incrementAndGet();
+                }
+
+                return evict;
+            }
+        };
+
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.uncacheable = new AtomicLong();
+        this.invalidations = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.unchanged = new AtomicLong();
+        this.merged = new AtomicLong();
+        this.unmergeable = new AtomicLong();
+        this.mismatched = new AtomicLong();
+    }
+
+    /**
+     * Checks if the compliance status cache has been enabled by configuration.
+     *
+     * @return
+     *  true if the compliance status cache is enabled; false otherwise
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Checks if statuses are recalculated incrementally from the cached statuses of their
+     * consumers. Incremental recalculation is only available while the cache is enabled.
+     *
+     * @return
+     *  true if incremental recalculation is enabled; false otherwise
+     */
+    public boolean isIncremental() {
+        return this.incremental;
+    }
+
+    /**
+     * Builds the cache key of the compliance status of the given consumer on the given date. If
+     * the cache is disabled, or the status cannot be cached, this method returns null.
+     *
+     * @param consumer
+     *  the consumer for which to check compliance
+     *
+     * @param date
+     *  the date for which to check compliance
+     *
+     * @param calculateCompliantUntil
+     *  whether the status includes the date until which the consumer remains compliant
+     *
+     * @param calculateProductComplianceDateRanges
+     *  whether the status includes the compliance date ranges of the installed products
+     *
+     * @return
+     *  the cache key of the status, or null if the status cannot be cached
+     */
+    public Key buildKey(Consumer consumer, Date date, boolean calculateCompliantUntil,
+        boolean calculateProductComplianceDateRanges) {
+
+        return this.buildKey(consumer, null, date, calculateCompliantUntil,
+            calculateProductComplianceDateRanges);
+    }
+
+    /**
+     * Builds the cache key of the compliance status of the given consumer on the given date, with
+     * the given entitlements in addition to the consumer's own entitlements. If the cache is
+     * disabled, or the status cannot be cached, this method returns null.
+     *
+     * @param consumer
+     *  the consumer for which to check compliance
+     *
+     * @param newEntitlements
+     *  entitlements which have yet to be added to the consumer; may be null
+     *
+     * @param date
+     *  the date for which to check compliance
+     *
+     * @param calculateCompliantUntil
+     *  whether the status includes the date until which the consumer remains compliant
+     *
+     * @param calculateProductComplianceDateRanges
+     *  whether the status includes the compliance date ranges of the installed products
+     *
+     * @return
+     *  the cache key of the status, or null if the status cannot be cached
+     */
+    public Key buildKey(Consumer consumer, Collection<Entitlement> newEntitlements, Date date,
+        boolean calculateCompliantUntil, boolean calculateProductComplianceDateRanges) {
+
+        if (!this.enabled || consumer == null || consumer.getUuid() == null || date == null) {
+            return null;
+        }
+
+        long bucket = date.getTime() / this.bucketSize;
+        long bucketStart = bucket * this.bucketSize;
+        long bucketEnd = bucketStart + this.bucketSize;
+
+        List<Entitlement> consumed = new ArrayList<>();
+        if (newEntitlements != null) {
+            consumed.addAll(newEntitlements);
+        }
+
+        if (consumer.getEntitlements() != null) {
+            consumed.addAll(consumer.getEntitlements());
+        }
+
+        Map<String, String> entitlements = new HashMap<>();
+        for (Entitlement entitlement : consumed) {
+            if (entitlement.getId() == null) {
+                this.uncacheable.incrementAndGet();
+                return null;
+            }
+
+            Date start = entitlement.getStartDate();
+            Date end = entitlement.getEndDate();
+
+            if (inRange(start, bucketStart, bucketEnd) || inRange(end, bucketStart, bucketEnd)) {
+                this.uncacheable.incrementAndGet();
+                return null;
+            }
+
+            Pool pool = entitlement.getPool();
+            String poolId = pool != null ? pool.getId() : null;
+
+            entitlements.put(entitlement.getId(), entitlement.getId() + ":" + entitlement.getQuantity() +
+                ":" + getTime(start) + ":" + getTime(end) + ":" + poolId + ":" +
+                this.getPoolVersion(poolId));
+        }
+
+        List<Object> values = new ArrayList<>();
+        values.add(consumer.getUuid());
+        values.add(this.jsProvider != null ? this.jsProvider.getRulesVersion() : null);
+        values.add(this.hashInputs(consumer));
+        values.add(bucket);
+        values.add(calculateCompliantUntil);
+        values.add(calculateProductComplianceDateRanges);
+
+        return new Key(consumer.getUuid(), hash(new ArrayList<>(entitlements.values())), entitlements,
+            values);
+    }
+
+    private String hashInputs(Consumer consumer) {
+        List<String> installed = new ArrayList<>();
+        if (consumer.getInstalledProducts() != null) {
+            for (ConsumerInstalledProduct product : consumer.getInstalledProducts()) {
+                installed.add(product.getProductId() + ":" + product.getArch() + ":" + product.getVersion());
+            }
+        }
+
+        List<String> capabilities = new ArrayList<>();
+        if (consumer.getCapabilities() != null) {
+            for (ConsumerCapability capability : consumer.getCapabilities()) {
+                capabilities.add(capability.getName());
+            }
+        }
+
+        List<String> guests = new ArrayList<>();
+        if (consumer.getGuestIds() != null) {
+            for (GuestId guest : consumer.getGuestIds()) {
+                Map<String, String> attributes = guest.getAttributes();
+                guests.add(guest.getGuestId() + ":" +
+                    (attributes != null ? new TreeMap<>(attributes) : null));
+            }
+        }
+
+        Map<String, String> facts = consumer.getFacts() != null ?
+            new TreeMap<>(consumer.getFacts()) :
+            null;
+
+        StringBuilder inputs = new StringBuilder()
+            .append(consumer.getType() != null ? consumer.getType().getLabel() : null).append('\n')
+            .append(consumer.getServiceLevel()).append('\n')
+            .append(consumer.getUsername()).append('\n')
+            .append(getTime(consumer.getCreated())).append('\n')
+            .append(facts).append('\n')
+            .append(hash(installed)).append('\n')
+            .append(hash(capabilities)).append('\n')
+            .append(hash(guests));
+
+        return DigestUtils.sha256Hex(inputs.toString());
+    }
+
+    private static boolean inRange(Date date, long start, long end) {
+        return date != null && date.getTime() >= start && date.getTime() <= end;
+    }
+
+    private static Long getTime(Date date) {
+        return date != null ? date.getTime() : null;
+    }
+
+    /**
+     * Hashes the given values in sorted order; the list is sorted in place.
+     */
+    private static String hash(List<String> values) {
+        Collections.sort(values);
+
+        StringBuilder builder = new StringBuilder();
+        for (String value : values) {
+            builder.append(value).append('\n');
+        }
+
+        return DigestUtils.sha256Hex(builder.toString());
+    }
+
+    private long getPoolVersion(String poolId) {
+        AtomicLong version = poolId != null ? this.poolVersions.get(poolId) : null;
+        return version != null ? version.get() : 0;
+    }
+
+    /**
+     * Fetches the cached compliance status for the given key.
+     *
+     * @param key
+     *  the cache key built for the compliance check; may be null
+     *
+     * @return
+     *  the cached status, or null if no status has been cached for the key
+     */
+    public Entry get(Key key) {
+        if (key == null) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (this.statuses) {
+            entry = this.statuses.get(key.consumerUuid);
+
+            if (entry != null && this.isExpired(entry)) {
+                this.statuses.remove(key.consumerUuid);
+                entry = null;
+            }
+            else if (entry != null && !entry.key.equals(key)) {
+                // Outdated statuses remain the base of incremental recalculations
+                if (!this.incremental) {
+                    this.statuses.remove(key.consumerUuid);
+                }
+
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+
+        this.hits.incrementAndGet();
+        return entry;
+    }
+
+    private boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.created > this.maxAge;
+    }
+
+    /**
+     * Fetches the cached status from which the status for the given key may be recalculated
+     * incrementally: a status of the same consumer, calculated under the same inputs and on a
+     * date of the same bucket, but for a different set of entitlements.
+     *
+     * @param key
+     *  the cache key built for the compliance check; may be null
+     *
+     * @return
+     *  the cached status to recalculate from, or null if there is none
+     */
+    public Entry getBase(Key key) {
+        if (!this.incremental || key == null) {
+            return null;
+        }
+
+        synchronized (this.statuses) {
+            Entry entry = this.statuses.get(key.consumerUuid);
+
+            return entry != null && entry.scopes != null && !this.isExpired(entry) &&
+                entry.key.inputs.equals(key.inputs) ? entry : null;
+        }
+    }
+
+    /**
+     * Caches the compliance status calculated by the rules for the given key.
+     *
+     * @param key
+     *  the cache key built for the compliance check; may be null
+     *
+     * @param json
+     *  the compliance status, as returned by the rules
+     *
+     * @return
+     *  the cached status, or null if the key is null
+     */
+    public Entry put(Key key, String json) {
+        return this.put(key, json, null);
+    }
+
+    /**
+     * Caches the compliance status calculated by the rules for the given key, along with the
+     * scopes of the entitlements it was calculated for, allowing the status to be recalculated
+     * incrementally once the entitlements change.
+     *
+     * @param key
+     *  the cache key built for the compliance check; may be null
+     *
+     * @param json
+     *  the compliance status, as returned by the rules
+     *
+     * @param scopes
+     *  a map of the IDs of the entitlements of the status to their scopes; may be null
+     *
+     * @return
+     *  the cached status, or null if the key is null
+     */
+    public Entry put(Key key, String json, Map<String, ComplianceStatusMerger.EntitlementScope> scopes) {
+        if (key == null || json == null) {
+            return null;
+        }
+
+        Entry entry = new Entry(key, json, scopes);
+        synchronized (this.statuses) {
+            this.statuses.put(key.consumerUuid, entry);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Records that a cached status was not applied to its consumer, since the consumer's compliance
+     * hash already matched the status.
+     */
+    void recordUnchanged() {
+        this.unchanged.incrementAndGet();
+    }
+
+    /**
+     * Records the outcome of an attempted incremental recalculation.
+     *
+     * @param merged
+     *  whether the status was recalculated incrementally, rather than in full
+     */
+    void recordIncremental(boolean merged) {
+        if (merged) {
+            this.merged.incrementAndGet();
+        }
+        else {
+            this.unmergeable.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that an incrementally recalculated status differed from the full status.
+     */
+    void recordMismatch() {
+        this.mismatched.incrementAndGet();
+    }
+
+    /**
+     * Removes the cached status of the given consumer. Called whenever the consumer's entitlements,
+     * facts or installed products change.
+     *
+     * @param consumer
+     *  the consumer for which to invalidate the cached status
+     */
+    public void invalidate(Consumer consumer) {
+        if (!this.enabled || consumer == null || consumer.getUuid() == null) {
+            return;
+        }
+
+        synchronized (this.statuses) {
+            if (this.statuses.remove(consumer.getUuid()) != null) {
+                this.invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Notifies the cache that the entitlements of the given consumer have changed. Unless statuses
+     * are recalculated incrementally, the cached status of the consumer is removed.
+     *
+     * @param consumer
+     *  the consumer whose entitlements have changed
+     */
+    public void entitlementsChanged(Consumer consumer) {
+        if (!this.incremental) {
+            this.invalidate(consumer);
+        }
+    }
+
+    /**
+     * Increments the version of the given pools, preventing the statuses cached for consumers with
+     * entitlements from those pools from being used. The pool manager calls this once the changes
+     * to the pools have been committed, so statuses calculated from the pools' previous state by
+     * other requests in the meantime are not reused.
+     *
+     * @param pools
+     *  a collection of pools which have been created or modified
+     */
+    public void poolsChanged(Collection<Pool> pools) {
+        if (!this.enabled || pools == null) {
+            return;
+        }
+
+        for (Pool pool : pools) {
+            if (pool == null || pool.getId() == null) {
+                continue;
+            }
+
+            AtomicLong version = this.poolVersions.get(pool.getId());
+            if (version == null) {
+                this.poolVersions.putIfAbsent(pool.getId(), new AtomicLong());
+                version = this.poolVersions.get(pool.getId());
+            }
+
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Discards the versions of the given pools. The entitlements of deleted pools are revoked
+     * along with them, so no status can depend on their versions any longer. The pool manager
+     * calls this once the deletion has been committed.
+     *
+     * @param pools
+     *  a collection of pools which have been deleted
+     */
+    public void poolsRemoved(Collection<Pool> pools) {
+        if (!this.enabled || pools == null) {
+            return;
+        }
+
+        for (Pool pool : pools) {
+            if (pool != null && pool.getId() != null) {
+                this.poolVersions.remove(pool.getId());
+            }
+        }
+    }
+
+    /**
+     * Discards every cached status.
+     */
+    public void invalidateAll() {
+        synchronized (this.statuses) {
+            this.statuses.clear();
+        }
+
+        for (AtomicLong version : this.poolVersions.values()) {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Fetches the statistics of this cache.
+     *
+     * @return
+     *  a map of statistic names to values
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+
+        stats.put("enabled", this.enabled);
+        synchronized (this.statuses) {
+            stats.put("size", this.statuses.size());
+        }
+
+        stats.put("pools", this.poolVersions.size());
+        stats.put("hits", this.hits.get());
+        stats.put("misses", this.misses.get());
+        stats.put("uncacheable", this.uncacheable.get());
+        stats.put("unchanged", this.unchanged.get());
+        stats.put("invalidations", this.invalidations.get());
+        stats.put("evictions", this.evictions.get());
+        stats.put("incremental", this.incremental);
+        stats.put("merged", this.merged.get());
+        stats.put("unmergeable", this.unmergeable.get());
+        stats.put("mismatched", this.mismatched.get());
+
+        return stats;
+    }
+
+    /**
+     * The key of a cached compliance status
+     */
+    public static final class Key {
+        private final String consumerUuid;
+        private final String entitlementHash;
+        private final Map<String, String> entitlements;
+        private final List<Object> inputs;
+
+        private Key(String consumerUuid, String entitlementHash, Map<String, String> entitlements,
+            List<Object> inputs) {
+
+            this.consumerUuid = consumerUuid;
+            this.entitlementHash = entitlementHash;
+            this.entitlements = entitlements;
+            this.inputs = inputs;
+        }
+
+        /**
+         * @return a map of the IDs of the entitlements of the status to their signatures
+         */
+        public Map<String, String> getEntitlements() {
+            return Collections.unmodifiableMap(this.entitlements);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+            return this.entitlementHash.equals(other.entitlementHash) && this.inputs.equals(other.inputs);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.entitlementHash.hashCode() + this.inputs.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "ComplianceStatusCache.Key [" + this.entitlementHash + ", " + this.inputs + "]";
+        }
+    }
+
+    /**
+     * A cached compliance status
+     */
+    public static final class Entry {
+        private final Key key;
+        private final String json;
+        private final Map<String, ComplianceStatusMerger.EntitlementScope> scopes;
+        private final long created;
+        private volatile String appliedHash;
+
+        private Entry(Key key, String json, Map<String, ComplianceStatusMerger.EntitlementScope> scopes) {
+            this.key = key;
+            this.json = json;
+            this.scopes = scopes;
+            this.created = System.currentTimeMillis();
+        }
+
+        /**
+         * @return the cache key the status was calculated for
+         */
+        public Key getKey() {
+            return this.key;
+        }
+
+        /**
+         * @return a map of the IDs of the entitlements of the status to their scopes, or null if
+         *  the scopes were not recorded
+         */
+        public Map<String, ComplianceStatusMerger.EntitlementScope> getScopes() {
+            return this.scopes;
+        }
+
+        /**
+         * @return the compliance status, as returned by the rules
+         */
+        public String getJson() {
+            return this.json;
+        }
+
+        /**
+         * Checks whether the status has already been applied to the given consumer, in which
+         * case the consumer's compliance hash is the hash of this status.
+         *
+         * @param consumer
+         *  the consumer of the status
+         *
+         * @return
+         *  true if the status has been applied to the consumer; false otherwise
+         */
+        public boolean isAppliedTo(Consumer consumer) {
+            String hash = this.appliedHash;
+            return hash != null && hash.equals(consumer.getComplianceStatusHash());
+        }
+
+        /**
+         * Records the compliance hash of the given consumer after this status was applied to it.
+         *
+         * @param consumer
+         *  the consumer of the status
+         */
+        public void setAppliedTo(Consumer consumer) {
+            this.appliedHash = consumer.getComplianceStatusHash();
+        }
+    }
+}
@@ -0,0 +1,505 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js.compliance;
+
+import org.candlepin.dto.rules.v1.EntitlementDTO;
+import org.candlepin.dto.rules.v1.PoolDTO;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+
+
+/**
+ * The ComplianceStatusMerger supports the incremental recalculation of compliance statuses.
+ * <p></p>
+ * When some of a consumer's entitlements are added, removed or modified, only the stacks of the
+ * changed entitlements, and the installed products they provide, can change status. Every other
+ * entitlement providing one of those products, or belonging to one of those stacks, may in turn
+ * touch further stacks and products. Once that closure is known, the rules need only be run over
+ * the entitlements within it, and the statuses of its products and stacks, along with the reasons
+ * referring to them, replace those of the consumer's previous status.
+ * <p></p>
+ * Statuses depending on the complete set of entitlements, such as those involving global
+ * attributes like guest limits, cannot be merged and must be calculated in full.
+ */
+public class ComplianceStatusMerger {
+
+    private static final String STACKING_ID_ATTRIBUTE = "stacking_id";
+    private static final List<String> GLOBAL_ATTRIBUTES = Collections.singletonList("guest_limit");
+
+    private static final List<String> PRODUCT_FIELDS =
+        Arrays.asList("compliantProducts", "partiallyCompliantProducts");
+    private static final String STACK_FIELD = "partialStacks";
+    private static final String NON_COMPLIANT_FIELD = "nonCompliantProducts";
+    private static final String REASONS_FIELD = "reasons";
+
+    private ComplianceStatusMerger() {
+        // Static methods only
+    }
+
+    /**
+     * Determines the products and stacks an entitlement may affect the compliance of.
+     *
+     * @param entitlement
+     *  the entitlement, as passed to the rules
+     *
+     * @return
+     *  the scope of the entitlement
+     */
+    public static EntitlementScope getScope(EntitlementDTO entitlement) {
+        PoolDTO pool = entitlement != null ? entitlement.getPool() : null;
+        if (pool == null) {
+            return new EntitlementScope(null, Collections.<String>emptySet(), false);
+        }
+
+        Map<String, String> productAttributes = pool.getProductAttributes() != null ?
+            pool.getProductAttributes() :
+            Collections.<String, String>emptyMap();
+        Map<String, String> attributes = pool.getAttributes() != null ?
+            pool.getAttributes() :
+            Collections.<String, String>emptyMap();
+
+        boolean mergeable = true;
+        for (String attribute : GLOBAL_ATTRIBUTES) {
+            if (productAttributes.containsKey(attribute) || attributes.containsKey(attribute)) {
+                mergeable = false;
+            }
+        }
+
+        // The rules treat a stacking ID of 0 as unset, falling back to the pool attributes
+        String stackId = null;
+        if (productAttributes.containsKey(STACKING_ID_ATTRIBUTE)) {
+            stackId = productAttributes.get(STACKING_ID_ATTRIBUTE);
+
+            if (stackId == null || stackId.isEmpty() || "0".equals(stackId)) {
+                mergeable = false;
+            }
+        }
+
+        Set<String> products = new HashSet<>();
+        if (pool.getProductId() != null) {
+            products.add(pool.getProductId());
+        }
+
+        if (pool.getProvidedProducts() != null) {
+            for (PoolDTO.ProvidedProductDTO provided : pool.getProvidedProducts()) {
+                products.add(provided.getProductId());
+            }
+        }
+
+        return new EntitlementScope(stackId, products, mergeable);
+    }
+
+    /**
+     * Plans the incremental recalculation of a status, from the entitlements the previous status
+     * was calculated for to the current entitlements of the consumer.
+     *
+     * @param previous
+     *  a map of the IDs of the entitlements of the previous status to their signatures
+     *
+     * @param previousScopes
+     *  a map of the IDs of the entitlements of the previous status to their scopes
+     *
+     * @param current
+     *  a map of the IDs of the current entitlements to their signatures
+     *
+     * @param currentScopes
+     *  a map of the IDs of the current entitlements to their scopes
+     *
+     * @param installed
+     *  the IDs of the consumer's installed products
+     *
+     * @return
+     *  the plan of the recalculation, or null if the status must be calculated in full
+     */
+    public static Plan plan(Map<String, String> previous, Map<String, EntitlementScope> previousScopes,
+        Map<String, String> current, Map<String, EntitlementScope> currentScopes, Set<String> installed) {
+
+        if (previous == null || previousScopes == null || current == null || currentScopes == null ||
+            !previousScopes.keySet().equals(previous.keySet()) ||
+            !currentScopes.keySet().equals(current.keySet()) ||
+            !isMergeable(previousScopes.values()) || !isMergeable(currentScopes.values())) {
+
+            return null;
+        }
+
+        Set<String> changed = new HashSet<>();
+        Set<String> removed = new HashSet<>();
+
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+
+        for (String id : previous.keySet()) {
+            if (!current.containsKey(id)) {
+                changed.add(id);
+                removed.add(id);
+            }
+        }
+
+        if (changed.isEmpty()) {
+            return null;
+        }
+
+        Plan plan = new Plan(removed);
+        for (String id : changed) {
+            plan.touch(previousScopes.get(id), installed);
+            plan.touch(currentScopes.get(id), installed);
+
+            if (!removed.contains(id)) {
+                plan.entitlements.add(id);
+            }
+        }
+
+        // Expand the plan to every entitlement sharing a stack or product with it, until no
+        // further stacks or products are touched
+        boolean expanded = true;
+        while (expanded) {
+            expanded = false;
+
+            for (Map.Entry<String, EntitlementScope> entry : currentScopes.entrySet()) {
+                if (!plan.entitlements.contains(entry.getKey()) && plan.touches(entry.getValue())) {
+                    plan.entitlements.add(entry.getKey());
+                    plan.touch(entry.getValue(), installed);
+                    expanded = true;
+                }
+            }
+        }
+
+        // Nothing is gained when every entitlement must be considered again
+        return plan.entitlements.size() < current.size() ? plan : null;
+    }
+
+    private static boolean isMergeable(Collection<EntitlementScope> scopes) {
+        for (EntitlementScope scope : scopes) {
+            if (scope == null || !scope.mergeable) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Merges a status calculated by the rules for the entitlements of a plan into the previous
+     * status of the consumer. The statuses of the products and stacks touched by the plan, and the
+     * reasons referring to them or to the recalculated or removed entitlements, are taken from the
+     * partial status; everything else is kept from the previous status.
+     *
+     * @param previous
+     *  the previous status of the consumer, as returned by the rules
+     *
+     * @param partial
+     *  the status calculated by the rules for the entitlements of the plan
+     *
+     * @param plan
+     *  the plan of the recalculation
+     *
+     * @return
+     *  the merged status, or null if a reason could not be attributed to a product, stack or
+     *  entitlement, in which case the status must be calculated in full
+     */
+    public static ObjectNode merge(ObjectNode previous, ObjectNode partial, Plan plan) {
+        ObjectNode merged = previous.deepCopy();
+
+        merged.set("date", partial.get("date"));
+        merged.set("compliantUntil", partial.get("compliantUntil"));
+        merged.set("productComplianceDateRanges", partial.get("productComplianceDateRanges"));
+
+        for (String field : PRODUCT_FIELDS) {
+            mergeMap(merged, partial, field, plan.products);
+        }
+
+        mergeMap(merged, partial, STACK_FIELD, plan.stacks);
+
+        ArrayNode nonCompliant = merged.arrayNode();
+        for (JsonNode product : elements(previous, NON_COMPLIANT_FIELD)) {
+            if (!plan.products.contains(product.asText())) {
+                nonCompliant.add(product);
+            }
+        }
+
+        for (JsonNode product : elements(partial, NON_COMPLIANT_FIELD)) {
+            if (plan.products.contains(product.asText())) {
+                nonCompliant.add(product);
+            }
+        }
+
+        merged.set(NON_COMPLIANT_FIELD, nonCompliant);
+
+        ArrayNode reasons = merged.arrayNode();
+        for (JsonNode reason : elements(previous, REASONS_FIELD)) {
+            Boolean touched = plan.touches(reason);
+            if (touched == null) {
+                return null;
+            }
+
+            if (!touched) {
+                reasons.add(reason);
+            }
+        }
+
+        for (JsonNode reason : elements(partial, REASONS_FIELD)) {
+            Boolean touched = plan.touches(reason);
+            if (touched == null) {
+                return null;
+            }
+
+            if (touched) {
+                reasons.add(reason);
+            }
+        }
+
+        merged.set(REASONS_FIELD, reasons);
+
+        return merged;
+    }
+
+    private static void mergeMap(ObjectNode merged, ObjectNode partial, String field, Set<String> keys) {
+        JsonNode node = merged.get(field);
+        ObjectNode target = node instanceof ObjectNode ? (ObjectNode) node : merged.putObject(field);
+        target.remove(keys);
+
+        JsonNode source = partial.get(field);
+        if (source instanceof ObjectNode) {
+            Iterator<Map.Entry<String, JsonNode>> fields = source.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> entry = fields.next();
+
+                if (keys.contains(entry.getKey())) {
+                    target.set(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    private static Iterable<JsonNode> elements(ObjectNode status, String field) {
+        JsonNode node = status.get(field);
+        return node instanceof ArrayNode ? node : Collections.<JsonNode>emptyList();
+    }
+
+    /**
+     * Checks whether two statuses returned by the rules describe the same compliance, regardless
+     * of the order of their products, entitlements and reasons, and of the date they were
+     * calculated on.
+     *
+     * @param status
+     *  a status returned by the rules
+     *
+     * @param other
+     *  another status returned by the rules
+     *
+     * @return
+     *  true if the statuses are equivalent; false otherwise
+     */
+    public static boolean isEquivalent(ObjectNode status, ObjectNode other) {
+        return normalize(status).equals(normalize(other));
+    }
+
+    private static Map<String, Object> normalize(ObjectNode status) {
+        Map<String, Object> normalized = new HashMap<>();
+
+        List<String> fields = new ArrayList<>(PRODUCT_FIELDS);
+        fields.add(STACK_FIELD);
+
+        for (String field : fields) {
+            Map<String, Set<String>> entitlements = new TreeMap<>();
+            JsonNode node = status.get(field);
+
+            if (node instanceof ObjectNode) {
+                Iterator<Map.Entry<String, JsonNode>> entries = node.fields();
+                while (entries.hasNext()) {
+                    Map.Entry<String, JsonNode> entry = entries.next();
+                    Set<String> ids = new TreeSet<>();
+
+                    for (JsonNode entitlement : entry.getValue()) {
+                        ids.add(entitlement.path("id").asText());
+                    }
+
+                    entitlements.put(entry.getKey(), ids);
+                }
+            }
+
+            normalized.put(field, entitlements);
+        }
+
+        Set<String> nonCompliant = new TreeSet<>();
+        for (JsonNode product : elements(status, NON_COMPLIANT_FIELD)) {
+            nonCompliant.add(product.asText());
+        }
+
+        normalized.put(NON_COMPLIANT_FIELD, nonCompliant);
+
+        Set<String> reasons = new TreeSet<>();
+        for (JsonNode reason : elements(status, REASONS_FIELD)) {
+            Map<String, String> attributes = new TreeMap<>();
+            Iterator<Map.Entry<String, JsonNode>> entries = reason.path("attributes").fields();
+            while (entries.hasNext()) {
+                Map.Entry<String, JsonNode> entry = entries.next();
+                attributes.put(entry.getKey(), entry.getValue().asText());
+            }
+
+            reasons.add(reason.path("key").asText() + attributes);
+        }
+
+        normalized.put(REASONS_FIELD, reasons);
+
+        return normalized;
+    }
+
+    /**
+     * The stack and products an entitlement may affect the compliance of
+     */
+    public static final class EntitlementScope {
+        private final String stackId;
+        private final Set<String> productIds;
+        private final boolean mergeable;
+
+        private EntitlementScope(String stackId, Set<String> productIds, boolean mergeable) {
+            this.stackId = stackId;
+            this.productIds = productIds;
+            this.mergeable = mergeable;
+        }
+
+        /**
+         * @return the stack of the entitlement, or null if the entitlement is not stacked
+         */
+        public String getStackId() {
+            return this.stackId;
+        }
+
+        /**
+         * @return the IDs of the products provided by the entitlement
+         */
+        public Set<String> getProductIds() {
+            return Collections.unmodifiableSet(this.productIds);
+        }
+
+        /**
+         * @return true if statuses involving the entitlement may be merged; false otherwise
+         */
+        public boolean isMergeable() {
+            return this.mergeable;
+        }
+    }
+
+    /**
+     * The installed products, stacks and entitlements an incremental recalculation covers
+     */
+    public static final class Plan {
+        private final Set<String> products;
+        private final Set<String> stacks;
+        private final Set<String> entitlements;
+        private final Set<String> removed;
+
+        private Plan(Set<String> removed) {
+            this.products = new HashSet<>();
+            this.stacks = new HashSet<>();
+            this.entitlements = new HashSet<>();
+            this.removed = removed;
+        }
+
+        private void touch(EntitlementScope scope, Set<String> installed) {
+            if (scope == null) {
+                return;
+            }
+
+            if (scope.stackId != null) {
+                this.stacks.add(scope.stackId);
+            }
+
+            for (String productId : scope.productIds) {
+                if (installed.contains(productId)) {
+                    this.products.add(productId);
+                }
+            }
+        }
+
+        private boolean touches(EntitlementScope scope) {
+            if (scope.stackId != null && this.stacks.contains(scope.stackId)) {
+                return true;
+            }
+
+            for (String productId : scope.productIds) {
+                if (this.products.contains(productId)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Checks whether a reason refers to a product, stack or entitlement of this plan.
+         *
+         * @return
+         *  true if the reason refers to this plan, false if it does not, or null if the reason
+         *  refers to no product, stack or entitlement at all
+         */
+        private Boolean touches(JsonNode reason) {
+            JsonNode attributes = reason.path("attributes");
+            JsonNode stackId = attributes.get("stack_id");
+            JsonNode productId = attributes.get("product_id");
+            JsonNode entitlementId = attributes.get("entitlement_id");
+
+            if (stackId == null && productId == null && entitlementId == null) {
+                return null;
+            }
+
+            return (stackId != null && this.stacks.contains(stackId.asText())) ||
+                (productId != null && this.products.contains(productId.asText())) ||
+                (entitlementId != null && (this.entitlements.contains(entitlementId.asText()) ||
+                this.removed.contains(entitlementId.asText())));
+        }
+
+        /**
+         * @return the IDs of the installed products whose status is recalculated
+         */
+        public Set<String> getProducts() {
+            return Collections.unmodifiableSet(this.products);
+        }
+
+        /**
+         * @return the IDs of the stacks whose status is recalculated
+         */
+        public Set<String> getStacks() {
+            return Collections.unmodifiableSet(this.stacks);
+        }
+
+        /**
+         * @return the IDs of the entitlements the rules must be run over
+         */
+        public Set<String> getEntitlements() {
+            return Collections.unmodifiableSet(this.entitlements);
+        }
+    }
+}
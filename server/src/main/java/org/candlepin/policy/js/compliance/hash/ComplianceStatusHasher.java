@@ -27,18 +27,23 @@ import org.candlepin.policy.js.compliance.ComplianceStatus;
  * everything within compliance. The hash will contain only data that
  * should be considered when determining if a compliance event should
  * be emitted.
+ *
+ * The data is streamed into the digest as it is generated by the
+ * {@link HashableSegmentGenerators}, which produce the same data, in the
+ * same order, as the {@link HashableStringGenerators} did, so hashes
+ * stored before streaming was introduced remain valid.
  */
 public class ComplianceStatusHasher extends Hasher {
 
     public ComplianceStatusHasher(Consumer consumer, ComplianceStatus status) {
-        putCollection(status.getNonCompliantProducts(), HashableStringGenerators.STRING);
+        putCollection(status.getNonCompliantProducts(), HashableSegmentGenerators.STRING);
         putCollection(status.getCompliantProducts().entrySet(),
-            HashableStringGenerators.ENTITLEMENT_SET_ENTRY);
+            HashableSegmentGenerators.ENTITLEMENT_SET_ENTRY);
         putCollection(status.getPartiallyCompliantProducts().entrySet(),
-            HashableStringGenerators.ENTITLEMENT_SET_ENTRY);
-        putCollection(status.getPartialStacks().entrySet(), HashableStringGenerators.ENTITLEMENT_SET_ENTRY);
-        putCollection(status.getReasons(), HashableStringGenerators.COMPLIANCE_REASON);
-        putObject(consumer, HashableStringGenerators.CONSUMER);
+            HashableSegmentGenerators.ENTITLEMENT_SET_ENTRY);
+        putCollection(status.getPartialStacks().entrySet(), HashableSegmentGenerators.ENTITLEMENT_SET_ENTRY);
+        putCollection(status.getReasons(), HashableSegmentGenerators.COMPLIANCE_REASON);
+        putObject(consumer, HashableSegmentGenerators.CONSUMER);
     }
 
 }
@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js.compliance.hash;
+
+
+
+/**
+ * An object that is responsible for generating the {@link HashableSegments}
+ * of T that will be included in a hash. The segments of an object must
+ * concatenate to the string its {@link HashableStringGenerator} generates.
+ *
+ * @param <T> the object to generate hashable segments for.
+ */
+public interface HashableSegmentGenerator<T> {
+
+    /**
+     * Appends the hashable data of an object to the given segments.
+     * @param toConvert the object to convert.
+     * @param segments the segments to append the data to.
+     */
+    void generate(T toConvert, HashableSegments segments);
+
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js.compliance.hash;
+
+import org.candlepin.model.Consumer;
+import org.candlepin.model.ConsumerInstalledProduct;
+import org.candlepin.model.Entitlement;
+import org.candlepin.model.Pool;
+import org.candlepin.policy.js.compliance.ComplianceReason;
+
+import java.util.Map.Entry;
+import java.util.Set;
+
+
+
+/**
+ * A collection of classes that generate the hashable segments of an object.
+ * Each generator produces the same data as its counterpart in
+ * {@link HashableStringGenerators}, so hashes remain unchanged, without
+ * building the intermediate strings.
+ */
+public class HashableSegmentGenerators {
+
+    public static final StringGenerator STRING = new StringGenerator();
+    public static final StringEntryGenerator STRING_ENTRY = new StringEntryGenerator();
+    public static final EntitlementSetEntryGenerator ENTITLEMENT_SET_ENTRY =
+        new EntitlementSetEntryGenerator();
+    public static final EntitlementGenerator ENTITLEMENT = new EntitlementGenerator();
+    public static final PoolGenerator POOL = new PoolGenerator();
+    public static final ComplianceReasonGenerator COMPLIANCE_REASON = new ComplianceReasonGenerator();
+    public static final ConsumerGenerator CONSUMER = new ConsumerGenerator();
+    public static final ConsumerInstalledProductGenerator INSTALLED_PRODUCT =
+        new ConsumerInstalledProductGenerator();
+
+
+    private HashableSegmentGenerators() {
+
+    }
+
+    /**
+     * Generates the segments of a {@link String}, which is the string itself.
+     */
+    private static class StringGenerator implements HashableSegmentGenerator<String> {
+
+        @Override
+        public void generate(String target, HashableSegments segments) {
+            segments.append(target);
+        }
+
+    }
+
+    /**
+     * Generates the segments of an {@link Entry} of String to collection of {@link Entitlement}s.
+     */
+    private static class EntitlementSetEntryGenerator implements
+        HashableSegmentGenerator<Entry<String, Set<Entitlement>>> {
+
+        @Override
+        public void generate(Entry<String, Set<Entitlement>> target, HashableSegments segments) {
+            if (target == null) {
+                segments.append(null);
+                return;
+            }
+
+            segments.append(target.getKey());
+            segments.appendCollection(target.getValue(), ENTITLEMENT);
+        }
+
+    }
+
+    /**
+     * Generates the segments of an {@link Entitlement}.
+     */
+    private static class EntitlementGenerator implements HashableSegmentGenerator<Entitlement> {
+
+        @Override
+        public void generate(Entitlement target, HashableSegments segments) {
+            if (target == null) {
+                segments.append(null);
+                return;
+            }
+
+            segments.append(target.getId());
+            segments.append(target.getQuantity());
+            segments.appendObject(target.getPool(), POOL);
+        }
+
+    }
+
+    /**
+     * Generates the segments of a {@link Pool}.
+     */
+    private static class PoolGenerator implements HashableSegmentGenerator<Pool> {
+
+        @Override
+        public void generate(Pool target, HashableSegments segments) {
+            if (target == null) {
+                segments.append(null);
+                return;
+            }
+
+            segments.append(target.getId());
+            segments.append(target.getUpdated() == null ? null : target.getUpdated().getTime());
+        }
+
+    }
+
+    /**
+     * Generates the segments of a {@link ComplianceReason}.
+     */
+    private static class ComplianceReasonGenerator implements HashableSegmentGenerator<ComplianceReason> {
+
+        @Override
+        public void generate(ComplianceReason target, HashableSegments segments) {
+            if (target == null) {
+                segments.append(null);
+                return;
+            }
+
+            segments.append(target.getKey());
+            segments.appendCollection(target.getAttributes().entrySet(), STRING_ENTRY);
+        }
+
+    }
+
+    /**
+     * Generates the segments of an {@link Entry} of String key and String.
+     */
+    static class StringEntryGenerator implements HashableSegmentGenerator<Entry<String, String>> {
+
+        @Override
+        public void generate(Entry<String, String> target, HashableSegments segments) {
+            if (target == null) {
+                segments.append(null);
+                return;
+            }
+
+            segments.append(target.getKey());
+            segments.append(target.getValue());
+        }
+
+    }
+
+    /**
+     * Generates the segments of a {@link Consumer}.
+     */
+    private static class ConsumerGenerator implements HashableSegmentGenerator<Consumer> {
+
+        @Override
+        public void generate(Consumer target, HashableSegments segments) {
+            if (target == null) {
+                segments.append(null);
+                return;
+            }
+
+            segments.append(target.getUuid());
+            segments.appendCollection(target.getFacts().entrySet(), STRING_ENTRY);
+            segments.appendCollection(target.getInstalledProducts(), INSTALLED_PRODUCT);
+            segments.appendCollection(target.getEntitlements(), ENTITLEMENT);
+        }
+
+    }
+
+    /**
+     * Generates the segments of a {@link ConsumerInstalledProduct}.
+     */
+    private static class ConsumerInstalledProductGenerator
+        implements HashableSegmentGenerator<ConsumerInstalledProduct> {
+
+        @Override
+        public void generate(ConsumerInstalledProduct target, HashableSegments segments) {
+            if (target == null) {
+                segments.append(null);
+                return;
+            }
+
+            segments.append(target.getProductId());
+            segments.append(target.getArch());
+            segments.append(target.getVersion());
+        }
+
+    }
+
+}
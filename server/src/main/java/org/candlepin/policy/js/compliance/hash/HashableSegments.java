@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js.compliance.hash;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+
+
+/**
+ * The hashable data of an object, held as the sequence of strings it is made of rather than as
+ * their concatenation. Segments compare as their concatenations would, so collections of them can
+ * be sorted into the same order as the strings generated by the {@link HashableStringGenerators}.
+ */
+public class HashableSegments implements Comparable<HashableSegments> {
+
+    private final List<String> segments;
+
+    public HashableSegments() {
+        this.segments = new ArrayList<>();
+    }
+
+    /**
+     * Appends a value to these segments. As with string concatenation, null values are appended
+     * as "null".
+     *
+     * @param value the value to append
+     * @return these segments
+     */
+    public HashableSegments append(Object value) {
+        String segment = String.valueOf(value);
+
+        if (!segment.isEmpty()) {
+            this.segments.add(segment);
+        }
+
+        return this;
+    }
+
+    /**
+     * Appends the segments of the given collection, sorted so the order is the same every time
+     * the collection is hashed. If the collection is null, "null" is appended instead.
+     *
+     * @param target the collection to append
+     * @param generator a generator capable of generating the segments of each object
+     * @return these segments
+     */
+    public <T extends Object> HashableSegments appendCollection(Collection<T> target,
+        HashableSegmentGenerator<T> generator) {
+
+        if (target == null) {
+            return this.append(null);
+        }
+
+        for (HashableSegments item : generate(target, generator)) {
+            this.segments.addAll(item.segments);
+        }
+
+        return this;
+    }
+
+    /**
+     * Appends the segments of the given object.
+     *
+     * @param target the object to append
+     * @param generator a generator capable of generating the segments of the object
+     * @return these segments
+     */
+    public <T extends Object> HashableSegments appendObject(T target, HashableSegmentGenerator<T> generator) {
+        generator.generate(target, this);
+        return this;
+    }
+
+    /**
+     * Generates the segments of each object of the given collection, in sorted order.
+     *
+     * @param target the collection to generate the segments for
+     * @param generator a generator capable of generating the segments of each object
+     * @return the sorted segments of the objects of the collection
+     */
+    static <T extends Object> List<HashableSegments> generate(Collection<T> target,
+        HashableSegmentGenerator<T> generator) {
+
+        List<HashableSegments> generated = new ArrayList<>(target.size());
+        for (T item : target) {
+            HashableSegments segments = new HashableSegments();
+            generator.generate(item, segments);
+            generated.add(segments);
+        }
+
+        Collections.sort(generated);
+        return generated;
+    }
+
+    /**
+     * @return the strings these segments are made of
+     */
+    List<String> getSegments() {
+        return this.segments;
+    }
+
+    /**
+     * Compares these segments to the given segments the same way {@link String#compareTo} would
+     * compare their concatenations, without concatenating them.
+     */
+    @Override
+    public int compareTo(HashableSegments other) {
+        int index = 0;
+        int otherIndex = 0;
+        int offset = 0;
+        int otherOffset = 0;
+
+        while (index < this.segments.size() && otherIndex < other.segments.size()) {
+            String segment = this.segments.get(index);
+            String otherSegment = other.segments.get(otherIndex);
+
+            int length = Math.min(segment.length() - offset, otherSegment.length() - otherOffset);
+            for (int i = 0; i < length; ++i) {
+                char c1 = segment.charAt(offset + i);
+                char c2 = otherSegment.charAt(otherOffset + i);
+
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
+            }
+
+            offset += length;
+            otherOffset += length;
+
+            if (offset == segment.length()) {
+                ++index;
+                offset = 0;
+            }
+
+            if (otherOffset == otherSegment.length()) {
+                ++otherIndex;
+                otherOffset = 0;
+            }
+        }
+
+        // One sequence is a prefix of the other; the shorter one sorts first
+        boolean exhausted = index == this.segments.size();
+        boolean otherExhausted = otherIndex == other.segments.size();
+        return exhausted == otherExhausted ? 0 : (exhausted ? -1 : 1);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof HashableSegments && this.compareTo((HashableSegments) obj) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (String segment : this.segments) {
+            for (int i = 0; i < segment.length(); ++i) {
+                hash = 31 * hash + segment.charAt(i);
+            }
+        }
+
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (String segment : this.segments) {
+            builder.append(segment);
+        }
+
+        return builder.toString();
+    }
+}
@@ -32,6 +32,10 @@ import java.util.Set;
 /**
  * A collection of classes and methods that can be used to generate a
  * hashable {@link String} from an object.
+ *
+ * The {@link ComplianceStatusHasher} no longer hashes these strings; they are kept as the
+ * reference definition of the hashed data, which the
+ * {@link HashableSegmentGenerators} must generate identically.
  */
 public class HashableStringGenerators {
 
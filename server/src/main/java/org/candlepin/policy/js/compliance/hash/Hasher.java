@@ -15,32 +15,98 @@
 
 package org.candlepin.policy.js.compliance.hash;
 
-import org.apache.commons.codec.digest.DigestUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.apache.commons.codec.binary.Hex;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
+import java.util.List;
 
 /**
- * Generates a an SHA256 hash of objects via respective {@link HashableStringGenerator}s.
+ * Generates a an SHA256 hash of objects via respective {@link HashableSegmentGenerator}s or
+ * {@link HashableStringGenerator}s.
+ * <p></p>
+ * The data of each object is fed to the digest as it is added, encoded as UTF-8 exactly as
+ * its concatenated string would be, so no string of the complete data is ever built.
  */
 public class Hasher {
-    private static Logger log = LoggerFactory.getLogger(Hasher.class);
-    private StringBuilder sink;
+    private static final int BUFFER_SIZE = 1024;
+
+    private final MessageDigest digest;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer buffer;
+    private CharBuffer pending;
+    private String hash;
 
     public Hasher() {
-        sink = new StringBuilder();
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        this.encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
     }
 
     /**
-     * Products an SHA256 hash of anything that was put into this hasher.
+     * Products an SHA256 hash of anything that was put into this hasher. Once the hash has been
+     * produced, nothing more can be put into this hasher.
      *
      * @return an SHA256 hex string
      */
     public String hash() {
-        String data = sink.toString();
-        log.debug(data);
-        return DigestUtils.sha256Hex(data);
+        if (this.hash == null) {
+            this.encode(CharBuffer.allocate(0), true);
+            this.hash = new String(Hex.encodeHex(this.digest.digest()));
+        }
+
+        return this.hash;
+    }
+
+    /**
+     * Adds the specified collection to the result of this hash. The resulting segments added to the
+     * hash are generated by the specified generator, and sorted so the order is the same every time.
+     *
+     * @see HashableSegmentGenerators
+     *
+     * @param toConvert the collection to add
+     * @param generator the generator responsible for generating the hash segments for each object
+     *                  in the collection.
+     */
+    public <T extends Object> void putCollection(Collection<T> toConvert,
+        HashableSegmentGenerator<T> generator) {
+
+        if (toConvert == null) {
+            this.update(String.valueOf((Object) null));
+            return;
+        }
+
+        for (HashableSegments segments : HashableSegments.generate(toConvert, generator)) {
+            this.update(segments.getSegments());
+        }
+    }
+
+    /**
+     * Adds the specified Object to the result of this hash. The segments added to the hash will be
+     * generated by the specified generator.
+     *
+     * @see HashableSegmentGenerators
+     *
+     * @param toConvert the object to add
+     * @param generator the generator responsible for generating the hash segments for the object.
+     */
+    public <T extends Object> void putObject(T toConvert, HashableSegmentGenerator<T> generator) {
+        this.update(new HashableSegments().appendObject(toConvert, generator).getSegments());
     }
 
     /**
@@ -55,7 +121,7 @@ public class Hasher {
      */
     public <T extends Object> void putCollection(Collection<T> toConvert,
         HashableStringGenerator<T> generator) {
-        sink.append(HashableStringGenerators.generateFromCollection(toConvert, generator));
+        this.update(String.valueOf(HashableStringGenerators.generateFromCollection(toConvert, generator)));
     }
 
     /**
@@ -68,7 +134,61 @@ public class Hasher {
      * @param generator the generator responsible for generating the hash string for the object.
      */
     public <T extends Object> void putObject(T toConvert, HashableStringGenerator<T> generator) {
-        sink.append(HashableStringGenerators.generateFromObject(toConvert, generator));
+        this.update(String.valueOf(HashableStringGenerators.generateFromObject(toConvert, generator)));
+    }
+
+    private void update(List<String> segments) {
+        for (String segment : segments) {
+            this.update(segment);
+        }
+    }
+
+    private void update(String data) {
+        if (this.hash != null) {
+            throw new IllegalStateException("The hash has already been produced");
+        }
+
+        this.encode(CharBuffer.wrap(data), false);
+    }
+
+    /**
+     * Encodes characters into the digest. A high surrogate ending the characters is held back
+     * until the next characters are encoded, so data split within a surrogate pair is encoded as
+     * if it had been concatenated.
+     */
+    private void encode(CharBuffer chars, boolean endOfInput) {
+        if (this.pending != null) {
+            chars = CharBuffer.allocate(this.pending.remaining() + chars.remaining())
+                .put(this.pending)
+                .put(chars);
+            chars.flip();
+            this.pending = null;
+        }
+
+        CoderResult result = this.encoder.encode(chars, this.buffer, endOfInput);
+        this.drain();
+
+        while (result.isOverflow()) {
+            result = this.encoder.encode(chars, this.buffer, endOfInput);
+            this.drain();
+        }
+
+        if (endOfInput) {
+            while (this.encoder.flush(this.buffer).isOverflow()) {
+                this.drain();
+            }
+
+            this.drain();
+        }
+        else if (chars.hasRemaining()) {
+            this.pending = chars.slice();
+        }
+    }
+
+    private void drain() {
+        this.buffer.flip();
+        this.digest.update(this.buffer.array(), 0, this.buffer.limit());
+        this.buffer.clear();
     }
 
 }
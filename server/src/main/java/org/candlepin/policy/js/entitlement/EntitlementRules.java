@@ -201,7 +201,10 @@ public class EntitlementRules implements Enforcer {
             TypeReference<Map<String, ValidationResult>> typeref =
                 new TypeReference<Map<String, ValidationResult>>() {};
             try {
+                long start = System.nanoTime();
                 resultMap = objectMapper.toObject(json, typeref);
+                jsRules.recordDeserialization("validate_pools_batch", start);
+
                 for (PoolQuantity poolQuantity : entitlementPoolQuantities) {
                     if (!resultMap.containsKey(poolQuantity.getPool().getId())) {
                         resultMap.put(poolQuantity.getPool().getId(), new ValidationResult());
@@ -255,7 +258,9 @@ public class EntitlementRules implements Enforcer {
                 new TypeReference<Map<String, ValidationResult>>() {};
 
             try {
+                long start = System.nanoTime();
                 resultMap = objectMapper.toObject(json, typeref);
+                jsRules.recordDeserialization("validate_pools_list", start);
             }
             catch (Exception e) {
                 throw new RuleExecutionException(e);
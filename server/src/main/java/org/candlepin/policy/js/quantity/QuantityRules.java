@@ -75,7 +75,10 @@ public class QuantityRules {
         args.put("guestIds", c.getGuestIds());
 
         String json = jsRules.runJsFunction(String.class, "get_suggested_quantity", args);
+        long start = System.nanoTime();
         SuggestedQuantity dto = mapper.toObject(json, SuggestedQuantity.class);
+        jsRules.recordDeserialization("get_suggested_quantity", start);
+
         return dto;
     }
 
@@ -117,7 +120,9 @@ public class QuantityRules {
             new TypeReference<Map<String, SuggestedQuantity>>() {};
 
         try {
+            long start = System.nanoTime();
             resultMap = mapper.toObject(json, typeref);
+            jsRules.recordDeserialization("get_suggested_quantities", start);
         }
         catch (Exception e) {
             throw new RuleExecutionException(e);
@@ -21,11 +21,18 @@ import org.candlepin.auth.SystemPrincipal;
 import org.candlepin.cache.CandlepinCache;
 import org.candlepin.common.auth.SecurityHole;
 import org.candlepin.common.config.Configuration;
+import org.candlepin.controller.AutobindCache;
+import org.candlepin.controller.EntitlementCertificateRegenerator;
 import org.candlepin.model.Product;
 import org.candlepin.model.User;
 import org.candlepin.model.UserCurator;
+import org.candlepin.pki.KeyPairPool;
+import org.candlepin.policy.js.JsRunnerProvider;
+import org.candlepin.policy.js.RulesFragmentCache;
+import org.candlepin.policy.js.compliance.ComplianceStatusCache;
 import org.candlepin.service.UserServiceAdapter;
 import org.candlepin.service.impl.DefaultUserServiceAdapter;
+import org.candlepin.util.ContentPayloadCache;
 
 import com.google.inject.Inject;
 
@@ -34,10 +41,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.cache.Cache;
 import javax.ws.rs.GET;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
@@ -59,15 +68,32 @@ public class AdminResource {
     private EventSink sink;
     private Configuration config;
     private CandlepinCache candlepinCache;
+    private AutobindCache autobindCache;
+    private JsRunnerProvider jsProvider;
+    private RulesFragmentCache fragmentCache;
+    private ComplianceStatusCache complianceCache;
+    private KeyPairPool keyPairPool;
+    private ContentPayloadCache payloadCache;
+    private EntitlementCertificateRegenerator regenerator;
 
     @Inject
     public AdminResource(UserServiceAdapter userService, UserCurator userCurator,
-        EventSink dispatcher, Configuration config, CandlepinCache candlepinCache) {
+        EventSink dispatcher, Configuration config, CandlepinCache candlepinCache,
+        AutobindCache autobindCache, JsRunnerProvider jsProvider, RulesFragmentCache fragmentCache,
+        ComplianceStatusCache complianceCache, KeyPairPool keyPairPool, ContentPayloadCache payloadCache,
+        EntitlementCertificateRegenerator regenerator) {
         this.userService = userService;
         this.userCurator = userCurator;
         this.sink = dispatcher;
         this.config = config;
         this.candlepinCache = candlepinCache;
+        this.autobindCache = autobindCache;
+        this.jsProvider = jsProvider;
+        this.fragmentCache = fragmentCache;
+        this.complianceCache = complianceCache;
+        this.keyPairPool = keyPairPool;
+        this.payloadCache = payloadCache;
+        this.regenerator = regenerator;
     }
 
     @GET
@@ -126,4 +152,161 @@ public class AdminResource {
         productCache.removeAll();
     }
 
+    @GET
+    @Path("cache/autobind")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Retrieves the hit and miss statistics of the autobind decision cache",
+        value = "Get autobind cache statistics")
+    public Map<String, Object> getAutobindCacheStatistics() {
+        return autobindCache.getStatistics();
+    }
+
+    @DELETE
+    @Path("cache/autobind")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Clears the autobind decision cache",
+        value = "Clear autobind cache")
+    public void clearAutobindCache() {
+        log.debug("Removing all from the autobind cache");
+        autobindCache.invalidateAll();
+    }
+
+    @GET
+    @Path("cache/rules_fragments")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Retrieves the hit and miss statistics of the cache of pools serialized for the rules",
+        value = "Get rules fragment cache statistics")
+    public Map<String, Object> getRulesFragmentCacheStatistics() {
+        return fragmentCache.getStatistics();
+    }
+
+    @DELETE
+    @Path("cache/rules_fragments")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Clears the cache of pools serialized for the rules",
+        value = "Clear rules fragment cache")
+    public void clearRulesFragmentCache() {
+        log.debug("Removing all from the rules fragment cache");
+        fragmentCache.invalidateAll();
+    }
+
+    @GET
+    @Path("cache/compliance")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Retrieves the hit and miss statistics of the cache of consumer compliance statuses",
+        value = "Get compliance cache statistics")
+    public Map<String, Object> getComplianceCacheStatistics() {
+        return complianceCache.getStatistics();
+    }
+
+    @DELETE
+    @Path("cache/compliance")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Clears the cache of consumer compliance statuses",
+        value = "Clear compliance cache")
+    public void clearComplianceCache() {
+        log.debug("Removing all from the compliance cache");
+        complianceCache.invalidateAll();
+    }
+
+    @GET
+    @Path("cache/content_payloads")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Retrieves the hit and miss statistics of the cache of encoded V3 certificate content",
+        value = "Get content payload cache statistics")
+    public Map<String, Object> getContentPayloadCacheStatistics() {
+        return payloadCache.getStatistics();
+    }
+
+    @DELETE
+    @Path("cache/content_payloads")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Clears the cache of encoded V3 certificate content",
+        value = "Clear content payload cache")
+    public void clearContentPayloadCache() {
+        log.debug("Removing all from the content payload cache");
+        payloadCache.invalidateAll();
+    }
+
+    @GET
+    @Path("pki/key_pair_pool")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Retrieves the depth and refill statistics of the pool of pre-generated key pairs",
+        value = "Get key pair pool statistics")
+    public Map<String, Object> getKeyPairPoolStatistics() {
+        return keyPairPool.getStatistics();
+    }
+
+    @GET
+    @Path("certs/regeneration")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Retrieves the throughput statistics of batched entitlement certificate regeneration",
+        value = "Get certificate regeneration statistics")
+    public Map<String, Object> getCertificateRegenerationStatistics() {
+        return regenerator.getStatistics();
+    }
+
+    @POST
+    @Path("certs/regeneration/resume")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Regenerates the certificates of all dirty entitlements, such as those left over by " +
+        "an interrupted regeneration, and retrieves the resulting statistics",
+        value = "Resume certificate regeneration")
+    public Map<String, Object> resumeCertificateRegeneration() {
+        log.info("Resuming certificate regeneration");
+        regenerator.resume();
+        return regenerator.getStatistics();
+    }
+
+    @GET
+    @Path("rules/scopes")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Retrieves the usage statistics of the pool of rules execution scopes",
+        value = "Get rules scope pool statistics")
+    public Map<String, Object> getRulesScopePoolStatistics() {
+        return jsProvider.getScopePoolStatistics();
+    }
+
+    @GET
+    @Path("rules/compile")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Retrieves the times taken to compile the rules, or load them from the compiled " +
+        "rules cache, reporting loads from the cache separately from compiles",
+        value = "Get rules compile statistics")
+    public Map<String, Object> getRulesCompileStatistics() {
+        return jsProvider.getCompileStatistics();
+    }
+
+    @GET
+    @Path("rules/profile")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+        notes = "Retrieves the time spent serializing, running and deserializing each rules " +
+        "function, and the size of their arguments and results. Only recorded when rules " +
+        "profiling is enabled.",
+        value = "Get rules profile")
+    public Map<String, Object> getRulesProfile() {
+        return jsProvider.getProfiler().getStatistics();
+    }
+
+    @DELETE
+    @Path("rules/profile")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(notes = "Discards the recorded rules profile", value = "Reset rules profile")
+    public void resetRulesProfile() {
+        jsProvider.getProfiler().reset();
+    }
 }
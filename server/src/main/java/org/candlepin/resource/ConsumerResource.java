@@ -21,6 +21,7 @@ import org.candlepin.audit.EventAdapter;
 import org.candlepin.audit.EventBuilder;
 import org.candlepin.audit.EventFactory;
 import org.candlepin.audit.EventSink;
+import org.candlepin.bind.BulkBindResults;
 import org.candlepin.auth.Access;
 import org.candlepin.auth.NoAuthPrincipal;
 import org.candlepin.auth.Principal;
@@ -92,10 +93,13 @@ import org.candlepin.model.activationkeys.ActivationKey;
 import org.candlepin.model.activationkeys.ActivationKeyCurator;
 import org.candlepin.pinsetter.tasks.EntitleByProductsJob;
 import org.candlepin.pinsetter.tasks.EntitlerJob;
+import org.candlepin.policy.EntitlementRefusedException;
 import org.candlepin.policy.js.compliance.ComplianceRules;
 import org.candlepin.policy.js.compliance.ComplianceStatus;
 import org.candlepin.policy.js.consumer.ConsumerRules;
 import org.candlepin.resource.dto.AutobindData;
+import org.candlepin.resource.dto.BulkBindRequest;
+import org.candlepin.resource.dto.BulkBindResult;
 import org.candlepin.resource.dto.ContentAccessListing;
 import org.candlepin.resource.util.CalculatedAttributesUtil;
 import org.candlepin.resource.util.ConsumerBindUtil;
@@ -105,6 +109,7 @@ import org.candlepin.resource.util.EntitlementFinderUtil;
 import org.candlepin.resource.util.GuestMigration;
 import org.candlepin.resource.util.ResourceDateParser;
 import org.candlepin.resteasy.DateFormat;
+import org.candlepin.resteasy.JsonProvider;
 import org.candlepin.resteasy.parameter.CandlepinParam;
 import org.candlepin.resteasy.parameter.KeyValueParameter;
 import org.candlepin.service.ContentAccessCertServiceAdapter;
@@ -118,6 +123,8 @@ import org.candlepin.util.FactValidator;
 import org.candlepin.util.PropertyValidationException;
 import org.candlepin.util.Util;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 
@@ -142,6 +149,8 @@ import io.swagger.annotations.Authorization;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -153,6 +162,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
 
 import javax.inject.Provider;
@@ -169,9 +179,11 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 /**
  * API Gateway for Consumers
@@ -219,6 +231,7 @@ public class ConsumerResource {
     private ConsumerEnricher consumerEnricher;
     private Provider<GuestMigration> migrationProvider;
     private ModelTranslator translator;
+    private JsonProvider jsonProvider;
 
     @Inject
     @SuppressWarnings({"checkstyle:parameternumber"})
@@ -246,7 +259,8 @@ public class ConsumerResource {
         ConsumerTypeValidator consumerTypeValidator,
         ConsumerEnricher consumerEnricher,
         Provider<GuestMigration> migrationProvider,
-        ModelTranslator translator) {
+        ModelTranslator translator,
+        JsonProvider jsonProvider) {
 
         this.consumerCurator = consumerCurator;
         this.consumerTypeCurator = consumerTypeCurator;
@@ -286,6 +300,7 @@ public class ConsumerResource {
         this.consumerEnricher = consumerEnricher;
         this.migrationProvider = migrationProvider;
         this.translator = translator;
+        this.jsonProvider = jsonProvider;
     }
 
     /**
@@ -1366,6 +1381,7 @@ public class ConsumerResource {
             toUpdate.setUpdated(new Date());
 
             // this should update compliance on toUpdate, but not call the curator
+            complianceRules.invalidateStatus(toUpdate);
             complianceRules.getStatus(toUpdate, null, false, false);
 
             Event event = eventBuilder.setEventData(toUpdate).buildEvent();
@@ -1953,6 +1969,119 @@ public class ConsumerResource {
             .type(MediaType.APPLICATION_JSON).entity(entitlementDTOs).build();
     }
 
+    @ApiOperation(notes = "Binds many consumers of an organization to specific pools in a " +
+        "single request. Every bind is made in one transaction, and each pool is locked once for " +
+        "the whole request, rather than once for every consumer bound to it. A consumer whose " +
+        "bind is refused receives none of the entitlements requested for it, but does not " +
+        "prevent the other consumers from being bound. Binds which do not specify a quantity " +
+        "use the quantity a regular bind to the pool would use. The response contains the " +
+        "entitlements created for, or the errors encountered by, each consumer.", value = "bulkBind")
+    @ApiResponses({ @ApiResponse(code = 400, message = ""), @ApiResponse(code = 404, message = "") })
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/entitlements")
+    public Response bulkBind(
+        @QueryParam("owner") @Verify(Owner.class) String ownerKey,
+        @ApiParam(name = "binds", required = true) List<BulkBindRequest> binds) {
+
+        if (binds == null || binds.isEmpty()) {
+            throw new BadRequestException(i18n.tr("No binds specified."));
+        }
+
+        int maxSize = config.getInt(ConfigProperties.BULK_BIND_MAX_SIZE);
+        if (binds.size() > maxSize) {
+            throw new BadRequestException(i18n.tr(
+                "Cannot process more than {0} binds in a single request.", maxSize));
+        }
+
+        Set<String> consumerUuids = new HashSet<>();
+        for (BulkBindRequest bind : binds) {
+            if (bind == null || StringUtils.isBlank(bind.getConsumerUuid()) ||
+                StringUtils.isBlank(bind.getPoolId())) {
+                throw new BadRequestException(i18n.tr("Every bind must specify a consumer and a pool."));
+            }
+
+            if (bind.getQuantity() != null && bind.getQuantity() < 1) {
+                throw new BadRequestException(i18n.tr("Quantity must be a positive number."));
+            }
+
+            consumerUuids.add(bind.getConsumerUuid());
+        }
+
+        Owner owner = ownerCurator.lookupByKey(ownerKey);
+        Map<String, Consumer> consumers = new HashMap<>();
+        for (Consumer consumer : consumerCurator.findByUuidsAndOwner(consumerUuids, owner)) {
+            consumers.put(consumer.getUuid(), consumer);
+        }
+
+        if (subAdapter.hasUnacceptedSubscriptionTerms(owner)) {
+            return Response.serverError().build();
+        }
+
+        // Resolve the consumers and pools, and merge any binds of a consumer to the same pool
+        Map<String, Pool> pools = new HashMap<>();
+        Map<Consumer, Map<String, Integer>> consumerPoolQuantities = new HashMap<>();
+
+        for (BulkBindRequest bind : binds) {
+            Consumer consumer = consumers.get(bind.getConsumerUuid());
+            if (consumer == null) {
+                throw new NotFoundException(i18n.tr("Unit with ID \"{0}\" could not be found.",
+                    bind.getConsumerUuid()));
+            }
+
+            Pool pool = pools.get(bind.getPoolId());
+            if (pool == null) {
+                pool = poolManager.find(bind.getPoolId());
+                if (pool == null || !owner.getKey().equals(pool.getOwner().getKey())) {
+                    throw new NotFoundException(i18n.tr("Pool with ID \"{0}\" could not be found.",
+                        bind.getPoolId()));
+                }
+
+                pools.put(pool.getId(), pool);
+            }
+
+            Integer quantity = bind.getQuantity() != null ?
+                bind.getQuantity() :
+                consumerBindUtil.getQuantityToBind(pool, consumer);
+
+            Map<String, Integer> poolQuantities = consumerPoolQuantities.get(consumer);
+            if (poolQuantities == null) {
+                poolQuantities = new HashMap<>();
+                consumerPoolQuantities.put(consumer, poolQuantities);
+            }
+
+            Integer existing = poolQuantities.get(pool.getId());
+            poolQuantities.put(pool.getId(), existing != null ? existing + quantity : quantity);
+        }
+
+        BulkBindResults results = entitler.bindByPoolQuantities(consumerPoolQuantities);
+
+        List<BulkBindResult> output = new ArrayList<>();
+        for (Map.Entry<String, List<Entitlement>> entry : results.getEntitlements().entrySet()) {
+            BulkBindResult result = new BulkBindResult(entry.getKey());
+
+            for (Entitlement ent : entry.getValue()) {
+                addCalculatedAttributes(ent);
+                result.getEntitlements().add(this.translator.translate(ent, EntitlementDTO.class));
+            }
+
+            output.add(result);
+        }
+
+        for (Map.Entry<String, EntitlementRefusedException> entry : results.getRefusals().entrySet()) {
+            BulkBindResult result = new BulkBindResult(entry.getKey());
+            result.setErrors(entitler.getRefusalMessages(entry.getValue()));
+            output.add(result);
+        }
+
+        // Trigger the events of every bind at once
+        entitler.sendEvents(results.getAllEntitlements());
+
+        return Response.status(Response.Status.OK)
+            .type(MediaType.APPLICATION_JSON).entity(output).build();
+    }
+
     @ApiOperation(notes = "Retrieves a list of Pools and quantities that would be the " +
         "result of an auto-bind. This is a dry run of an autobind. It allows the client " +
         "to see what would be the result of an autobind without executing it. It can only" +
@@ -2585,31 +2714,66 @@ public class ConsumerResource {
     }
 
     @ApiOperation(notes = "Retrieves a Compliance Status list for a list of Consumers",
-        value = "getComplianceStatusList")
+        value = "getComplianceStatusList", response = ComplianceStatus.class, responseContainer = "Map")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/compliance")
-    @Transactional
-    public Map<String, ComplianceStatus> getComplianceStatusList(
-        @QueryParam("uuid") @Verify(value = Consumer.class, nullable = true) List<String> uuids) {
-
-        Map<String, ComplianceStatus> results = new HashMap<>();
+    public StreamingOutput getComplianceStatusList(
+        @QueryParam("uuid") @Verify(value = Consumer.class, nullable = true) final List<String> uuids) {
+
+        final ObjectMapper mapper = this.jsonProvider
+            .locateMapper(Object.class, MediaType.APPLICATION_JSON_TYPE);
+
+        // Statuses are written out as they are calculated, rather than collected into a map first,
+        // as reporting tools routinely request the statuses of thousands of consumers at once
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream stream) throws IOException, WebApplicationException {
+                try (JsonGenerator generator = mapper.getFactory().createGenerator(stream)) {
+                    generator.writeStartObject();
+
+                    if (uuids != null && !uuids.isEmpty()) {
+                        writeComplianceStatuses(generator, mapper, uuids);
+                    }
 
-        if (uuids != null && !uuids.isEmpty()) {
-            for (Consumer consumer : consumerCurator.findByUuids(uuids)) {
-                ComplianceStatus status;
-                if (consumer.isShare()) {
-                    logShareConsumerRequestWarning("fetch compliance", consumer);
-                    status = new ComplianceStatus(null);
+                    generator.writeEndObject();
                 }
-                else {
-                    status = complianceRules.getStatus(consumer, null);
-                }
-                results.put(consumer.getUuid(), status);
+            }
+        };
+    }
+
+    private void writeComplianceStatuses(final JsonGenerator generator, final ObjectMapper mapper,
+        List<String> uuids) throws IOException {
+
+        List<Consumer> consumers = new ArrayList<>(uuids.size());
+
+        for (Consumer consumer : consumerCurator.findByUuids(uuids)) {
+            if (consumer.isShare()) {
+                logShareConsumerRequestWarning("fetch compliance", consumer);
+                generator.writeObjectField(consumer.getUuid(), new ComplianceStatus(null));
+            }
+            else {
+                consumers.add(consumer);
             }
         }
 
-        return results;
+        try {
+            complianceRules.getStatuses(consumers, new BiConsumer<Consumer, ComplianceStatus>() {
+                @Override
+                public void accept(Consumer consumer, ComplianceStatus status) {
+                    try {
+                        generator.writeFieldName(consumer.getUuid());
+                        mapper.writeValue(generator, status);
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     @ApiOperation(
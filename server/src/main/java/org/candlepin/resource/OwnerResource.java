@@ -1405,6 +1405,14 @@ public class OwnerResource {
         CandlepinQuery<Consumer> query = this.consumerCurator.searchOwnerConsumers(
             owner, userName, types, uuids, hypervisorIds, attrFilters, skus,
             subscriptionIds, contracts);
+
+        if (pageRequest != null && pageRequest.isKeyset()) {
+            Page<CandlepinQuery<Consumer>> page = this.consumerCurator.paginateByKeyset(query, pageRequest);
+
+            // Store the page for the LinkHeaderResponseFilter
+            ResteasyProviderFactory.pushContext(Page.class, page);
+        }
+
         return translator.translateQuery(query, ConsumerDTO.class);
     }
 
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.resource.dto;
+
+import java.io.Serializable;
+
+
+
+/**
+ * DTO representing a single bind of a bulk bind request to
+ * <code>ConsumerResource.bulkBind</code>.
+ *
+ * <pre>
+ *     consumerUuid: the UUID of the consumer to bind.
+ *     poolId: the ID of the pool to bind the consumer to.
+ *     quantity: the quantity to bind; optional, defaults to the quantity a regular bind would use.
+ * </pre>
+ */
+public class BulkBindRequest implements Serializable {
+    private static final long serialVersionUID = 2283659108574638541L;
+
+    private String consumerUuid;
+    private String poolId;
+    private Integer quantity;
+
+    public BulkBindRequest() {
+        // Intentionally left empty
+    }
+
+    public BulkBindRequest(String consumerUuid, String poolId, Integer quantity) {
+        this.consumerUuid = consumerUuid;
+        this.poolId = poolId;
+        this.quantity = quantity;
+    }
+
+    public String getConsumerUuid() {
+        return consumerUuid;
+    }
+
+    public void setConsumerUuid(String consumerUuid) {
+        this.consumerUuid = consumerUuid;
+    }
+
+    public String getPoolId() {
+        return poolId;
+    }
+
+    public void setPoolId(String poolId) {
+        this.poolId = poolId;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(Integer quantity) {
+        this.quantity = quantity;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.resource.dto;
+
+import org.candlepin.dto.api.v1.EntitlementDTO;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/**
+ * DTO that encapsulates the outcome of a bulk bind for a single consumer, as returned by
+ * <code>ConsumerResource.bulkBind</code>. A consumer either receives every entitlement requested
+ * for it, or none of them.
+ *
+ * <pre>
+ *     consumerUuid: the UUID of the consumer.
+ *     entitlements: the entitlements created for the consumer.
+ *     errors: the reasons the bind was refused, if it was.
+ * </pre>
+ */
+public class BulkBindResult implements Serializable {
+    private static final long serialVersionUID = -6172381953672874402L;
+
+    private String consumerUuid;
+    private List<EntitlementDTO> entitlements;
+    private List<String> errors;
+
+    public BulkBindResult() {
+        this.entitlements = new ArrayList<>();
+        this.errors = new ArrayList<>();
+    }
+
+    public BulkBindResult(String consumerUuid) {
+        this();
+        this.consumerUuid = consumerUuid;
+    }
+
+    public String getConsumerUuid() {
+        return consumerUuid;
+    }
+
+    public void setConsumerUuid(String consumerUuid) {
+        this.consumerUuid = consumerUuid;
+    }
+
+    public List<EntitlementDTO> getEntitlements() {
+        return entitlements;
+    }
+
+    public void setEntitlements(List<EntitlementDTO> entitlements) {
+        this.entitlements = entitlements;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+}
@@ -94,8 +94,15 @@ public class CandlepinQueryInterceptor implements PostProcessInterceptor {
             // our cursor mid-stream.
             query.useSession(session);
 
-            // Apply any paging config we may have
-            if (pageRequest != null) {
+            // Apply any paging config we may have. Keyset paging is applied by the resource, as it
+            // requires knowledge of the entity being queried; the page it prepared for the link
+            // header response is left as-is.
+            Page prepared = ResteasyProviderFactory.getContextData(Page.class);
+
+            if (pageRequest != null && pageRequest.isKeyset() && prepared != null && prepared.isKeyset()) {
+                log.debug("Query has already been paged by keyset");
+            }
+            else if (pageRequest != null) {
                 // Impl note:
                 // Sorting will always be required (for consistency) if a page request object is
                 // present -- either isPaging() will be true, or we'll have ordering config.
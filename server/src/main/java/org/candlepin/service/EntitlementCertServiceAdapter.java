@@ -22,8 +22,10 @@ import org.candlepin.model.Product;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Interface to the Certificate Service.
@@ -65,6 +67,25 @@ public interface EntitlementCertServiceAdapter {
         Map<String, Product> products, boolean save)
         throws GeneralSecurityException, IOException;
 
+    /**
+     * Generate entitlement certificates for a collection of entitlements, which may belong to
+     * any number of consumers. Everything requiring the database is done on the calling thread,
+     * while the certificates themselves are signed by the given executor.
+     * <p></p>
+     * The certificates are not saved or associated with their entitlements, and neither are their
+     * serials. Entitlements whose certificates cannot be generated at this time, as their content
+     * would not fit in a certificate, are left out of the result.
+     *
+     * @param entitlements entitlements for which to generate certs.
+     * @param executor the executor signing the certs.
+     * @return Client entitlement certificates, indexed by entitlement id.
+     * @throws IOException thrown if there's a problem reading the cert.
+     * @throws GeneralSecurityException thrown security problem
+     */
+    Map<String, EntitlementCertificate> generateEntitlementCerts(Collection<Entitlement> entitlements,
+        ExecutorService executor)
+        throws GeneralSecurityException, IOException;
+
     /**
      * Return a list of all entitlement certificates for a given consumer.
      *
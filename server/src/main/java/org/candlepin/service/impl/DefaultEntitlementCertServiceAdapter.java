@@ -59,14 +59,20 @@ import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.cert.X509Certificate;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * DefaultEntitlementCertServiceAdapter
@@ -137,6 +143,92 @@ public class DefaultEntitlementCertServiceAdapter extends BaseEntitlementCertSer
         return doEntitlementCertGeneration(consumer, products, poolQuantities, entitlements, save);
     }
 
+    @Override
+    public Map<String, EntitlementCertificate> generateEntitlementCerts(
+        Collection<Entitlement> entitlements, ExecutorService executor)
+        throws GeneralSecurityException, IOException {
+
+        Map<String, KeyPair> keyPairs = new HashMap<>();
+        Map<String, byte[]> pemEncodedKeyPairs = new HashMap<>();
+        Map<String, CertificateSerial> serials = new HashMap<>();
+        Map<String, Future<String>> signed = new LinkedHashMap<>();
+
+        for (Entitlement ent : entitlements) {
+            Consumer consumer = ent.getConsumer();
+            Pool pool = ent.getPool();
+
+            KeyPair keyPair = keyPairs.get(consumer.getUuid());
+            if (keyPair == null) {
+                keyPair = keyPairCurator.getConsumerKeyPair(consumer);
+                keyPairs.put(consumer.getUuid(), keyPair);
+                pemEncodedKeyPairs.put(consumer.getUuid(), pki.getPemEncoded(keyPair.getPrivate()));
+            }
+
+            CertificateSerial serial = new CertificateSerial(pool.getEndDate());
+            final PreparedCertificate prepared;
+
+            try {
+                prepared = this.prepareEntitlementCert(consumer, pool, ent, pool.getProduct(), serial,
+                    keyPair);
+            }
+            catch (CertificateSizeException cse) {
+                log.warn("The certificate for entitlement {} cannot be generated at this time: {}",
+                    ent.getId(), cse.getMessage());
+                continue;
+            }
+
+            serials.put(ent.getId(), serial);
+            signed.put(ent.getId(), executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return signEntitlementCert(prepared);
+                }
+            }));
+        }
+
+        Map<String, EntitlementCertificate> entitlementCerts = new HashMap<>();
+        for (Entitlement ent : entitlements) {
+            Future<String> pem = signed.get(ent.getId());
+            if (pem == null) {
+                continue;
+            }
+
+            EntitlementCertificate cert = new EntitlementCertificate();
+            cert.setKeyAsBytes(pemEncodedKeyPairs.get(ent.getConsumer().getUuid()));
+            cert.setCert(this.getSignedCert(pem));
+            cert.setSerial(serials.get(ent.getId()));
+
+            entitlementCerts.put(ent.getId(), cert);
+        }
+
+        return entitlementCerts;
+    }
+
+    private String getSignedCert(Future<String> pem) throws GeneralSecurityException, IOException {
+        try {
+            return pem.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) e.getCause();
+            }
+
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new RuntimeException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
     private Set<Product> getDerivedProductsForDistributor(Pool pool, Consumer consumer) {
         Set<Product> derivedProducts = new HashSet<>();
         boolean derived = pool.hasAttribute(Pool.Attributes.DERIVED_POOL);
@@ -158,6 +250,20 @@ public class DefaultEntitlementCertServiceAdapter extends BaseEntitlementCertSer
         KeyPair keyPair, boolean useContentPrefix)
         throws GeneralSecurityException, IOException {
 
+        return this.signX509Certificate(this.prepareX509Certificate(consumer, pool, ent, product,
+            products, productModels, serialNumber, keyPair, useContentPrefix));
+    }
+
+    /**
+     * Builds everything needed to sign the X509 certificate of an entitlement. As this reads
+     * from the entitlement's graph, it must run on the thread owning the session.
+     */
+    private PreparedCertificate prepareX509Certificate(Consumer consumer, Pool pool,
+        Entitlement ent, Product product, Set<Product> products,
+        List<org.candlepin.model.dto.Product> productModels, BigInteger serialNumber,
+        KeyPair keyPair, boolean useContentPrefix)
+        throws IOException {
+
         // oidutil is busted at the moment, so do this manually
         Set<X509ExtensionWrapper> extensions;
         Set<X509ByteExtensionWrapper> byteExtensions = new LinkedHashSet<>();
@@ -186,12 +292,94 @@ public class DefaultEntitlementCertServiceAdapter extends BaseEntitlementCertSer
             startDate = calMinusHour.getTime();
         }
 
+        PreparedCertificate prepared = new PreparedCertificate();
+        prepared.dn = createDN(ent, consumer.getOwner());
+        prepared.extensions = extensions;
+        prepared.byteExtensions = byteExtensions;
+        prepared.startDate = startDate;
+        prepared.endDate = endDate;
+        prepared.keyPair = keyPair;
+        prepared.serialNumber = serialNumber;
+        return prepared;
+    }
+
+    private X509Certificate signX509Certificate(PreparedCertificate prepared)
+        throws GeneralSecurityException, IOException {
+
         X509Certificate x509Cert =  this.pki.createX509Certificate(
-            createDN(ent, consumer.getOwner()), extensions, byteExtensions, startDate,
-            endDate, keyPair, serialNumber, null);
+            prepared.dn, prepared.extensions, prepared.byteExtensions, prepared.startDate,
+            prepared.endDate, prepared.keyPair, prepared.serialNumber, null);
         return x509Cert;
     }
 
+    /**
+     * Builds everything needed to sign an entitlement certificate, including the entitlement data
+     * of V3 certificates. As this reads from the database, it must run on the thread owning the
+     * session.
+     */
+    private PreparedCertificate prepareEntitlementCert(Consumer consumer, Pool pool,
+        Entitlement ent, Product product, CertificateSerial serial, KeyPair keyPair)
+        throws IOException {
+
+        Set<Product> products = new HashSet<>(productCurator.getPoolProvidedProductsCached(pool));
+
+        // If creating a certificate for a distributor, we need
+        // to add any derived products as well so that their content
+        // is available in the upstream certificate.
+        products.addAll(getDerivedProductsForDistributor(pool, consumer));
+        products.add(product);
+
+        Map<String, EnvironmentContent> promotedContent = getPromotedContent(consumer);
+        String contentPrefix = getContentPrefix(consumer, true);
+
+        log.info("Creating X509 cert for product: {}", product);
+        log.debug("Provided products: {}", products);
+        List<org.candlepin.model.dto.Product> productModels = v3extensionUtil.createProducts(product,
+            products, contentPrefix, promotedContent, consumer, pool);
+
+        PreparedCertificate prepared = this.prepareX509Certificate(consumer, pool, ent,
+            product, products, productModels,
+            BigInteger.valueOf(serial.getId()), keyPair, true);
+
+        if (shouldGenerateV3(consumer)) {
+            log.debug("Generating v3 entitlement data");
+
+            prepared.payload = v3extensionUtil.createEntitlementDataPayload(productModels,
+                consumer, pool, ent.getQuantity());
+        }
+
+        return prepared;
+    }
+
+    /**
+     * Signs a prepared entitlement certificate, returning its PEM encoding followed, for V3
+     * certificates, by its signed entitlement data. This does not touch the database, and may run
+     * on any thread.
+     */
+    private String signEntitlementCert(PreparedCertificate prepared)
+        throws GeneralSecurityException, IOException {
+
+        X509Certificate x509Cert = this.signX509Certificate(prepared);
+
+        log.debug("Getting PEM encoded cert.");
+        String pem = new String(this.pki.getPemEncoded(x509Cert));
+
+        if (prepared.payload != null) {
+            String payload = "-----BEGIN ENTITLEMENT DATA-----\n";
+            payload += Util.toBase64(prepared.payload);
+            payload += "-----END ENTITLEMENT DATA-----\n";
+
+            byte[] bytes = pki.getSHA256WithRSAHash(new ByteArrayInputStream(prepared.payload));
+            String signature = "-----BEGIN RSA SIGNATURE-----\n";
+            signature += Util.toBase64(bytes);
+            signature += "-----END RSA SIGNATURE-----\n";
+
+            pem += payload + signature;
+        }
+
+        return pem;
+    }
+
     /**
      * Modify the entitlements end date
      * @param pool
@@ -388,46 +576,8 @@ public class DefaultEntitlementCertServiceAdapter extends BaseEntitlementCertSer
                 ent.getQuantity(),
                 ent.getId());
 
-            Set<Product> products = new HashSet<>(productCurator.getPoolProvidedProductsCached(pool));
-
-            // If creating a certificate for a distributor, we need
-            // to add any derived products as well so that their content
-            // is available in the upstream certificate.
-            products.addAll(getDerivedProductsForDistributor(pool, consumer));
-            products.add(product);
-
-            Map<String, EnvironmentContent> promotedContent = getPromotedContent(consumer);
-            String contentPrefix = getContentPrefix(consumer, true);
-
-            log.info("Creating X509 cert for product: {}", product);
-            log.debug("Provided products: {}", products);
-            List<org.candlepin.model.dto.Product> productModels = v3extensionUtil.createProducts(product,
-                products, contentPrefix, promotedContent, consumer, pool);
-
-            X509Certificate x509Cert = createX509Certificate(consumer, pool, ent,
-                product, products, productModels,
-                BigInteger.valueOf(serial.getId()), keyPair, true);
-
-            log.debug("Getting PEM encoded cert.");
-            String pem = new String(this.pki.getPemEncoded(x509Cert));
-
-            if (shouldGenerateV3(consumer)) {
-                log.debug("Generating v3 entitlement data");
-
-                byte[] payloadBytes = v3extensionUtil.createEntitlementDataPayload(productModels,
-                        consumer, pool, ent.getQuantity());
-
-                String payload = "-----BEGIN ENTITLEMENT DATA-----\n";
-                payload += Util.toBase64(payloadBytes);
-                payload += "-----END ENTITLEMENT DATA-----\n";
-
-                byte[] bytes = pki.getSHA256WithRSAHash(new ByteArrayInputStream(payloadBytes));
-                String signature = "-----BEGIN RSA SIGNATURE-----\n";
-                signature += Util.toBase64(bytes);
-                signature += "-----END RSA SIGNATURE-----\n";
-
-                pem += payload + signature;
-            }
+            String pem = this.signEntitlementCert(
+                this.prepareEntitlementCert(consumer, pool, ent, product, serial, keyPair));
 
             // Build a skeleton cert as part of the entitlement processing.
             EntitlementCertificate cert = new EntitlementCertificate();
@@ -492,4 +642,19 @@ public class DefaultEntitlementCertServiceAdapter extends BaseEntitlementCertSer
     public List<Long> listEntitlementSerialIds(Consumer consumer) {
         return serialCurator.listEntitlementSerialIds(consumer);
     }
+
+    /**
+     * The parts of an entitlement certificate, gathered from the database before the certificate
+     * is signed.
+     */
+    private static class PreparedCertificate {
+        private String dn;
+        private Set<X509ExtensionWrapper> extensions;
+        private Set<X509ByteExtensionWrapper> byteExtensions;
+        private Date startDate;
+        private Date endDate;
+        private KeyPair keyPair;
+        private BigInteger serialNumber;
+        private byte[] payload;
+    }
 }
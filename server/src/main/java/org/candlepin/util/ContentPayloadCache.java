@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.util;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * The ContentPayloadCache holds the encoded content sections of V3 entitlement certificates, so
+ * the path tree, Huffman tries and compressed string dictionary of a set of content are built
+ * once, however many consumers are issued certificates for the same content.
+ * <p></p>
+ * Payloads are keyed by the ordered list of content paths they encode. The paths already reflect
+ * the SKU and its provided products, the content prefix and the content promoted to the
+ * consumer's environment, as well as the consumer-specific filtering of content by architecture
+ * and by modified products, so a payload is only reused for exactly the content it was encoded
+ * from.
+ */
+@Singleton
+public class ContentPayloadCache {
+
+    private final boolean enabled;
+    private final int maxSize;
+    private final Map<List<String>, byte[]> payloads;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    @Inject
+    public ContentPayloadCache(Configuration config) {
+        this.enabled = config.getBoolean(ConfigProperties.CONTENT_PAYLOAD_CACHE_ENABLED, false);
+        this.maxSize = config.getInt(ConfigProperties.CONTENT_PAYLOAD_CACHE_MAX_SIZE, 1000);
+
+        this.payloads = new LinkedHashMap<List<String>, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, byte[]> eldest) {
+                boolean evict = this.size() > maxSize;
+                if (evict) {
+                    evictions.incrementAndGet();
+                }
+
+                return evict;
+            }
+        };
+
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Checks if the content payload cache has been enabled by configuration.
+     *
+     * @return
+     *  true if the content payload cache is enabled; false otherwise
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Fetches the payload encoded from the given content paths.
+     *
+     * @param paths
+     *  the content paths, in the order they were encoded
+     *
+     * @return
+     *  a copy of the cached payload, or null if no payload has been cached for the paths
+     */
+    public byte[] get(List<String> paths) {
+        if (!this.enabled || paths == null) {
+            return null;
+        }
+
+        byte[] payload;
+        synchronized (this.payloads) {
+            payload = this.payloads.get(paths);
+        }
+
+        if (payload == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+
+        this.hits.incrementAndGet();
+        return payload.clone();
+    }
+
+    /**
+     * Caches the payload encoded from the given content paths.
+     *
+     * @param paths
+     *  the content paths, in the order they were encoded
+     *
+     * @param payload
+     *  the encoded payload
+     */
+    public void put(List<String> paths, byte[] payload) {
+        if (!this.enabled || paths == null || payload == null) {
+            return;
+        }
+
+        List<String> key = new ArrayList<>(paths);
+        byte[] value = payload.clone();
+
+        synchronized (this.payloads) {
+            this.payloads.put(key, value);
+        }
+    }
+
+    /**
+     * Removes every payload from the cache.
+     */
+    public void invalidateAll() {
+        synchronized (this.payloads) {
+            this.payloads.clear();
+        }
+    }
+
+    /**
+     * Fetches the hit and miss statistics of the cache.
+     *
+     * @return
+     *  a map of statistic names to values
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+
+        stats.put("enabled", this.enabled);
+        synchronized (this.payloads) {
+            stats.put("size", this.payloads.size());
+        }
+
+        long hits = this.hits.get();
+        long misses = this.misses.get();
+
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", this.evictions.get());
+        stats.put("hit_rate", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0);
+
+        return stats;
+    }
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.util;
+
+import java.io.ByteArrayOutputStream;
+
+
+
+/**
+ * A Huffman code over symbols numbered from zero, held in primitive arrays. The code is built the
+ * same way {@link X509V3ExtensionUtil#makeTrie} builds its trie: the two lightest nodes are merged
+ * until one remains, ties going to the node added first, and the lighter node becoming the left
+ * (0) branch. Codes are therefore identical to the paths found by
+ * {@link X509V3ExtensionUtil#findHuffPath}, without building a trie of objects or strings of bits.
+ */
+class HuffmanCode {
+    private static final int MAX_CODE_LENGTH = 64;
+
+    private final int symbols;
+    private final int root;
+    private final int[] weights;
+    private final int[] left;
+    private final int[] right;
+    private final long[] codes;
+    private final int[] lengths;
+
+    /**
+     * Builds the code for symbols of the given weights.
+     *
+     * @param symbolWeights
+     *  the weight of each symbol, indexed by symbol
+     */
+    HuffmanCode(int[] symbolWeights) {
+        if (symbolWeights.length == 0) {
+            throw new IllegalArgumentException("A Huffman code requires at least one symbol");
+        }
+
+        this.symbols = symbolWeights.length;
+
+        // Symbols are the first nodes, followed by the merged nodes in the order they are created,
+        // so a node's index is also its position in the trie builder's list of nodes
+        int nodes = 2 * this.symbols - 1;
+        this.weights = new int[nodes];
+        this.left = new int[nodes];
+        this.right = new int[nodes];
+        System.arraycopy(symbolWeights, 0, this.weights, 0, this.symbols);
+
+        int[] heap = new int[this.symbols];
+        int size = 0;
+        for (int i = 0; i < this.symbols; i++) {
+            this.left[i] = -1;
+            this.right[i] = -1;
+            size = this.push(heap, size, i);
+        }
+
+        for (int next = this.symbols; next < nodes; next++) {
+            int lightest = heap[0];
+            size = this.pop(heap, size);
+            int second = heap[0];
+            size = this.pop(heap, size);
+
+            this.weights[next] = this.weights[lightest] + this.weights[second];
+            this.left[next] = lightest;
+            this.right[next] = second;
+            size = this.push(heap, size, next);
+        }
+
+        this.root = heap[0];
+        this.codes = new long[this.symbols];
+        this.lengths = new int[this.symbols];
+        this.assignCodes();
+    }
+
+    private boolean lighter(int node, int other) {
+        return this.weights[node] < this.weights[other] ||
+            (this.weights[node] == this.weights[other] && node < other);
+    }
+
+    private int push(int[] heap, int size, int node) {
+        int index = size;
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!this.lighter(node, heap[parent])) {
+                break;
+            }
+
+            heap[index] = heap[parent];
+            index = parent;
+        }
+
+        heap[index] = node;
+        return size + 1;
+    }
+
+    private int pop(int[] heap, int size) {
+        int last = heap[--size];
+        int index = 0;
+
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+
+            if (child + 1 < size && this.lighter(heap[child + 1], heap[child])) {
+                child++;
+            }
+
+            if (!this.lighter(heap[child], last)) {
+                break;
+            }
+
+            heap[index] = heap[child];
+            index = child;
+        }
+
+        if (size > 0) {
+            heap[index] = last;
+        }
+
+        return size;
+    }
+
+    private void assignCodes() {
+        int[] stack = new int[2 * this.symbols];
+        long[] stackCodes = new long[2 * this.symbols];
+        int[] stackLengths = new int[2 * this.symbols];
+        int depth = 0;
+
+        stack[depth] = this.root;
+        stackCodes[depth] = 0;
+        stackLengths[depth++] = 0;
+
+        while (depth > 0) {
+            int node = stack[--depth];
+            long code = stackCodes[depth];
+            int length = stackLengths[depth];
+
+            if (node < this.symbols) {
+                this.codes[node] = code;
+                this.lengths[node] = length;
+                continue;
+            }
+
+            if (length == MAX_CODE_LENGTH) {
+                throw new IllegalStateException("Huffman code exceeds " + MAX_CODE_LENGTH + " bits");
+            }
+
+            stack[depth] = this.right[node];
+            stackCodes[depth] = (code << 1) | 1;
+            stackLengths[depth++] = length + 1;
+
+            stack[depth] = this.left[node];
+            stackCodes[depth] = code << 1;
+            stackLengths[depth++] = length + 1;
+        }
+    }
+
+    /**
+     * @return the number of symbols of this code
+     */
+    int getSymbolCount() {
+        return this.symbols;
+    }
+
+    /**
+     * Fetches the code of a symbol as a string of '0' and '1' characters, in the form returned by
+     * {@link X509V3ExtensionUtil#findHuffPath}.
+     *
+     * @param symbol
+     *  the symbol to fetch the code of
+     *
+     * @return
+     *  the code of the symbol
+     */
+    String getCode(int symbol) {
+        StringBuilder code = new StringBuilder(this.lengths[symbol]);
+        for (int bit = this.lengths[symbol] - 1; bit >= 0; bit--) {
+            code.append((this.codes[symbol] >>> bit & 1) == 1 ? '1' : '0');
+        }
+
+        return code.toString();
+    }
+
+    /**
+     * Writes the code of a symbol.
+     *
+     * @param symbol
+     *  the symbol to write
+     *
+     * @param out
+     *  the writer to write the code of the symbol to
+     */
+    void write(int symbol, BitWriter out) {
+        out.write(this.codes[symbol], this.lengths[symbol]);
+    }
+
+    /**
+     * Reads the code of a symbol.
+     *
+     * @param in
+     *  the reader to read the code from
+     *
+     * @throws IllegalArgumentException
+     *  if the bits read are not the code of any symbol
+     *
+     * @return
+     *  the symbol read, or -1 if the bits ran out before a complete code was read
+     */
+    int read(BitReader in) {
+        int node = this.root;
+
+        while (in.hasMore()) {
+            node = in.read() ? this.right[node] : this.left[node];
+            if (node < 0) {
+                throw new IllegalArgumentException("Encoded path not in trie");
+            }
+
+            if (node < this.symbols) {
+                return node;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Packs bits into bytes, most significant bit first. The last byte is padded with zero bits.
+     */
+    static class BitWriter {
+        private final ByteArrayOutputStream out;
+        private int current;
+        private int count;
+
+        BitWriter(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Writes the lowest bits of the given value, most significant first.
+         *
+         * @param bits
+         *  the value holding the bits to write
+         *
+         * @param length
+         *  the number of bits to write
+         */
+        void write(long bits, int length) {
+            for (int bit = length - 1; bit >= 0; bit--) {
+                this.current = (this.current << 1) | (int) (bits >>> bit & 1);
+
+                if (++this.count == 8) {
+                    this.out.write(this.current);
+                    this.current = 0;
+                    this.count = 0;
+                }
+            }
+        }
+
+        /**
+         * Writes any pending bits as a final byte, padded with zero bits.
+         */
+        void flush() {
+            if (this.count > 0) {
+                this.out.write(this.current << (8 - this.count));
+                this.current = 0;
+                this.count = 0;
+            }
+        }
+    }
+
+    /**
+     * Reads bits from bytes, most significant bit first.
+     */
+    static class BitReader {
+        private final byte[] data;
+        private final long end;
+        private long position;
+
+        BitReader(byte[] data, int offset, int length) {
+            this.data = data;
+            this.position = (long) offset * 8;
+            this.end = (long) (offset + length) * 8;
+        }
+
+        boolean hasMore() {
+            return this.position < this.end;
+        }
+
+        boolean read() {
+            int value = this.data[(int) (this.position >>> 3)] >>> (7 - (int) (this.position & 7)) & 1;
+            this.position++;
+
+            return value == 1;
+        }
+    }
+}
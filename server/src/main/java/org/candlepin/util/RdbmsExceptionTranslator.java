@@ -16,11 +16,16 @@ package org.candlepin.util;
 
 import org.hibernate.StaleStateException;
 import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.exception.LockAcquisitionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.SQLException;
+
+import javax.persistence.LockTimeoutException;
 import javax.persistence.OptimisticLockException;
 import javax.persistence.PersistenceException;
+import javax.persistence.PessimisticLockException;
 import javax.persistence.RollbackException;
 
 /**
@@ -85,4 +90,44 @@ public class RdbmsExceptionTranslator {
         return false;
     }
 
+    /**
+     * Decides if the exception was thrown because the transaction conflicted with a concurrent
+     * transaction over a lock, such as when it deadlocked or timed out waiting for a lock. Such
+     * failures are transient, and the transaction may succeed if it is retried.
+     *
+     * @param exception the exception thrown by Hibernate (RDMBs Driver)
+     * @return true if the exception was caused by a lock conflict
+     */
+    public boolean isLockConflict(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LockAcquisitionException ||
+                cause instanceof org.hibernate.PessimisticLockException ||
+                cause instanceof PessimisticLockException ||
+                cause instanceof LockTimeoutException ||
+                cause instanceof OptimisticLockException ||
+                cause instanceof StaleStateException) {
+                return true;
+            }
+
+            if (cause instanceof SQLException) {
+                SQLException sqlException = (SQLException) cause;
+                String state = sqlException.getSQLState();
+
+                //Serialization failure, and Postgres DEADLOCK DETECTED and LOCK NOT AVAILABLE
+                //https://www.postgresql.org/docs/8.3/static/errcodes-appendix.html
+                if (state != null &&
+                    (state.equals("40001") || state.equals("40P01") || state.equals("55P03"))) {
+                    return true;
+                }
+
+                //MySQL error codes ER_LOCK_WAIT_TIMEOUT and ER_LOCK_DEADLOCK
+                if (sqlException.getErrorCode() == 1205 || sqlException.getErrorCode() == 1213) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
 }
@@ -47,12 +47,13 @@ import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.zip.Deflater;
@@ -68,6 +69,7 @@ public class X509V3ExtensionUtil extends X509Util {
     private static Logger log = LoggerFactory.getLogger(X509V3ExtensionUtil.class);
     private Configuration config;
     private EntitlementCurator entCurator;
+    private ContentPayloadCache payloadCache;
     private String thisVersion = "3.3";
 
     private long pathNodeId = 0;
@@ -76,10 +78,12 @@ public class X509V3ExtensionUtil extends X509Util {
     private static boolean treeDebug = false;
 
     @Inject
-    public X509V3ExtensionUtil(Configuration config, EntitlementCurator entCurator) {
+    public X509V3ExtensionUtil(Configuration config, EntitlementCurator entCurator,
+        ContentPayloadCache payloadCache) {
         // Output everything in UTC
         this.config = config;
         this.entCurator = entCurator;
+        this.payloadCache = payloadCache;
     }
 
     public Set<X509ExtensionWrapper> getExtensions() {
@@ -119,21 +123,41 @@ public class X509V3ExtensionUtil extends X509Util {
 
     private byte[] retrieveContentValue(EntitlementBody eb) throws IOException {
         List<Content> contentList = getContentList(eb);
-        PathNode treeRoot = makePathTree(contentList, new PathNode());
+
+        // The encoding depends only on the content paths, which many certificates share
+        List<String> paths = null;
+        if (payloadCache.isEnabled()) {
+            paths = new ArrayList<>(contentList.size());
+            for (Content content : contentList) {
+                paths.add(content.getPath());
+            }
+
+            byte[] cached = payloadCache.get(paths);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        byte[] value = encodeContentValue(contentList);
+        payloadCache.put(paths, value);
+
+        return value;
+    }
+
+    private byte[] encodeContentValue(List<Content> contentList) throws IOException {
+        return encodePathTree(makePathTree(contentList, new PathNode()));
+    }
+
+    byte[] encodePathTree(PathNode treeRoot) throws IOException {
         List<String> nodeStrings = orderStrings(treeRoot);
         if (nodeStrings.size() == 0) {
             return new byte[0];
         }
         ByteArrayOutputStream data = new ByteArrayOutputStream();
-        List<HuffNode> stringHuffNodes = getStringNodeList(nodeStrings);
-        HuffNode stringTrieParent = makeTrie(stringHuffNodes);
         data.write(byteProcess(nodeStrings));
 
         List<PathNode> orderedNodes = orderNodes(treeRoot);
-        List<HuffNode> pathNodeHuffNodes = getPathNodeNodeList(orderedNodes);
-        HuffNode pathNodeTrieParent = makeTrie(pathNodeHuffNodes);
-        data.write(makeNodeDictionary(stringTrieParent,
-            pathNodeTrieParent, orderedNodes));
+        data.write(makeNodeDictionary(nodeStrings, orderedNodes));
 
         return data.toByteArray();
     }
@@ -648,25 +672,20 @@ public class X509V3ExtensionUtil extends X509Util {
         Map<String, Integer> segments = new HashMap<>();
         Set<PathNode> nodes = new HashSet<>();
         buildSegments(segments, nodes, parent);
-        for (Entry<String, Integer> entry : segments.entrySet()) {
-            String part = entry.getKey();
+        for (String part : segments.keySet()) {
             if (!part.equals("")) {
-                int count = entry.getValue();
-                if (parts.size() == 0) {
-                    parts.add(part);
-                }
-                else {
-                    int pos = parts.size();
-                    for (int i = 0; i < parts.size(); i++) {
-                        if (count < segments.get(parts.get(i))) {
-                            pos = i;
-                            break;
-                        }
-                    }
-                    parts.add(pos, part);
-                }
+                parts.add(part);
             }
         }
+
+        // Stable, so segments of equal count stay in the order they were found
+        final Map<String, Integer> counts = segments;
+        Collections.sort(parts, new Comparator<String>() {
+            @Override
+            public int compare(String part1, String part2) {
+                return Integer.compare(counts.get(part1), counts.get(part2));
+            }
+        });
         if (treeDebug) {
             log.debug("Parts List: " + parts);
         }
@@ -689,35 +708,20 @@ public class X509V3ExtensionUtil extends X509Util {
     }
 
     private List<PathNode> orderNodes(PathNode treeRoot) {
-        List<PathNode> result = new ArrayList<>();
-
         // walk tree to make string map
-        Set<PathNode> nodes =  getPathNodes(treeRoot);
-        for (PathNode pn : nodes) {
-            int count = pn.getParents().size();
-            if (nodes.size() == 0) {
-                nodes.add(pn);
+        Set<PathNode> nodes = getPathNodes(treeRoot, new IdentityHashMap<PathNode, Set<PathNode>>());
+
+        // Nodes are ordered by their number of parents, the nodes found last coming first among
+        // nodes with as many parents
+        List<PathNode> result = new ArrayList<>(nodes);
+        Collections.reverse(result);
+        Collections.sort(result, new Comparator<PathNode>() {
+            @Override
+            public int compare(PathNode node1, PathNode node2) {
+                return Integer.compare(node1.getParents().size(), node2.getParents().size());
             }
-            else {
-                int pos = result.size();
-                for (int i = 0; i < result.size(); i++) {
-                    if (count <= result.get(i).getParents().size()) {
-                        pos = i;
-                        break;
-                    }
-                    if (count == result.get(i).getParents().size()) {
-                        if (pn.getId() < result.get(i).getId()) {
-                            pos = i;
-                        }
-                        else {
-                            pos = i + 1;
-                        }
-                        break;
-                    }
-                }
-                result.add(pos, pn);
-            }
-        }
+        });
+
         // single node plus term node. We need to have one more for huffman trie
         if (result.size() == 2) {
             result.add(new PathNode());
@@ -728,20 +732,49 @@ public class X509V3ExtensionUtil extends X509Util {
         return result;
     }
 
-    private Set<PathNode> getPathNodes(PathNode treeRoot) {
-        Set<PathNode> nodes = new HashSet<>();
-        nodes.add(treeRoot);
-        for (NodePair np : treeRoot.getChildren()) {
-            nodes.addAll(getPathNodes(np.getConnection()));
+    private Set<PathNode> getPathNodes(PathNode treeRoot, Map<PathNode, Set<PathNode>> visited) {
+        // Nodes shared by several paths are only walked once; their sets are built the same way
+        // every time, so reusing them keeps the order of the resulting set unchanged
+        Set<PathNode> nodes = visited.get(treeRoot);
+        if (nodes == null) {
+            nodes = new HashSet<>();
+            nodes.add(treeRoot);
+            for (NodePair np : treeRoot.getChildren()) {
+                nodes.addAll(getPathNodes(np.getConnection(), visited));
+            }
+
+            visited.put(treeRoot, nodes);
         }
+
         return nodes;
     }
 
-    private byte[] makeNodeDictionary(HuffNode stringParent,
-        HuffNode pathNodeParent, List<PathNode> pathNodes) throws IOException {
+    private byte[] makeNodeDictionary(List<String> nodeStrings, List<PathNode> pathNodes)
+        throws IOException {
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        // Strings are weighted by their position, followed by the end of node marker
+        int endNode = nodeStrings.size();
+        int[] stringWeights = new int[endNode + 1];
+        Map<String, Integer> stringSymbols = new HashMap<>();
+        for (int i = 0; i < endNode; i++) {
+            stringSymbols.put(nodeStrings.get(i), i);
+            stringWeights[i] = i + 1;
+        }
+        stringWeights[endNode] = endNode + 1;
+        HuffmanCode stringCode = new HuffmanCode(stringWeights);
+
+        // Path nodes are weighted by their position; the first node, the root, is never pointed
+        // to, so it is left out of the code
         int nodeSize = pathNodes.size();
+        int[] nodeWeights = new int[nodeSize - 1];
+        Map<PathNode, Integer> nodeSymbols = new IdentityHashMap<>();
+        for (int i = 1; i < nodeSize; i++) {
+            nodeSymbols.put(pathNodes.get(i), i - 1);
+            nodeWeights[i - 1] = i;
+        }
+        HuffmanCode nodeCode = new HuffmanCode(nodeWeights);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
         if (nodeSize > 127) {
             ByteArrayOutputStream countBaos = new ByteArrayOutputStream();
             boolean start = false;
@@ -761,37 +794,25 @@ public class X509V3ExtensionUtil extends X509Util {
         else {
             baos.write(nodeSize);
         }
-        StringBuilder bits = new StringBuilder();
-        String endNodeLocation = findHuffPath(stringParent, END_NODE);
+
+        HuffmanCode.BitWriter bits = new HuffmanCode.BitWriter(baos);
         for (PathNode pn : pathNodes) {
             for (NodePair np : pn.getChildren()) {
-                bits.append(findHuffPath(stringParent, np.getName()));
-                bits.append(findHuffPath(pathNodeParent, np.getConnection()));
-            }
-            bits.append(endNodeLocation);
-            while (bits.length() >= 8) {
-                int next = 0;
-                for (int i = 0; i < 8; i++) {
-                    next = (byte) next << 1;
-                    if (bits.charAt(i) == '1') {
-                        next++;
-                    }
+                // Anything without a code is written as an empty code, as it always has been
+                Integer stringSymbol = stringSymbols.get(np.getName());
+                if (stringSymbol != null) {
+                    stringCode.write(stringSymbol, bits);
                 }
-                baos.write(next);
-                bits.delete(0, 8);
-            }
-        }
 
-        if (bits.length() > 0) {
-            int next = 0;
-            for (int i = 0;  i < 8; i++) {
-                next = (byte) next << 1;
-                if (i < bits.length() && bits.charAt(i) == '1') {
-                    next++;
+                Integer nodeSymbol = nodeSymbols.get(np.getConnection());
+                if (nodeSymbol != null) {
+                    nodeCode.write(nodeSymbol, bits);
                 }
             }
-            baos.write(next);
+            stringCode.write(endNode, bits);
         }
+        bits.flush();
+
         byte[] result = baos.toByteArray();
         if (treeDebug) {
             ByteArrayInputStream bais = new ByteArrayInputStream(result);
@@ -868,25 +889,6 @@ public class X509V3ExtensionUtil extends X509Util {
         return baos.toByteArray();
     }
 
-    private List<HuffNode> getStringNodeList(List<String> pathStrings) {
-        List<HuffNode> nodes = new ArrayList<>();
-        int idx = 1;
-        for (String part : pathStrings) {
-            nodes.add(new HuffNode(part, idx++));
-        }
-        nodes.add(new HuffNode(END_NODE, idx));
-        return nodes;
-    }
-
-    private List<HuffNode> getPathNodeNodeList(List<PathNode> pathNodes) {
-        List<HuffNode> nodes = new ArrayList<>();
-        int idx = 0;
-        for (PathNode pn : pathNodes) {
-            nodes.add(new HuffNode(pn, idx++));
-        }
-        return nodes;
-    }
-
     public HuffNode makeTrie(List<HuffNode> nodesList) {
         // drop the first node if path node value, it is not needed
         if (nodesList.get(0).getValue() instanceof PathNode) {
@@ -928,86 +930,64 @@ public class X509V3ExtensionUtil extends X509Util {
 
     public List<String> hydrateContentPackage(byte[] payload) throws IOException {
 
-        List<HuffNode> pathDictionary = new ArrayList<>();
-        List<HuffNode> nodeDictionary = new ArrayList<>();
-
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         Inflater i = new Inflater();
         InflaterOutputStream ios = new InflaterOutputStream(baos, i);
         ios.write(payload);
         ios.finish();
-        long read = i.getBytesRead();
+        int read = (int) i.getBytesRead();
 
-        String name = "";
-        int weight = 1;
+        List<String> names = new ArrayList<>();
+        StringBuilder name = new StringBuilder();
         for (byte b : baos.toByteArray()) {
             if (b == '\0') {
-                pathDictionary.add(new HuffNode(name, weight++));
-                name = "";
+                names.add(name.toString());
+                name.setLength(0);
             }
             else {
-                name += (char) b;
+                name.append((char) b);
             }
         }
 
-        pathDictionary.add(new HuffNode(END_NODE, weight));
-        List<HuffNode> triePathDictionary = new ArrayList<>();
-        triePathDictionary.addAll(pathDictionary);
-        HuffNode pathTrie = makeTrie(triePathDictionary);
-
-        StringBuffer nodeBits = new StringBuffer();
-        ByteArrayInputStream bais = new ByteArrayInputStream(payload, (int) read,
-            (int) (payload.length - read));
+        // Names are weighted by their position, followed by the end of node marker
+        int endNode = names.size();
+        int[] nameWeights = new int[endNode + 1];
+        for (int j = 0; j <= endNode; j++) {
+            nameWeights[j] = j + 1;
+        }
+        HuffmanCode nameCode = new HuffmanCode(nameWeights);
 
-        int value = bais.read();
+        int offset = read;
+        int value = offset < payload.length ? payload[offset++] & 0xFF : -1;
         // check for size bits
         int nodeCount = value;
         if (value > 127) {
             int length = value - 128;
             int total = 0;
 
-            if (length > 0) {
-                byte[] count = new byte[length];
-                int offset = 0;
-
-                do {
-                    int bytesRead = bais.read(count, offset, length - offset);
-
-                    if (bytesRead != -1) {
-                        for (; bytesRead > 0; --bytesRead) {
-                            total = (total << 8) | (count[offset++] & 0xFF);
-                        }
-                    }
-                    else {
-                        break;
-                    }
-                }
-                while (offset < length);
+            for (; length > 0 && offset < payload.length; --length) {
+                total = (total << 8) | (payload[offset++] & 0xFF);
             }
 
             nodeCount = total;
         }
 
-        value = bais.read();
-        while (value != -1) {
-            String someBits = Integer.toString(value, 2);
-            for (int pad = 0; pad < 8 - someBits.length(); pad++) {
-                nodeBits.append("0");
-            }
-            nodeBits.append(someBits);
-            value = bais.read();
-        }
-
+        List<PathNode> pathNodes = new ArrayList<>();
         for (int j = 0; j < nodeCount; j++) {
-            nodeDictionary.add(new HuffNode(new PathNode(), j));
+            pathNodes.add(new PathNode());
         }
 
-        List<HuffNode> trieNodeDictionary = new ArrayList<>();
-        trieNodeDictionary.addAll(nodeDictionary);
-        HuffNode nodeTrie = makeTrie(trieNodeDictionary);
+        // The first node, the root, is left out of the code of the nodes
+        int[] nodeWeights = new int[Math.max(nodeCount - 1, 1)];
+        for (int j = 0; j < nodeWeights.length; j++) {
+            nodeWeights[j] = j + 1;
+        }
+        HuffmanCode nodeCode = new HuffmanCode(nodeWeights);
 
         // populate the PathNodes so we can rebuild the cool url tree
-        Set<PathNode> pathNodes =  populatePathNodes(nodeDictionary, pathTrie, nodeTrie, nodeBits);
+        HuffmanCode.BitReader nodeBits = new HuffmanCode.BitReader(payload, offset,
+            payload.length - offset);
+        populatePathNodes(pathNodes, names, nameCode, nodeCode, nodeBits);
         // find the root, he has no parents. He does have children
         // added child check because we have a blank placeholder node for the single segment case
         PathNode root = null;
@@ -1048,54 +1028,32 @@ public class X509V3ExtensionUtil extends X509Util {
         return null;
     }
 
-    private Set<PathNode> populatePathNodes(List<HuffNode> nodeDictionary,
-        HuffNode pathTrie, HuffNode nodeTrie, StringBuffer nodeBits) {
-        Set<PathNode> pathNodes = new HashSet<>();
-        for (HuffNode node : nodeDictionary) {
-            pathNodes.add((PathNode) node.getValue());
-            boolean stillNode = true;
-            while (stillNode) {
-                // get first child name
-                // if its END_NODE we are done
-                String nameValue = null;
-                StringBuilder nameBits = new StringBuilder();
-                while (nameValue == null && stillNode) {
-                    nameBits.append(nodeBits.charAt(0));
-                    nodeBits.deleteCharAt(0);
-                    Object lookupValue = findHuffNodeValueByBits(pathTrie,
-                        nameBits.toString());
-                    if (lookupValue != null) {
-                        if (lookupValue.equals(END_NODE)) {
-                            stillNode = false;
-                            break;
-                        }
-                        nameValue = (String) lookupValue;
-                    }
-                    if (nodeBits.length() == 0) {
-                        stillNode = false;
-                    }
+    private void populatePathNodes(List<PathNode> pathNodes, List<String> names,
+        HuffmanCode nameCode, HuffmanCode nodeCode, HuffmanCode.BitReader nodeBits) {
+
+        int endNode = names.size();
+        for (PathNode node : pathNodes) {
+            // each node lists its children as name and node pairs, up to the end of node marker
+            while (true) {
+                int nameSymbol = nameCode.read(nodeBits);
+                if (nameSymbol < 0 || nameSymbol == endNode || !nodeBits.hasMore()) {
+                    break;
                 }
 
-                PathNode nodeValue = null;
-                StringBuilder pathBits = new StringBuilder();
-                while (nodeValue == null && stillNode) {
-                    pathBits.append(nodeBits.charAt(0));
-                    nodeBits.deleteCharAt(0);
-                    PathNode lookupValue = (PathNode) findHuffNodeValueByBits(nodeTrie,
-                        pathBits.toString());
-                    if (lookupValue != null) {
-                        nodeValue = lookupValue;
-                        nodeValue.addParent((PathNode) node.getValue());
-                        ((PathNode) node.getValue()).addChild(
-                            new NodePair(nameValue, nodeValue));
-                    }
-                    if (nodeBits.length() == 0) {
-                        stillNode = false;
-                    }
+                int nodeSymbol = nodeCode.read(nodeBits);
+                if (nodeSymbol < 0) {
+                    break;
+                }
+
+                PathNode child = pathNodes.get(nodeSymbol + 1);
+                child.addParent(node);
+                node.addChild(new NodePair(names.get(nameSymbol), child));
+
+                if (!nodeBits.hasMore()) {
+                    break;
                 }
             }
         }
-        return pathNodes;
     }
 
     private void makeURLs(PathNode root, List<String> urls, StringBuffer aPath) {
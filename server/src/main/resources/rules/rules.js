@@ -1,4 +1,4 @@
-// Version: 5.26
+// Version: 5.27
 
 /*
  * Default Candlepin rule set.
@@ -38,6 +38,20 @@ function pool_type_name_space() {
     return PoolType;
 }
 
+/*
+ * Returns the context of the current rules call. Engines which support native
+ * contexts provide a function building the context as javascript objects, which
+ * avoids serializing it to, and parsing it from, a JSON string. Every call
+ * returns a new copy of the context, as JSON.parse would.
+ */
+function parse_json_context() {
+    if (typeof native_context === "function") {
+        return native_context();
+    }
+
+    return JSON.parse(json_context);
+}
+
 // consumer types
 var SYSTEM_TYPE = "system";
 var HYPERVISOR_TYPE = "hypervisor";
@@ -575,7 +589,7 @@ var FactValueCalculator = {
         },
 
         guest_limit: function (prodAttr, consumer) {
-            var context = JSON.parse(json_context);
+            var context = parse_json_context();
             if (!context.hasOwnProperty('guestIds') || context.guestIds === null) {
                 return 0;
             }
@@ -1237,7 +1251,7 @@ function isLevelExempt (level, exemptList) {
 var ActivationKey = {
 
     get_attribute_context: function() {
-        context = JSON.parse(json_context);
+        context = parse_json_context();
 
         // Pool to validate
         context.pool = createPool(context.pool);
@@ -1340,7 +1354,7 @@ var Entitlement = {
     },
 
     get_attribute_context: function() {
-        context = JSON.parse(json_context);
+        context = parse_json_context();
 
         if ("pool" in context) {
             context.pool = createPool(context.pool);
@@ -2267,7 +2281,7 @@ var Autobind = {
     },
 
     create_autobind_context: function() {
-        var context = JSON.parse(json_context);
+        var context = parse_json_context();
 
         // The considerDerived property indicates if we should look to derived
         // provided products rather than the usual set. Used in situations where
@@ -2711,7 +2725,7 @@ function find_relevant_pids(entitlement, consumer) {
  */
 var Compliance = {
     get_status_context: function() {
-        context = JSON.parse(json_context);
+        context = parse_json_context();
         context.ondate = new Date(context.ondate);
 
         // Add some methods to the various Pool objects:
@@ -3215,7 +3229,7 @@ var Compliance = {
 
 var Quantity = {
     get_quantity_context: function() {
-        context = JSON.parse(json_context);
+        context = parse_json_context();
 
         if ("pool" in context) {
             context.pool = createPool(context.pool);
@@ -3314,7 +3328,7 @@ var Quantity = {
 var PoolType = {
 
     get_pool_type_context: function() {
-        context = JSON.parse(json_context);
+        context = parse_json_context();
         context.pool = createPool(context.pool);
         return context;
     },
@@ -3368,7 +3382,7 @@ var PoolType = {
  */
 var Override = {
     get_override_context: function() {
-        context = JSON.parse(json_context);
+        context = parse_json_context();
         return context;
     },
 
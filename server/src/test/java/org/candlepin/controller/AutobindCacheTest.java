@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.controller;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.model.Consumer;
+import org.candlepin.model.ConsumerCurator;
+import org.candlepin.model.ConsumerType;
+import org.candlepin.model.ConsumerType.ConsumerTypeEnum;
+import org.candlepin.model.Owner;
+import org.candlepin.model.Pool;
+import org.candlepin.test.TestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+
+
+/**
+ * Test suite for the AutobindCache class
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AutobindCacheTest {
+
+    @Mock private ConsumerCurator consumerCurator;
+    @Mock private Configuration config;
+
+    private Owner owner;
+    private String[] productIds;
+    private Map<String, Integer> decision;
+
+    @Before
+    public void setUp() {
+        when(config.getBoolean(eq(ConfigProperties.AUTOBIND_CACHE_ENABLED), anyBoolean())).thenReturn(true);
+        when(config.getInt(eq(ConfigProperties.AUTOBIND_CACHE_MAX_SIZE), anyInt())).thenReturn(2);
+        when(config.getLong(eq(ConfigProperties.AUTOBIND_CACHE_MAX_AGE), anyLong())).thenReturn(60L);
+
+        this.owner = TestUtil.createOwner("owner_key");
+        this.owner.setId("owner_id");
+        this.productIds = new String[] { "product_a", "product_b" };
+        this.decision = Collections.singletonMap("pool_id", 2);
+    }
+
+    private Consumer createConsumer(String sockets) {
+        Consumer consumer = TestUtil.createConsumer(new ConsumerType(ConsumerTypeEnum.SYSTEM), this.owner);
+        consumer.setFact("cpu.cpu_socket(s)", sockets);
+        consumer.setFact("uname.machine", "x86_64");
+
+        return consumer;
+    }
+
+    @Test
+    public void testIdenticalConsumersShareDecisions() {
+        AutobindCache cache = new AutobindCache(consumerCurator, config);
+
+        AutobindCache.Key key1 = cache.buildKey(this.createConsumer("4"), this.productIds, null, null);
+        AutobindCache.Key key2 = cache.buildKey(this.createConsumer("4"),
+            new String[] { "product_b", "product_a" }, new Date(), null);
+
+        assertNotNull(key1);
+        assertEquals(key1, key2);
+        assertNull(cache.get(key1));
+
+        cache.put(key1, this.decision, 25);
+        assertEquals(this.decision, cache.get(key2));
+
+        Map<String, Object> stats = cache.getStatistics();
+        assertEquals(1L, stats.get("hits"));
+        assertEquals(1L, stats.get("misses"));
+        assertEquals(25L, stats.get("estimatedTimeSavedMillis"));
+    }
+
+    @Test
+    public void testRulesInputsDistinguishDecisions() {
+        AutobindCache cache = new AutobindCache(consumerCurator, config);
+        AutobindCache.Key key = cache.buildKey(this.createConsumer("4"), this.productIds, null, null);
+
+        assertNotEquals(key, cache.buildKey(this.createConsumer("8"), this.productIds, null, null));
+        assertNotEquals(key, cache.buildKey(this.createConsumer("4"), new String[] { "product_a" },
+            null, null));
+        assertNotEquals(key, cache.buildKey(this.createConsumer("4"), this.productIds, null,
+            Arrays.asList("pool_id")));
+
+        Consumer consumer = this.createConsumer("4");
+        consumer.setServiceLevel("Premium");
+        assertNotEquals(key, cache.buildKey(consumer, this.productIds, null, null));
+    }
+
+    @Test
+    public void testUncacheableRequests() {
+        AutobindCache cache = new AutobindCache(consumerCurator, config);
+
+        Consumer entitled = this.createConsumer("4");
+        entitled.setEntitlementCount(1);
+        assertNull(cache.buildKey(entitled, this.productIds, null, null));
+
+        Consumer distributor = TestUtil.createConsumer(new ConsumerType(ConsumerTypeEnum.CANDLEPIN),
+            this.owner);
+        assertNull(cache.buildKey(distributor, this.productIds, null, null));
+
+        assertNull(cache.buildKey(this.createConsumer("4"), new String[0], null, null));
+        assertNull(cache.buildKey(this.createConsumer("4"), this.productIds,
+            TestUtil.createDate(2030, 1, 1), null));
+
+        when(config.getBoolean(eq(ConfigProperties.AUTOBIND_CACHE_ENABLED), anyBoolean())).thenReturn(false);
+        AutobindCache disabled = new AutobindCache(consumerCurator, config);
+        assertNull(disabled.buildKey(this.createConsumer("4"), this.productIds, null, null));
+    }
+
+    @Test
+    public void testPoolChangesInvalidateOwnerDecisions() {
+        AutobindCache cache = new AutobindCache(consumerCurator, config);
+        AutobindCache.Key key = cache.buildKey(this.createConsumer("4"), this.productIds, null, null);
+        cache.put(key, this.decision, 10);
+
+        Owner other = TestUtil.createOwner("other_key");
+        other.setId("other_id");
+        cache.poolsChanged(Arrays.asList(TestUtil.createPool(other, TestUtil.createProduct())));
+
+        Pool pool = TestUtil.createPool(this.owner, TestUtil.createProduct());
+        cache.poolsChanged(Arrays.asList(pool));
+
+        // The versions are only incremented once the changes have been committed
+        assertEquals(key, cache.buildKey(this.createConsumer("4"), this.productIds, null, null));
+
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(consumerCurator, times(2)).afterCommit(captor.capture());
+
+        captor.getAllValues().get(0).run();
+        assertEquals(key, cache.buildKey(this.createConsumer("4"), this.productIds, null, null));
+
+        captor.getAllValues().get(1).run();
+        AutobindCache.Key updated = cache.buildKey(this.createConsumer("4"), this.productIds, null, null);
+        assertNotEquals(key, updated);
+        assertNull(cache.get(updated));
+    }
+
+    @Test
+    public void testRejectedDecisionsAreEvicted() {
+        AutobindCache cache = new AutobindCache(consumerCurator, config);
+        AutobindCache.Key key = cache.buildKey(this.createConsumer("4"), this.productIds, null, null);
+        cache.put(key, this.decision, 10);
+
+        cache.reject(key);
+
+        assertNull(cache.get(key));
+        assertEquals(1L, cache.getStatistics().get("rejections"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDecisionsAreEvicted() {
+        AutobindCache cache = new AutobindCache(consumerCurator, config);
+        AutobindCache.Key key1 = cache.buildKey(this.createConsumer("1"), this.productIds, null, null);
+        AutobindCache.Key key2 = cache.buildKey(this.createConsumer("2"), this.productIds, null, null);
+        AutobindCache.Key key3 = cache.buildKey(this.createConsumer("3"), this.productIds, null, null);
+
+        cache.put(key1, this.decision, 10);
+        cache.put(key2, this.decision, 10);
+        assertNotNull(cache.get(key1));
+        cache.put(key3, this.decision, 10);
+
+        assertNotNull(cache.get(key1));
+        assertNull(cache.get(key2));
+        assertNotNull(cache.get(key3));
+        assertEquals(1L, cache.getStatistics().get("evictions"));
+    }
+}
@@ -26,6 +26,7 @@ import org.candlepin.dto.api.v1.ContentDTO;
 import org.candlepin.model.Content;
 import org.candlepin.model.Owner;
 import org.candlepin.model.Product;
+import org.candlepin.policy.js.compliance.ComplianceStatusCache;
 import org.candlepin.test.DatabaseTestFixture;
 import org.candlepin.test.TestUtil;
 
@@ -53,7 +54,8 @@ public class ContentManagerTest extends DatabaseTestFixture {
 
         this.productManager = new ProductManager(
             this.mockEntCertGenerator, this.ownerContentCurator, this.ownerProductCurator,
-            this.productCurator, this.modelTranslator);
+            this.productCurator, this.modelTranslator,
+            new ProvidedProductCache(this.poolCurator, this.config), mock(ComplianceStatusCache.class));
 
         this.contentManager = new ContentManager(
             this.contentCurator, this.mockEntCertGenerator, this.ownerContentCurator,
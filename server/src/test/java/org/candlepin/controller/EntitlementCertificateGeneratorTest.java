@@ -18,6 +18,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
@@ -82,10 +83,12 @@ public class EntitlementCertificateGeneratorTest {
     @Mock private EventSink mockEventSink;
     @Mock private EventFactory mockEventFactory;
     @Mock private ProductCurator mockProductCurator;
+    @Mock private EntitlementCertificateRegenerator mockRegenerator;
 
     @Captor private ArgumentCaptor<Map<String, Entitlement>> entMapCaptor;
     @Captor private ArgumentCaptor<Map<String, Product>> productMapCaptor;
     @Captor private ArgumentCaptor<Map<String, PoolQuantity>> poolQuantityMapCaptor;
+    @Captor private ArgumentCaptor<Collection<String>> entitlementIdsCaptor;
 
     private EntitlementCertificateGenerator ecGenerator;
 
@@ -93,7 +96,8 @@ public class EntitlementCertificateGeneratorTest {
     public void init() throws Exception {
         this.ecGenerator = new EntitlementCertificateGenerator(
             this.mockEntCertCurator, this.mockEntCertAdapter, this.mockEntitlementCurator,
-            this.mockPoolCurator, this.mockEventSink, this.mockEventFactory, this.mockProductCurator
+            this.mockPoolCurator, this.mockEventSink, this.mockEventFactory, this.mockProductCurator,
+            this.mockRegenerator
         );
     }
 
@@ -101,7 +105,7 @@ public class EntitlementCertificateGeneratorTest {
     public void testGenerateEntitlementCertificate() throws GeneralSecurityException, IOException {
         this.ecGenerator = new EntitlementCertificateGenerator(this.mockEntCertCurator,
                 this.mockEntCertAdapter, this.mockEntitlementCurator, this.mockPoolCurator,
-                this.mockEventSink, this.mockEventFactory, this.mockProductCurator);
+                this.mockEventSink, this.mockEventFactory, this.mockProductCurator, this.mockRegenerator);
         Consumer consumer = mock(Consumer.class);
         Pool pool = mock(Pool.class);
         Product product = mock(Product.class);
@@ -124,7 +128,7 @@ public class EntitlementCertificateGeneratorTest {
     public void testGenerateEntitlementCertificates() throws GeneralSecurityException, IOException {
         this.ecGenerator = new EntitlementCertificateGenerator(this.mockEntCertCurator,
             this.mockEntCertAdapter, this.mockEntitlementCurator, this.mockPoolCurator,
-            this.mockEventSink, this.mockEventFactory, this.mockProductCurator);
+            this.mockEventSink, this.mockEventFactory, this.mockProductCurator, this.mockRegenerator);
         Consumer consumer = mock(Consumer.class);
         Product product = mock(Product.class);
         Entitlement entitlement = mock(Entitlement.class);
@@ -317,6 +321,44 @@ public class EntitlementCertificateGeneratorTest {
         verify(this.mockEventSink, times(1)).queueEvent(any(Event.class));
     }
 
+    @Test
+    public void testBatchedRegenerationForProductById() throws Exception {
+        Owner owner = TestUtil.createOwner("test-owner", "Test Owner");
+        Product product = TestUtil.createProduct();
+        Pool pool = TestUtil.createPool(owner, product);
+        pool.setId("pool-id");
+        Collection<String> entitlementIds = Arrays.asList("ent1", "ent2");
+
+        when(this.mockRegenerator.isEnabled()).thenReturn(true);
+        when(this.mockPoolCurator.listAvailableEntitlementPools(any(Consumer.class), eq(owner),
+            eq(product.getId()), any(Date.class))).thenReturn(Arrays.asList(pool));
+        when(this.mockPoolCurator.getEntitlementIdsForPools(anyCollectionOf(String.class)))
+            .thenReturn(entitlementIds);
+
+        this.ecGenerator.regenerateCertificatesOf(owner, product.getId(), false);
+
+        verify(this.mockPoolCurator).getEntitlementIdsForPools(eq(Arrays.asList("pool-id")));
+        verify(this.mockRegenerator).regenerate(eq(entitlementIds));
+        verifyZeroInteractions(this.mockEntCertAdapter);
+    }
+
+    @Test
+    public void testBatchedRegenerationForEnvironmentContent() {
+        Environment environment = new Environment();
+        List<Entitlement> entitlements = this.generateEntitlements();
+        CandlepinQuery cqmock = mock(CandlepinQuery.class);
+        when(cqmock.iterator()).thenReturn(entitlements.iterator());
+        when(this.mockEntitlementCurator.listByEnvironment(environment)).thenReturn(cqmock);
+        when(this.mockRegenerator.isEnabled()).thenReturn(true);
+
+        this.ecGenerator.regenerateCertificatesOf(environment, Arrays.asList("c1", "c2", "c4"), false);
+
+        verify(this.mockRegenerator).regenerate(this.entitlementIdsCaptor.capture());
+        assertEquals(new HashSet<>(Arrays.asList("ent1", "ent2")),
+            new HashSet<>(this.entitlementIdsCaptor.getValue()));
+        verifyZeroInteractions(this.mockEntCertAdapter);
+    }
+
     @Test
     public void testLazyRegenerateForConsumer() {
         Entitlement entitlement = new Entitlement();
@@ -0,0 +1,346 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.candlepin.audit.Event;
+import org.candlepin.audit.EventFactory;
+import org.candlepin.audit.EventSink;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.model.Consumer;
+import org.candlepin.model.Entitlement;
+import org.candlepin.model.EntitlementCertificate;
+import org.candlepin.model.Owner;
+import org.candlepin.model.Pool;
+import org.candlepin.model.Product;
+import org.candlepin.service.impl.stub.StubEntitlementCertServiceAdapter;
+import org.candlepin.test.DatabaseTestFixture;
+import org.candlepin.test.TestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+
+
+/**
+ * EntitlementCertificateRegeneratorTest
+ */
+public class EntitlementCertificateRegeneratorTest extends DatabaseTestFixture {
+
+    private TestAdapter adapter;
+    private EventSink eventSink;
+    private EntitlementCertificateRegenerator regenerator;
+
+    private List<String> entitlementIds;
+    private Map<String, String> oldCerts;
+
+    @Before
+    public void setUp() {
+        config.setProperty(ConfigProperties.CERT_REGENERATION_ENABLED, "true");
+        config.setProperty(ConfigProperties.CERT_REGENERATION_THREADS, "2");
+        config.setProperty(ConfigProperties.CERT_REGENERATION_BATCH_SIZE, "2");
+
+        this.adapter = new TestAdapter();
+        this.eventSink = mock(EventSink.class);
+        this.regenerator = new EntitlementCertificateRegenerator(config, entitlementCurator,
+            entitlementCertificateCurator, certSerialCurator, adapter, eventSink, mock(EventFactory.class));
+
+        Owner owner = this.createOwner();
+        Product product = this.createProduct(owner);
+        Pool pool = this.createPool(owner, product);
+        Consumer consumer = this.createConsumer(owner);
+
+        this.entitlementIds = new ArrayList<>();
+        this.oldCerts = new HashMap<>();
+        for (int i = 0; i < 3; ++i) {
+            Entitlement entitlement = this.createEntitlement(owner, consumer, pool,
+                this.createEntitlementCertificate("key" + i, "cert" + i));
+
+            this.entitlementIds.add(entitlement.getId());
+            this.oldCerts.put(entitlement.getId(), "cert" + i);
+        }
+
+        Collections.sort(this.entitlementIds);
+    }
+
+    private Entitlement getEntitlement(int index) {
+        return this.entitlementCurator.find(this.entitlementIds.get(index));
+    }
+
+    private Date daysAgo(int days) {
+        return new Date(System.currentTimeMillis() - days * 24L * 60 * 60 * 1000);
+    }
+
+    private String getCert(int index) {
+        Set<EntitlementCertificate> certs = this.getEntitlement(index).getCertificates();
+        assertEquals(1, certs.size());
+
+        return certs.iterator().next().getCert();
+    }
+
+    @Test
+    public void regeneratesCertificatesAndSerialsInBatches() {
+        assertEquals(3, this.regenerator.regenerate(this.entitlementIds));
+
+        for (int i = 0; i < this.entitlementIds.size(); ++i) {
+            Entitlement entitlement = this.getEntitlement(i);
+            EntitlementCertificate cert = entitlement.getCertificates().iterator().next();
+
+            assertTrue(this.getCert(i).startsWith("---- STUB CERT"));
+            assertFalse(entitlement.isDirty());
+            assertNotNull(this.certSerialCurator.find(cert.getSerial().getId()));
+        }
+
+        assertTrue(this.entitlementCurator.filterDirtyEntitlementIds(this.entitlementIds).isEmpty());
+        assertEquals(2, this.adapter.calls);
+        verify(this.eventSink, times(3)).queueEvent(any(Event.class));
+
+        Map<String, Object> stats = this.regenerator.getStatistics();
+        assertEquals(1L, stats.get("runs"));
+        assertEquals(2L, stats.get("batches"));
+        assertEquals(3L, stats.get("regenerated"));
+        assertEquals(0L, stats.get("failed"));
+        assertEquals(0L, stats.get("skipped"));
+    }
+
+    @Test
+    public void releasesRegeneratedBatchesFromSession() {
+        Entitlement entitlement = this.getEntitlement(0);
+        assertEquals(3, this.regenerator.regenerate(this.entitlementIds));
+
+        // The batch was flushed before being evicted, so reloading it finds the new certificate
+        assertFalse(this.entitlementCurator.getEntityManager().contains(entitlement));
+        assertTrue(this.getCert(0).startsWith("---- STUB CERT"));
+    }
+
+    @Test
+    public void leavesUnfinishedEntitlementsDirtyWhenInterrupted() {
+        this.adapter.failOnCall = 2;
+
+        try {
+            this.regenerator.regenerate(this.entitlementIds);
+            fail("Expected the regeneration to fail");
+        }
+        catch (RuntimeException e) {
+            // expected
+        }
+
+        assertEquals(this.entitlementIds.subList(2, 3),
+            this.entitlementCurator.filterDirtyEntitlementIds(this.entitlementIds));
+        assertEquals(this.oldCerts.get(this.entitlementIds.get(2)), this.getCert(2));
+    }
+
+    @Test
+    public void resumeRegeneratesOnlyEntitlementsLeftDirty() {
+        this.adapter.failOnCall = 2;
+
+        try {
+            this.regenerator.regenerate(this.entitlementIds);
+            fail("Expected the regeneration to fail");
+        }
+        catch (RuntimeException e) {
+            // expected
+        }
+
+        String first = this.getCert(0);
+        String second = this.getCert(1);
+        this.adapter.failOnCall = 0;
+
+        assertEquals(1, this.regenerator.resume());
+
+        assertEquals(first, this.getCert(0));
+        assertEquals(second, this.getCert(1));
+        assertTrue(this.getCert(2).startsWith("---- STUB CERT"));
+        assertTrue(this.entitlementCurator.filterDirtyEntitlementIds(this.entitlementIds).isEmpty());
+    }
+
+    @Test
+    public void keepsCertificatesOfEntitlementsWhichCannotBeRegenerated() {
+        String oversized = this.entitlementIds.get(1);
+        this.adapter.oversized.add(oversized);
+
+        assertEquals(2, this.regenerator.regenerate(this.entitlementIds));
+
+        assertEquals(this.oldCerts.get(oversized), this.getCert(1));
+        assertEquals(Arrays.asList(oversized),
+            this.entitlementCurator.filterDirtyEntitlementIds(this.entitlementIds));
+        assertEquals(1L, this.regenerator.getStatistics().get("failed"));
+    }
+
+    @Test
+    public void skipsMissingEntitlements() {
+        List<String> ids = new ArrayList<>(this.entitlementIds);
+        ids.add("missing-entitlement");
+
+        assertEquals(3, this.regenerator.regenerate(ids));
+        assertEquals(1L, this.regenerator.getStatistics().get("skipped"));
+    }
+
+    @Test
+    public void drainRegeneratesSoonestExpectedCheckinFirst() {
+        Owner owner = this.createOwner();
+        Pool pool = this.createPool(owner, this.createProduct(owner));
+
+        // Listed by expected check-in: the consumer which checked in longest ago, then the more
+        // recent one, then the one which has never checked in
+        Date[] checkins = new Date[] {
+            null, this.daysAgo(1), this.daysAgo(3)
+        };
+        List<String> ids = new ArrayList<>();
+
+        for (int i = 0; i < checkins.length; ++i) {
+            Consumer consumer = this.createConsumer(owner);
+            if (checkins[i] != null) {
+                this.consumerCurator.updateLastCheckin(consumer, checkins[i]);
+            }
+
+            ids.add(this.createEntitlement(owner, consumer, pool,
+                this.createEntitlementCertificate("drain" + i, "drain" + i)).getId());
+        }
+
+        this.entitlementCurator.markEntitlementsDirty(ids);
+        this.entitlementCurator.clear();
+
+        assertEquals(Arrays.asList(ids.get(2), ids.get(1), ids.get(0)),
+            this.entitlementCurator.listDirtyEntitlementIdsByCheckin(null, 10));
+
+        assertEquals(2, this.regenerator.drain(2, 1.0));
+        assertEquals(Arrays.asList(ids.get(0)), this.entitlementCurator.filterDirtyEntitlementIds(ids));
+
+        Map<String, Object> stats = this.regenerator.getStatistics();
+        assertEquals(2L, stats.get("drained"));
+        assertEquals(1L, stats.get("batches"));
+
+        assertEquals(1, this.regenerator.drain(10, 1.0));
+        assertTrue(this.entitlementCurator.filterDirtyEntitlementIds(ids).isEmpty());
+        assertEquals(0, this.regenerator.drain(10, 1.0));
+    }
+
+    @Test
+    public void drainSkipsConsumersNoLongerCheckingIn() {
+        Owner owner = this.createOwner();
+        Pool pool = this.createPool(owner, this.createProduct(owner));
+
+        Consumer live = this.createConsumer(owner);
+        this.consumerCurator.updateLastCheckin(live, this.daysAgo(1));
+        Consumer stale = this.createConsumer(owner);
+        this.consumerCurator.updateLastCheckin(stale, TestUtil.createDate(2017, 1, 1));
+
+        String liveId = this.createEntitlement(owner, live, pool,
+            this.createEntitlementCertificate("live", "live")).getId();
+        String staleId = this.createEntitlement(owner, stale, pool,
+            this.createEntitlementCertificate("stale", "stale")).getId();
+        List<String> ids = Arrays.asList(liveId, staleId);
+
+        this.entitlementCurator.markEntitlementsDirty(ids);
+        this.entitlementCurator.clear();
+
+        assertEquals(Arrays.asList(liveId),
+            this.entitlementCurator.listDirtyEntitlementIdsByCheckin(this.daysAgo(7), 10));
+
+        // Only the entitlements of the consumers set up by this test are dirty
+        this.entitlementCurator.markEntitlementsClean(this.entitlementIds);
+
+        assertEquals(1, this.regenerator.drain(10, 1.0));
+        assertEquals(Arrays.asList(staleId), this.entitlementCurator.filterDirtyEntitlementIds(ids));
+    }
+
+    @Test
+    public void drainRetriesFailedEntitlementsAfterOthers() {
+        String oversized = this.entitlementIds.get(0);
+        this.adapter.oversized.add(oversized);
+        this.entitlementCurator.markEntitlementsDirty(this.entitlementIds);
+
+        // Listed first, but too large for a certificate
+        assertEquals(0, this.regenerator.drain(1, 1.0));
+        assertEquals(1, this.regenerator.getStatistics().get("drain_failures"));
+
+        assertEquals(1, this.regenerator.drain(1, 1.0));
+        assertEquals(1, this.regenerator.drain(1, 1.0));
+        assertEquals(Arrays.asList(oversized),
+            this.entitlementCurator.filterDirtyEntitlementIds(this.entitlementIds));
+
+        // Retried once nothing else is waiting
+        assertEquals(0, this.regenerator.drain(1, 1.0));
+
+        this.adapter.oversized.clear();
+        assertEquals(1, this.regenerator.drain(1, 1.0));
+        assertTrue(this.entitlementCurator.filterDirtyEntitlementIds(this.entitlementIds).isEmpty());
+        assertEquals(0, this.regenerator.getStatistics().get("drain_failures"));
+    }
+
+    @Test
+    public void drainDoesNothingWithoutCpuBudget() {
+        this.entitlementCurator.markEntitlementsDirty(this.entitlementIds);
+
+        assertEquals(0, this.regenerator.drain(10, 0.0));
+        assertEquals(0, this.adapter.calls);
+        assertEquals(this.entitlementIds,
+            this.entitlementCurator.filterDirtyEntitlementIds(this.entitlementIds));
+    }
+
+    /**
+     * A stub adapter which can fail on a given call, as if interrupted, and leaves out the
+     * certificates of entitlements too large for a certificate.
+     */
+    private class TestAdapter extends StubEntitlementCertServiceAdapter {
+        private int calls;
+        private int failOnCall;
+        private Set<String> oversized = new HashSet<>();
+
+        public TestAdapter() {
+            super(entitlementCertificateCurator, certSerialCurator);
+        }
+
+        @Override
+        public Map<String, EntitlementCertificate> generateEntitlementCerts(
+            Collection<Entitlement> entitlements, ExecutorService executor)
+            throws GeneralSecurityException, IOException {
+
+            if (++this.calls == this.failOnCall) {
+                throw new IOException("Regeneration interrupted");
+            }
+
+            Map<String, EntitlementCertificate> certs = super.generateEntitlementCerts(entitlements,
+                executor);
+            certs.keySet().removeAll(this.oversized);
+
+            return certs;
+        }
+    }
+}
@@ -444,6 +444,55 @@ public class EntitlerTest {
         }
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void healConsumersSkipsRefusedConsumers() throws Exception {
+        Owner owner = TestUtil.createOwner("o");
+        final Consumer refused = TestUtil.createConsumer(owner);
+        Consumer healed = TestUtil.createConsumer(owner);
+        List<Consumer> consumers = Arrays.asList(refused, healed);
+
+        CandlepinQuery<Consumer> query = mock(CandlepinQuery.class);
+        when(query.list()).thenReturn(consumers);
+        when(cc.findByUuidsAndOwner(any(Collection.class), eq(owner))).thenReturn(query);
+        when(cc.lockAndLoad(any(Iterable.class))).thenReturn(consumers);
+
+        final Map<String, ValidationResult> fakeResult = new HashMap<>();
+        fakeResult.put("blah", fakeOutResult("rulefailed.no.entitlements.available"));
+        when(pm.entitleByProducts(any(AutobindData.class))).thenAnswer(new Answer<List<Entitlement>>() {
+            @Override
+            public List<Entitlement> answer(InvocationOnMock invocation) throws Throwable {
+                AutobindData data = (AutobindData) invocation.getArguments()[0];
+                if (data.getConsumer() == refused) {
+                    // The pool manager looks up the products to bind before refusing them
+                    data.setProductIds(new String[] { "prod1" });
+                    throw new EntitlementRefusedException(fakeResult);
+                }
+
+                return new ArrayList<>();
+            }
+        });
+
+        int count = entitler.healConsumers(owner, Arrays.asList(refused.getUuid(), healed.getUuid()),
+            new Date());
+
+        assertEquals(1, count);
+        verify(pm, times(2)).entitleByProducts(any(AutobindData.class));
+    }
+
+    @Test(expected = AutobindDisabledForOwnerException.class)
+    public void healConsumersFailsFastWhenAutobindDisabled() throws Exception {
+        Owner owner = TestUtil.createOwner("o");
+        owner.setAutobindDisabled(true);
+
+        try {
+            entitler.healConsumers(owner, Arrays.asList("uuid"), new Date());
+        }
+        finally {
+            verifyZeroInteractions(cc, pm);
+        }
+    }
+
     @Test
     public void events() {
         List<Entitlement> ents = new ArrayList<>();
@@ -0,0 +1,458 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.controller;
+
+import static org.junit.Assert.*;
+
+import org.candlepin.bind.BindContext;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.model.Consumer;
+import org.candlepin.model.ConsumerType;
+import org.candlepin.model.ConsumerType.ConsumerTypeEnum;
+import org.candlepin.model.Owner;
+import org.candlepin.model.Pool;
+import org.candlepin.model.PoolConsumptionSlotCurator;
+import org.candlepin.model.PoolQuantity;
+import org.candlepin.model.Product;
+import org.candlepin.test.DatabaseTestFixture;
+import org.candlepin.test.TestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+
+
+/**
+ * Test suite for the PoolConsumptionLedger class
+ */
+public class PoolConsumptionLedgerTest extends DatabaseTestFixture {
+
+    private PoolConsumptionSlotCurator slotCurator;
+    private PoolConsumptionLedger ledger;
+    private Owner owner;
+    private Product product;
+
+    @Before
+    public void setUp() {
+        this.config.setProperty(ConfigProperties.POOL_CONSUMPTION_STRIPES, "4");
+        this.config.setProperty(ConfigProperties.POOL_CONSUMPTION_MIN_QUANTITY, "10");
+
+        this.slotCurator = this.injector.getInstance(PoolConsumptionSlotCurator.class);
+        this.ledger = new PoolConsumptionLedger(this.poolCurator, this.slotCurator, this.config);
+
+        this.owner = this.createOwner();
+        this.product = this.createProduct(this.owner);
+    }
+
+    private Pool createPool(long quantity) {
+        return this.createPool(this.owner, this.product, quantity, TestUtil.createDate(2000, 1, 1),
+            TestUtil.createDate(2100, 1, 1));
+    }
+
+    private long getUnreservedCapacity(Pool pool) {
+        long capacity = 0;
+        for (Long available : this.slotCurator.getAvailableCapacities(pool.getId()).values()) {
+            capacity += available;
+        }
+
+        return capacity;
+    }
+
+    private long fold(Pool pool) {
+        Pool locked = this.poolCurator.lockAndLoad(pool);
+        this.ledger.fold(Collections.singletonList(locked));
+        this.poolCurator.flush();
+
+        return locked.getConsumed();
+    }
+
+    @Test
+    public void testRecordsOnlyHotPoolsOfSystemConsumers() {
+        Consumer system = TestUtil.createConsumer(new ConsumerType(ConsumerTypeEnum.SYSTEM), this.owner);
+        Consumer distributor = TestUtil.createConsumer(new ConsumerType(ConsumerTypeEnum.CANDLEPIN),
+            this.owner);
+
+        assertTrue(this.ledger.records(system, this.createPool(10)));
+        assertFalse(this.ledger.records(system, this.createPool(9)));
+        assertFalse(this.ledger.records(system, this.createPool(-1)));
+        assertFalse(this.ledger.records(distributor, this.createPool(10)));
+
+        this.config.setProperty(ConfigProperties.POOL_CONSUMPTION_STRIPES, "0");
+        PoolConsumptionLedger disabled = new PoolConsumptionLedger(this.poolCurator, this.slotCurator,
+            this.config);
+
+        assertFalse(disabled.isEnabled());
+        assertFalse(disabled.records(system, this.createPool(10)));
+    }
+
+    @Test
+    public void testReservationsSplitRemainingQuantityAcrossSlots() {
+        Pool pool = this.createPool(10);
+
+        assertNotNull(this.ledger.reserve(pool, 1));
+        assertEquals(1L, pool.getConsumed().longValue());
+
+        Map<String, Long> capacities = this.slotCurator.getAvailableCapacities(pool.getId());
+        assertEquals(4, capacities.size());
+        assertEquals(9L, this.getUnreservedCapacity(pool));
+
+        assertNotNull(this.ledger.reserve(pool, 2));
+        assertEquals(7L, this.getUnreservedCapacity(pool));
+        assertEquals(3L, this.fold(pool));
+        assertTrue(this.slotCurator.getAvailableCapacities(pool.getId()).isEmpty());
+    }
+
+    @Test
+    public void testReservationsNeverExceedPoolQuantity() {
+        Pool pool = this.createPool(10);
+
+        for (int i = 0; i < 10; ++i) {
+            assertNotNull(this.ledger.reserve(pool, 1));
+        }
+
+        assertNull(this.ledger.reserve(pool, 1));
+        assertEquals(10L, this.fold(pool));
+    }
+
+    @Test
+    public void testReservationLargerThanAnySlotIsRedistributed() {
+        Pool pool = this.createPool(20);
+
+        assertNotNull(this.ledger.reserve(pool, 1));
+        assertNotNull(this.ledger.reserve(pool, 12));
+        assertEquals(13L, pool.getConsumed().longValue());
+        assertEquals(7L, this.getUnreservedCapacity(pool));
+
+        assertNull(this.ledger.reserve(pool, 8));
+        assertNotNull(this.ledger.reserve(pool, 7));
+        assertEquals(20L, this.fold(pool));
+    }
+
+    @Test
+    public void testReleasedQuantityCanBeReservedAgain() {
+        Pool pool = this.createPool(10);
+
+        assertNotNull(this.ledger.reserve(pool, 1));
+
+        // Reservations held on a slot are released from that slot
+        PoolConsumptionLedger.Reservation onSlot = this.ledger.reserve(pool, 2);
+        assertNotNull(onSlot.getSlotId());
+        assertEquals(7L, this.getUnreservedCapacity(pool));
+
+        this.ledger.release(onSlot);
+        assertEquals(9L, this.getUnreservedCapacity(pool));
+
+        // Reservations recorded on the pool when redistributing are released from the pool
+        PoolConsumptionLedger.Reservation onPool = this.ledger.reserve(pool, 9);
+        assertNull(onPool.getSlotId());
+        assertNull(this.ledger.reserve(pool, 1));
+
+        this.ledger.release(onPool);
+        assertEquals(1L, pool.getConsumed().longValue());
+        assertNotNull(this.ledger.reserve(pool, 1));
+        assertEquals(2L, this.fold(pool));
+    }
+
+    @Test
+    public void testTotalConsumedIncludesQuantityReservedOnSlots() {
+        Pool pool = this.createPool(10);
+        assertNotNull(this.ledger.reserve(pool, 1));
+        assertNotNull(this.ledger.reserve(pool, 2));
+        assertEquals(3L, pool.getTotalConsumed().longValue());
+
+        this.poolCurator.flush();
+        this.poolCurator.clear();
+
+        // The consumed count lags until the slots are folded, but the total does not
+        Pool loaded = this.poolCurator.find(pool.getId());
+        assertEquals(1L, loaded.getConsumed().longValue());
+        assertEquals(2L, loaded.getLedgerConsumed().longValue());
+        assertEquals(3L, loaded.getTotalConsumed().longValue());
+        assertFalse(loaded.entitlementsAvailable(8));
+
+        Pool locked = this.ledger.lockAndFold(Collections.singletonList(pool.getId())).get(0);
+        assertEquals(3L, locked.getConsumed().longValue());
+        assertEquals(0L, locked.getLedgerConsumed().longValue());
+        assertEquals(3L, locked.getTotalConsumed().longValue());
+    }
+
+    @Test
+    public void testQuantityChangeInvalidatesSlots() {
+        Pool pool = this.createPool(10);
+        assertNotNull(this.ledger.reserve(pool, 1));
+
+        pool.setQuantity(5L);
+        this.poolCurator.merge(pool);
+        this.poolCurator.flush();
+
+        for (int i = 0; i < 4; ++i) {
+            assertNotNull(this.ledger.reserve(pool, 1));
+        }
+
+        assertNull(this.ledger.reserve(pool, 1));
+        assertEquals(5L, this.fold(pool));
+    }
+
+    @Test
+    public void testBindsOutsideLedgerSeeQuantityReservedOnSlots() {
+        Pool pool = this.createPool(10);
+        Consumer distributor = TestUtil.createConsumer(new ConsumerType(ConsumerTypeEnum.CANDLEPIN),
+            this.owner);
+
+        // Striped system binds leave the rest of the pool's quantity to its slots
+        assertNotNull(this.ledger.reserve(pool, 1));
+        assertNotNull(this.ledger.reserve(pool, 1));
+        assertNotNull(this.ledger.reserve(pool, 1));
+        assertEquals(1L, pool.getConsumed().longValue());
+        assertFalse(this.ledger.records(distributor, pool));
+
+        Map<String, Integer> quantities = new HashMap<>();
+        quantities.put(pool.getId(), 8);
+
+        BindContext context = new BindContext(this.poolCurator, this.consumerCurator, this.ledger,
+            this.i18n, distributor, quantities);
+        context.getPoolQuantities();
+        context.lockPools();
+
+        // The distributor bind only sees what the system binds have not taken
+        PoolQuantity locked = context.getPoolQuantities().get(pool.getId());
+        assertEquals(3L, locked.getPool().getConsumed().longValue());
+        assertTrue(locked.getPool().getQuantity() - locked.getPool().getConsumed() < 8);
+        assertTrue(this.slotCurator.getAvailableCapacities(pool.getId()).isEmpty());
+
+        // Its quantity is recorded on the pool, so later system binds cannot take it again
+        locked.getPool().setConsumed(locked.getPool().getConsumed() + 7);
+        this.poolCurator.flush();
+
+        assertNull(this.ledger.reserve(pool, 1));
+        assertEquals(10L, this.fold(pool));
+    }
+
+    @Test
+    public void testFoldAllFoldsEveryPool() {
+        Pool pool1 = this.createPool(10);
+        Pool pool2 = this.createPool(10);
+        assertNotNull(this.ledger.reserve(pool1, 1));
+        assertNotNull(this.ledger.reserve(pool1, 1));
+        assertNotNull(this.ledger.reserve(pool2, 1));
+
+        assertEquals(2, this.ledger.foldAll());
+        assertTrue(this.slotCurator.getPoolIdsWithSlots().isEmpty());
+
+        this.poolCurator.clear();
+        assertEquals(2L, this.poolCurator.find(pool1.getId()).getConsumed().longValue());
+        assertEquals(1L, this.poolCurator.find(pool2.getId()).getConsumed().longValue());
+    }
+
+    @Test
+    public void testLockAndFoldLocksPoolsInOrderOfTheirIds() {
+        Pool pool1 = this.createPool(10);
+        Pool pool2 = this.createPool(10);
+        assertNotNull(this.ledger.reserve(pool1, 1));
+        assertNotNull(this.ledger.reserve(pool1, 1));
+        assertNotNull(this.ledger.reserve(pool2, 1));
+
+        List<String> poolIds = new ArrayList<>(Arrays.asList(pool1.getId(), pool2.getId()));
+        Collections.sort(poolIds, Collections.reverseOrder());
+
+        List<Pool> locked = this.ledger.lockAndFold(poolIds);
+        Collections.reverse(poolIds);
+
+        assertEquals(poolIds, Arrays.asList(locked.get(0).getId(), locked.get(1).getId()));
+        assertTrue(this.slotCurator.getPoolIdsWithSlots().isEmpty());
+        assertEquals(2L, pool1.getConsumed().longValue());
+        assertEquals(1L, pool2.getConsumed().longValue());
+    }
+
+    @Test
+    public void testBindsOfTwoPoolsInOppositeOrderComplete() throws Exception {
+        final String poolId1 = this.createPool(40).getId();
+        final String poolId2 = this.createPool(40).getId();
+        final Consumer consumer = this.createConsumer(this.owner);
+        this.commitTransaction();
+
+        final int binds = 20;
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        try {
+            for (final List<String> order : Arrays.asList(Arrays.asList(poolId1, poolId2),
+                Arrays.asList(poolId2, poolId1))) {
+
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        EntityManager manager = getEntityManager();
+                        int bound = 0;
+
+                        try {
+                            for (int bind = 0; bind < binds; ++bind) {
+                                manager.getTransaction().begin();
+
+                                try {
+                                    // Each thread requests the pools in the opposite order
+                                    Map<String, Integer> quantities = new LinkedHashMap<>();
+                                    for (String poolId : order) {
+                                        quantities.put(poolId, 1);
+                                    }
+
+                                    BindContext context = new BindContext(poolCurator, consumerCurator,
+                                        ledger, i18n, consumer, quantities);
+                                    context.getPoolQuantities();
+                                    context.lockPools();
+
+                                    boolean result = context.reserveLedgerQuantities() == null;
+                                    manager.getTransaction().commit();
+
+                                    if (result) {
+                                        ++bound;
+                                    }
+                                }
+                                catch (PersistenceException e) {
+                                    // The test database locks whole tables and resolves the
+                                    // resulting conflicts by failing a transaction; retry it
+                                    if (manager.getTransaction().isActive()) {
+                                        manager.getTransaction().rollback();
+                                    }
+
+                                    --bind;
+                                }
+
+                                manager.clear();
+                            }
+                        }
+                        finally {
+                            if (manager.getTransaction().isActive()) {
+                                manager.getTransaction().rollback();
+                            }
+
+                            manager.close();
+                        }
+
+                        return bound;
+                    }
+                }));
+            }
+
+            // A deadlock between the binds would never complete
+            for (Future<Integer> result : results) {
+                assertEquals(binds, result.get(60, TimeUnit.SECONDS).intValue());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        this.beginTransaction();
+        this.poolCurator.clear();
+
+        assertEquals(40L, this.fold(this.poolCurator.find(poolId1)));
+        assertEquals(40L, this.fold(this.poolCurator.find(poolId2)));
+    }
+
+    @Test
+    public void testConcurrentReservationsNeverOversubscribePool() throws Exception {
+        final String poolId = this.createPool(100).getId();
+        this.commitTransaction();
+
+        final int threads = 8;
+        final int attempts = 25;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < threads; ++i) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        EntityManager manager = getEntityManager();
+                        int reserved = 0;
+
+                        try {
+                            for (int attempt = 0; attempt < attempts; ++attempt) {
+                                manager.getTransaction().begin();
+
+                                try {
+                                    boolean result = ledger.reserve(poolCurator.find(poolId), 1) != null;
+                                    manager.getTransaction().commit();
+
+                                    if (result) {
+                                        ++reserved;
+                                    }
+                                }
+                                catch (PersistenceException e) {
+                                    // The test database locks whole tables, so concurrent
+                                    // transactions may deadlock; retry the attempt as a client would
+                                    if (manager.getTransaction().isActive()) {
+                                        manager.getTransaction().rollback();
+                                    }
+
+                                    --attempt;
+                                }
+
+                                manager.clear();
+                            }
+                        }
+                        finally {
+                            if (manager.getTransaction().isActive()) {
+                                manager.getTransaction().rollback();
+                            }
+
+                            manager.close();
+                        }
+
+                        return reserved;
+                    }
+                }));
+            }
+
+            int reserved = 0;
+            for (Future<Integer> result : results) {
+                reserved += result.get(60, TimeUnit.SECONDS);
+            }
+
+            // Twice as many units were requested as the pool holds; exactly its quantity is granted
+            assertEquals(100, reserved);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        this.beginTransaction();
+        this.poolCurator.clear();
+
+        Pool pool = this.poolCurator.find(poolId);
+        assertEquals(100L, this.fold(pool));
+        assertNull(this.ledger.reserve(pool, 1));
+    }
+}
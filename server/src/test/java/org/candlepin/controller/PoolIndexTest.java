@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.controller;
+
+import static org.junit.Assert.*;
+
+import org.candlepin.common.paging.Page;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.model.Consumer;
+import org.candlepin.model.Owner;
+import org.candlepin.model.Pool;
+import org.candlepin.model.PoolFilterBuilder;
+import org.candlepin.model.Product;
+import org.candlepin.test.DatabaseTestFixture;
+import org.candlepin.test.TestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+
+/**
+ * Test suite for the PoolIndex class
+ */
+public class PoolIndexTest extends DatabaseTestFixture {
+
+    private PoolIndex poolIndex;
+    private Owner owner;
+    private Product product;
+    private Product providedProduct;
+    private Date now;
+
+    @Before
+    public void setUp() {
+        this.config.setProperty(ConfigProperties.POOL_INDEX_ENABLED, "true");
+        this.poolIndex = new PoolIndex(this.poolCurator, this.consumerCurator, this.config);
+
+        this.owner = this.createOwner();
+        this.product = this.createProduct(this.owner);
+        this.providedProduct = this.createProduct(this.owner);
+        this.now = new Date();
+    }
+
+    private Set<String> listFromIndex(Consumer consumer, Collection<String> productIds, Date activeOn,
+        PoolFilterBuilder filters) {
+
+        Page<List<Pool>> page = this.poolIndex.listAvailableEntitlementPools(consumer, this.owner,
+            productIds, null, activeOn, filters, null, false, false, false, null);
+
+        assertNotNull(page);
+        return this.getIds(page.getPageData());
+    }
+
+    private Set<String> listFromCurator(Consumer consumer, Collection<String> productIds, Date activeOn,
+        PoolFilterBuilder filters) {
+
+        Page<List<Pool>> page = this.poolCurator.listAvailableEntitlementPools(consumer, this.owner,
+            productIds, null, activeOn, filters, null, false, false, false, null);
+
+        return this.getIds(page.getPageData());
+    }
+
+    private Set<String> getIds(Collection<Pool> pools) {
+        Set<String> ids = new HashSet<>();
+        for (Pool pool : pools) {
+            ids.add(pool.getId());
+        }
+
+        return ids;
+    }
+
+    @Test
+    public void testDisabledIndexDoesNotAnswerQueries() {
+        this.config.setProperty(ConfigProperties.POOL_INDEX_ENABLED, "false");
+        PoolIndex disabled = new PoolIndex(this.poolCurator, this.consumerCurator, this.config);
+        this.createPool(this.owner, this.product);
+
+        assertFalse(disabled.isEnabled());
+        assertNull(disabled.listAvailableEntitlementPools(null, this.owner, null, null, this.now,
+            new PoolFilterBuilder(), null, false, false, false, null));
+    }
+
+    @Test
+    public void testUnsupportedFiltersAreNotAnswered() {
+        this.createPool(this.owner, this.product);
+
+        PoolFilterBuilder filters = new PoolFilterBuilder();
+        filters.addMatchesFilter("some*");
+        assertNull(this.poolIndex.listAvailableEntitlementPools(null, this.owner, null, null, this.now,
+            filters, null, false, false, false, null));
+
+        filters = new PoolFilterBuilder();
+        filters.addAttributeFilter("some_attribute", "value");
+        assertNull(this.poolIndex.listAvailableEntitlementPools(null, this.owner, null, null, this.now,
+            filters, null, false, false, false, null));
+
+        assertNull(this.poolIndex.listAvailableEntitlementPools(null, this.owner, null, "sub_id", this.now,
+            new PoolFilterBuilder(), null, false, false, false, null));
+    }
+
+    @Test
+    public void testPhysicalConsumerExcludesVirtOnlyPools() {
+        Consumer consumer = this.createConsumer(this.owner);
+
+        Pool pool = this.createPool(this.owner, this.product);
+        Pool virtPool = this.createPool(this.owner, this.product);
+        virtPool.setAttribute(Pool.Attributes.VIRT_ONLY, "TRUE");
+        this.poolCurator.merge(virtPool);
+
+        Product virtProduct = TestUtil.createProduct();
+        virtProduct.setAttribute(Product.Attributes.VIRT_ONLY, "true");
+        virtProduct = this.createProduct(virtProduct, this.owner);
+        Pool virtProductPool = this.createPool(this.owner, virtProduct);
+
+        Pool overriddenPool = this.createPool(this.owner, virtProduct);
+        overriddenPool.setAttribute(Pool.Attributes.VIRT_ONLY, "false");
+        this.poolCurator.merge(overriddenPool);
+        this.poolCurator.flush();
+
+        Set<String> expected = this.listFromCurator(consumer, null, this.now, new PoolFilterBuilder());
+        Set<String> actual = this.listFromIndex(consumer, null, this.now, new PoolFilterBuilder());
+
+        assertEquals(expected, actual);
+        assertEquals(new HashSet<>(Arrays.asList(pool.getId(), overriddenPool.getId())), actual);
+        assertFalse(actual.contains(virtPool.getId()));
+        assertFalse(actual.contains(virtProductPool.getId()));
+    }
+
+    @Test
+    public void testGuestConsumerExcludesPoolsForOtherHosts() {
+        Consumer guest = this.createConsumer(this.owner);
+        guest.setFact("virt.is_guest", "true");
+        guest.setFact("virt.uuid", "guest_uuid");
+        this.consumerCurator.merge(guest);
+
+        Pool pool = this.createPool(this.owner, this.product);
+        Pool hostPool = this.createPool(this.owner, this.product);
+        hostPool.setAttribute(Pool.Attributes.REQUIRES_HOST, "some_other_host");
+        this.poolCurator.merge(hostPool);
+        this.poolCurator.flush();
+
+        Set<String> expected = this.listFromCurator(guest, null, this.now, new PoolFilterBuilder());
+        Set<String> actual = this.listFromIndex(guest, null, this.now, new PoolFilterBuilder());
+
+        assertEquals(expected, actual);
+        assertEquals(Collections.singleton(pool.getId()), actual);
+    }
+
+    @Test
+    public void testFiltersByProvidedProductAndDate() {
+        Pool providing = this.createPool(this.owner, this.product, Arrays.asList(this.providedProduct), 10L,
+            TestUtil.createDate(2000, 1, 1), TestUtil.createDate(2100, 1, 1));
+        Pool expired = this.createPool(this.owner, this.product, Arrays.asList(this.providedProduct), 10L,
+            TestUtil.createDate(2000, 1, 1), TestUtil.createDate(2001, 1, 1));
+        this.createPool(this.owner, this.createProduct(this.owner));
+
+        List<String> productIds = Arrays.asList(this.providedProduct.getId());
+        Set<String> expected = this.listFromCurator(null, productIds, this.now, new PoolFilterBuilder());
+        Set<String> actual = this.listFromIndex(null, productIds, this.now, new PoolFilterBuilder());
+
+        assertEquals(expected, actual);
+        assertEquals(Collections.singleton(providing.getId()), actual);
+        assertFalse(actual.contains(expired.getId()));
+    }
+
+    @Test
+    public void testExcludesDevelopmentPools() {
+        Pool pool = this.createPool(this.owner, this.product);
+        Pool devPool = this.createPool(this.owner, this.product);
+        devPool.setAttribute(Pool.Attributes.DEVELOPMENT_POOL, "true");
+        this.poolCurator.merge(devPool);
+        this.poolCurator.flush();
+
+        PoolFilterBuilder filters = new PoolFilterBuilder();
+        filters.addAttributeFilter(Pool.Attributes.DEVELOPMENT_POOL, "!true");
+
+        Set<String> expected = this.listFromCurator(null, null, this.now, filters);
+        Set<String> actual = this.listFromIndex(null, null, this.now, filters);
+
+        assertEquals(expected, actual);
+        assertEquals(Collections.singleton(pool.getId()), actual);
+    }
+
+    @Test
+    public void testIndexTracksPoolUpdatesAndDeletions() {
+        Pool pool = this.createPool(this.owner, this.product);
+        assertEquals(Collections.singleton(pool.getId()),
+            this.listFromIndex(null, null, this.now, new PoolFilterBuilder()));
+
+        // Pools created after the index was built are only visible once pushed to the index, and
+        // the transaction which created them has been committed
+        Pool created = this.createPool(this.owner, this.product);
+        this.poolIndex.updatePools(Arrays.asList(created));
+        assertEquals(Collections.singleton(pool.getId()),
+            this.listFromIndex(null, null, this.now, new PoolFilterBuilder()));
+
+        this.commitTransaction();
+        this.beginTransaction();
+        assertEquals(new HashSet<>(Arrays.asList(pool.getId(), created.getId())),
+            this.listFromIndex(null, null, this.now, new PoolFilterBuilder()));
+
+        created.setEndDate(TestUtil.createDate(2001, 1, 1));
+        this.poolCurator.merge(created);
+        this.poolIndex.updatePools(Arrays.asList(created));
+        this.commitTransaction();
+        this.beginTransaction();
+        assertEquals(Collections.singleton(pool.getId()),
+            this.listFromIndex(null, null, this.now, new PoolFilterBuilder()));
+
+        this.poolIndex.removePools(Arrays.asList(pool));
+        this.commitTransaction();
+        this.beginTransaction();
+        assertEquals(Collections.<String>emptySet(),
+            this.listFromIndex(null, null, this.now, new PoolFilterBuilder()));
+
+        this.poolIndex.invalidate(this.owner);
+        assertEquals(Collections.singleton(pool.getId()),
+            this.listFromIndex(null, null, this.now, new PoolFilterBuilder()));
+    }
+
+    @Test
+    public void testRolledBackChangesAreNotApplied() {
+        Pool pool = this.createPool(this.owner, this.product);
+        this.commitTransaction();
+        this.beginTransaction();
+
+        assertEquals(Collections.singleton(pool.getId()),
+            this.listFromIndex(null, null, this.now, new PoolFilterBuilder()));
+
+        this.poolIndex.removePools(Arrays.asList(pool));
+        this.rollbackTransaction();
+        this.beginTransaction();
+
+        assertEquals(Collections.singleton(pool.getId()),
+            this.listFromIndex(null, null, this.now, new PoolFilterBuilder()));
+    }
+
+    @Test
+    public void testIndexIsBuiltFromPoolProperties() {
+        Product virtProduct = TestUtil.createProduct();
+        virtProduct.setAttribute(Product.Attributes.VIRT_ONLY, "true");
+        virtProduct = this.createProduct(virtProduct, this.owner);
+
+        this.createPool(this.owner, this.product, Arrays.asList(this.providedProduct), 10L,
+            TestUtil.createDate(2000, 1, 1), TestUtil.createDate(2100, 1, 1));
+        this.createPool(this.owner, virtProduct, Arrays.asList(this.providedProduct), 10L,
+            TestUtil.createDate(2000, 1, 1), TestUtil.createDate(2100, 1, 1));
+
+        Pool hostPool = this.createPool(this.owner, this.product);
+        hostPool.setAttribute(Pool.Attributes.REQUIRES_HOST, "some_host");
+        this.poolCurator.merge(hostPool);
+
+        Consumer consumer = this.createConsumer(this.owner);
+        this.poolCurator.flush();
+
+        // Built from a fresh session, so none of the pools are loaded as entities beforehand
+        this.poolCurator.clear();
+        List<String> productIds = Arrays.asList(this.providedProduct.getId());
+
+        assertEquals(this.listFromCurator(consumer, productIds, this.now, new PoolFilterBuilder()),
+            this.listFromIndex(consumer, productIds, this.now, new PoolFilterBuilder()));
+        assertEquals(this.listFromCurator(null, null, this.now, new PoolFilterBuilder()),
+            this.listFromIndex(null, null, this.now, new PoolFilterBuilder()));
+    }
+}
@@ -22,6 +22,7 @@ import static org.mockito.Mockito.*;
 
 import org.candlepin.audit.Event;
 import org.candlepin.audit.EventSink;
+import org.candlepin.bind.BulkBindResults;
 import org.candlepin.common.paging.Page;
 import org.candlepin.common.paging.PageRequest;
 import org.candlepin.model.Branding;
@@ -61,6 +62,7 @@ import org.mockito.Mockito;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -914,5 +916,64 @@ public class PoolManagerFunctionalTest extends DatabaseTestFixture {
         assertTrue("Entitlement cert serial should have been marked as revoked once deleted!",
             revoked.isRevoked());
     }
-}
 
+    @Test
+    public void testBulkBindConsumesPoolForEachConsumer() throws Exception {
+        Pool monitoringPool = poolCurator.listByOwnerAndProduct(o, monitoring.getId()).get(0);
+
+        Map<Consumer, Map<String, Integer>> consumerPoolQuantities = new HashMap<>();
+        consumerPoolQuantities.put(parentSystem, Collections.singletonMap(monitoringPool.getId(), 2));
+        consumerPoolQuantities.put(childVirtSystem, Collections.singletonMap(monitoringPool.getId(), 3));
+
+        BulkBindResults results = poolManager.entitleByPools(consumerPoolQuantities);
+
+        assertTrue(results.getRefusals().isEmpty());
+        assertEquals(2, results.getEntitlements().size());
+        assertEquals(1, results.getEntitlements().get(parentSystem.getUuid()).size());
+        assertEquals(1, results.getEntitlements().get(childVirtSystem.getUuid()).size());
+        assertEquals(2, results.getAllEntitlements().size());
+
+        poolCurator.refresh(monitoringPool);
+        assertEquals(Long.valueOf(5), monitoringPool.getConsumed());
+        assertEquals(1, entitlementCurator.listByConsumer(parentSystem).size());
+        assertEquals(1, entitlementCurator.listByConsumer(childVirtSystem).size());
+    }
+
+    @Test
+    public void testBulkBindRefusesConsumersExceedingRemainingQuantity() throws Exception {
+        Pool monitoringPool = poolCurator.listByOwnerAndProduct(o, monitoring.getId()).get(0);
+        Consumer thirdSystem = consumerCurator.create(new Consumer("third system", "user", o, systemType));
+
+        Map<Consumer, Map<String, Integer>> consumerPoolQuantities = new HashMap<>();
+        consumerPoolQuantities.put(parentSystem, Collections.singletonMap(monitoringPool.getId(), 3));
+        consumerPoolQuantities.put(childVirtSystem, Collections.singletonMap(monitoringPool.getId(), 3));
+        consumerPoolQuantities.put(thirdSystem, Collections.singletonMap(monitoringPool.getId(), 2));
+
+        BulkBindResults results = poolManager.entitleByPools(consumerPoolQuantities);
+
+        // Whichever of the first two consumers is bound second no longer fits in the pool, but the
+        // refusal does not prevent the remaining consumer from being bound
+        assertEquals(2, results.getEntitlements().size());
+        assertEquals(1, results.getRefusals().size());
+        assertTrue(results.getEntitlements().containsKey(thirdSystem.getUuid()));
+        assertFalse(results.getRefusals().containsKey(thirdSystem.getUuid()));
+
+        String refused = results.getRefusals().keySet().iterator().next();
+        assertFalse(results.getEntitlements().containsKey(refused));
+        assertFalse(results.getRefusals().get(refused).getResults().isEmpty());
+
+        poolCurator.refresh(monitoringPool);
+        assertEquals(Long.valueOf(5), monitoringPool.getConsumed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBulkBindWithUnknownPool() throws Exception {
+        Pool monitoringPool = poolCurator.listByOwnerAndProduct(o, monitoring.getId()).get(0);
+
+        Map<Consumer, Map<String, Integer>> consumerPoolQuantities = new HashMap<>();
+        consumerPoolQuantities.put(parentSystem, Collections.singletonMap(monitoringPool.getId(), 1));
+        consumerPoolQuantities.put(childVirtSystem, Collections.singletonMap("unknown-pool", 1));
+
+        poolManager.entitleByPools(consumerPoolQuantities);
+    }
+}
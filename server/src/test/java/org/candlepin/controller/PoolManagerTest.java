@@ -46,6 +46,8 @@ import org.candlepin.model.CandlepinQuery;
 import org.candlepin.model.Consumer;
 import org.candlepin.model.ConsumerCurator;
 import org.candlepin.model.ConsumerInstalledProduct;
+import org.candlepin.model.ConsumerType;
+import org.candlepin.model.ConsumerType.ConsumerTypeEnum;
 import org.candlepin.model.Content;
 import org.candlepin.model.Entitlement;
 import org.candlepin.model.EntitlementCertificate;
@@ -76,6 +78,7 @@ import org.candlepin.policy.js.activationkey.ActivationKeyRules;
 import org.candlepin.policy.js.autobind.AutobindRules;
 import org.candlepin.policy.js.compliance.ComplianceRules;
 import org.candlepin.policy.js.compliance.ComplianceStatus;
+import org.candlepin.policy.js.compliance.ComplianceStatusCache;
 import org.candlepin.policy.js.entitlement.Enforcer;
 import org.candlepin.policy.js.entitlement.Enforcer.CallerType;
 import org.candlepin.policy.js.entitlement.PreUnbindHelper;
@@ -153,6 +156,9 @@ public class PoolManagerTest {
     @Mock private OwnerManager mockOwnerManager;
     @Mock private PinsetterKernel pinsetterKernel;
     @Mock private BindChainFactory mockBindChainFactory;
+    @Mock private PoolIndex mockPoolIndex;
+    @Mock private AutobindCache mockAutobindCache;
+    @Mock private PoolConsumptionLedger mockConsumptionLedger;
     @Mock private BindContextFactory mockBindContextFactory;
     @Mock private PreEntitlementRulesCheckOpFactory mockPreEntitlementRulesCheckFactory;
 
@@ -166,6 +172,7 @@ public class PoolManagerTest {
 
     protected static Map<String, List<Pool>> subToPools;
 
+    @SuppressWarnings("unchecked")
     @Before
     public void init() throws Exception {
         MockitoAnnotations.initMocks(this);
@@ -179,6 +186,7 @@ public class PoolManagerTest {
         when(mockOwnerCurator.lookupByKey(eq(owner.getKey()))).thenReturn(owner);
 
         when(mockConfig.getInt(eq(ConfigProperties.PRODUCT_CACHE_MAX))).thenReturn(100);
+        when(mockAutobindCache.get(any(AutobindCache.Key.class))).thenReturn(null);
         when(eventFactory.getEventBuilder(any(Target.class), any(Type.class))).thenReturn(eventBuilder);
 
         when(eventBuilder.setEventData(any(Eventful.class))).thenReturn(eventBuilder);
@@ -190,7 +198,9 @@ public class PoolManagerTest {
             entitlementCurator, consumerCuratorMock, certCuratorMock, mockECGenerator,
             complianceRules, autobindRules, activationKeyRules, mockProductCurator, mockProductManager,
             mockContentManager, mockOwnerContentCurator, mockOwnerCurator, mockOwnerProductCurator,
-            mockOwnerManager, pinsetterKernel, i18n, mockBindChainFactory
+            mockOwnerManager, pinsetterKernel, i18n, mockBindChainFactory, mockPoolIndex,
+            mockAutobindCache, mockConsumptionLedger, new ProvidedProductCache(mockPoolCurator, mockConfig),
+            new ComplianceStatusCache(mockConfig, null)
         ));
 
         setupBindChain();
@@ -210,6 +220,16 @@ public class PoolManagerTest {
                 return (Consumer) args[0];
             }
         });
+
+        // The ledger locks pools through the pool curator
+        when(mockConsumptionLedger.lockAndFold(anyCollection())).thenAnswer(new Answer<List<Pool>>() {
+            @Override
+            public List<Pool> answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                Collection<Pool> pools = mockPoolCurator.lockAndLoadByIds((Collection<String>) args[0]);
+                return pools != null ? new ArrayList<>(pools) : new ArrayList<Pool>();
+            }
+        });
     }
 
     private void setupBindChain() {
@@ -242,6 +262,7 @@ public class PoolManagerTest {
                     Map<String, Integer> pQ = (Map<String, Integer>) args[1];
                     return new BindContext(mockPoolCurator,
                         consumerCuratorMock,
+                        mockConsumptionLedger,
                         i18n,
                         consumer,
                         pQ);
@@ -1157,6 +1178,218 @@ public class PoolManagerTest {
         }
     }
 
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testGetBestPoolsValidatesCandidatesInSingleRulesCall() throws Exception {
+        Product product = TestUtil.createProduct();
+        List<Pool> pools = new ArrayList<>();
+        for (int i = 1; i <= 3; ++i) {
+            Pool pool = TestUtil.createPool(product);
+            pool.setId("poolId" + i);
+            pools.add(pool);
+        }
+        Date now = new Date();
+
+        Page page = mock(Page.class);
+        when(page.getPageData()).thenReturn(pools);
+        when(mockPoolCurator.listAvailableEntitlementPools(any(Consumer.class), any(Owner.class),
+            any(String.class), any(String.class), eq(now),
+            any(PoolFilterBuilder.class), any(PageRequest.class), anyBoolean(), anyBoolean(), anyBoolean(),
+            any(Date.class)))
+            .thenReturn(page);
+
+        when(complianceRules.getStatus(any(Consumer.class), any(Date.class), anyBoolean()))
+            .thenReturn(new ComplianceStatus(now));
+
+        ValidationResult failed = new ValidationResult();
+        failed.addError("rulefailed.no.entitlements.available");
+        Map<String, ValidationResult> resultMap = new HashMap<>();
+        resultMap.put("poolId1", new ValidationResult());
+        resultMap.put("poolId2", failed);
+        resultMap.put("poolId3", new ValidationResult());
+        when(enforcerMock.preEntitlement(any(Consumer.class), anyCollectionOf(PoolQuantity.class),
+            eq(CallerType.BEST_POOLS))).thenReturn(resultMap);
+
+        Consumer consumer = TestUtil.createConsumer(owner);
+        manager.getBestPools(consumer, new String[] { product.getId() }, now, owner, null, null);
+
+        verify(enforcerMock, times(1)).preEntitlement(eq(consumer), anyCollectionOf(PoolQuantity.class),
+            eq(CallerType.BEST_POOLS));
+        verify(enforcerMock, never()).preEntitlement(any(Consumer.class), any(Pool.class), anyInt(),
+            any(CallerType.class));
+
+        ArgumentCaptor<List> poolsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(autobindRules).selectBestPools(eq(consumer), any(String[].class), poolsCaptor.capture(),
+            any(ComplianceStatus.class), any(String.class), any(Set.class), eq(false));
+        assertEquals(Arrays.asList(pools.get(0), pools.get(2)), poolsCaptor.getValue());
+    }
+
+    @Test
+    public void testGetBestPoolsRefusesWhenAllCandidatesFail() throws Exception {
+        Product product = TestUtil.createProduct();
+        Pool pool = TestUtil.createPool(product);
+        pool.setId("poolId1");
+        Date now = new Date();
+
+        Page page = mock(Page.class);
+        when(page.getPageData()).thenReturn(Arrays.asList(pool));
+        when(mockPoolCurator.listAvailableEntitlementPools(any(Consumer.class), any(Owner.class),
+            any(String.class), any(String.class), eq(now),
+            any(PoolFilterBuilder.class), any(PageRequest.class), anyBoolean(), anyBoolean(), anyBoolean(),
+            any(Date.class)))
+            .thenReturn(page);
+
+        when(complianceRules.getStatus(any(Consumer.class), any(Date.class), anyBoolean()))
+            .thenReturn(new ComplianceStatus(now));
+
+        ValidationResult failed = new ValidationResult();
+        failed.addError("rulefailed.no.entitlements.available");
+        when(enforcerMock.preEntitlement(any(Consumer.class), anyCollectionOf(PoolQuantity.class),
+            eq(CallerType.BEST_POOLS))).thenReturn(Collections.singletonMap("poolId1", failed));
+
+        try {
+            manager.getBestPools(TestUtil.createConsumer(owner), new String[] { product.getId() }, now,
+                owner, null, null);
+            fail("Expected EntitlementRefusedException");
+        }
+        catch (EntitlementRefusedException e) {
+            assertEquals(Collections.singletonMap("poolId1", failed), e.getResults());
+        }
+    }
+
+    private AutobindCache.Key buildAutobindCacheKey(Consumer consumer, String productId) {
+        Configuration cacheConfig = mock(Configuration.class);
+        when(cacheConfig.getBoolean(eq(ConfigProperties.AUTOBIND_CACHE_ENABLED), anyBoolean()))
+            .thenReturn(true);
+        when(cacheConfig.getInt(eq(ConfigProperties.AUTOBIND_CACHE_MAX_SIZE), anyInt())).thenReturn(10);
+        when(cacheConfig.getLong(eq(ConfigProperties.AUTOBIND_CACHE_MAX_AGE), anyLong())).thenReturn(60L);
+
+        return new AutobindCache(consumerCuratorMock, cacheConfig)
+            .buildKey(consumer, new String[] { productId }, null, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testEntitleByProductsUsesCachedAutobindDecision() throws Exception {
+        owner.setId("owner_id");
+        Consumer consumer = TestUtil.createConsumer(new ConsumerType(ConsumerTypeEnum.SYSTEM), owner);
+        Product product = TestUtil.createProduct();
+        AutobindCache.Key key = this.buildAutobindCacheKey(consumer, product.getId());
+        assertNotNull(key);
+
+        Map<String, Integer> decision = Collections.singletonMap("poolId1", 2);
+        when(mockAutobindCache.buildKey(eq(consumer), any(String[].class), any(Date.class),
+            anyCollectionOf(String.class))).thenReturn(key);
+        when(mockAutobindCache.get(key)).thenReturn(decision);
+
+        List<Entitlement> entitlements = Arrays.asList(new Entitlement());
+        doReturn(entitlements).when(manager).entitleByPools(eq(consumer), anyMap());
+
+        AutobindData data = AutobindData.create(consumer).forProducts(new String[] { product.getId() });
+        assertEquals(entitlements, manager.entitleByProducts(data));
+
+        verify(manager).entitleByPools(consumer, decision);
+        verify(manager, never()).getBestPools(any(Consumer.class), any(String[].class), any(Date.class),
+            any(Owner.class), any(String.class), anyCollectionOf(String.class));
+        verify(mockAutobindCache, never()).reject(any(AutobindCache.Key.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testEntitleByProductsRecomputesRefusedCachedAutobindDecision() throws Exception {
+        owner.setId("owner_id");
+        Consumer consumer = TestUtil.createConsumer(new ConsumerType(ConsumerTypeEnum.SYSTEM), owner);
+        Product product = TestUtil.createProduct();
+        Pool pool = TestUtil.createPool(owner, product);
+        pool.setId("poolId2");
+        AutobindCache.Key key = this.buildAutobindCacheKey(consumer, product.getId());
+
+        Map<String, Integer> decision = Collections.singletonMap("poolId1", 2);
+        when(mockAutobindCache.buildKey(eq(consumer), any(String[].class), any(Date.class),
+            anyCollectionOf(String.class))).thenReturn(key);
+        when(mockAutobindCache.get(key)).thenReturn(decision);
+
+        ValidationResult failed = new ValidationResult();
+        failed.addError("rulefailed.no.entitlements.available");
+        List<Entitlement> entitlements = Arrays.asList(new Entitlement());
+        doThrow(new EntitlementRefusedException(Collections.singletonMap("poolId1", failed)))
+            .when(manager).entitleByPools(eq(consumer), eq(decision));
+        doReturn(entitlements).when(manager).entitleByPools(eq(consumer),
+            eq(Collections.singletonMap("poolId2", 1)));
+        doReturn(Arrays.asList(new PoolQuantity(pool, 1))).when(manager).getBestPools(eq(consumer),
+            any(String[].class), any(Date.class), any(Owner.class), any(String.class),
+            anyCollectionOf(String.class));
+
+        AutobindData data = AutobindData.create(consumer).forProducts(new String[] { product.getId() });
+        assertEquals(entitlements, manager.entitleByProducts(data));
+
+        verify(mockAutobindCache).reject(key);
+        verify(mockAutobindCache).put(eq(key), eq(Collections.singletonMap("poolId2", 1)), anyLong());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Pool mockLedgerPool(Consumer consumer, boolean reserved) {
+        Pool pool = TestUtil.createPool(owner, TestUtil.createProduct(), 100);
+        pool.setId("ledger_pool");
+        pool.setConsumed(10L);
+
+        CandlepinQuery<Pool> query = mock(CandlepinQuery.class);
+        when(query.iterator()).thenReturn(Arrays.asList(pool).iterator());
+        when(mockPoolCurator.listAllByIds(anyCollectionOf(String.class))).thenReturn(query);
+
+        when(mockConsumptionLedger.records(consumer, pool)).thenReturn(true);
+        when(mockConsumptionLedger.reserve(pool, 2))
+            .thenReturn(reserved ? new PoolConsumptionLedger.Reservation(pool, "slot", 2L) : null);
+
+        Map<String, EntitlementCertificate> certs = new HashMap<>();
+        certs.put(pool.getId(), new EntitlementCertificate());
+        when(mockECGenerator.generateEntitlementCertificates(any(Consumer.class), any(Map.class),
+            any(Map.class), any(Map.class), eq(false))).thenReturn(certs);
+
+        return pool;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testEntitleByPoolsRecordsConsumptionInLedger() throws Exception {
+        Consumer consumer = TestUtil.createConsumer(new ConsumerType(ConsumerTypeEnum.SYSTEM), owner);
+        Pool pool = this.mockLedgerPool(consumer, true);
+
+        Map<String, Integer> quantities = new HashMap<>();
+        quantities.put(pool.getId(), 2);
+        List<Entitlement> entitlements = manager.entitleByPools(consumer, quantities);
+
+        assertEquals(1, entitlements.size());
+        assertEquals(2, entitlements.get(0).getQuantity().intValue());
+        verify(mockConsumptionLedger).reserve(pool, 2);
+        verify(mockPoolCurator, never()).lockAndLoadByIds(anyCollectionOf(String.class));
+
+        // The consumption is recorded on the pool's slots, not on the pool itself
+        assertEquals(10L, pool.getConsumed().longValue());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testEntitleByPoolsRefusedWhenLedgerCannotReserveQuantity() throws Exception {
+        Consumer consumer = TestUtil.createConsumer(new ConsumerType(ConsumerTypeEnum.SYSTEM), owner);
+        Pool pool = this.mockLedgerPool(consumer, false);
+
+        Map<String, Integer> quantities = new HashMap<>();
+        quantities.put(pool.getId(), 2);
+
+        try {
+            manager.entitleByPools(consumer, quantities);
+            fail("Expected EntitlementRefusedException");
+        }
+        catch (EntitlementRefusedException e) {
+            assertEquals("rulefailed.no.entitlements.available",
+                e.getResults().get(pool.getId()).getErrors().get(0).getResourceKey());
+        }
+
+        verify(entitlementCurator, never()).saveAll(anyCollectionOf(Entitlement.class), anyBoolean(),
+            anyBoolean());
+    }
+
     @Test
     public void testRefreshPoolsRemovesExpiredSubscriptionsAlongWithItsPoolsAndEnts() {
         PreUnbindHelper preHelper =  mock(PreUnbindHelper.class);
@@ -2125,4 +2358,90 @@ public class PoolManagerTest {
         assertEquals(expected, output);
     }
 
+    private Page<List<Pool>> mockKeysetBatch(String nextCursor, Pool... pools) {
+        Page<List<Pool>> batch = new Page<>();
+        batch.setKeyset(true);
+        batch.setNextCursor(nextCursor);
+        batch.setPageData(Arrays.asList(pools));
+
+        return batch;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Page<List<Pool>> listAvailablePoolsByKeyset(int perPage, final Collection<Pool> rejected) {
+        Consumer consumer = TestUtil.createConsumer(getOwner());
+        Pool[] pools = new Pool[5];
+        for (int i = 0; i < pools.length; ++i) {
+            pools[i] = TestUtil.createPool(getOwner(), product);
+            pools[i].setId("pool-" + i);
+        }
+
+        rejected.add(pools[1]);
+        rejected.add(pools[3]);
+
+        when(mockPoolCurator.listAvailableEntitlementPools(any(Consumer.class), any(Owner.class),
+            anyString(), anyString(), any(Date.class), any(PoolFilterBuilder.class),
+            any(PageRequest.class), eq(false), anyBoolean(), anyBoolean(), any(Date.class)))
+            .thenReturn(mockKeysetBatch("batch-2", pools[0], pools[1], pools[2]))
+            .thenReturn(mockKeysetBatch(null, pools[3], pools[4]));
+
+        when(enforcerMock.filterPools(any(Consumer.class), any(List.class), anyBoolean()))
+            .thenAnswer(new Answer<List<Pool>>() {
+                @Override
+                public List<Pool> answer(InvocationOnMock invocation) {
+                    List<Pool> filtered = new ArrayList<>((List<Pool>) invocation.getArguments()[1]);
+                    filtered.removeAll(rejected);
+                    return filtered;
+                }
+            });
+
+        when(mockPoolCurator.buildCursor(any(PageRequest.class), any(Pool.class)))
+            .thenAnswer(new Answer<String>() {
+                @Override
+                public String answer(InvocationOnMock invocation) {
+                    return "after-" + ((Pool) invocation.getArguments()[1]).getId();
+                }
+            });
+
+        PageRequest pageRequest = new PageRequest();
+        pageRequest.setPage(1);
+        pageRequest.setPerPage(perPage);
+        pageRequest.setCursor("");
+
+        Page<List<Pool>> page = manager.listAvailableEntitlementPools(consumer, null, getOwner(), null,
+            null, new Date(), false, new PoolFilterBuilder(), pageRequest, false, false, null);
+
+        assertTrue(page.isKeyset());
+        return page;
+    }
+
+    @Test
+    public void testKeysetListingStopsOnceThePageIsFilled() {
+        List<Pool> rejected = new ArrayList<>();
+        Page<List<Pool>> page = listAvailablePoolsByKeyset(2, rejected);
+        List<Pool> pools = page.getPageData();
+
+        assertEquals(2, pools.size());
+        assertEquals("pool-0", pools.get(0).getId());
+        assertEquals("pool-2", pools.get(1).getId());
+        assertEquals("after-pool-2", page.getNextCursor());
+
+        verify(mockPoolCurator, times(1)).listAvailableEntitlementPools(any(Consumer.class),
+            any(Owner.class), anyString(), anyString(), any(Date.class), any(PoolFilterBuilder.class),
+            any(PageRequest.class), anyBoolean(), anyBoolean(), anyBoolean(), any(Date.class));
+    }
+
+    @Test
+    public void testKeysetListingFetchesBatchesUntilThePageIsFilled() {
+        List<Pool> rejected = new ArrayList<>();
+        Page<List<Pool>> page = listAvailablePoolsByKeyset(3, rejected);
+        List<Pool> pools = page.getPageData();
+
+        assertEquals(3, pools.size());
+        assertEquals("pool-4", pools.get(2).getId());
+
+        // The last pool of the final batch was included, so there is no following page
+        assertNull(page.getNextCursor());
+        verify(mockPoolCurator, never()).takeSubList(any(PageRequest.class), any(List.class));
+    }
 }
@@ -29,6 +29,8 @@ import org.candlepin.model.Owner;
 import org.candlepin.model.Pool;
 import org.candlepin.model.Product;
 import org.candlepin.model.ProductContent;
+import org.candlepin.model.dto.ProductData;
+import org.candlepin.policy.js.compliance.ComplianceStatusCache;
 import org.candlepin.test.DatabaseTestFixture;
 import org.candlepin.test.TestUtil;
 
@@ -38,6 +40,8 @@ import org.junit.runner.RunWith;
 
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 
 
@@ -48,14 +52,17 @@ import java.util.Date;
 public class ProductManagerTest extends DatabaseTestFixture {
 
     private EntitlementCertificateGenerator mockEntCertGenerator;
+    private ComplianceStatusCache mockComplianceStatusCache;
     private ProductManager productManager;
 
     @Before
     public void setup() throws Exception {
         this.mockEntCertGenerator = mock(EntitlementCertificateGenerator.class);
+        this.mockComplianceStatusCache = mock(ComplianceStatusCache.class);
 
         this.productManager = new ProductManager(this.mockEntCertGenerator, this.ownerContentCurator,
-            this.ownerProductCurator, this.productCurator, this.modelTranslator);
+            this.ownerProductCurator, this.productCurator, this.modelTranslator,
+            new ProvidedProductCache(this.poolCurator, this.config), this.mockComplianceStatusCache);
     }
 
     @Test
@@ -131,6 +138,9 @@ public class ProductManagerTest extends DatabaseTestFixture {
         assertEquals(0, this.ownerProductCurator.getOwnerCount(product));
         assertNotNull(this.ownerProductCurator.getProductById(owner, product.getId()));
 
+        // The rules read product attributes, so cached compliance statuses are stale
+        verify(this.mockComplianceStatusCache, times(1)).invalidateAll();
+
         if (regenCerts) {
             // TODO: Is there a better way to do this? We won't know the exact product instance,
             // we just know that a product should be refreshed as a result of this operation.
@@ -212,6 +222,25 @@ public class ProductManagerTest extends DatabaseTestFixture {
         this.productManager.updateProduct(update, owner, false);
     }
 
+    @Test
+    public void testImportProductsOnlyInvalidatesCachesWhenProductsChange() {
+        Owner owner = this.createOwner("test-owner", "Test Owner");
+        Product product = this.createProduct("p1", "prod1", owner);
+
+        Map<String, ProductData> productData = new HashMap<>();
+        productData.put(product.getId(), product.toDTO());
+
+        this.productManager.importProducts(owner, productData, new HashMap<String, Content>());
+        verify(this.mockComplianceStatusCache, never()).invalidateAll();
+
+        ProductData update = product.toDTO();
+        update.setName("new product name");
+        productData.put(product.getId(), update);
+
+        this.productManager.importProducts(owner, productData, new HashMap<String, Content>());
+        verify(this.mockComplianceStatusCache, times(1)).invalidateAll();
+    }
+
     @Test
     public void testRemoveProduct() {
         Owner owner = this.createOwner("test-owner-1", "Test Owner 1");
@@ -227,6 +256,7 @@ public class ProductManagerTest extends DatabaseTestFixture {
         assertEquals(0, this.ownerProductCurator.getOwnerCount(product));
 
         verifyZeroInteractions(this.mockEntCertGenerator);
+        verify(this.mockComplianceStatusCache, times(1)).invalidateAll();
     }
 
     @Test
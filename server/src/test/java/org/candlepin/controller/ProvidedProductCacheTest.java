@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.controller;
+
+import static org.junit.Assert.*;
+
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.model.Owner;
+import org.candlepin.model.Pool;
+import org.candlepin.model.Product;
+import org.candlepin.test.DatabaseTestFixture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+
+/**
+ * Test suite for the ProvidedProductCache class
+ */
+public class ProvidedProductCacheTest extends DatabaseTestFixture {
+
+    private ProvidedProductCache cache;
+    private Owner owner;
+    private Product provided1;
+    private Product provided2;
+
+    @Before
+    public void setUp() {
+        this.config.setProperty(ConfigProperties.PROVIDED_PRODUCT_CACHE_ENABLED, "true");
+        this.config.setProperty(ConfigProperties.PROVIDED_PRODUCT_CACHE_MAX_SIZE, "2");
+
+        this.cache = new ProvidedProductCache(this.poolCurator, this.config);
+
+        this.owner = this.createOwner();
+        this.provided1 = this.createProduct("provided-1", "provided-1", this.owner);
+        this.provided2 = this.createProduct("provided-2", "provided-2", this.owner);
+    }
+
+    private Pool createPool(Product... providedProducts) {
+        Pool pool = this.createPool(this.owner, this.createProduct(this.owner));
+        pool.setProvidedProducts(new HashSet<>(Arrays.asList(providedProducts)));
+
+        return this.poolCurator.merge(pool);
+    }
+
+    private Set<String> ids(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+
+    /**
+     * Changes the provided products of the pool in the database without notifying the cache
+     */
+    private void setProvidedProducts(Pool pool, Product... providedProducts) {
+        pool.setProvidedProducts(new HashSet<>(Arrays.asList(providedProducts)));
+        this.poolCurator.merge(pool);
+        this.poolCurator.flush();
+    }
+
+    @Test
+    public void testDisabledCacheReadsThroughToDatabase() {
+        this.config.setProperty(ConfigProperties.PROVIDED_PRODUCT_CACHE_ENABLED, "false");
+        ProvidedProductCache disabled = new ProvidedProductCache(this.poolCurator, this.config);
+
+        Pool pool = this.createPool(this.provided1);
+        List<Pool> pools = Collections.singletonList(pool);
+
+        assertFalse(disabled.isEnabled());
+        assertEquals(ids("provided-1"), disabled.getProvidedProductIds(pools).get(pool.getId()));
+
+        this.setProvidedProducts(pool, this.provided2);
+        assertEquals(ids("provided-2"), disabled.getProvidedProductIds(pools).get(pool.getId()));
+    }
+
+    @Test
+    public void testWarmLookupsAreServedFromCache() {
+        Pool pool = this.createPool(this.provided1);
+        Pool empty = this.createPool();
+        List<Pool> pools = Arrays.asList(pool, empty);
+
+        Map<String, Set<String>> output = this.cache.getProvidedProductIds(pools);
+        assertEquals(1, output.size());
+        assertEquals(ids("provided-1"), output.get(pool.getId()));
+
+        // Changes which bypass the cache are not seen until the pool is invalidated
+        this.setProvidedProducts(pool, this.provided2);
+        this.setProvidedProducts(empty, this.provided2);
+
+        output = this.cache.getProvidedProductIds(pools);
+        assertEquals(1, output.size());
+        assertEquals(ids("provided-1"), output.get(pool.getId()));
+        assertEquals(2L, this.cache.getStatistics().get("hits"));
+        assertEquals(2L, this.cache.getStatistics().get("misses"));
+
+        this.cache.poolsChanged(Collections.singletonList(pool));
+
+        output = this.cache.getProvidedProductIds(pools);
+        assertEquals(ids("provided-2"), output.get(pool.getId()));
+        assertNull(output.get(empty.getId()));
+    }
+
+    @Test
+    public void testReturnedSetsCanBeModified() {
+        Pool pool = this.createPool(this.provided1);
+        List<Pool> pools = Collections.singletonList(pool);
+
+        this.cache.getProvidedProductIds(pools).get(pool.getId()).add("base-product");
+        assertEquals(ids("provided-1"), this.cache.getProvidedProductIds(pools).get(pool.getId()));
+    }
+
+    @Test
+    public void testDerivedProvidedProductsAreCachedSeparately() {
+        Pool pool = this.createPool(this.provided1);
+        pool.setDerivedProduct(this.createProduct(this.owner));
+        pool.setDerivedProvidedProducts(new HashSet<>(Arrays.asList(this.provided2)));
+        pool = this.poolCurator.merge(pool);
+
+        List<Pool> pools = Collections.singletonList(pool);
+
+        assertEquals(ids("provided-1"), this.cache.getProvidedProductIds(pools).get(pool.getId()));
+        assertEquals(ids("provided-2"), this.cache.getDerivedProvidedProductIds(pools).get(pool.getId()));
+    }
+
+    @Test
+    public void testInvalidateAllDiscardsEveryPool() {
+        Pool pool1 = this.createPool(this.provided1);
+        Pool pool2 = this.createPool(this.provided1);
+        List<Pool> pools = Arrays.asList(pool1, pool2);
+
+        this.cache.getProvidedProductIds(pools);
+        this.setProvidedProducts(pool1, this.provided2);
+        this.setProvidedProducts(pool2, this.provided2);
+
+        this.cache.invalidateAll();
+
+        Map<String, Set<String>> output = this.cache.getProvidedProductIds(pools);
+        assertEquals(ids("provided-2"), output.get(pool1.getId()));
+        assertEquals(ids("provided-2"), output.get(pool2.getId()));
+    }
+
+    @Test
+    public void testPoolsAreInvalidatedAgainOnCommit() {
+        Pool pool = this.createPool(this.provided1);
+        List<Pool> pools = Collections.singletonList(pool);
+
+        // Mappings cached before the change is committed may have been read by other requests
+        // from the pool's previous state
+        this.cache.poolsChanged(pools);
+        this.cache.getProvidedProductIds(pools);
+        this.setProvidedProducts(pool, this.provided2);
+        assertEquals(ids("provided-1"), this.cache.getProvidedProductIds(pools).get(pool.getId()));
+
+        this.commitTransaction();
+        this.beginTransaction();
+
+        assertEquals(ids("provided-2"), this.cache.getProvidedProductIds(pools).get(pool.getId()));
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        Pool pool1 = this.createPool(this.provided1);
+        Pool pool2 = this.createPool(this.provided1);
+        Pool pool3 = this.createPool(this.provided1);
+
+        this.cache.getProvidedProductIds(Arrays.asList(pool1, pool2));
+        this.cache.getProvidedProductIds(Collections.singletonList(pool3));
+
+        // The least recently used pool was evicted to make room for the third
+        this.setProvidedProducts(pool1, this.provided2);
+        this.setProvidedProducts(pool3, this.provided2);
+
+        Map<String, Set<String>> output = this.cache.getProvidedProductIds(Arrays.asList(pool1, pool3));
+        assertEquals(ids("provided-2"), output.get(pool1.getId()));
+        assertEquals(ids("provided-1"), output.get(pool3.getId()));
+    }
+}
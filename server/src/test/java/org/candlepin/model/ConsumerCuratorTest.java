@@ -33,6 +33,7 @@ import org.candlepin.util.FactValidator;
 import org.candlepin.util.PropertyValidationException;
 import org.candlepin.util.Util;
 
+import org.hibernate.Hibernate;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -658,6 +659,45 @@ public class ConsumerCuratorTest extends DatabaseTestFixture {
         assertFalse(results.contains(consumer3));
     }
 
+    @Test
+    public void testFetchEntitlements() {
+        Consumer consumer = createConsumer(owner);
+        Consumer consumer2 = createConsumer(owner);
+        Consumer consumer3 = createConsumer(owner);
+
+        createProductAndBindItToConsumer(owner, consumer);
+        createProductAndBindItToConsumer(owner, consumer);
+        createProductAndBindItToConsumer(owner, consumer2);
+
+        consumerCurator.flush();
+        consumerCurator.clear();
+
+        List<Consumer> consumers = consumerCurator
+            .findByUuids(Arrays.asList(consumer.getUuid(), consumer2.getUuid(), consumer3.getUuid()))
+            .list();
+
+        for (Consumer fetched : consumers) {
+            assertFalse(Hibernate.isInitialized(fetched.getEntitlements()));
+        }
+
+        consumerCurator.fetchEntitlements(consumers);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (Consumer fetched : consumers) {
+            assertTrue(Hibernate.isInitialized(fetched.getEntitlements()));
+
+            for (Entitlement entitlement : fetched.getEntitlements()) {
+                assertTrue(Hibernate.isInitialized(entitlement.getPool()));
+            }
+
+            counts.put(fetched.getUuid(), fetched.getEntitlements().size());
+        }
+
+        assertEquals(Integer.valueOf(2), counts.get(consumer.getUuid()));
+        assertEquals(Integer.valueOf(1), counts.get(consumer2.getUuid()));
+        assertEquals(Integer.valueOf(0), counts.get(consumer3.getUuid()));
+    }
+
     @Test
     public void testFindByUuidsAndOwner() {
         Consumer consumer = new Consumer("testConsumer", "testUser", owner, ct);
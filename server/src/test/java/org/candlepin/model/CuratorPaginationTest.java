@@ -16,19 +16,27 @@ package org.candlepin.model;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import org.candlepin.common.exceptions.BadRequestException;
 import org.candlepin.common.paging.Page;
 import org.candlepin.common.paging.PageRequest;
 import org.candlepin.test.DatabaseTestFixture;
 
 import org.hibernate.Criteria;
 import org.hibernate.Session;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -188,6 +196,133 @@ public class CuratorPaginationTest extends DatabaseTestFixture {
         assertEquals(pageRequest, pageRequest2);
     }
 
+    private PageRequest createKeysetRequest(String sortBy, PageRequest.Order order, int perPage) {
+        PageRequest pageRequest = new PageRequest();
+        pageRequest.setSortBy(sortBy);
+        pageRequest.setOrder(order);
+        pageRequest.setPage(PageRequest.DEFAULT_PAGE);
+        pageRequest.setPerPage(perPage);
+        pageRequest.setCursor("");
+        assertTrue(pageRequest.isKeyset());
+
+        return pageRequest;
+    }
+
+    @Test
+    public void testKeysetPaging() {
+        PageRequest pageRequest = createKeysetRequest("key", PageRequest.Order.ASCENDING, 3);
+        List<String> keys = new ArrayList<>();
+        int pages = 0;
+
+        do {
+            Page<List<Owner>> p = ownerCurator.listAll(pageRequest);
+            assertTrue(p.isKeyset());
+            assertNull(p.getMaxRecords());
+
+            for (Owner owner : p.getPageData()) {
+                keys.add(owner.getKey());
+            }
+
+            pageRequest.setCursor(p.getNextCursor());
+            ++pages;
+        }
+        while (pageRequest.getCursor() != null);
+
+        // Pages are (0, 1, 2); (3, 4, 5); (6, 7, 8); (9)
+        assertEquals(4, pages);
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"), keys);
+    }
+
+    @Test
+    public void testKeysetPagingBreaksTiesById() {
+        // Owners created in the same transaction are likely to share their creation date
+        PageRequest pageRequest = createKeysetRequest(null, PageRequest.Order.DESCENDING, 4);
+        Set<String> ids = new HashSet<>();
+        int owners = 0;
+
+        do {
+            Page<List<Owner>> p = ownerCurator.listAll(pageRequest);
+
+            for (Owner owner : p.getPageData()) {
+                ids.add(owner.getId());
+                ++owners;
+            }
+
+            pageRequest.setCursor(p.getNextCursor());
+        }
+        while (pageRequest.getCursor() != null);
+
+        assertEquals(10, owners);
+        assertEquals(10, ids.size());
+    }
+
+    @Test
+    public void testKeysetPagingWithCriteria() {
+        PageRequest pageRequest = createKeysetRequest("key", PageRequest.Order.DESCENDING, 3);
+
+        Criteria criteria = session.createCriteria(Owner.class)
+            .add(Restrictions.gt("key", "5"))
+            .addOrder(Order.asc("displayName"));
+
+        Page<List<Owner>> p = ownerCurator.listByCriteria(criteria, pageRequest, true);
+        List<Owner> ownerList = p.getPageData();
+        assertEquals(3, ownerList.size());
+        assertEquals("9", ownerList.get(0).getKey());
+        assertEquals("7", ownerList.get(2).getKey());
+        assertNotNull(p.getNextCursor());
+
+        pageRequest.setCursor(p.getNextCursor());
+        criteria = session.createCriteria(Owner.class)
+            .add(Restrictions.gt("key", "5"));
+
+        p = ownerCurator.listByCriteria(criteria, pageRequest);
+        ownerList = p.getPageData();
+        assertEquals(1, ownerList.size());
+        assertEquals("6", ownerList.get(0).getKey());
+        assertNull(p.getNextCursor());
+    }
+
+    @Test
+    public void testKeysetPagingWithQuery() {
+        PageRequest pageRequest = createKeysetRequest("key", PageRequest.Order.ASCENDING, 5);
+
+        CandlepinQuery<Owner> query = ownerCurator.listAll();
+        Page<CandlepinQuery<Owner>> p = ownerCurator.paginateByKeyset(query, pageRequest);
+        List<Owner> ownerList = p.getPageData().list();
+        assertEquals(5, ownerList.size());
+        assertEquals("0", ownerList.get(0).getKey());
+        assertEquals("4", ownerList.get(4).getKey());
+
+        pageRequest.setCursor(p.getNextCursor());
+        p = ownerCurator.paginateByKeyset(ownerCurator.listAll(), pageRequest);
+        ownerList = p.getPageData().list();
+        assertEquals(5, ownerList.size());
+        assertEquals("5", ownerList.get(0).getKey());
+        assertNull(p.getNextCursor());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testKeysetPagingRejectsNullableSortField() {
+        ownerCurator.listAll(createKeysetRequest("contentPrefix", PageRequest.Order.ASCENDING, 3));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testKeysetPagingRejectsCursorForDifferentOrder() {
+        PageRequest pageRequest = createKeysetRequest("key", PageRequest.Order.ASCENDING, 3);
+        pageRequest.setCursor(ownerCurator.listAll(pageRequest).getNextCursor());
+        pageRequest.setOrder(PageRequest.Order.DESCENDING);
+
+        ownerCurator.listAll(pageRequest);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testKeysetPagingRejectsMalformedCursor() {
+        PageRequest pageRequest = createKeysetRequest("key", PageRequest.Order.ASCENDING, 3);
+        pageRequest.setCursor("not a cursor");
+
+        ownerCurator.listAll(pageRequest);
+    }
+
     private List<Owner> createOwners(int owners) {
         List<Owner> ownerList = new ArrayList<>();
         for (int i = 0; i < owners; i++) {
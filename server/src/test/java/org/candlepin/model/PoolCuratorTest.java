@@ -20,6 +20,7 @@ import static org.junit.Assert.*;
 import org.candlepin.auth.NoAuthPrincipal;
 import org.candlepin.common.paging.Page;
 import org.candlepin.common.paging.PageRequest;
+import org.candlepin.config.ConfigProperties;
 import org.candlepin.config.DatabaseConfigFactory;
 import org.candlepin.controller.CandlepinPoolManager;
 import org.candlepin.model.ConsumerType.ConsumerTypeEnum;
@@ -33,6 +34,8 @@ import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import junitparams.JUnitParamsRunner;
 import junitparams.Parameters;
@@ -59,6 +62,8 @@ import javax.inject.Inject;
  */
 @RunWith(JUnitParamsRunner.class)
 public class PoolCuratorTest extends DatabaseTestFixture {
+    private static Logger log = LoggerFactory.getLogger(PoolCuratorTest.class);
+
 
     @Inject private CandlepinPoolManager poolManager;
     @Inject private UeberCertificateGenerator ueberCertGenerator;
@@ -2705,4 +2710,160 @@ public class PoolCuratorTest extends DatabaseTestFixture {
         assertEquals(output, Util.asSet(pool7.getId()));
     }
 
+    @Test
+    public void testAttributeColumnsFollowAttributes() {
+        Product virtProduct = TestUtil.createProduct();
+        virtProduct.setAttribute(Product.Attributes.VIRT_ONLY, "TRUE");
+        virtProduct = this.createProduct(virtProduct, owner);
+
+        Pool pool = this.createPool(owner, virtProduct);
+        pool.setAttribute(Pool.Attributes.DEVELOPMENT_POOL, "false");
+        pool.setAttribute(Pool.Attributes.REQUIRES_HOST, "host-uuid");
+        pool = this.poolCurator.merge(pool);
+        this.poolCurator.flush();
+
+        assertEquals(Boolean.TRUE, virtProduct.getVirtOnlyFlag());
+        assertNull(virtProduct.getDevPoolFlag());
+        assertNull(pool.getVirtOnlyFlag());
+        assertEquals(Boolean.FALSE, pool.getDevPoolFlag());
+        assertEquals("host-uuid", pool.getRequiresHostFlag());
+
+        pool.setAttribute(Pool.Attributes.VIRT_ONLY, "true");
+        pool.removeAttribute(Pool.Attributes.REQUIRES_HOST);
+        pool = this.poolCurator.merge(pool);
+        this.poolCurator.flush();
+        this.poolCurator.clear();
+
+        pool = this.poolCurator.find(pool.getId());
+        assertEquals(Boolean.TRUE, pool.getVirtOnlyFlag());
+        assertEquals(Boolean.FALSE, pool.getDevPoolFlag());
+        assertNull(pool.getRequiresHostFlag());
+    }
+
+    /**
+     * Creates pools covering the combinations of pool and product attributes the availability
+     * queries filter on
+     */
+    private void createAttributeFilterPools(int copies, String hostUuid) {
+        String[] values = new String[] { null, "true", "True", "false", "" };
+
+        for (int copy = 0; copy < copies; ++copy) {
+            for (String productValue : values) {
+                Product product = TestUtil.createProduct();
+
+                if (productValue != null) {
+                    product.setAttribute(Product.Attributes.VIRT_ONLY, productValue);
+                    product.setAttribute(Pool.Attributes.DEVELOPMENT_POOL, productValue);
+                }
+
+                product = this.createProduct(product, owner);
+
+                for (String poolValue : values) {
+                    Pool pool = this.createPool(owner, product);
+
+                    if (poolValue != null) {
+                        pool.setAttribute(Pool.Attributes.VIRT_ONLY, poolValue);
+                        pool.setAttribute(Pool.Attributes.DEVELOPMENT_POOL, poolValue);
+                        pool.setAttribute(Pool.Attributes.REQUIRES_HOST,
+                            poolValue.isEmpty() ? hostUuid.toUpperCase() : "other-host");
+                    }
+
+                    this.poolCurator.merge(pool);
+                }
+            }
+        }
+
+        this.poolCurator.flush();
+    }
+
+    private Set<String> listAvailablePoolIds(Consumer consumer, PoolFilterBuilder filters) {
+        Set<String> poolIds = new HashSet<>();
+
+        Page<List<Pool>> page = this.poolCurator.listAvailableEntitlementPools(consumer, owner,
+            (Collection<String>) null, null, new Date(), filters, null, false, false, false, null);
+
+        for (Pool pool : page.getPageData()) {
+            poolIds.add(pool.getId());
+        }
+
+        return poolIds;
+    }
+
+    /**
+     * Lists the available pools with the attribute columns enabled and disabled, verifying both
+     * return the same pools, and returns the time taken by each, in nanoseconds
+     */
+    private long[] compareAttributeFilters(Consumer consumer, PoolFilterBuilder filters, int runs) {
+        long[] elapsed = new long[2];
+        Set<String> expected = null;
+
+        for (int run = 0; run < runs; ++run) {
+            for (int mode = 0; mode < 2; ++mode) {
+                this.config.setProperty(ConfigProperties.POOL_ATTRIBUTE_COLUMNS_ENABLED,
+                    String.valueOf(mode == 0));
+
+                long start = System.nanoTime();
+                Set<String> poolIds = this.listAvailablePoolIds(consumer, filters);
+                elapsed[mode] += System.nanoTime() - start;
+
+                if (expected == null) {
+                    expected = poolIds;
+                }
+
+                assertEquals(expected, poolIds);
+            }
+        }
+
+        this.config.setProperty(ConfigProperties.POOL_ATTRIBUTE_COLUMNS_ENABLED, "true");
+        return elapsed;
+    }
+
+    @Test
+    public void testAttributeColumnsMatchAttributeSubqueries() {
+        Consumer host = this.createConsumer(owner);
+        Consumer guest = this.createConsumer(owner);
+        guest.setFact("virt.is_guest", "true");
+        guest.setFact("virt.uuid", "guest-uuid");
+        host.addGuestId(new GuestId("guest-uuid", guest));
+        guest = this.consumerCurator.merge(guest);
+        host = this.consumerCurator.merge(host);
+
+        this.createAttributeFilterPools(1, host.getUuid());
+
+        PoolFilterBuilder devFilters = new PoolFilterBuilder();
+        devFilters.addAttributeFilter(Pool.Attributes.DEVELOPMENT_POOL, "!true");
+
+        PoolFilterBuilder virtFilters = new PoolFilterBuilder();
+        virtFilters.addAttributeFilter(Pool.Attributes.VIRT_ONLY, "true");
+
+        // The physical consumer should only see pools which are not effectively virt-only
+        Set<String> physical = this.listAvailablePoolIds(consumer, null);
+        physical.remove(this.pool.getId());
+        assertEquals(13, physical.size());
+
+        this.compareAttributeFilters(consumer, null, 1);
+        this.compareAttributeFilters(consumer, devFilters, 1);
+        this.compareAttributeFilters(guest, null, 1);
+        this.compareAttributeFilters(guest, virtFilters, 1);
+        this.compareAttributeFilters(null, devFilters, 1);
+        this.compareAttributeFilters(null, virtFilters, 1);
+    }
+
+    /**
+     * Rough comparison of the availability queries built on the attribute columns and on the
+     * attribute subqueries. Timings are logged rather than asserted, as they depend on the
+     * database and the machine running the tests.
+     */
+    @Test
+    public void testAttributeColumnQueryTimes() {
+        this.createAttributeFilterPools(8, "host-uuid");
+
+        PoolFilterBuilder devFilters = new PoolFilterBuilder();
+        devFilters.addAttributeFilter(Pool.Attributes.DEVELOPMENT_POOL, "!true");
+
+        long[] elapsed = this.compareAttributeFilters(consumer, devFilters, 5);
+
+        log.info("Listed available pools in {}ms using attribute columns, {}ms using attribute subqueries",
+            elapsed[0] / 1000000, elapsed[1] / 1000000);
+    }
 }
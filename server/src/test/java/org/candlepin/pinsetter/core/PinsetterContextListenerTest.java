@@ -16,6 +16,8 @@ package org.candlepin.pinsetter.core;
 
 import static org.mockito.Mockito.*;
 
+import org.candlepin.pinsetter.tasks.HealEntireOrgExecutor;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -25,19 +27,22 @@ import org.junit.Test;
 public class PinsetterContextListenerTest {
     private PinsetterContextListener listener;
     private PinsetterKernel kernel;
+    private HealEntireOrgExecutor healExecutor;
     private PinsetterException pe;
 
     @Before
     public void init() {
         pe = mock(PinsetterException.class);
         kernel = mock(PinsetterKernel.class);
-        listener = new PinsetterContextListener(kernel);
+        healExecutor = mock(HealEntireOrgExecutor.class);
+        listener = new PinsetterContextListener(kernel, healExecutor);
     }
 
     @Test
     public void testContextDestroyed() throws PinsetterException {
         listener.contextDestroyed();
         verify(kernel, atLeastOnce()).shutdown();
+        verify(healExecutor).stop();
         verifyZeroInteractions(pe);
     }
 
@@ -53,6 +58,7 @@ public class PinsetterContextListenerTest {
         doThrow(pe).when(kernel).shutdown();
         listener.contextDestroyed();
         verify(pe, atLeastOnce()).printStackTrace();
+        verify(healExecutor).stop();
     }
 
     @Test
@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.pinsetter.tasks;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import org.candlepin.audit.EventSink;
+import org.candlepin.common.config.MapConfiguration;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.controller.AutobindDisabledForOwnerException;
+import org.candlepin.controller.Entitler;
+import org.candlepin.guice.CandlepinRequestScope;
+import org.candlepin.model.CandlepinQuery;
+import org.candlepin.model.JobCurator;
+import org.candlepin.model.Owner;
+import org.candlepin.model.OwnerCurator;
+import org.candlepin.util.RdbmsExceptionTranslator;
+
+import com.google.inject.Provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.xnap.commons.i18n.I18n;
+import org.xnap.commons.i18n.I18nFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import javax.persistence.PessimisticLockException;
+
+
+
+/**
+ * HealEntireOrgJobTest
+ */
+public class HealEntireOrgJobTest {
+
+    private Owner owner;
+    private OwnerCurator ownerCurator;
+    private JobCurator jobCurator;
+    private EventSink eventSink;
+    private Entitler entitler;
+    private List<Collection<String>> healed;
+    private HealEntireOrgExecutor healExecutor;
+    private HealEntireOrgJob job;
+    private JobExecutionContext ctx;
+
+    @Before
+    public void init() {
+        I18n i18n = I18nFactory.getI18n(getClass(), Locale.US, I18nFactory.FALLBACK);
+
+        owner = new Owner("test-owner");
+        ownerCurator = mock(OwnerCurator.class);
+        jobCurator = mock(JobCurator.class);
+        eventSink = mock(EventSink.class);
+        entitler = mock(Entitler.class);
+        healed = Collections.synchronizedList(new ArrayList<Collection<String>>());
+
+        when(ownerCurator.lookupByKey(eq("test-owner"))).thenReturn(owner);
+
+        MapConfiguration config = new MapConfiguration();
+        config.setProperty(ConfigProperties.HEAL_ORG_JOB_THREADS, "2");
+        config.setProperty(ConfigProperties.HEAL_ORG_JOB_CHUNK_SIZE, "3");
+        config.setProperty(ConfigProperties.HEAL_ORG_JOB_RETRIES, "1");
+        healExecutor = new HealEntireOrgExecutor(config);
+
+        job = new HealEntireOrgJob(new Provider<Entitler>() {
+            @Override
+            public Entitler get() {
+                return entitler;
+            }
+        }, ownerCurator, jobCurator, eventSink, new CandlepinRequestScope(),
+            new RdbmsExceptionTranslator(), healExecutor, i18n);
+        job.config = config;
+
+        JobDetail detail = HealEntireOrgJob.healEntireOrg("test-owner", new Date());
+        ctx = mock(JobExecutionContext.class);
+        when(ctx.getMergedJobDataMap()).thenReturn(detail.getJobDataMap());
+        when(ctx.getJobDetail()).thenReturn(detail);
+    }
+
+    @After
+    public void shutdown() {
+        healExecutor.stop();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockConsumerUuids(String... uuids) {
+        CandlepinQuery<String> query = mock(CandlepinQuery.class);
+        when(query.list()).thenReturn(Arrays.asList(uuids));
+        when(ownerCurator.getConsumerUuids(eq(owner))).thenReturn(query);
+    }
+
+    /**
+     * Records healed chunks, failing any chunk which contains the given UUID the given number of
+     * times with a deadlock
+     */
+    private void mockHeal(String failingUuid, int failures) throws Exception {
+        mockHeal(failingUuid, failures, new PessimisticLockException("Deadlock detected"));
+    }
+
+    /**
+     * Records healed chunks, failing any chunk which contains the given UUID the given number of
+     * times with the given exception
+     */
+    @SuppressWarnings("unchecked")
+    private void mockHeal(final String failingUuid, final int failures, final Exception failure)
+        throws Exception {
+
+        final int[] remaining = new int[] { failures };
+
+        when(entitler.healConsumers(eq(owner), anyCollection(), any(Date.class)))
+            .thenAnswer(new Answer<Integer>() {
+                @Override
+                public Integer answer(InvocationOnMock invocation) throws Throwable {
+                    Collection<String> uuids = (Collection<String>) invocation.getArguments()[1];
+
+                    synchronized (remaining) {
+                        if ((failingUuid == null || uuids.contains(failingUuid)) && remaining[0] != 0) {
+                            --remaining[0];
+                            throw failure;
+                        }
+                    }
+
+                    healed.add(new ArrayList<>(uuids));
+                    return uuids.size();
+                }
+            });
+    }
+
+    private List<String> getHealedUuids() {
+        List<String> uuids = new ArrayList<>();
+        for (Collection<String> chunk : healed) {
+            uuids.addAll(chunk);
+        }
+
+        Collections.sort(uuids);
+        return uuids;
+    }
+
+    @Test
+    public void healsConsumersInSortedChunks() throws Exception {
+        mockConsumerUuids("g", "c", "a", "e", "b", "f", "d");
+        mockHeal(null, 0);
+
+        job.toExecute(ctx);
+
+        assertEquals(3, healed.size());
+        assertTrue(healed.contains(Arrays.asList("a", "b", "c")));
+        assertTrue(healed.contains(Arrays.asList("d", "e", "f")));
+        assertTrue(healed.contains(Arrays.asList("g")));
+
+        verify(eventSink, times(3)).sendEvents();
+        verify(eventSink, never()).rollback();
+        verify(ctx).setResult(eq("Healed 7 of 7 consumers (0 failed); 3 of 3 chunks complete, 0 retries"));
+    }
+
+    @Test
+    public void chunksReloadTheOwner() throws Exception {
+        mockConsumerUuids("a", "b", "c", "d");
+        mockHeal(null, 0);
+
+        job.toExecute(ctx);
+
+        // Once for the job, and once for each chunk's unit of work
+        verify(ownerCurator, times(3)).lookupByKey(eq("test-owner"));
+    }
+
+    @Test
+    public void ownerDeletedDuringHealFailsRemainingChunks() throws Exception {
+        mockConsumerUuids("a", "b", "c", "d");
+        mockHeal(null, 0);
+        when(ownerCurator.lookupByKey(eq("test-owner"))).thenReturn(owner, null, null);
+
+        job.toExecute(ctx);
+
+        verifyZeroInteractions(entitler);
+        verify(ctx).setResult(eq("Healed 0 of 4 consumers (4 failed); 2 of 2 chunks complete, 0 retries"));
+    }
+
+    @Test(expected = JobExecutionException.class)
+    public void stoppedWorkersRefuseHeals() throws Exception {
+        mockConsumerUuids("a", "b", "c", "d");
+        healExecutor.stop();
+
+        job.toExecute(ctx);
+    }
+
+    @Test
+    public void failedChunkIsRetried() throws Exception {
+        mockConsumerUuids("a", "b", "c", "d");
+        mockHeal("b", 1);
+
+        job.toExecute(ctx);
+
+        assertEquals(Arrays.asList("a", "b", "c", "d"), getHealedUuids());
+        assertTrue(healed.contains(Arrays.asList("a", "b", "c")));
+
+        verify(eventSink, times(1)).rollback();
+        verify(ctx).setResult(eq("Healed 4 of 4 consumers (0 failed); 2 of 2 chunks complete, 1 retries"));
+    }
+
+    @Test
+    public void chunkExhaustingRetriesHealsConsumersIndividually() throws Exception {
+        mockConsumerUuids("a", "b", "c", "d");
+        mockHeal("b", -1);
+
+        job.toExecute(ctx);
+
+        assertEquals(Arrays.asList("a", "c", "d"), getHealedUuids());
+        assertTrue(healed.contains(Arrays.asList("a")));
+        assertTrue(healed.contains(Arrays.asList("c")));
+
+        // Two attempts at the chunk, and one at the consumer which cannot be healed
+        verify(eventSink, times(3)).rollback();
+        verify(ctx).setResult(eq("Healed 3 of 4 consumers (1 failed); 2 of 2 chunks complete, 1 retries"));
+    }
+
+    @Test
+    public void chunkFailingWithoutLockConflictIsNotRetried() throws Exception {
+        mockConsumerUuids("a", "b", "c", "d");
+        mockHeal("b", -1, new RuntimeException("Unexpected failure"));
+
+        job.toExecute(ctx);
+
+        assertEquals(Arrays.asList("a", "c", "d"), getHealedUuids());
+
+        // One attempt at the chunk, and one at the consumer which cannot be healed
+        verify(eventSink, times(2)).rollback();
+        verify(ctx).setResult(eq("Healed 3 of 4 consumers (1 failed); 2 of 2 chunks complete, 0 retries"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void refusedConsumersDoNotFailTheirChunk() throws Exception {
+        mockConsumerUuids("a", "b", "c", "d");
+
+        // The entitler skips consumers whose binds are refused, healing the rest of the chunk
+        when(entitler.healConsumers(eq(owner), anyCollection(), any(Date.class)))
+            .thenAnswer(new Answer<Integer>() {
+                @Override
+                public Integer answer(InvocationOnMock invocation) {
+                    Collection<String> uuids = (Collection<String>) invocation.getArguments()[1];
+                    return uuids.contains("b") ? uuids.size() - 1 : uuids.size();
+                }
+            });
+
+        job.toExecute(ctx);
+
+        verify(entitler, times(2)).healConsumers(eq(owner), anyCollection(), any(Date.class));
+        verify(eventSink, never()).rollback();
+        verify(ctx).setResult(eq("Healed 3 of 4 consumers (1 failed); 2 of 2 chunks complete, 0 retries"));
+    }
+
+    @Test
+    public void autobindDisabledDuringHealIsNotRetried() throws Exception {
+        mockConsumerUuids("a", "b", "c", "d");
+        mockHeal(null, -1, new AutobindDisabledForOwnerException("Auto-attach is disabled"));
+
+        job.toExecute(ctx);
+
+        assertTrue(healed.isEmpty());
+        verify(entitler, times(2)).healConsumers(eq(owner), anyCollection(), any(Date.class));
+        verify(ctx).setResult(eq("Healed 0 of 4 consumers (4 failed); 2 of 2 chunks complete, 0 retries"));
+    }
+
+    @Test
+    public void ownerWithoutConsumers() throws Exception {
+        mockConsumerUuids();
+
+        job.toExecute(ctx);
+
+        verifyZeroInteractions(entitler);
+        verify(ctx).setResult(eq("Healed 0 of 0 consumers (0 failed); 0 of 0 chunks complete, 0 retries"));
+    }
+
+    @Test(expected = JobExecutionException.class)
+    public void autobindDisabledForOwner() throws Exception {
+        owner.setAutobindDisabled(true);
+        mockConsumerUuids("a");
+
+        job.toExecute(ctx);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.pinsetter.tasks;
+
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.candlepin.common.config.MapConfiguration;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.controller.EntitlementCertificateRegenerator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.quartz.JobExecutionContext;
+
+
+
+/**
+ * RegenDirtyEntitlementCertsJobTest
+ */
+public class RegenDirtyEntitlementCertsJobTest extends BaseJobTest {
+    @Mock private EntitlementCertificateRegenerator regenerator;
+    @Mock private JobExecutionContext ctx;
+    private MapConfiguration config;
+
+    @Before
+    public void setUp() {
+        super.init();
+        MockitoAnnotations.initMocks(this);
+
+        this.config = new MapConfiguration(ConfigProperties.DEFAULT_PROPERTIES);
+    }
+
+    private void execute() throws Exception {
+        RegenDirtyEntitlementCertsJob job = new RegenDirtyEntitlementCertsJob(config, regenerator);
+        injector.injectMembers(job);
+        job.execute(ctx);
+    }
+
+    @Test
+    public void doesNothingWhenDisabled() throws Exception {
+        this.execute();
+        verify(regenerator, never()).drain(anyInt(), anyDouble());
+    }
+
+    @Test
+    public void drainsDirtyEntitlementsWithinBudget() throws Exception {
+        config.setProperty(ConfigProperties.CERT_DRAINER_ENABLED, "true");
+        config.setProperty(ConfigProperties.CERT_DRAINER_CPU_BUDGET, "0.5");
+        config.setProperty(ConfigProperties.CERT_DRAINER_MAX_PER_RUN, "500");
+
+        this.execute();
+        verify(regenerator).drain(500, 0.5);
+    }
+
+    @Test
+    public void usesDefaultBudgetWhenInvalid() throws Exception {
+        config.setProperty(ConfigProperties.CERT_DRAINER_ENABLED, "true");
+        config.setProperty(ConfigProperties.CERT_DRAINER_CPU_BUDGET, "most");
+
+        this.execute();
+        verify(regenerator).drain(10000, 0.25);
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.pki;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+
+/**
+ * Test suite for the KeyPairPool class
+ */
+public class KeyPairPoolTest {
+
+    private static List<KeyPair> keyPairs;
+
+    private Configuration config;
+    private PKIUtility pki;
+    private KeyPairPool pool;
+
+    @BeforeClass
+    public static void generateKeyPairs() throws Exception {
+        // Small keys keep the test fast; the pool does not care about the key size
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(512);
+
+        keyPairs = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            keyPairs.add(generator.generateKeyPair());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.config = mock(Configuration.class);
+        when(config.getBoolean(eq(ConfigProperties.KEY_PAIR_POOL_ENABLED), anyBoolean())).thenReturn(true);
+        when(config.getInt(eq(ConfigProperties.KEY_PAIR_POOL_SIZE), anyInt())).thenReturn(3);
+        when(config.getInt(eq(ConfigProperties.KEY_PAIR_POOL_THREADS), anyInt())).thenReturn(2);
+
+        final AtomicInteger next = new AtomicInteger();
+        this.pki = mock(PKIUtility.class);
+        when(pki.generateNewKeyPair()).thenAnswer(new Answer<KeyPair>() {
+            @Override
+            public KeyPair answer(InvocationOnMock invocation) {
+                return keyPairs.get(next.getAndIncrement() % keyPairs.size());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (this.pool != null) {
+            this.pool.stop();
+        }
+    }
+
+    private void waitForDepth(int depth) throws InterruptedException {
+        for (int i = 0; i < 500 && (Integer) pool.getStatistics().get("depth") < depth; ++i) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(depth, pool.getStatistics().get("depth"));
+    }
+
+    private KeyPair findGenerated(KeyPair pair) {
+        for (KeyPair candidate : keyPairs) {
+            if (candidate.getPublic() == pair.getPublic()) {
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
+    @Test
+    public void testDisabledPoolGeneratesInline() throws Exception {
+        when(config.getBoolean(eq(ConfigProperties.KEY_PAIR_POOL_ENABLED), anyBoolean())).thenReturn(false);
+        this.pool = new KeyPairPool(config, pki);
+        pool.start();
+
+        assertFalse(pool.isEnabled());
+        assertSame(keyPairs.get(0), pool.getKeyPair());
+        assertEquals(1L, pool.getStatistics().get("inline"));
+        assertEquals(0L, pool.getStatistics().get("generated"));
+        verify(pki, times(1)).generateNewKeyPair();
+    }
+
+    @Test
+    public void testEmptyPoolGeneratesInline() throws Exception {
+        this.pool = new KeyPairPool(config, pki);
+
+        assertSame(keyPairs.get(0), pool.getKeyPair());
+        assertEquals(1L, pool.getStatistics().get("inline"));
+        assertEquals(0L, pool.getStatistics().get("drawn"));
+    }
+
+    @Test
+    public void testPoolFillsToSize() throws Exception {
+        this.pool = new KeyPairPool(config, pki);
+        pool.start();
+        waitForDepth(3);
+
+        // Each thread generates one more pair, then waits for room in the pool
+        Thread.sleep(50);
+        assertEquals(3, pool.getStatistics().get("depth"));
+        verify(pki, times(5)).generateNewKeyPair();
+    }
+
+    @Test
+    public void testKeyPairsDrawnFromPool() throws Exception {
+        this.pool = new KeyPairPool(config, pki);
+        pool.start();
+        waitForDepth(3);
+
+        KeyPair first = pool.getKeyPair();
+        KeyPair second = pool.getKeyPair();
+
+        assertNotNull(findGenerated(first));
+        assertNotNull(findGenerated(second));
+        assertNotSame(first.getPublic(), second.getPublic());
+        assertEquals(2L, pool.getStatistics().get("drawn"));
+        assertEquals(0L, pool.getStatistics().get("inline"));
+
+        // The pool is refilled as pairs are drawn from it
+        waitForDepth(3);
+        verify(pki, atLeast(5)).generateNewKeyPair();
+    }
+
+    @Test
+    public void testEncryptedKeyPairsDecrypted() throws Exception {
+        when(config.getBoolean(eq(ConfigProperties.KEY_PAIR_POOL_ENCRYPTED), anyBoolean())).thenReturn(true);
+        this.pool = new KeyPairPool(config, pki);
+        pool.start();
+        waitForDepth(3);
+
+        KeyPair pair = pool.getKeyPair();
+        KeyPair expected = findGenerated(pair);
+
+        assertNotNull(expected);
+        assertNotSame(expected.getPrivate(), pair.getPrivate());
+        assertArrayEquals(expected.getPrivate().getEncoded(), pair.getPrivate().getEncoded());
+        assertEquals(true, pool.getStatistics().get("encrypted"));
+        assertEquals(1L, pool.getStatistics().get("drawn"));
+    }
+
+    @Test
+    public void testStoppedPoolNotRefilled() throws Exception {
+        this.pool = new KeyPairPool(config, pki);
+        pool.start();
+        waitForDepth(3);
+        pool.stop();
+
+        for (int i = 0; i < 3; ++i) {
+            pool.getKeyPair();
+        }
+
+        assertEquals(0, pool.getStatistics().get("depth"));
+
+        pool.getKeyPair();
+        assertEquals(3L, pool.getStatistics().get("drawn"));
+        assertEquals(1L, pool.getStatistics().get("inline"));
+    }
+}
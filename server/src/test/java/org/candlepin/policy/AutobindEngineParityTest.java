@@ -0,0 +1,359 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.dto.ModelTranslator;
+import org.candlepin.dto.StandardTranslator;
+import org.candlepin.jackson.ProductCachedSerializationModule;
+import org.candlepin.model.Consumer;
+import org.candlepin.model.ConsumerType;
+import org.candlepin.model.ConsumerType.ConsumerTypeEnum;
+import org.candlepin.model.Entitlement;
+import org.candlepin.model.GuestId;
+import org.candlepin.model.Owner;
+import org.candlepin.model.Pool;
+import org.candlepin.model.PoolQuantity;
+import org.candlepin.model.Product;
+import org.candlepin.model.ProductCurator;
+import org.candlepin.model.Rules;
+import org.candlepin.model.RulesCurator;
+import org.candlepin.policy.js.JsRunner;
+import org.candlepin.policy.js.JsRunnerProvider;
+import org.candlepin.policy.js.JsRunnerRequestCache;
+import org.candlepin.policy.js.RulesObjectMapper;
+import org.candlepin.policy.js.autobind.AutobindRules;
+import org.candlepin.policy.js.compliance.ComplianceStatus;
+import org.candlepin.test.TestDateUtil;
+import org.candlepin.test.TestUtil;
+import org.candlepin.util.Util;
+
+import com.google.inject.Provider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+
+
+/**
+ * Differential test harness which runs the rules and the native Java autobind engines against
+ * randomly generated, but reproducible, fleets of consumers and pools, and reports any difference
+ * in the pools and quantities selected by the two engines.
+ */
+public class AutobindEngineParityTest {
+    private static final int FLEETS = 400;
+    private static final long SEED = 20180417L;
+
+    private static final String[] ARCHES = { "x86_64", "i686", "ppc64", "s390x" };
+    private static final String[] POOL_ARCHES = { "x86_64", "x86", "ppc64", "ALL", "x86_64,ppc64", "s390x" };
+    private static final String[] SERVICE_LEVELS = { "Premium", "Standard", "Layered" };
+
+    @Mock private Provider<JsRunnerRequestCache> cacheProvider;
+    @Mock private JsRunnerRequestCache cache;
+    @Mock private RulesCurator rulesCurator;
+    @Mock private ProductCurator mockProductCurator;
+
+    private AutobindRules jsAutobindRules;
+    private AutobindRules javaAutobindRules;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        InputStream is = this.getClass().getResourceAsStream(RulesCurator.DEFAULT_RULES_FILE);
+        Rules rules = new Rules(Util.readFile(is));
+
+        when(rulesCurator.getRules()).thenReturn(rules);
+        when(rulesCurator.getUpdated()).thenReturn(TestDateUtil.date(2010, 1, 1));
+        when(cacheProvider.get()).thenReturn(cache);
+
+        this.jsAutobindRules = this.buildAutobindRules(AutobindRules.JS_ENGINE);
+        this.javaAutobindRules = this.buildAutobindRules(AutobindRules.JAVA_ENGINE);
+    }
+
+    private AutobindRules buildAutobindRules(String engine) {
+        Configuration config = mock(Configuration.class);
+        when(config.getInt(eq(ConfigProperties.PRODUCT_CACHE_MAX))).thenReturn(100);
+        when(config.getString(eq(ConfigProperties.AUTOBIND_ENGINE), anyString())).thenReturn(engine);
+
+        JsRunner jsRules = new JsRunnerProvider(rulesCurator, cacheProvider).get();
+        ModelTranslator translator = new StandardTranslator();
+
+        return new AutobindRules(jsRules, mockProductCurator,
+            new RulesObjectMapper(new ProductCachedSerializationModule(mockProductCurator)), translator,
+            config);
+    }
+
+    /**
+     * A single generated autobind scenario
+     */
+    private static class Fleet {
+        private Consumer consumer;
+        private String[] productIds;
+        private List<Pool> pools;
+        private ComplianceStatus compliance;
+        private String serviceLevelOverride;
+        private Set<String> exemptLevels;
+        private boolean considerDerived;
+    }
+
+    private static String pick(Random random, String... values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String maybe(Random random, double chance, String... values) {
+        return random.nextDouble() < chance ? pick(random, values) : null;
+    }
+
+    private static void setAttribute(Product product, String name, String value) {
+        if (value != null) {
+            product.setAttribute(name, value);
+        }
+    }
+
+    private Consumer createConsumer(Random random, Owner owner, boolean guest) {
+        Consumer consumer = new Consumer("consumer", "test user", owner,
+            new ConsumerType(ConsumerTypeEnum.SYSTEM));
+
+        consumer.setFact("cpu.cpu_socket(s)", pick(random, "1", "2", "4", "8", "16"));
+        consumer.setFact("cpu.core(s)_per_socket", pick(random, "1", "2", "4", "8"));
+        consumer.setFact("memory.memtotal", String.valueOf((1 + random.nextInt(64)) * 1024 * 1024));
+
+        if (random.nextInt(5) != 0) {
+            consumer.setFact("uname.machine", pick(random, ARCHES));
+        }
+
+        if (guest) {
+            consumer.setFact("virt.is_guest", "true");
+        }
+        else if (random.nextBoolean()) {
+            consumer.setFact("virt.is_guest", "false");
+        }
+
+        if (random.nextInt(10) == 0) {
+            consumer.setFact("band.storage.usage", String.valueOf(1 + random.nextInt(512)));
+        }
+
+        if (random.nextInt(3) == 0) {
+            consumer.setServiceLevel(pick(random, SERVICE_LEVELS));
+        }
+
+        Map<String, String> activeGuestAttrs = new HashMap<>();
+        activeGuestAttrs.put("virtWhoType", "libvirt");
+        activeGuestAttrs.put("active", "1");
+
+        int guests = random.nextInt(4) == 0 ? random.nextInt(12) : 0;
+        for (int i = 0; i < guests; ++i) {
+            consumer.addGuestId(new GuestId("guest-" + i, consumer, activeGuestAttrs));
+        }
+
+        return consumer;
+    }
+
+    private Product createSku(Random random, String id, int stacks) {
+        Product sku = TestUtil.createProduct(id, id);
+
+        setAttribute(sku, Product.Attributes.SOCKETS, maybe(random, 0.5, "1", "2", "4", "8", "0"));
+        setAttribute(sku, Product.Attributes.CORES, maybe(random, 0.25, "2", "4", "8", "16"));
+        setAttribute(sku, Product.Attributes.RAM, maybe(random, 0.25, "2", "4", "8", "16", "32"));
+        setAttribute(sku, Product.Attributes.VCPU, maybe(random, 0.2, "1", "2", "4", "8"));
+        setAttribute(sku, Product.Attributes.ARCHITECTURE, maybe(random, 0.3, POOL_ARCHES));
+        setAttribute(sku, Product.Attributes.GUEST_LIMIT, maybe(random, 0.15, "-1", "4", "8"));
+        setAttribute(sku, Product.Attributes.VIRT_ONLY, maybe(random, 0.15, "true", "false"));
+        setAttribute(sku, Product.Attributes.SUPPORT_LEVEL, maybe(random, 0.3, SERVICE_LEVELS));
+        setAttribute(sku, "storage_band", maybe(random, 0.05, "1", "256"));
+
+        if (random.nextDouble() < 0.6) {
+            sku.setAttribute(Product.Attributes.STACKING_ID, "stack-" + random.nextInt(stacks));
+            setAttribute(sku, Pool.Attributes.MULTI_ENTITLEMENT, maybe(random, 0.8, "yes", "no"));
+            setAttribute(sku, Product.Attributes.INSTANCE_MULTIPLIER, maybe(random, 0.2, "2", "4"));
+        }
+        else {
+            setAttribute(sku, Pool.Attributes.MULTI_ENTITLEMENT, maybe(random, 0.2, "yes"));
+        }
+
+        return sku;
+    }
+
+    private Pool createPool(Random random, Owner owner, String id, Product sku, List<Product> installed,
+        boolean guest) {
+
+        List<Product> provided = new ArrayList<>();
+        for (Product product : installed) {
+            if (random.nextInt(3) == 0) {
+                provided.add(product);
+            }
+        }
+
+        Pool pool;
+        if (random.nextInt(5) == 0) {
+            Product derived = TestUtil.createProduct("derived-" + id, "derived-" + id);
+            pool = TestUtil.createPool(owner, sku, provided, derived,
+                Collections.singletonList(installed.get(random.nextInt(installed.size()))), 1);
+        }
+        else {
+            pool = TestUtil.createPool(owner, sku, provided, 1);
+        }
+
+        pool.setId(id);
+
+        long quantity = random.nextInt(6) == 0 ? -1 : 1 + random.nextInt(20);
+        pool.setQuantity(quantity);
+        pool.setConsumed(quantity > 0 ? (long) random.nextInt((int) quantity + 1) : 0L);
+        pool.setEndDate(TestUtil.createDate(2030 + random.nextInt(3), 1 + random.nextInt(12), 1));
+        pool.setHasSharedAncestor(random.nextInt(8) == 0);
+
+        if (guest && random.nextInt(4) == 0) {
+            pool.setAttribute(Pool.Attributes.REQUIRES_HOST, "host-uuid");
+        }
+
+        if (random.nextInt(10) == 0) {
+            pool.setAttribute(Pool.Attributes.VIRT_ONLY, "true");
+        }
+
+        return pool;
+    }
+
+    private Entitlement createEntitlement(String id, Pool pool, int quantity) {
+        Entitlement entitlement = new Entitlement();
+        entitlement.setId(id);
+        entitlement.setPool(pool);
+        entitlement.setQuantity(quantity);
+        return entitlement;
+    }
+
+    private Fleet generateFleet(Random random) {
+        Fleet fleet = new Fleet();
+
+        Owner owner = new Owner("owner");
+        if (random.nextInt(4) == 0) {
+            owner.setDefaultServiceLevel(pick(random, SERVICE_LEVELS));
+        }
+
+        boolean guest = random.nextInt(3) == 0;
+        fleet.consumer = this.createConsumer(random, owner, guest);
+
+        List<Product> installed = new ArrayList<>();
+        int installedCount = 1 + random.nextInt(4);
+        for (int i = 0; i < installedCount; ++i) {
+            installed.add(TestUtil.createProduct("installed-" + i, "installed-" + i));
+        }
+
+        int stacks = 1 + random.nextInt(3);
+        int poolCount = 1 + random.nextInt(8);
+        fleet.pools = new ArrayList<>();
+
+        for (int i = 0; i < poolCount; ++i) {
+            // Reuse SKUs occasionally so stacks contain several pools of the same product
+            Product sku = i > 0 && random.nextInt(4) == 0 ?
+                fleet.pools.get(random.nextInt(i)).getProduct() :
+                this.createSku(random, "sku-" + i, stacks);
+
+            fleet.pools.add(this.createPool(random, owner, "pool-" + i, sku, installed, guest));
+        }
+
+        fleet.productIds = new String[installed.size()];
+        for (int i = 0; i < installed.size(); ++i) {
+            fleet.productIds[i] = installed.get(i).getId();
+        }
+
+        fleet.compliance = new ComplianceStatus();
+
+        if (random.nextInt(4) == 0) {
+            // An existing partial stack the autobind should try to complete
+            Product sku = this.createSku(random, "attached-sku", stacks);
+            sku.setAttribute(Product.Attributes.STACKING_ID, "stack-" + random.nextInt(stacks));
+            Pool pool = this.createPool(random, owner, "attached-pool", sku, installed, guest);
+
+            fleet.compliance.addPartialStack(sku.getAttributeValue(Product.Attributes.STACKING_ID),
+                this.createEntitlement("attached-ent", pool, 1 + random.nextInt(2)));
+        }
+
+        if (installed.size() > 1 && random.nextInt(4) == 0) {
+            Product sku = TestUtil.createProduct("compliant-sku", "compliant-sku");
+            Pool pool = TestUtil.createPool(owner, sku, Collections.singletonList(installed.get(0)), 10);
+            pool.setId("compliant-pool");
+
+            fleet.compliance.addCompliantProduct(installed.get(0).getId(),
+                this.createEntitlement("compliant-ent", pool, 1));
+        }
+
+        fleet.serviceLevelOverride = random.nextInt(8) == 0 ? pick(random, SERVICE_LEVELS) : null;
+        fleet.exemptLevels = random.nextInt(4) == 0 ?
+            new HashSet<>(Arrays.asList("Layered")) : new HashSet<>();
+        fleet.considerDerived = random.nextInt(5) == 0;
+
+        return fleet;
+    }
+
+    private String describe(List<PoolQuantity> selection) {
+        StringBuilder builder = new StringBuilder("[");
+        for (PoolQuantity pq : selection) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+
+            builder.append(pq.getPool().getId()).append('=').append(pq.getQuantity());
+        }
+
+        return builder.append(']').toString();
+    }
+
+    @Test
+    public void testEnginesSelectSamePoolsForGeneratedFleets() {
+        Random random = new Random(SEED);
+        List<String> differences = new ArrayList<>();
+
+        for (int i = 0; i < FLEETS; ++i) {
+            Fleet fleet = this.generateFleet(random);
+
+            String jsResult = this.describe(this.jsAutobindRules.selectBestPools(fleet.consumer,
+                fleet.productIds, fleet.pools, fleet.compliance, fleet.serviceLevelOverride,
+                fleet.exemptLevels, fleet.considerDerived));
+
+            String javaResult = this.describe(this.javaAutobindRules.selectBestPools(fleet.consumer,
+                fleet.productIds, fleet.pools, fleet.compliance, fleet.serviceLevelOverride,
+                fleet.exemptLevels, fleet.considerDerived));
+
+            if (!jsResult.equals(javaResult)) {
+                differences.add(String.format("fleet %d: js selected %s, java selected %s", i, jsResult,
+                    javaResult));
+            }
+        }
+
+        assertTrue("Autobind engines differ on " + differences.size() + " of " + FLEETS +
+            " fleets:\n" + String.join("\n", differences), differences.isEmpty());
+    }
+}
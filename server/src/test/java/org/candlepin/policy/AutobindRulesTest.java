@@ -18,6 +18,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.when;
 
@@ -94,6 +95,8 @@ public class AutobindRulesTest {
         MockitoAnnotations.initMocks(this);
 
         when(config.getInt(eq(ConfigProperties.PRODUCT_CACHE_MAX))).thenReturn(100);
+        when(config.getString(eq(ConfigProperties.AUTOBIND_ENGINE), anyString()))
+            .thenReturn(this.getAutobindEngine());
 
         InputStream is = this.getClass().getResourceAsStream(RulesCurator.DEFAULT_RULES_FILE);
         Rules rules = new Rules(Util.readFile(is));
@@ -105,7 +108,8 @@ public class AutobindRulesTest {
 
         translator = new StandardTranslator();
         autobindRules = new AutobindRules(jsRules, mockProductCurator,
-            new RulesObjectMapper(new ProductCachedSerializationModule(mockProductCurator)), translator);
+            new RulesObjectMapper(new ProductCachedSerializationModule(mockProductCurator)), translator,
+            config);
 
         owner = new Owner();
         consumer = new Consumer("test consumer", "test user", owner,
@@ -116,6 +120,10 @@ public class AutobindRulesTest {
         activeGuestAttrs.put("active", "1");
     }
 
+    protected String getAutobindEngine() {
+        return AutobindRules.JS_ENGINE;
+    }
+
 
     @Test
     public void testFindBestWithSingleProductSinglePoolReturnsProvidedPool() {
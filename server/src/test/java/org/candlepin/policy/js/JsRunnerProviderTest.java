@@ -14,19 +14,29 @@
  */
 package org.candlepin.policy.js;
 
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Map;
 
+import org.candlepin.config.CandlepinCommonTestConfig;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.jackson.ProductCachedSerializationModule;
+import org.candlepin.model.ProductCurator;
 import org.candlepin.model.Rules;
 import org.candlepin.model.Rules.RulesSourceEnum;
 import org.candlepin.model.RulesCurator;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -46,6 +56,8 @@ public class JsRunnerProviderTest {
     private Date time1;
     private JsRunnerProvider provider;
 
+    @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
@@ -54,7 +66,9 @@ public class JsRunnerProviderTest {
         when(rulesCurator.getRules()).thenReturn(rules);
         when(rules.getRules()).thenReturn("");
         when(rules.getRulesSource()).thenReturn(RulesSourceEnum.DATABASE);
-        provider = new JsRunnerProvider(rulesCurator, cacheProvider);
+        CandlepinCommonTestConfig config = new CandlepinCommonTestConfig();
+        config.setProperty(ConfigProperties.RULES_REQUEST_VERSION_CHECK, "true");
+        provider = new JsRunnerProvider(rulesCurator, cacheProvider, config);
     }
 
     @Test
@@ -99,4 +113,285 @@ public class JsRunnerProviderTest {
         verify(rulesCurator, times(3)).getUpdated();
     }
 
+    @Test
+    public void rulesVersionIsNotCheckedPerRequestByDefault() {
+        JsRunnerProvider pushed = new JsRunnerProvider(rulesCurator, cacheProvider,
+            new CandlepinCommonTestConfig());
+
+        pushed.get();
+        pushed.get();
+
+        // Only the initial compiles of the two providers read the rules version
+        verify(rulesCurator, times(2)).getUpdated();
+        verifyNoMoreInteractions(cacheProvider);
+    }
+
+    @Test
+    public void refreshRecompilesOnlyChangedRules() {
+        JsRunnerProvider pushed = new JsRunnerProvider(rulesCurator, cacheProvider,
+            new CandlepinCommonTestConfig());
+
+        // The rules have been compiled once by each provider
+        Assert.assertFalse(pushed.refreshRules());
+        verify(rulesCurator, times(2)).getRules();
+
+        when(rulesCurator.getUpdated()).thenReturn(new Date(time1.getTime() + 1000));
+        when(rules.getVersion()).thenReturn("2.0");
+
+        Assert.assertTrue(pushed.refreshRules());
+        Assert.assertEquals("2.0", pushed.getRulesVersion());
+        Assert.assertFalse(pushed.refreshRules());
+        verify(rulesCurator, times(3)).getRules();
+    }
+
+    private static final String POOL_RULES = "function test_name_space() { return Test; }\n" +
+        "var Test = { get_value: function() { " +
+        "return typeof value == 'undefined' ? 'none' : String(value); } };";
+
+    private JsRunnerProvider createPooledProvider(int size, long maxWait) {
+        CandlepinCommonTestConfig config = new CandlepinCommonTestConfig();
+        config.setProperty(ConfigProperties.RULES_SCOPE_POOL_SIZE, String.valueOf(size));
+        config.setProperty(ConfigProperties.RULES_SCOPE_POOL_PREWARM, "1");
+        config.setProperty(ConfigProperties.RULES_SCOPE_POOL_MAX_WAIT, String.valueOf(maxWait));
+
+        when(rules.getRules()).thenReturn(POOL_RULES);
+        when(cacheProvider.get()).thenReturn(new JsRunnerRequestCache());
+        return new JsRunnerProvider(rulesCurator, cacheProvider, config);
+    }
+
+    private String getValue(JsRunner runner, Object value) {
+        ArgumentJsContext args = new ArgumentJsContext();
+        if (value != null) {
+            args.put("value", value);
+        }
+
+        return runner.runJsFunction(String.class, "get_value", args);
+    }
+
+    @Test
+    public void pooledScopesAreReused() {
+        JsRunnerProvider pooled = createPooledProvider(4, 0L);
+
+        JsRunner runner = pooled.get();
+        runner.init("test_name_space");
+        Assert.assertEquals("1", getValue(runner, 1));
+        JsRunner other = pooled.get();
+        other.init("test_name_space");
+        Assert.assertEquals("2", getValue(other, 2));
+
+        Map<String, Object> stats = pooled.getScopePoolStatistics();
+        Assert.assertEquals(1L, stats.get("created"));
+        Assert.assertEquals(1, stats.get("idle"));
+        Assert.assertEquals(0L, stats.get("active"));
+        Assert.assertEquals(4L, stats.get("reused"));
+    }
+
+    @Test
+    public void argumentsDoNotLeakBetweenInvocations() {
+        JsRunner runner = createPooledProvider(1, 0L).get();
+        runner.init("test_name_space");
+
+        Assert.assertEquals("secret", getValue(runner, "secret"));
+        Assert.assertEquals("none", getValue(runner, null));
+    }
+
+    @Test
+    public void rulesContextDoesNotOutliveInvocation() {
+        CandlepinCommonTestConfig config = new CandlepinCommonTestConfig();
+        config.setProperty(ConfigProperties.RULES_SCOPE_POOL_SIZE, "1");
+        config.setProperty(ConfigProperties.RULES_SCOPE_POOL_PREWARM, "1");
+
+        // As the rules do, the context is assigned to an undeclared variable
+        when(rules.getRules()).thenReturn("function test_name_space() { return Test; }\n" +
+            "var Test = { get_value: function() { " +
+            "var previous = typeof context == 'undefined' ? 'none' : String(context); " +
+            "context = value; return previous; } };");
+        when(cacheProvider.get()).thenReturn(new JsRunnerRequestCache());
+
+        JsRunnerProvider pooled = new JsRunnerProvider(rulesCurator, cacheProvider, config);
+        JsRunner runner = pooled.get();
+        runner.init("test_name_space");
+
+        Assert.assertEquals("none", getValue(runner, "first"));
+        Assert.assertEquals("none", getValue(runner, "second"));
+        Assert.assertEquals(1L, pooled.getScopePoolStatistics().get("created"));
+    }
+
+    @Test
+    public void exhaustedPoolFallsBackToUnpooledScopes() {
+        JsRunnerProvider pooled = createPooledProvider(1, 10L);
+        JsRunner runner = pooled.get();
+        runner.init("test_name_space");
+
+        // Hold the only pooled scope while another invocation runs
+        JsScopePool pool = pooled.getScopePool();
+        JsScopePool.PooledScope held = pool.borrow("test_name_space");
+        try {
+            Assert.assertEquals("3", getValue(runner, 3));
+        }
+        finally {
+            pool.release(held, null);
+        }
+
+        Map<String, Object> stats = pooled.getScopePoolStatistics();
+        Assert.assertEquals(1L, stats.get("overflows"));
+        Assert.assertEquals(1L, stats.get("waits"));
+        Assert.assertEquals(1, stats.get("idle"));
+    }
+
+    @Test
+    public void recompileInvalidatesPooledScopes() {
+        JsRunnerProvider pooled = createPooledProvider(4, 0L);
+        JsRunner oldRunner = pooled.get();
+        oldRunner.init("test_name_space");
+
+        when(rules.getRules()).thenReturn(POOL_RULES.replace("String(value)", "'new ' + value"));
+        when(rulesCurator.getUpdated()).thenReturn(new Date(time1.getTime() + 1000));
+        pooled.compileRules();
+
+        JsRunner newRunner = pooled.get();
+        newRunner.init("test_name_space");
+
+        Assert.assertEquals("new 1", getValue(newRunner, 1));
+        // Runners created before the recompile keep the rules they were created with
+        Assert.assertEquals("1", getValue(oldRunner, 1));
+
+        Map<String, Object> stats = pooled.getScopePoolStatistics();
+        Assert.assertEquals(1L, stats.get("invalidations"));
+        Assert.assertEquals(1, stats.get("idle"));
+    }
+
+    @Test
+    public void disabledPoolCreatesScopePerRunner() {
+        CandlepinCommonTestConfig config = new CandlepinCommonTestConfig();
+        config.setProperty(ConfigProperties.RULES_SCOPE_POOL_ENABLED, "false");
+        when(rules.getRules()).thenReturn(POOL_RULES);
+        when(cacheProvider.get()).thenReturn(new JsRunnerRequestCache());
+
+        JsRunnerProvider unpooled = new JsRunnerProvider(rulesCurator, cacheProvider, config);
+        JsRunner runner = unpooled.get();
+        runner.init("test_name_space");
+
+        Assert.assertEquals("1", getValue(runner, 1));
+        Assert.assertEquals(0L, unpooled.getScopePoolStatistics().get("borrowed"));
+    }
+
+    private static final String CONTEXT_RULES = "function test_name_space() { return Test; }\n" +
+        "var Test = { get_mode: function() { var context = %s; " +
+        "return (typeof native_context === 'function' ? 'native ' : 'json ') + " +
+        "context.value + ' ' + context.values.length; } };\n";
+
+    private static final String PARSE_CONTEXT = "function parse_json_context() { " +
+        "return typeof native_context === 'function' ? native_context() : JSON.parse(json_context); }\n";
+
+    private String getContextMode(String rulesText, boolean nativeContexts) {
+        CandlepinCommonTestConfig config = new CandlepinCommonTestConfig();
+        config.setProperty(ConfigProperties.RULES_NATIVE_CONTEXTS, String.valueOf(nativeContexts));
+        when(rules.getRules()).thenReturn(rulesText);
+
+        JsRunner runner = new JsRunnerProvider(rulesCurator, cacheProvider, config).get();
+        runner.init("test_name_space");
+
+        JsonJsContext args = new JsonJsContext(
+            new RulesObjectMapper(new ProductCachedSerializationModule(mock(ProductCurator.class))));
+        args.put("value", 7);
+        args.put("values", Arrays.asList("a", "b"));
+
+        return runner.runJsFunction(String.class, "get_mode", args);
+    }
+
+    @Test
+    public void nativeContextsUsedWhenSupportedByRules() {
+        String rulesText = PARSE_CONTEXT + String.format(CONTEXT_RULES, "parse_json_context()");
+
+        Assert.assertEquals("native 7 2", getContextMode(rulesText, true));
+        Assert.assertEquals("json 7 2", getContextMode(rulesText, false));
+    }
+
+    @Test
+    public void jsonContextsUsedForOlderRules() {
+        String rulesText = String.format(CONTEXT_RULES, "JSON.parse(json_context)");
+
+        Assert.assertEquals("json 7 2", getContextMode(rulesText, true));
+    }
+
+    private JsRunnerProvider createCachingProvider(File cacheDir) {
+        CandlepinCommonTestConfig config = new CandlepinCommonTestConfig();
+        config.setProperty(ConfigProperties.RULES_COMPILED_CACHE_DIR, cacheDir.getPath());
+        return new JsRunnerProvider(rulesCurator, cacheProvider, config);
+    }
+
+    @Test
+    public void compiledRulesAreLoadedFromCache() throws Exception {
+        File cacheDir = tempFolder.newFolder("rules-cache");
+        when(rules.getRules()).thenReturn(POOL_RULES);
+        when(rules.getVersion()).thenReturn("5.0");
+
+        JsRunnerProvider cold = createCachingProvider(cacheDir);
+        Assert.assertEquals("cold", cold.getCompileStatistics().get("startup"));
+        Assert.assertEquals(1, cacheDir.list().length);
+
+        JsRunnerProvider warm = createCachingProvider(cacheDir);
+        Map<String, Object> stats = warm.getCompileStatistics();
+        Assert.assertEquals("warm", stats.get("startup"));
+        Assert.assertEquals(1L, stats.get("warm_loads"));
+        Assert.assertEquals(0L, stats.get("cold_compiles"));
+
+        JsRunner runner = warm.get();
+        runner.init("test_name_space");
+        Assert.assertEquals("cached", getValue(runner, "cached"));
+    }
+
+    @Test
+    public void changedRulesAreNotLoadedFromCache() throws Exception {
+        File cacheDir = tempFolder.newFolder("rules-cache");
+        when(rules.getRules()).thenReturn(POOL_RULES);
+        when(rules.getVersion()).thenReturn("5.0");
+        createCachingProvider(cacheDir);
+
+        // Same version, different rules
+        when(rules.getRules()).thenReturn(POOL_RULES.replace("'none'", "'changed'"));
+        JsRunnerProvider changed = createCachingProvider(cacheDir);
+        Assert.assertEquals("cold", changed.getCompileStatistics().get("startup"));
+
+        JsRunner runner = changed.get();
+        runner.init("test_name_space");
+        Assert.assertEquals("changed", getValue(runner, null));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void profiledCallsAreRecorded() {
+        CandlepinCommonTestConfig config = new CandlepinCommonTestConfig();
+        config.setProperty(ConfigProperties.RULES_PROFILER_ENABLED, "true");
+        when(rules.getRules()).thenReturn(
+            PARSE_CONTEXT + String.format(CONTEXT_RULES, "parse_json_context()"));
+
+        JsRunnerProvider profiled = new JsRunnerProvider(rulesCurator, cacheProvider, config);
+        JsRunner runner = profiled.get();
+        runner.init("test_name_space");
+
+        JsonJsContext args = new JsonJsContext(
+            new RulesObjectMapper(new ProductCachedSerializationModule(mock(ProductCurator.class))));
+        args.put("value", 7);
+        args.put("values", Arrays.asList("a", "b"));
+
+        String result = runner.runJsFunction(String.class, "get_mode", args);
+        runner.recordDeserialization("get_mode", System.nanoTime());
+
+        Map<String, Object> namespaces = (Map<String, Object>)
+            profiled.getProfiler().getStatistics().get("namespaces");
+        Map<String, Object> functions = (Map<String, Object>)
+            ((Map<String, Object>) namespaces.get("test_name_space")).get("functions");
+        Map<String, Object> function = (Map<String, Object>) functions.get("get_mode");
+
+        for (String phase : Arrays.asList("serialization", "script", "deserialization")) {
+            Assert.assertEquals(1L, ((Map<String, Object>) function.get(phase)).get("count"));
+        }
+
+        Assert.assertEquals((long) "{\"values\":[\"a\",\"b\"],\"value\":7}".length(),
+            ((Map<String, Object>) function.get("input_size")).get("max"));
+        Assert.assertEquals((long) result.length(),
+            ((Map<String, Object>) function.get("output_size")).get("max"));
+    }
 }
@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js;
+
+import static org.junit.Assert.*;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+
+public class RulesClassCacheTest {
+    @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File directory;
+    private RulesClassCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+
+        this.directory = new File(tempFolder.getRoot(), "rules");
+        this.cache = new RulesClassCache(this.directory);
+    }
+
+    private Map<String, byte[]> createClasses() {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        classes.put("test.Main", new byte[] { 1, 2, 3 });
+        classes.put("test.Aux", new byte[] { 4, 5 });
+
+        return classes;
+    }
+
+    @Test
+    public void storedClassesAreReturned() {
+        String checksum = RulesClassCache.checksum("rules", "Rhino 1.7", 9);
+        cache.put("5.0", checksum, createClasses());
+
+        Map<String, byte[]> classes = cache.get("5.0", checksum);
+
+        assertNotNull(classes);
+        assertArrayEquals(new String[] { "test.Main", "test.Aux" }, classes.keySet().toArray());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, classes.get("test.Main"));
+        assertArrayEquals(new byte[] { 4, 5 }, classes.get("test.Aux"));
+    }
+
+    @Test
+    public void checksumCoversRulesAndCompiler() {
+        String checksum = RulesClassCache.checksum("rules", "Rhino 1.7", 9);
+
+        assertFalse(checksum.equals(RulesClassCache.checksum("rules2", "Rhino 1.7", 9)));
+        assertFalse(checksum.equals(RulesClassCache.checksum("rules", "Rhino 1.8", 9)));
+        assertFalse(checksum.equals(RulesClassCache.checksum("rules", "Rhino 1.7", 0)));
+    }
+
+    @Test
+    public void unknownRulesAreNotReturned() {
+        String checksum = RulesClassCache.checksum("rules", "Rhino 1.7", 9);
+        cache.put("5.0", checksum, createClasses());
+
+        assertNull(cache.get("5.1", checksum));
+        assertNull(cache.get("5.0", RulesClassCache.checksum("other", "Rhino 1.7", 9)));
+    }
+
+    @Test
+    public void corruptEntriesAreDiscarded() throws Exception {
+        String checksum = RulesClassCache.checksum("rules", "Rhino 1.7", 9);
+        cache.put("5.0", checksum, createClasses());
+
+        File file = cache.getFile("5.0", checksum);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] { 0, 1, 2 });
+        }
+
+        assertNull(cache.get("5.0", checksum));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void oldEntriesArePruned() {
+        for (int i = 0; i < 8; i++) {
+            cache.put("5." + i, RulesClassCache.checksum("rules" + i, "Rhino 1.7", 9), createClasses());
+        }
+
+        assertEquals(5, directory.list().length);
+    }
+
+    @Test
+    public void directoryIsOnlyAccessibleToOwner() throws Exception {
+        cache.put("5.0", RulesClassCache.checksum("rules", "Rhino 1.7", 9), createClasses());
+
+        assertEquals("rwx------", PosixFilePermissions.toString(
+            Files.getPosixFilePermissions(directory.toPath())));
+    }
+
+    @Test
+    public void entriesInDirectoryWritableByOthersAreNotLoaded() throws Exception {
+        String checksum = RulesClassCache.checksum("rules", "Rhino 1.7", 9);
+        cache.put("5.0", checksum, createClasses());
+
+        Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwxrwxrwx"));
+
+        assertNull(cache.get("5.0", checksum));
+        assertTrue(cache.getFile("5.0", checksum).exists());
+    }
+
+    @Test
+    public void entriesWritableByOthersAreNotLoaded() throws Exception {
+        String checksum = RulesClassCache.checksum("rules", "Rhino 1.7", 9);
+        cache.put("5.0", checksum, createClasses());
+
+        File file = cache.getFile("5.0", checksum);
+        Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-rw-r--"));
+
+        assertNull(cache.get("5.0", checksum));
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void symbolicLinkedEntriesAreNotLoaded() throws Exception {
+        String checksum = RulesClassCache.checksum("rules", "Rhino 1.7", 9);
+        cache.put("5.0", checksum, createClasses());
+
+        File file = cache.getFile("5.0", checksum);
+        File target = tempFolder.newFile();
+        Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.createSymbolicLink(file.toPath(), target.toPath());
+
+        assertNull(cache.get("5.0", checksum));
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.dto.rules.v1.PoolDTO;
+import org.candlepin.jackson.ProductCachedSerializationModule;
+import org.candlepin.model.ProductCurator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+
+/**
+ * Test suite for the RulesFragmentCache class
+ */
+public class RulesFragmentCacheTest {
+
+    private Configuration config;
+    private ProductCachedSerializationModule module;
+
+    @Before
+    public void setUp() {
+        this.config = mock(Configuration.class);
+        when(config.getBoolean(eq(ConfigProperties.RULES_FRAGMENT_CACHE_ENABLED), anyBoolean()))
+            .thenReturn(true);
+        when(config.getInt(eq(ConfigProperties.RULES_FRAGMENT_CACHE_MAX_SIZE), anyInt())).thenReturn(2);
+
+        this.module = new ProductCachedSerializationModule(mock(ProductCurator.class));
+    }
+
+    private PoolDTO createPool(String id) {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("multi-entitlement", "yes");
+
+        Map<String, String> productAttributes = new HashMap<>();
+        productAttributes.put("sockets", "2");
+        productAttributes.put("stacking_id", "stack");
+
+        PoolDTO pool = new PoolDTO()
+            .setId(id)
+            .setQuantity(10L)
+            .setConsumed(2L)
+            .setStartDate(new Date(1000000L))
+            .setEndDate(new Date(2000000L))
+            .setProductId("product")
+            .setAttributes(attributes)
+            .setProductAttributes(productAttributes);
+
+        pool.addProvidedProduct(new PoolDTO.ProvidedProductDTO("provided", "Provided Product"));
+        return pool;
+    }
+
+    private Map<String, Object> createContext(PoolDTO... pools) {
+        Map<String, Object> context = new HashMap<>();
+        context.put("pools", Arrays.asList(pools));
+        context.put("quantity", 1);
+
+        return context;
+    }
+
+    @Test
+    public void testDisabledCacheReturnsNoFragments() {
+        when(config.getBoolean(eq(ConfigProperties.RULES_FRAGMENT_CACHE_ENABLED), anyBoolean()))
+            .thenReturn(false);
+
+        RulesFragmentCache cache = new RulesFragmentCache(config);
+
+        assertFalse(cache.isEnabled());
+        assertNull(cache.getFragment(this.createPool("pool")));
+    }
+
+    @Test
+    public void testFragmentReusedForEqualPool() {
+        RulesFragmentCache cache = new RulesFragmentCache(config);
+
+        RulesFragmentCache.Fragment fragment = cache.getFragment(this.createPool("pool"));
+        fragment.setJson("{}");
+
+        assertSame(fragment, cache.getFragment(this.createPool("pool")));
+        assertEquals(1L, cache.getStatistics().get("hits"));
+        assertEquals(1L, cache.getStatistics().get("misses"));
+    }
+
+    @Test
+    public void testFragmentReplacedWhenPoolChanges() {
+        RulesFragmentCache cache = new RulesFragmentCache(config);
+        PoolDTO pool = this.createPool("pool");
+
+        RulesFragmentCache.Fragment fragment = cache.getFragment(pool);
+        fragment.setJson("{}");
+
+        // The cached copy of the pool must not be affected by changes to the pool
+        Map<String, String> productAttributes = new HashMap<>(pool.getProductAttributes());
+        productAttributes.put("sockets", "4");
+        pool.setProductAttributes(productAttributes);
+
+        RulesFragmentCache.Fragment updated = cache.getFragment(pool);
+        assertNotSame(fragment, updated);
+        assertNull(updated.getJson());
+        assertEquals(2L, cache.getStatistics().get("misses"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedFragmentsEvicted() {
+        RulesFragmentCache cache = new RulesFragmentCache(config);
+
+        cache.getFragment(this.createPool("pool1"));
+        cache.getFragment(this.createPool("pool2"));
+        cache.getFragment(this.createPool("pool1"));
+        cache.getFragment(this.createPool("pool3"));
+
+        Map<String, Object> stats = cache.getStatistics();
+        assertEquals(2, stats.get("size"));
+        assertEquals(1L, stats.get("evictions"));
+
+        cache.getFragment(this.createPool("pool1"));
+        assertEquals(2L, cache.getStatistics().get("hits"));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.getStatistics().get("size"));
+    }
+
+    @Test
+    public void testCachedJsonMatchesUncachedJson() {
+        RulesObjectMapper uncached = new RulesObjectMapper(this.module);
+        RulesObjectMapper cached = new RulesObjectMapper(this.module, new RulesFragmentCache(config));
+
+        Map<String, Object> context = this.createContext(this.createPool("pool1"), this.createPool("pool2"));
+        String expected = uncached.toJsonString(context);
+
+        assertEquals(expected, cached.toJsonString(context));
+        assertEquals(expected, cached.toJsonString(context));
+    }
+
+    @Test
+    public void testCachedTreeMatchesUncachedTree() {
+        RulesObjectMapper uncached = new RulesObjectMapper(this.module);
+        RulesObjectMapper cached = new RulesObjectMapper(this.module, new RulesFragmentCache(config));
+
+        Map<String, Object> context = this.createContext(this.createPool("pool1"), this.createPool("pool2"));
+
+        assertEquals(uncached.toJsonTree(context), cached.toJsonTree(context));
+        assertEquals(uncached.toJsonTree(context), cached.toJsonTree(context));
+        assertEquals(uncached.toJsonString(context), cached.toJsonTree(context).toString());
+    }
+
+    @Test
+    public void testChangedPoolReserialized() {
+        RulesFragmentCache cache = new RulesFragmentCache(config);
+        RulesObjectMapper uncached = new RulesObjectMapper(this.module);
+        RulesObjectMapper cached = new RulesObjectMapper(this.module, cache);
+
+        PoolDTO pool = this.createPool("pool");
+        List<Object> pools = Arrays.asList((Object) pool);
+        Map<String, Object> context = new HashMap<>();
+        context.put("pools", pools);
+
+        cached.toJsonString(context);
+        cached.toJsonTree(context);
+
+        pool.setConsumed(5L);
+
+        assertEquals(uncached.toJsonString(context), cached.toJsonString(context));
+        assertEquals(uncached.toJsonTree(context), cached.toJsonTree(context));
+        assertTrue(cached.toJsonString(context).contains("\"consumed\":5"));
+    }
+}
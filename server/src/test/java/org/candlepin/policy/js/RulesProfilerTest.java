@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js;
+
+import static org.junit.Assert.*;
+
+import org.candlepin.policy.js.RulesProfiler.Phase;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+
+public class RulesProfilerTest {
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getMap(Map<String, Object> map, String... keys) {
+        Map<String, Object> output = map;
+        for (String key : keys) {
+            output = (Map<String, Object>) output.get(key);
+        }
+
+        return output;
+    }
+
+    @Test
+    public void disabledProfilerRecordsNothing() {
+        RulesProfiler profiler = new RulesProfiler(false);
+
+        profiler.recordTime("compliance_name_space", "get_status", Phase.SCRIPT, 1000L);
+        profiler.recordPayload("compliance_name_space", "get_status", 10, 10);
+
+        Map<String, Object> stats = profiler.getStatistics();
+        assertEquals(false, stats.get("enabled"));
+        assertTrue(getMap(stats, "namespaces").isEmpty());
+    }
+
+    @Test
+    public void phasesAreRecordedPerFunction() {
+        RulesProfiler profiler = new RulesProfiler(true);
+
+        profiler.recordTime("compliance_name_space", "get_status", Phase.SERIALIZATION,
+            TimeUnit.MICROSECONDS.toNanos(200));
+        profiler.recordTime("compliance_name_space", "get_status", Phase.SCRIPT,
+            TimeUnit.MILLISECONDS.toNanos(2));
+        profiler.recordTime("compliance_name_space", "get_status", Phase.SCRIPT,
+            TimeUnit.MILLISECONDS.toNanos(4));
+        profiler.recordTime("compliance_name_space", "is_stack_compliant", Phase.SCRIPT,
+            TimeUnit.MILLISECONDS.toNanos(1));
+        profiler.recordPayload("compliance_name_space", "get_status", 100, 40);
+        profiler.recordPayload("compliance_name_space", "get_status", 300, -1);
+
+        Map<String, Object> namespace = getMap(profiler.getStatistics(), "namespaces",
+            "compliance_name_space");
+        assertEquals(0.2, namespace.get("serialization_ms"));
+        assertEquals(7.0, namespace.get("script_ms"));
+        assertEquals(0.0, namespace.get("deserialization_ms"));
+
+        Map<String, Object> function = getMap(namespace, "functions", "get_status");
+        Map<String, Object> script = getMap(function, "script");
+        assertEquals(2L, script.get("count"));
+        assertEquals(6.0, script.get("total_ms"));
+        assertEquals(3.0, script.get("mean_ms"));
+        assertEquals(4.0, script.get("max_ms"));
+        assertEquals(2L, getMap(script, "histogram").get("<5ms"));
+        assertEquals(1L, getMap(function, "serialization", "histogram").get("<0.5ms"));
+
+        Map<String, Object> input = getMap(function, "input_size");
+        assertEquals(2L, input.get("count"));
+        assertEquals(200L, input.get("mean"));
+        assertEquals(300L, input.get("max"));
+        assertEquals(1L, getMap(function, "output_size").get("count"));
+
+        assertNotNull(getMap(namespace, "functions", "is_stack_compliant"));
+    }
+
+    @Test
+    public void resetDiscardsStatistics() {
+        RulesProfiler profiler = new RulesProfiler(true);
+        profiler.recordTime("quantity_name_space", "get_suggested_quantity", Phase.SCRIPT, 1000L);
+
+        profiler.reset();
+
+        assertTrue(getMap(profiler.getStatistics(), "namespaces").isEmpty());
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js;
+
+import static org.mockito.Mockito.*;
+
+import org.candlepin.config.CandlepinCommonTestConfig;
+import org.candlepin.config.ConfigProperties;
+
+import com.google.inject.persist.UnitOfWork;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+
+@RunWith(MockitoJUnitRunner.class)
+public class RulesVersionPollerTest {
+    @Mock private ScheduledExecutorService execService;
+    @Mock private JsRunnerProvider jsProvider;
+    @Mock private UnitOfWork unitOfWork;
+
+    private CandlepinCommonTestConfig config;
+
+    @Before
+    public void setUp() {
+        this.config = new CandlepinCommonTestConfig();
+    }
+
+    @Test
+    public void schedulesPeriodicChecks() {
+        config.setProperty(ConfigProperties.RULES_VERSION_POLL_INTERVAL, "15");
+        RulesVersionPoller poller = new RulesVersionPoller(config, execService, jsProvider, unitOfWork);
+
+        poller.startPeriodicExecutions();
+
+        verify(execService).scheduleWithFixedDelay(eq(poller), eq(15L), eq(15L), eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void disabledPollerIsNotScheduled() {
+        config.setProperty(ConfigProperties.RULES_VERSION_POLL_INTERVAL, "0");
+        RulesVersionPoller poller = new RulesVersionPoller(config, execService, jsProvider, unitOfWork);
+
+        poller.startPeriodicExecutions();
+
+        verifyZeroInteractions(execService);
+    }
+
+    @Test
+    public void checkRefreshesRulesInUnitOfWork() {
+        RulesVersionPoller poller = new RulesVersionPoller(config, execService, jsProvider, unitOfWork);
+        when(jsProvider.refreshRules()).thenReturn(true);
+
+        poller.run();
+
+        verify(unitOfWork).begin();
+        verify(jsProvider).refreshRules();
+        verify(unitOfWork).end();
+    }
+
+    @Test
+    public void failedCheckIsContained() {
+        RulesVersionPoller poller = new RulesVersionPoller(config, execService, jsProvider, unitOfWork);
+        when(jsProvider.refreshRules()).thenThrow(new RuntimeException("database unavailable"));
+
+        poller.run();
+
+        verify(unitOfWork).end();
+    }
+}
@@ -18,15 +18,20 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.candlepin.audit.EventSink;
+import org.candlepin.config.CandlepinCommonTestConfig;
+import org.candlepin.config.ConfigProperties;
 import org.candlepin.dto.ModelTranslator;
 import org.candlepin.dto.StandardTranslator;
 import org.candlepin.model.CandlepinQuery;
@@ -58,21 +63,26 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xnap.commons.i18n.I18n;
 import org.xnap.commons.i18n.I18nFactory;
 
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 
 
@@ -80,6 +90,8 @@ import java.util.Set;
  * ComplianceTest
  */
 public class ComplianceRulesTest {
+    private static Logger log = LoggerFactory.getLogger(ComplianceRulesTest.class);
+
     private Owner owner;
     private ComplianceRules compliance;
 
@@ -120,7 +132,9 @@ public class ComplianceRulesTest {
         provider = new JsRunnerProvider(rulesCuratorMock, cacheProvider);
         compliance = new ComplianceRules(provider.get(), entCurator, new StatusReasonMessageGenerator(i18n),
             eventSink, consumerCurator,
-            new RulesObjectMapper(new ProductCachedSerializationModule(productCurator)), translator);
+            new RulesObjectMapper(new ProductCachedSerializationModule(productCurator)), translator,
+            new ComplianceStatusCache(new CandlepinCommonTestConfig(), null),
+            new CandlepinCommonTestConfig());
 
         owner = new Owner("test");
         activeGuestAttrs = new HashMap<>();
@@ -137,7 +151,9 @@ public class ComplianceRulesTest {
         JsRunner mockRunner = mock(JsRunner.class);
         compliance = new ComplianceRules(mockRunner, entCurator, new StatusReasonMessageGenerator(i18n),
             eventSink, consumerCurator,
-            new RulesObjectMapper(new ProductCachedSerializationModule(productCurator)), translator);
+            new RulesObjectMapper(new ProductCachedSerializationModule(productCurator)), translator,
+            new ComplianceStatusCache(new CandlepinCommonTestConfig(), null),
+            new CandlepinCommonTestConfig());
 
         when(mockRunner.runJsFunction(any(Class.class), eq("get_status"),
             any(JsContext.class))).thenReturn("{\"unknown\": \"thing\"}");
@@ -147,6 +163,301 @@ public class ComplianceRulesTest {
         compliance.getStatus(c, TestUtil.createDate(2011, 8, 30));
     }
 
+    private ComplianceRules createCachingComplianceRules(JsRunner runner, ComplianceStatusCache cache) {
+        when(runner.runJsFunction(any(Class.class), eq("get_status"), any(JsContext.class)))
+            .thenReturn("{\"nonCompliantProducts\": [\"p1\"]}");
+
+        return new ComplianceRules(runner, entCurator, new StatusReasonMessageGenerator(i18n),
+            eventSink, consumerCurator,
+            new RulesObjectMapper(new ProductCachedSerializationModule(productCurator)), translator, cache,
+            new CandlepinCommonTestConfig());
+    }
+
+    private ComplianceStatusCache createComplianceStatusCache() {
+        CandlepinCommonTestConfig config = new CandlepinCommonTestConfig();
+        config.setProperty(ConfigProperties.COMPLIANCE_CACHE_ENABLED, "true");
+
+        return new ComplianceStatusCache(config, null);
+    }
+
+    @Test
+    public void cachedStatusReusedUntilConsumerChanges() {
+        JsRunner mockRunner = mock(JsRunner.class);
+        compliance = this.createCachingComplianceRules(mockRunner, this.createComplianceStatusCache());
+
+        Consumer c = mockConsumerWithTwoProductsAndNoEntitlements();
+        c.setUuid("cached-consumer");
+        Date date = TestUtil.createDate(2011, 8, 30);
+
+        ComplianceStatus first = compliance.getStatus(c, date);
+        ComplianceStatus second = compliance.getStatus(c, date);
+        verify(mockRunner, times(1)).runJsFunction(any(Class.class), eq("get_status"), any(JsContext.class));
+
+        // Cached statuses are deserialized for every call, so callers never share an instance
+        assertNotSame(first, second);
+        assertEquals(first.getNonCompliantProducts(), second.getNonCompliantProducts());
+
+        c.setFact("cpu.cpu_socket(s)", "16");
+        compliance.getStatus(c, date);
+        verify(mockRunner, times(2)).runJsFunction(any(Class.class), eq("get_status"), any(JsContext.class));
+
+        compliance.invalidateStatus(c);
+        compliance.getStatus(c, date);
+        verify(mockRunner, times(3)).runJsFunction(any(Class.class), eq("get_status"), any(JsContext.class));
+    }
+
+    @Test
+    public void cachedStatusNotReappliedToConsumer() {
+        JsRunner mockRunner = mock(JsRunner.class);
+        ComplianceStatusCache cache = this.createComplianceStatusCache();
+        compliance = this.createCachingComplianceRules(mockRunner, cache);
+
+        Consumer c = mockConsumerWithTwoProductsAndNoEntitlements();
+        c.setUuid("cached-consumer");
+
+        compliance.getStatus(c);
+        String hash = c.getComplianceStatusHash();
+        assertNotNull(hash);
+
+        compliance.getStatus(c);
+        assertEquals(hash, c.getComplianceStatusHash());
+        assertEquals(1L, cache.getStatistics().get("unchanged"));
+        verify(eventSink, times(1)).emitCompliance(eq(c), any(ComplianceStatus.class));
+
+        // A consumer whose compliance hash was changed elsewhere has the status applied again
+        c.setComplianceStatusHash("stale");
+        compliance.getStatus(c);
+        assertEquals(hash, c.getComplianceStatusHash());
+        verify(mockRunner, times(1)).runJsFunction(any(Class.class), eq("get_status"), any(JsContext.class));
+    }
+
+    @Test
+    public void statusNotCachedWithNewEntitlements() {
+        JsRunner mockRunner = mock(JsRunner.class);
+        compliance = this.createCachingComplianceRules(mockRunner, this.createComplianceStatusCache());
+
+        Consumer c = mockConsumerWithTwoProductsAndNoEntitlements();
+        c.setUuid("cached-consumer");
+        Date date = TestUtil.createDate(2011, 8, 30);
+        List<Entitlement> newEntitlements = Collections.<Entitlement>emptyList();
+
+        compliance.getStatus(c, newEntitlements, date, false, false, false, false);
+        compliance.getStatus(c, newEntitlements, date, false, false, false, false);
+        verify(mockRunner, times(2)).runJsFunction(any(Class.class), eq("get_status"), any(JsContext.class));
+    }
+
+    private ComplianceRules createBatchComplianceRules(int threads) {
+        CandlepinCommonTestConfig config = new CandlepinCommonTestConfig();
+        config.setProperty(ConfigProperties.RULES_SCOPE_POOL_ENABLED, "true");
+        config.setProperty(ConfigProperties.COMPLIANCE_BATCH_THREADS, String.valueOf(threads));
+
+        JsRunner runner = new JsRunnerProvider(rulesCuratorMock, cacheProvider, config).get();
+        assertTrue(runner.isConcurrent());
+
+        return new ComplianceRules(runner, entCurator, new StatusReasonMessageGenerator(i18n),
+            eventSink, consumerCurator,
+            new RulesObjectMapper(new ProductCachedSerializationModule(productCurator)), translator,
+            new ComplianceStatusCache(config, null), config);
+    }
+
+    @Test
+    public void batchedStatusesCalculatedInOrder() {
+        compliance = this.createBatchComplianceRules(4);
+
+        List<Consumer> consumers = new LinkedList<>();
+        for (int i = 0; i < 25; ++i) {
+            Consumer c = i % 2 == 0 ?
+                mockFullyEntitledConsumer() :
+                mockConsumerWithTwoProductsAndNoEntitlements();
+            c.setUuid("consumer-" + i);
+            consumers.add(c);
+        }
+
+        final List<Consumer> received = new LinkedList<>();
+        final List<ComplianceStatus> statuses = new LinkedList<>();
+        final Thread caller = Thread.currentThread();
+
+        compliance.getStatuses(consumers, new BiConsumer<Consumer, ComplianceStatus>() {
+            @Override
+            public void accept(Consumer consumer, ComplianceStatus status) {
+                assertSame(caller, Thread.currentThread());
+                received.add(consumer);
+                statuses.add(status);
+            }
+        });
+
+        verify(consumerCurator).fetchEntitlements(eq(consumers));
+        assertEquals(consumers, received);
+
+        for (int i = 0; i < consumers.size(); ++i) {
+            String expected = i % 2 == 0 ? ComplianceStatus.GREEN : ComplianceStatus.RED;
+            assertEquals(expected, statuses.get(i).getStatus());
+
+            // Statuses are still applied to the consumers
+            assertEquals(expected, consumers.get(i).getEntitlementStatus());
+            assertNotNull(consumers.get(i).getComplianceStatusHash());
+        }
+    }
+
+    @Test
+    public void batchedStatusesMatchSingleStatuses() {
+        ComplianceRules batch = this.createBatchComplianceRules(3);
+
+        List<Consumer> consumers = Arrays.asList(mockFullyEntitledConsumer(),
+            mockConsumerWithTwoProductsAndNoEntitlements(), mockFullyEntitledConsumer());
+
+        final Map<Consumer, ComplianceStatus> statuses = new HashMap<>();
+        batch.getStatuses(consumers, new BiConsumer<Consumer, ComplianceStatus>() {
+            @Override
+            public void accept(Consumer consumer, ComplianceStatus status) {
+                statuses.put(consumer, status);
+            }
+        });
+
+        for (Consumer consumer : consumers) {
+            ComplianceStatus expected = compliance.getStatus(consumer, null);
+            ComplianceStatus actual = statuses.get(consumer);
+
+            assertEquals(expected.getStatus(), actual.getStatus());
+            assertEquals(expected.getCompliantProducts().keySet(), actual.getCompliantProducts().keySet());
+            assertEquals(expected.getNonCompliantProducts(), actual.getNonCompliantProducts());
+            assertEquals(expected.getReasons().size(), actual.getReasons().size());
+        }
+    }
+
+    @Test
+    public void batchedStatusesCalculatedSequentiallyWithoutScopePool() {
+        JsRunner mockRunner = mock(JsRunner.class);
+        compliance = this.createCachingComplianceRules(mockRunner, this.createComplianceStatusCache());
+
+        List<Consumer> consumers = Arrays.asList(mockConsumerWithTwoProductsAndNoEntitlements(),
+            mockConsumerWithTwoProductsAndNoEntitlements());
+
+        final List<Consumer> received = new LinkedList<>();
+        compliance.getStatuses(consumers, new BiConsumer<Consumer, ComplianceStatus>() {
+            @Override
+            public void accept(Consumer consumer, ComplianceStatus status) {
+                received.add(consumer);
+            }
+        });
+
+        assertEquals(consumers, received);
+        verify(mockRunner, times(2)).runJsFunction(any(Class.class), eq("get_status"), any(JsContext.class));
+    }
+
+    private ComplianceStatusCache createIncrementalStatusCache() {
+        CandlepinCommonTestConfig config = new CandlepinCommonTestConfig();
+        config.setProperty(ConfigProperties.COMPLIANCE_CACHE_ENABLED, "true");
+        config.setProperty(ConfigProperties.COMPLIANCE_INCREMENTAL_ENABLED, "true");
+
+        return new ComplianceStatusCache(config, null);
+    }
+
+    private ComplianceRules createIncrementalComplianceRules(ComplianceStatusCache cache) {
+        CandlepinCommonTestConfig config = new CandlepinCommonTestConfig();
+        config.setProperty(ConfigProperties.COMPLIANCE_INCREMENTAL_VERIFY, "true");
+
+        return new ComplianceRules(provider.get(), entCurator, new StatusReasonMessageGenerator(i18n),
+            eventSink, consumerCurator,
+            new RulesObjectMapper(new ProductCachedSerializationModule(productCurator)), translator, cache,
+            config);
+    }
+
+    @Test
+    public void incrementalStatusMatchesFullStatus() {
+        ComplianceStatusCache cache = this.createIncrementalStatusCache();
+        ComplianceRules incremental = this.createIncrementalComplianceRules(cache);
+
+        Consumer c = mockConsumer(PRODUCT_1, PRODUCT_2, PRODUCT_3);
+        c.setUuid("incremental-consumer");
+        Date date = TestUtil.createDate(2011, 8, 30);
+
+        List<Entitlement> ents = new LinkedList<>();
+        ents.add(mockStackedEntitlement(c, STACK_ID_1, TestUtil.createProduct("Awesome Product"), PRODUCT_1));
+        Entitlement regular = mockEntitlement(c, TestUtil.createProduct("Awesome Product"), PRODUCT_2);
+        ents.add(regular);
+        ents.add(mockStackedEntitlement(c, STACK_ID_2, TestUtil.createProduct("Awesome Product"), PRODUCT_3));
+        mockEntCurator(c, ents);
+
+        assertSameStatus(compliance.getStatus(c, date, false), incremental.getStatus(c, date, false));
+        assertEquals(0L, cache.getStatistics().get("merged"));
+
+        // Completing the first stack only recalculates the first stack and its product
+        for (int i = 0; i < 3; ++i) {
+            ents.add(mockStackedEntitlement(c, STACK_ID_1, TestUtil.createProduct("Awesome Product"),
+                PRODUCT_1));
+        }
+        mockEntCurator(c, ents);
+
+        ComplianceStatus status = incremental.getStatus(c, date, false);
+        assertSameStatus(compliance.getStatus(c, date, false), status);
+        assertTrue(status.getCompliantProducts().containsKey(PRODUCT_1.getId()));
+        assertFalse(status.getPartialStacks().containsKey(STACK_ID_1));
+        assertTrue(status.getPartialStacks().containsKey(STACK_ID_2));
+
+        // Removing the regular entitlement leaves its product uncovered
+        ents.remove(regular);
+        mockEntCurator(c, ents);
+
+        status = incremental.getStatus(c, date, false);
+        assertSameStatus(compliance.getStatus(c, date, false), status);
+        assertEquals(ComplianceStatus.RED, status.getStatus());
+        assertTrue(status.getNonCompliantProducts().contains(PRODUCT_2.getId()));
+
+        assertEquals(2L, cache.getStatistics().get("merged"));
+        assertEquals(0L, cache.getStatistics().get("mismatched"));
+    }
+
+    @Test
+    public void incrementalStatusWithNewEntitlements() {
+        ComplianceStatusCache cache = this.createIncrementalStatusCache();
+        ComplianceRules incremental = this.createIncrementalComplianceRules(cache);
+
+        Consumer c = mockConsumer(PRODUCT_1, PRODUCT_2);
+        c.setUuid("incremental-consumer");
+        Date date = TestUtil.createDate(2011, 8, 30);
+
+        List<Entitlement> ents = new LinkedList<>();
+        ents.add(mockEntitlement(c, TestUtil.createProduct("Awesome Product"), PRODUCT_1));
+        ents.add(mockStackedEntitlement(c, STACK_ID_1, TestUtil.createProduct("Awesome Product"), PRODUCT_2));
+        mockEntCurator(c, ents);
+
+        incremental.getStatus(c, date, false);
+
+        List<Entitlement> newEnts = Arrays.asList(
+            mockStackedEntitlement(c, STACK_ID_1, TestUtil.createProduct("Awesome Product"), PRODUCT_2));
+        ComplianceStatus status = incremental.getStatus(c, newEnts, date, false, false, false, false);
+
+        assertSameStatus(compliance.getStatus(c, newEnts, date, false, false, false, false), status);
+        assertEquals(1L, cache.getStatistics().get("merged"));
+        assertEquals(0L, cache.getStatistics().get("mismatched"));
+    }
+
+    @Test
+    public void statusWithGlobalAttributesCalculatedInFull() {
+        ComplianceStatusCache cache = this.createIncrementalStatusCache();
+        ComplianceRules incremental = this.createIncrementalComplianceRules(cache);
+
+        Consumer c = mockConsumer(PRODUCT_1, PRODUCT_2);
+        c.setUuid("incremental-consumer");
+        Date date = TestUtil.createDate(2011, 8, 30);
+
+        List<Entitlement> ents = new LinkedList<>();
+        ents.add(mockEntitlement(c, TestUtil.createProduct("Awesome Product"), PRODUCT_1));
+        mockEntCurator(c, ents);
+
+        incremental.getStatus(c, date, false);
+
+        Entitlement limited = mockEntitlement(c, TestUtil.createProduct("Awesome Product"), PRODUCT_2);
+        limited.getPool().getProduct().setAttribute(Product.Attributes.GUEST_LIMIT, "4");
+        ents.add(limited);
+        mockEntCurator(c, ents);
+
+        assertSameStatus(compliance.getStatus(c, date, false), incremental.getStatus(c, date, false));
+        assertEquals(0L, cache.getStatistics().get("merged"));
+        assertEquals(1L, cache.getStatistics().get("unmergeable"));
+    }
+
     private Consumer mockConsumer(Product ... installedProducts) {
         Consumer consumer = new Consumer();
         consumer.setType(new ConsumerType(ConsumerType.ConsumerTypeEnum.SYSTEM));
@@ -2093,6 +2404,91 @@ public class ComplianceRulesTest {
         assertEquals(ComplianceStatus.YELLOW, status.getStatus());
     }
 
+    private ComplianceRules createComplianceRules(boolean nativeContexts) {
+        CandlepinCommonTestConfig config = new CandlepinCommonTestConfig();
+        config.setProperty(ConfigProperties.RULES_NATIVE_CONTEXTS, String.valueOf(nativeContexts));
+
+        JsRunnerProvider modeProvider = new JsRunnerProvider(rulesCuratorMock, cacheProvider, config);
+        return new ComplianceRules(modeProvider.get(), entCurator, new StatusReasonMessageGenerator(i18n),
+            eventSink, consumerCurator,
+            new RulesObjectMapper(new ProductCachedSerializationModule(productCurator)), translator,
+            new ComplianceStatusCache(config, null), config);
+    }
+
+    private Consumer mockConsumerWithManyEntitlements(int count) {
+        Consumer c = mockConsumer(PRODUCT_1, PRODUCT_2, PRODUCT_3);
+        List<Entitlement> ents = new LinkedList<>();
+
+        for (int i = 0; i < count; i++) {
+            if (i % 2 == 0) {
+                ents.add(mockStackedEntitlement(c, STACK_ID_1, TestUtil.createProduct("Stacked Product"),
+                    PRODUCT_1, PRODUCT_2));
+            }
+            else {
+                ents.add(mockEntitlement(c, TestUtil.createProduct("Product " + i), PRODUCT_3));
+            }
+        }
+
+        mockEntCurator(c, ents);
+        return c;
+    }
+
+    private void assertSameStatus(ComplianceStatus expected, ComplianceStatus actual) {
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getCompliantUntil(), actual.getCompliantUntil());
+        assertEquals(expected.getCompliantProducts().keySet(), actual.getCompliantProducts().keySet());
+        assertEquals(expected.getNonCompliantProducts(), actual.getNonCompliantProducts());
+        assertEquals(expected.getPartiallyCompliantProducts().keySet(),
+            actual.getPartiallyCompliantProducts().keySet());
+        assertEquals(expected.getPartialStacks().keySet(), actual.getPartialStacks().keySet());
+        assertEquals(expected.getReasons().size(), actual.getReasons().size());
+    }
+
+    @Test
+    public void nativeContextsMatchJsonContexts() {
+        ComplianceRules jsonRules = createComplianceRules(false);
+        ComplianceRules nativeRules = createComplianceRules(true);
+        Date onDate = TestUtil.createDate(2011, 8, 30);
+
+        Consumer partial = mockConsumer(PRODUCT_1, PRODUCT_2);
+        List<Entitlement> ents = new LinkedList<>();
+        ents.add(mockStackedEntitlement(partial, STACK_ID_1, TestUtil.createProduct("Awesome Product"),
+            PRODUCT_1, PRODUCT_2));
+        mockEntCurator(partial, ents);
+
+        for (Consumer c : Arrays.asList(mockConsumerWithTwoProductsAndNoEntitlements(),
+            mockFullyEntitledConsumer(), partial, mockConsumerWithManyEntitlements(10))) {
+
+            assertSameStatus(jsonRules.getStatus(c, onDate), nativeRules.getStatus(c, onDate));
+        }
+    }
+
+    @Test
+    public void nativeAndJsonContextTimes() {
+        // A rough comparison of both context modes for a consumer with 100 entitlements
+        Consumer c = mockConsumerWithManyEntitlements(100);
+        Date onDate = TestUtil.createDate(2011, 8, 30);
+        int runs = 10;
+
+        Map<String, ComplianceRules> modes = new LinkedHashMap<>();
+        modes.put("json", createComplianceRules(false));
+        modes.put("native", createComplianceRules(true));
+
+        for (Map.Entry<String, ComplianceRules> mode : modes.entrySet()) {
+            // Warm up the rules before timing them
+            ComplianceStatus status = mode.getValue().getStatus(c, onDate);
+            assertEquals(ComplianceStatus.GREEN, status.getStatus());
+
+            long start = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                mode.getValue().getStatus(c, onDate);
+            }
+
+            log.info("ComplianceRules.getStatus with {} contexts: {} ms per call", mode.getKey(),
+                (System.nanoTime() - start) / runs / 1000000.0);
+        }
+    }
+
     private void mockEntCurator(Consumer c, List<Entitlement> ents) {
         CandlepinQuery cqmock = mock(CandlepinQuery.class);
 
@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js.compliance;
+
+import static org.junit.Assert.*;
+
+import org.candlepin.config.CandlepinCommonTestConfig;
+import org.candlepin.config.ConfigProperties;
+import org.candlepin.model.Consumer;
+import org.candlepin.model.ConsumerInstalledProduct;
+import org.candlepin.model.Entitlement;
+import org.candlepin.model.Owner;
+import org.candlepin.model.Pool;
+import org.candlepin.test.TestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+
+
+/**
+ * Test suite for the ComplianceStatusCache class
+ */
+public class ComplianceStatusCacheTest {
+
+    private CandlepinCommonTestConfig config;
+    private Owner owner;
+    private Date date;
+
+    @Before
+    public void setUp() {
+        this.config = new CandlepinCommonTestConfig();
+        this.config.setProperty(ConfigProperties.COMPLIANCE_CACHE_ENABLED, "true");
+        this.config.setProperty(ConfigProperties.COMPLIANCE_CACHE_MAX_SIZE, "2");
+        this.config.setProperty(ConfigProperties.COMPLIANCE_CACHE_DATE_BUCKET, "60");
+
+        this.owner = TestUtil.createOwner("owner_key");
+        this.owner.setId("owner_id");
+        this.date = new Date(1500000000000L);
+    }
+
+    private Consumer createConsumer(String uuid) {
+        Consumer consumer = TestUtil.createConsumer(this.owner);
+        consumer.setUuid(uuid);
+        consumer.setFact("cpu.cpu_socket(s)", "2");
+        consumer.addInstalledProduct(new ConsumerInstalledProduct("product", "Product"));
+
+        return consumer;
+    }
+
+    private Entitlement addEntitlement(Consumer consumer, String poolId) {
+        Pool pool = TestUtil.createPool(this.owner, TestUtil.createProduct());
+        pool.setId(poolId);
+        pool.setConsumed(1L);
+
+        Entitlement entitlement = TestUtil.createEntitlement(this.owner, consumer, pool, null);
+        entitlement.setQuantity(1);
+
+        return entitlement;
+    }
+
+    private ComplianceStatusCache.Key buildKey(ComplianceStatusCache cache, Consumer consumer) {
+        return cache.buildKey(consumer, this.date, false, false);
+    }
+
+    @Test
+    public void testDisabledCacheBuildsNoKeys() {
+        this.config.setProperty(ConfigProperties.COMPLIANCE_CACHE_ENABLED, "false");
+        ComplianceStatusCache cache = new ComplianceStatusCache(this.config, null);
+
+        assertFalse(cache.isEnabled());
+        assertNull(this.buildKey(cache, this.createConsumer("consumer")));
+        assertNull(cache.get(null));
+        assertNull(cache.put(null, "{}"));
+    }
+
+    @Test
+    public void testStatusReusedForUnchangedConsumer() {
+        ComplianceStatusCache cache = new ComplianceStatusCache(this.config, null);
+        Consumer consumer = this.createConsumer("consumer");
+        this.addEntitlement(consumer, "pool");
+
+        cache.put(this.buildKey(cache, consumer), "{}");
+
+        ComplianceStatusCache.Entry entry = cache.get(this.buildKey(cache, consumer));
+        assertNotNull(entry);
+        assertEquals("{}", entry.getJson());
+
+        // Any date within the same bucket uses the same status
+        Date sameBucket = new Date(this.date.getTime() + 1000);
+        Date nextBucket = new Date(this.date.getTime() + 120000);
+
+        assertNotNull(cache.get(cache.buildKey(consumer, sameBucket, false, false)));
+        assertNull(cache.get(cache.buildKey(consumer, nextBucket, false, false)));
+    }
+
+    @Test
+    public void testStatusNotReusedWhenConsumerChanges() {
+        ComplianceStatusCache cache = new ComplianceStatusCache(this.config, null);
+        Consumer consumer = this.createConsumer("consumer");
+        ComplianceStatusCache.Key key = this.buildKey(cache, consumer);
+
+        consumer.setFact("cpu.cpu_socket(s)", "4");
+        assertNotEquals(key, this.buildKey(cache, consumer));
+
+        consumer.setFact("cpu.cpu_socket(s)", "2");
+        assertEquals(key, this.buildKey(cache, consumer));
+
+        consumer.addInstalledProduct(new ConsumerInstalledProduct("product2", "Product 2"));
+        assertNotEquals(key, this.buildKey(cache, consumer));
+
+        key = this.buildKey(cache, consumer);
+        Entitlement entitlement = this.addEntitlement(consumer, "pool");
+        assertNotEquals(key, this.buildKey(cache, consumer));
+
+        key = this.buildKey(cache, consumer);
+        entitlement.setQuantity(2);
+        assertNotEquals(key, this.buildKey(cache, consumer));
+    }
+
+    @Test
+    public void testStatusNotReusedWhenPoolChanges() {
+        ComplianceStatusCache cache = new ComplianceStatusCache(this.config, null);
+        Consumer consumer = this.createConsumer("consumer");
+        Entitlement entitlement = this.addEntitlement(consumer, "pool");
+
+        ComplianceStatusCache.Key key = this.buildKey(cache, consumer);
+
+        // Pools the consumer is not entitled to do not affect the status
+        Pool other = TestUtil.createPool(this.owner, TestUtil.createProduct());
+        other.setId("other");
+
+        cache.poolsChanged(Arrays.asList(other));
+        assertEquals(key, this.buildKey(cache, consumer));
+
+        // Pools are versioned regardless of their consumed count, which may lag behind the ledger
+        entitlement.getPool().setConsumed(0L);
+        cache.poolsChanged(Collections.singletonList(entitlement.getPool()));
+        assertNotEquals(key, this.buildKey(cache, consumer));
+    }
+
+    @Test
+    public void testRemovedPoolVersionsAreDiscarded() {
+        ComplianceStatusCache cache = new ComplianceStatusCache(this.config, null);
+
+        Pool pool1 = TestUtil.createPool(this.owner, TestUtil.createProduct());
+        pool1.setId("pool1");
+        Pool pool2 = TestUtil.createPool(this.owner, TestUtil.createProduct());
+        pool2.setId("pool2");
+
+        cache.poolsChanged(Arrays.asList(pool1, pool2));
+        assertEquals(2, cache.getStatistics().get("pools"));
+
+        cache.poolsRemoved(Collections.singletonList(pool1));
+        assertEquals(1, cache.getStatistics().get("pools"));
+    }
+
+    @Test
+    public void testStatusNotCachedWhenEntitlementChangesWithinBucket() {
+        ComplianceStatusCache cache = new ComplianceStatusCache(this.config, null);
+        Consumer consumer = this.createConsumer("consumer");
+        Entitlement entitlement = this.addEntitlement(consumer, "pool");
+
+        entitlement.setEndDateOverride(new Date(this.date.getTime() + 1000));
+        assertNull(this.buildKey(cache, consumer));
+        assertEquals(1L, cache.getStatistics().get("uncacheable"));
+    }
+
+    @Test
+    public void testInvalidateRemovesStatus() {
+        ComplianceStatusCache cache = new ComplianceStatusCache(this.config, null);
+        Consumer consumer = this.createConsumer("consumer");
+
+        cache.put(this.buildKey(cache, consumer), "{}");
+        cache.invalidate(consumer);
+
+        assertNull(cache.get(this.buildKey(cache, consumer)));
+        assertEquals(1L, cache.getStatistics().get("invalidations"));
+    }
+
+    @Test
+    public void testIncrementalBaseKeptWhenEntitlementsChange() {
+        this.config.setProperty(ConfigProperties.COMPLIANCE_INCREMENTAL_ENABLED, "true");
+        ComplianceStatusCache cache = new ComplianceStatusCache(this.config, null);
+        Consumer consumer = this.createConsumer("consumer");
+        this.addEntitlement(consumer, "pool1");
+
+        ComplianceStatusCache.Key key = this.buildKey(cache, consumer);
+        cache.put(key, "{}", Collections.<String, ComplianceStatusMerger.EntitlementScope>emptyMap());
+
+        Entitlement entitlement = this.addEntitlement(consumer, "pool2");
+        cache.entitlementsChanged(consumer);
+
+        ComplianceStatusCache.Key updated = this.buildKey(cache, consumer);
+        assertNull(cache.get(updated));
+        assertEquals(2, updated.getEntitlements().size());
+        assertTrue(updated.getEntitlements().containsKey(entitlement.getId()));
+
+        ComplianceStatusCache.Entry base = cache.getBase(updated);
+        assertNotNull(base);
+        assertEquals(key.getEntitlements(), base.getKey().getEntitlements());
+
+        // Statuses of other inputs, or without entitlement scopes, are no base for recalculation
+        assertNull(cache.getBase(cache.buildKey(consumer, this.date, true, false)));
+
+        cache.put(key, "{}");
+        assertNull(cache.getBase(updated));
+    }
+
+    @Test
+    public void testStatusInvalidatedWhenEntitlementsChange() {
+        ComplianceStatusCache cache = new ComplianceStatusCache(this.config, null);
+        Consumer consumer = this.createConsumer("consumer");
+
+        ComplianceStatusCache.Key key = this.buildKey(cache, consumer);
+        cache.put(key, "{}", Collections.<String, ComplianceStatusMerger.EntitlementScope>emptyMap());
+        cache.entitlementsChanged(consumer);
+
+        assertFalse(cache.isIncremental());
+        assertNull(cache.get(key));
+        assertNull(cache.getBase(key));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedStatusesEvicted() {
+        ComplianceStatusCache cache = new ComplianceStatusCache(this.config, null);
+        Consumer consumer1 = this.createConsumer("consumer1");
+        Consumer consumer2 = this.createConsumer("consumer2");
+        Consumer consumer3 = this.createConsumer("consumer3");
+
+        cache.put(this.buildKey(cache, consumer1), "{}");
+        cache.put(this.buildKey(cache, consumer2), "{}");
+        cache.get(this.buildKey(cache, consumer1));
+        cache.put(this.buildKey(cache, consumer3), "{}");
+
+        assertEquals(2, cache.getStatistics().get("size"));
+        assertEquals(1L, cache.getStatistics().get("evictions"));
+        assertNotNull(cache.get(this.buildKey(cache, consumer1)));
+        assertNull(cache.get(this.buildKey(cache, consumer2)));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.getStatistics().get("size"));
+    }
+
+    @Test
+    public void testAppliedStatusTracksComplianceHash() {
+        ComplianceStatusCache cache = new ComplianceStatusCache(this.config, null);
+        Consumer consumer = this.createConsumer("consumer");
+
+        ComplianceStatusCache.Entry entry = cache.put(this.buildKey(cache, consumer), "{}");
+        assertFalse(entry.isAppliedTo(consumer));
+
+        consumer.setComplianceStatusHash("hash");
+        entry.setAppliedTo(consumer);
+        assertTrue(entry.isAppliedTo(consumer));
+
+        consumer.setComplianceStatusHash("other");
+        assertFalse(entry.isAppliedTo(consumer));
+    }
+}
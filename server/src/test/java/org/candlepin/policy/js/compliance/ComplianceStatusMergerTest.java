@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js.compliance;
+
+import static org.junit.Assert.*;
+
+import org.candlepin.dto.rules.v1.EntitlementDTO;
+import org.candlepin.dto.rules.v1.PoolDTO;
+import org.candlepin.policy.js.compliance.ComplianceStatusMerger.EntitlementScope;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+
+/**
+ * Test suite for the ComplianceStatusMerger class
+ */
+public class ComplianceStatusMergerTest {
+
+    private ObjectMapper mapper;
+    private Set<String> installed;
+    private Map<String, String> previous;
+    private Map<String, EntitlementScope> previousScopes;
+
+    @Before
+    public void setUp() {
+        this.mapper = new ObjectMapper();
+        this.installed = new HashSet<>(Arrays.asList("p1", "p2", "p3"));
+
+        this.previous = new HashMap<>();
+        this.previousScopes = new HashMap<>();
+
+        for (EntitlementDTO entitlement : Arrays.asList(this.createEntitlement("s1a", "stack1", "p1"),
+            this.createEntitlement("n2", null, "p2"), this.createEntitlement("s2a", "stack2", "p3"))) {
+
+            this.addEntitlement(this.previous, this.previousScopes, entitlement);
+        }
+    }
+
+    private EntitlementDTO createEntitlement(String id, String stackId, String... productIds) {
+        Map<String, String> productAttributes = new HashMap<>();
+        if (stackId != null) {
+            productAttributes.put("stacking_id", stackId);
+        }
+
+        PoolDTO pool = new PoolDTO()
+            .setId("pool_" + id)
+            .setProductId("sku_" + id)
+            .setAttributes(new HashMap<>())
+            .setProductAttributes(productAttributes);
+
+        for (String productId : productIds) {
+            pool.addProvidedProduct(new PoolDTO.ProvidedProductDTO(productId, productId));
+        }
+
+        return new EntitlementDTO().setId(id).setPool(pool);
+    }
+
+    private void addEntitlement(Map<String, String> signatures,
+        Map<String, EntitlementScope> scopes, EntitlementDTO entitlement) {
+
+        signatures.put(entitlement.getId(), entitlement.getId() + ":1");
+        scopes.put(entitlement.getId(), ComplianceStatusMerger.getScope(entitlement));
+    }
+
+    private ComplianceStatusMerger.Plan planWith(EntitlementDTO... added) {
+        Map<String, String> current = new HashMap<>(this.previous);
+        Map<String, EntitlementScope> currentScopes = new HashMap<>(this.previousScopes);
+
+        for (EntitlementDTO entitlement : added) {
+            this.addEntitlement(current, currentScopes, entitlement);
+        }
+
+        return ComplianceStatusMerger.plan(this.previous, this.previousScopes, current, currentScopes,
+            this.installed);
+    }
+
+    private ObjectNode parse(String json) throws Exception {
+        return (ObjectNode) this.mapper.readTree(json.replace('\'', '"'));
+    }
+
+    @Test
+    public void testScopeOfStackedEntitlement() {
+        EntitlementScope scope =
+            ComplianceStatusMerger.getScope(this.createEntitlement("ent", "stack", "p1", "p4"));
+
+        assertEquals("stack", scope.getStackId());
+        assertEquals(new HashSet<>(Arrays.asList("sku_ent", "p1", "p4")), scope.getProductIds());
+        assertTrue(scope.isMergeable());
+    }
+
+    @Test
+    public void testGlobalAttributesNotMergeable() {
+        EntitlementDTO entitlement = this.createEntitlement("ent", null, "p1");
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("guest_limit", "4");
+        entitlement.getPool().setProductAttributes(attributes);
+
+        assertFalse(ComplianceStatusMerger.getScope(entitlement).isMergeable());
+        assertNull(this.planWith(entitlement));
+    }
+
+    @Test
+    public void testUnsetStackingIdNotMergeable() {
+        assertFalse(ComplianceStatusMerger.getScope(this.createEntitlement("ent", "0", "p1")).isMergeable());
+    }
+
+    @Test
+    public void testPlanCoversTouchedStacksAndProducts() {
+        // A regular entitlement for p1 touches the stack which also provides p1
+        ComplianceStatusMerger.Plan plan = this.planWith(this.createEntitlement("n1", null, "p1"));
+
+        assertEquals(new HashSet<>(Arrays.asList("p1")), plan.getProducts());
+        assertEquals(new HashSet<>(Arrays.asList("stack1")), plan.getStacks());
+        assertEquals(new HashSet<>(Arrays.asList("n1", "s1a")), plan.getEntitlements());
+    }
+
+    @Test
+    public void testPlanFollowsStacksAcrossProducts() {
+        // An entitlement of the first stack providing p3 touches the second stack as well
+        ComplianceStatusMerger.Plan plan = this.planWith(this.createEntitlement("s1b", "stack1", "p3"));
+
+        assertEquals(new HashSet<>(Arrays.asList("p1", "p3")), plan.getProducts());
+        assertEquals(new HashSet<>(Arrays.asList("stack1", "stack2")), plan.getStacks());
+        assertEquals(new HashSet<>(Arrays.asList("s1a", "s1b", "s2a")), plan.getEntitlements());
+    }
+
+    @Test
+    public void testPlanForRemovedEntitlement() {
+        Map<String, String> current = new HashMap<>(this.previous);
+        Map<String, EntitlementScope> currentScopes = new HashMap<>(this.previousScopes);
+        current.remove("n2");
+        currentScopes.remove("n2");
+
+        ComplianceStatusMerger.Plan plan = ComplianceStatusMerger.plan(this.previous, this.previousScopes,
+            current, currentScopes, this.installed);
+
+        assertEquals(new HashSet<>(Arrays.asList("p2")), plan.getProducts());
+        assertTrue(plan.getStacks().isEmpty());
+        assertTrue(plan.getEntitlements().isEmpty());
+    }
+
+    @Test
+    public void testNoPlanWithoutChanges() {
+        assertNull(this.planWith());
+    }
+
+    @Test
+    public void testNoPlanWhenEveryEntitlementTouched() {
+        assertNull(this.planWith(this.createEntitlement("all", null, "p1", "p2", "p3")));
+    }
+
+    @Test
+    public void testMergeReplacesTouchedEntries() throws Exception {
+        ComplianceStatusMerger.Plan plan = this.planWith(this.createEntitlement("n1", null, "p1"));
+
+        ObjectNode previous = this.parse("{'date':'2018-01-01'," +
+            "'compliantProducts':{'p2':[{'id':'n2'}]}," +
+            "'partiallyCompliantProducts':{'p1':[{'id':'s1a'}],'p3':[{'id':'s2a'}]}," +
+            "'partialStacks':{'stack1':[{'id':'s1a'}],'stack2':[{'id':'s2a'}]}," +
+            "'nonCompliantProducts':[]," +
+            "'reasons':[{'key':'SOCKETS','attributes':{'stack_id':'stack1'}}," +
+            "{'key':'SOCKETS','attributes':{'stack_id':'stack2'}}]}");
+
+        ObjectNode partial = this.parse("{'date':'2018-01-02'," +
+            "'compliantProducts':{'p1':[{'id':'n1'}]}," +
+            "'partiallyCompliantProducts':{'p1':[{'id':'s1a'}]}," +
+            "'partialStacks':{'stack1':[{'id':'s1a'}]}," +
+            "'nonCompliantProducts':['p2','p3']," +
+            "'reasons':[{'key':'SOCKETS','attributes':{'stack_id':'stack1'}}," +
+            "{'key':'NOTCOVERED','attributes':{'product_id':'p2'}}," +
+            "{'key':'NOTCOVERED','attributes':{'product_id':'p3'}}]}");
+
+        ObjectNode merged = ComplianceStatusMerger.merge(previous, partial, plan);
+
+        ObjectNode expected = this.parse("{'date':'2018-01-02'," +
+            "'compliantProducts':{'p2':[{'id':'n2'}],'p1':[{'id':'n1'}]}," +
+            "'partiallyCompliantProducts':{'p3':[{'id':'s2a'}],'p1':[{'id':'s1a'}]}," +
+            "'partialStacks':{'stack1':[{'id':'s1a'}],'stack2':[{'id':'s2a'}]}," +
+            "'nonCompliantProducts':[]," +
+            "'reasons':[{'key':'SOCKETS','attributes':{'stack_id':'stack1'}}," +
+            "{'key':'SOCKETS','attributes':{'stack_id':'stack2'}}]}");
+
+        assertTrue(ComplianceStatusMerger.isEquivalent(expected, merged));
+        assertEquals("2018-01-02", merged.get("date").asText());
+
+        // The previous status is left untouched
+        assertEquals(2, previous.get("partiallyCompliantProducts").size());
+    }
+
+    @Test
+    public void testMergeDropsReasonsOfRemovedEntitlements() throws Exception {
+        Map<String, String> current = new HashMap<>(this.previous);
+        Map<String, EntitlementScope> currentScopes = new HashMap<>(this.previousScopes);
+        current.remove("n2");
+        currentScopes.remove("n2");
+
+        ComplianceStatusMerger.Plan plan = ComplianceStatusMerger.plan(this.previous, this.previousScopes,
+            current, currentScopes, this.installed);
+
+        ObjectNode previous = this.parse("{'compliantProducts':{'p2':[{'id':'n2'}]}," +
+            "'nonCompliantProducts':[]," +
+            "'reasons':[{'key':'UNMAPPEDGUEST','attributes':{'entitlement_id':'n2'}}]}");
+        ObjectNode partial = this.parse("{'compliantProducts':{}," +
+            "'nonCompliantProducts':['p1','p2','p3']," +
+            "'reasons':[{'key':'NOTCOVERED','attributes':{'product_id':'p1'}}," +
+            "{'key':'NOTCOVERED','attributes':{'product_id':'p2'}}," +
+            "{'key':'NOTCOVERED','attributes':{'product_id':'p3'}}]}");
+
+        ObjectNode merged = ComplianceStatusMerger.merge(previous, partial, plan);
+
+        assertEquals(0, merged.get("compliantProducts").size());
+        assertEquals(1, merged.get("nonCompliantProducts").size());
+        assertEquals("p2", merged.get("nonCompliantProducts").get(0).asText());
+        assertEquals(1, merged.get("reasons").size());
+        assertEquals("NOTCOVERED", merged.get("reasons").get(0).get("key").asText());
+    }
+
+    @Test
+    public void testUnattributedReasonsNotMerged() throws Exception {
+        ComplianceStatusMerger.Plan plan = this.planWith(this.createEntitlement("n1", null, "p1"));
+
+        ObjectNode previous = this.parse("{'reasons':[{'key':'UNKNOWN','attributes':{}}]}");
+        ObjectNode partial = this.parse("{'reasons':[]}");
+
+        assertNull(ComplianceStatusMerger.merge(previous, partial, plan));
+    }
+
+    @Test
+    public void testEquivalenceIgnoresOrder() throws Exception {
+        ObjectNode status = this.parse("{'compliantProducts':{'p1':[{'id':'a'},{'id':'b'}]}," +
+            "'nonCompliantProducts':['p2','p3']," +
+            "'reasons':[{'key':'A','attributes':{'product_id':'p2'}},{'key':'B','attributes':{}}]}");
+        ObjectNode reordered = this.parse("{'compliantProducts':{'p1':[{'id':'b'},{'id':'a'}]}," +
+            "'nonCompliantProducts':['p3','p2']," +
+            "'reasons':[{'key':'B','attributes':{}},{'key':'A','attributes':{'product_id':'p2'}}]}");
+        ObjectNode different = this.parse("{'compliantProducts':{'p1':[{'id':'a'}]}," +
+            "'nonCompliantProducts':['p3','p2']," +
+            "'reasons':[{'key':'B','attributes':{}},{'key':'A','attributes':{'product_id':'p2'}}]}");
+
+        assertTrue(ComplianceStatusMerger.isEquivalent(status, reordered));
+        assertFalse(ComplianceStatusMerger.isEquivalent(status, different));
+    }
+}
@@ -28,8 +28,11 @@ import org.candlepin.policy.js.compliance.ComplianceReason;
 import org.candlepin.policy.js.compliance.ComplianceStatus;
 import org.candlepin.test.TestUtil;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.Before;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Calendar;
 import java.util.Date;
@@ -39,6 +42,7 @@ import java.util.Map;
 import java.util.Set;
 
 public class ComplianceStatusHasherTest {
+    private static Logger log = LoggerFactory.getLogger(ComplianceStatusHasherTest.class);
 
     private ComplianceStatus status;
     private String initialHash;
@@ -321,6 +325,72 @@ public class ComplianceStatusHasherTest {
         Date poolEndDate = pool.getEndDate();
     }
 
+    @Test
+    public void ensureHashMatchesLegacyHash() {
+        Consumer consumer = createConsumer(owner);
+        ComplianceStatus testStatus = createInitialStatus(consumer);
+
+        assertEquals(generateLegacyHash(testStatus, consumer), generateHash(testStatus, consumer));
+    }
+
+    @Test
+    public void ensureHashMatchesLegacyHashWithUnusualData() {
+        Consumer consumer = createConsumer(owner);
+        consumer.setFact("name", "caf\u00e9 \ud83d\ude00");
+        consumer.setFact("empty", "");
+        ComplianceStatus testStatus = createInitialStatus(consumer);
+
+        // Keys which are prefixes of each other sort by the data following them
+        Calendar cal = Calendar.getInstance();
+        testStatus.addCompliantProduct("p1", createEntitlement(cal, owner, consumer, "z"));
+        testStatus.addCompliantProduct("p10", createEntitlement(cal, owner, consumer, "a"));
+        testStatus.addCompliantProduct("p1z", createEntitlement(cal, owner, consumer, "b"));
+
+        Entitlement ent = createEntitlement(cal, owner, consumer, "nulls");
+        ent.setQuantity(null);
+        ent.getPool().setUpdated(null);
+        testStatus.addPartialStack("stack-\u00fc", ent);
+
+        ComplianceReason reason = createReason("TEST-REASON-3");
+        reason.getAttributes().put("stack_id", null);
+        testStatus.getReasons().add(reason);
+
+        assertEquals(generateLegacyHash(testStatus, consumer), generateHash(testStatus, consumer));
+    }
+
+    @Test
+    public void ensureHashMatchesLegacyHashForLargeConsumer() {
+        Consumer consumer = createConsumer(owner);
+        ComplianceStatus testStatus = createInitialStatus(consumer);
+
+        Calendar cal = Calendar.getInstance();
+        for (int i = 0; i < 500; ++i) {
+            Entitlement ent = createEntitlement(cal, owner, consumer, "stacked-" + i);
+            testStatus.addPartialStack("stack", ent);
+            testStatus.addCompliantProduct("p" + (i % 20), ent);
+        }
+
+        String expected = generateLegacyHash(testStatus, consumer);
+        assertEquals(expected, generateHash(testStatus, consumer));
+
+        // Compares the time taken by the streaming hasher to that of the legacy string hash
+        int iterations = 200;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            generateLegacyHash(testStatus, consumer);
+        }
+        long legacy = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            generateHash(testStatus, consumer);
+        }
+        long streaming = System.nanoTime() - start;
+
+        log.info("Hashing a 500 entitlement consumer: legacy {}us, streaming {}us per hash",
+            legacy / iterations / 1000, streaming / iterations / 1000);
+    }
+
     private Consumer createConsumer(Owner owner) {
         Consumer consumer = new Consumer("test-consumer", "test-consumer", owner,
             new ConsumerType(ConsumerType.ConsumerTypeEnum.SYSTEM));
@@ -410,4 +480,26 @@ public class ComplianceStatusHasherTest {
         ComplianceStatusHasher hasher = new ComplianceStatusHasher(consumer, status);
         return hasher.hash();
     }
+
+    /**
+     * Generates the hash the same way it was generated before it was streamed, from the strings
+     * generated by the HashableStringGenerators
+     */
+    private String generateLegacyHash(ComplianceStatus status, Consumer consumer) {
+        StringBuilder data = new StringBuilder()
+            .append(HashableStringGenerators.generateFromCollection(status.getNonCompliantProducts(),
+                HashableStringGenerators.STRING))
+            .append(HashableStringGenerators.generateFromCollection(status.getCompliantProducts().entrySet(),
+                HashableStringGenerators.ENTITLEMENT_SET_ENTRY))
+            .append(HashableStringGenerators.generateFromCollection(
+                status.getPartiallyCompliantProducts().entrySet(),
+                HashableStringGenerators.ENTITLEMENT_SET_ENTRY))
+            .append(HashableStringGenerators.generateFromCollection(status.getPartialStacks().entrySet(),
+                HashableStringGenerators.ENTITLEMENT_SET_ENTRY))
+            .append(HashableStringGenerators.generateFromCollection(status.getReasons(),
+                HashableStringGenerators.COMPLIANCE_REASON))
+            .append(HashableStringGenerators.generateFromObject(consumer, HashableStringGenerators.CONSUMER));
+
+        return DigestUtils.sha256Hex(data.toString());
+    }
 }
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.policy.js.compliance.hash;
+
+import static org.junit.Assert.*;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+
+/**
+ * HasherTest
+ */
+public class HasherTest {
+
+    private static final HashableSegmentGenerator<List<String>> SEGMENTS =
+        new HashableSegmentGenerator<List<String>>() {
+            @Override
+            public void generate(List<String> toConvert, HashableSegments segments) {
+                for (String segment : toConvert) {
+                    segments.append(segment);
+                }
+            }
+        };
+
+    private String hash(String... segments) {
+        Hasher hasher = new Hasher();
+        hasher.putObject(Arrays.asList(segments), SEGMENTS);
+        return hasher.hash();
+    }
+
+    @Test
+    public void testHashMatchesHashOfConcatenation() {
+        assertEquals(DigestUtils.sha256Hex("abcdef"), hash("ab", "", "cd", "ef"));
+        assertEquals(DigestUtils.sha256Hex(""), hash());
+    }
+
+    @Test
+    public void testHashOfSurrogatePairSplitAcrossSegments() {
+        assertEquals(DigestUtils.sha256Hex("a\ud83d\ude00b"), hash("a\ud83d", "\ude00b"));
+        assertEquals(DigestUtils.sha256Hex("\ud83d\ude00"), hash("\ud83d", "\ude00"));
+    }
+
+    @Test
+    public void testHashOfUnpairedSurrogates() {
+        assertEquals(DigestUtils.sha256Hex("a\ud83d"), hash("a\ud83d"));
+        assertEquals(DigestUtils.sha256Hex("\ude00a\ud83d"), hash("\ude00", "a", "\ud83d"));
+        assertEquals(DigestUtils.sha256Hex("\ud83d\ud83d\ude00"), hash("\ud83d", "\ud83d", "\ude00"));
+    }
+
+    @Test
+    public void testHashOfDataLargerThanBuffer() {
+        StringBuilder data = new StringBuilder();
+        List<String> segments = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            String segment = "segment-\u00e9\ud83d\ude00-" + i;
+            data.append(segment);
+            segments.add(segment);
+        }
+
+        assertEquals(DigestUtils.sha256Hex(data.toString()), hash(segments.toArray(new String[0])));
+    }
+
+    @Test
+    public void testHashIsStable() {
+        Hasher hasher = new Hasher();
+        hasher.putObject("data", HashableSegmentGenerators.STRING);
+
+        assertEquals(hasher.hash(), hasher.hash());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPutAfterHashFails() {
+        Hasher hasher = new Hasher();
+        hasher.putObject("data", HashableSegmentGenerators.STRING);
+        hasher.hash();
+
+        hasher.putObject("more", HashableSegmentGenerators.STRING);
+    }
+
+    @Test
+    public void testSegmentsSortAsConcatenations() {
+        List<String> strings = Arrays.asList("p1", "p10", "p1z", "p", "", "b\u00e9", "ba", "p1" + "0a");
+        List<List<String>> splits = Arrays.asList(
+            Arrays.asList("p", "1"), Arrays.asList("p1", "0"), Arrays.asList("p", "1", "z"),
+            Arrays.asList("p"), Collections.<String>emptyList(), Arrays.asList("b", "\u00e9"),
+            Arrays.asList("ba"), Arrays.asList("p", "10", "a"));
+
+        List<String> expected = new ArrayList<>(strings);
+        Collections.sort(expected);
+
+        List<String> sorted = new ArrayList<>();
+        for (HashableSegments segments : HashableSegments.generate(splits, SEGMENTS)) {
+            sorted.add(segments.toString());
+        }
+
+        assertEquals(expected, sorted);
+    }
+
+    @Test
+    public void testSegmentsEqualToSameConcatenation() {
+        HashableSegments segments = new HashableSegments().append("ab").append("c");
+        HashableSegments other = new HashableSegments().append("a").append("bc");
+
+        assertEquals(0, segments.compareTo(other));
+        assertEquals(segments, other);
+        assertEquals(segments.hashCode(), other.hashCode());
+        assertEquals("abc".hashCode(), segments.hashCode());
+    }
+}
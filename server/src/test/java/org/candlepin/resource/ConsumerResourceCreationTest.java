@@ -152,7 +152,7 @@ public class ConsumerResourceCreationTest {
             null, this.ownerCurator, this.activationKeyCurator, null, this.complianceRules,
             this.deletedConsumerCurator, null, null, this.config, null, null, null, this.consumerBindUtil,
             null, null, new FactValidator(this.config, this.i18n),
-            null, consumerEnricher, migrationProvider, modelTranslator);
+            null, consumerEnricher, migrationProvider, modelTranslator, null);
 
         this.system = initSystem();
         this.systemDto = initSystemDto();
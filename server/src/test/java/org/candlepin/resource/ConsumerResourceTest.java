@@ -36,6 +36,7 @@ import org.candlepin.common.config.Configuration;
 import org.candlepin.common.exceptions.BadRequestException;
 import org.candlepin.common.exceptions.NotFoundException;
 import org.candlepin.config.CandlepinCommonTestConfig;
+import org.candlepin.config.ConfigProperties;
 import org.candlepin.controller.CandlepinPoolManager;
 import org.candlepin.controller.Entitler;
 import org.candlepin.controller.ManifestManager;
@@ -47,6 +48,7 @@ import org.candlepin.dto.api.v1.CertificateDTO;
 import org.candlepin.dto.api.v1.ConsumerDTO;
 import org.candlepin.dto.api.v1.ConsumerTypeDTO;
 import org.candlepin.dto.api.v1.OwnerDTO;
+import org.candlepin.jackson.ProductCachedSerializationModule;
 import org.candlepin.model.CandlepinQuery;
 import org.candlepin.model.Cdn;
 import org.candlepin.model.CdnCurator;
@@ -67,6 +69,7 @@ import org.candlepin.model.Owner;
 import org.candlepin.model.OwnerCurator;
 import org.candlepin.model.Pool;
 import org.candlepin.model.Product;
+import org.candlepin.model.ProductCurator;
 import org.candlepin.model.activationkeys.ActivationKey;
 import org.candlepin.model.activationkeys.ActivationKeyCurator;
 import org.candlepin.model.dto.Subscription;
@@ -74,11 +77,13 @@ import org.candlepin.policy.js.activationkey.ActivationKeyRules;
 import org.candlepin.policy.js.compliance.ComplianceRules;
 import org.candlepin.policy.js.compliance.ComplianceStatus;
 import org.candlepin.resource.dto.AutobindData;
+import org.candlepin.resource.dto.BulkBindRequest;
 import org.candlepin.resource.util.ConsumerBindUtil;
 import org.candlepin.resource.util.ConsumerEnricher;
 import org.candlepin.resource.util.ConsumerTypeValidator;
 import org.candlepin.resource.util.GuestMigration;
 import org.candlepin.resource.util.ResourceDateParser;
+import org.candlepin.resteasy.JsonProvider;
 import org.candlepin.resteasy.parameter.KeyValueParameter;
 import org.candlepin.service.EntitlementCertServiceAdapter;
 import org.candlepin.service.IdentityCertServiceAdapter;
@@ -90,6 +95,8 @@ import org.candlepin.test.TestUtil;
 import org.candlepin.util.FactValidator;
 import org.candlepin.util.ServiceLevelValidator;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.util.Providers;
 
 import org.apache.commons.lang.RandomStringUtils;
@@ -101,10 +108,13 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 import org.xnap.commons.i18n.I18n;
 import org.xnap.commons.i18n.I18nFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigInteger;
@@ -117,6 +127,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 import javax.inject.Provider;
 import javax.ws.rs.core.Response;
@@ -187,7 +198,7 @@ public class ConsumerResourceTest {
             null, mockedPoolManager, null, mockedOwnerCurator, null, null, null,
             null, null, null, new CandlepinCommonTestConfig(), null, null, null,
             consumerBindUtil, null, null, factValidator,
-            null, consumerEnricher, migrationProvider, translator);
+            null, consumerEnricher, migrationProvider, translator, null);
 
         UserPrincipal uap = mock(UserPrincipal.class);
         when(uap.canAccess(any(Object.class), any(SubResource.class), any(Access.class))).
@@ -216,7 +227,7 @@ public class ConsumerResourceTest {
             null, mockedPoolManager, null, mockedOwnerCurator, null, null, null,
             null, null, null, new CandlepinCommonTestConfig(), null, null, null,
             consumerBindUtil, null, null, factValidator,
-            null, consumerEnricher, migrationProvider, translator);
+            null, consumerEnricher, migrationProvider, translator, null);
 
         UserPrincipal uap = mock(UserPrincipal.class);
         when(uap.canAccess(any(Object.class), any(SubResource.class), any(Access.class))).thenReturn
@@ -255,7 +266,7 @@ public class ConsumerResourceTest {
             mockedEntitlementCertServiceAdapter, null, null, null, null, null, null, mockedPoolManager, null,
             null, null, null, null, null, null, null, this.config, null, null, null, consumerBindUtil,
             null, mockContentAccessCertService, this.factValidator, null, consumerEnricher,
-            migrationProvider, translator);
+            migrationProvider, translator, null);
 
         List<CertificateSerialDto> serials = consumerResource
             .getEntitlementCertificateSerials(consumer.getUuid());
@@ -284,7 +295,7 @@ public class ConsumerResourceTest {
         CandlepinPoolManager poolManager = new CandlepinPoolManager(
             null, null, null, this.config, null, null, mockedEntitlementCurator,
             mockedConsumerCurator, null, null, null, null, mockedActivationKeyRules, null, null,
-            null, null, null, null, null, null, null, null
+            null, null, null, null, null, null, null, null, null, null, null, null, null
         );
 
         ConsumerResource consumerResource = new ConsumerResource(
@@ -292,7 +303,7 @@ public class ConsumerResourceTest {
             mockedEntitlementCertServiceAdapter, null, null, null, null, null, null,
             poolManager, null, null, null, null, null, null, null, null,
             this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         consumerResource.regenerateEntitlementCertificates(consumer.getUuid(), "9999", false);
     }
@@ -326,7 +337,7 @@ public class ConsumerResourceTest {
             null, mockedSubscriptionServiceAdapter, this.mockedOwnerServiceAdapter, null, null, null, null,
             null, null, null, null, null, mgr, null, null, null, null, null, null, null, null,
             this.config, null, null, null, consumerBindUtil, null, null, this.factValidator,
-            null, consumerEnricher, migrationProvider, translator);
+            null, consumerEnricher, migrationProvider, translator, null);
 
         cr.regenerateEntitlementCertificates(consumer.getUuid(), null, true);
         Mockito.verify(mgr, Mockito.times(1)).regenerateCertificatesOf(eq(consumer), eq(true));
@@ -355,7 +366,7 @@ public class ConsumerResourceTest {
             null, null, null, mockedIdSvc, null, null, sink, eventFactory, null, null,
             null, null, null, mockedOwnerCurator, null, null, null, null,
             null, null, this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         ConsumerDTO fooc = cr.regenerateIdentityCertificates(consumer.getUuid());
 
@@ -390,7 +401,7 @@ public class ConsumerResourceTest {
             null, ssa, this.mockedOwnerServiceAdapter, null, mockedIdSvc, null, null, sink, eventFactory,
             null, null, null, null, null, mockedOwnerCurator, null, null, rules, null,
             null, null, this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         ConsumerDTO c = cr.getConsumer(consumer.getUuid());
 
@@ -414,7 +425,7 @@ public class ConsumerResourceTest {
             null, ssa, this.mockedOwnerServiceAdapter, null, null, null, null, null, null, null, null, null,
             null, null, mockedOwnerCurator, null, null, rules, null, null, null,
             this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         ConsumerDTO c = cr.getConsumer(consumer.getUuid());
 
@@ -446,11 +457,39 @@ public class ConsumerResourceTest {
             null, null, null, null, null, i18n, null, null, null, null,
             null, null, null, oc, akc, null, null, null, null,
             null, this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         cr.create(c, nap, null, "testOwner", "testKey", true);
     }
 
+    private ConsumerResource createBulkBindResource() {
+        return new ConsumerResource(null, null, null,
+            null, null, null, null, null, i18n, null, null, null, null,
+            null, null, null, mockedOwnerCurator, null, null, null, null, null,
+            null, this.config, null, null, null, consumerBindUtil,
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testBulkBindRequiresBinds() {
+        createBulkBindResource().bulkBind("owner", new ArrayList<>());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testBulkBindRequiresConsumerAndPool() {
+        createBulkBindResource().bulkBind("owner",
+            Arrays.asList(new BulkBindRequest("consumer-uuid", null, 1)));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testBulkBindRejectsOversizedRequests() {
+        this.config.setProperty(ConfigProperties.BULK_BIND_MAX_SIZE, "1");
+
+        createBulkBindResource().bulkBind("owner", Arrays.asList(
+            new BulkBindRequest("consumer-1", "pool", 1),
+            new BulkBindRequest("consumer-2", "pool", 1)));
+    }
+
     @Test
     public void testProductNoPool() throws Exception {
         Consumer c = createConsumer();
@@ -467,7 +506,7 @@ public class ConsumerResourceTest {
             null, sa, this.mockedOwnerServiceAdapter, null, null, null, i18n, null, null, null, null, null,
             null, null, null, null, e, null, null, null, null,
             this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
 
         Response r = cr.bind(
@@ -493,7 +532,7 @@ public class ConsumerResourceTest {
             null, null, null, null, null, null, null, null, null, null,
             null, null, null, e, null, null, null, null,
             this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         String dtStr = "2011-09-26T18:10:50.184081+00:00";
         Date dt = ResourceDateParser.parseDateString(dtStr);
@@ -516,7 +555,7 @@ public class ConsumerResourceTest {
             null, null, null, entitlementCurator, null, null, i18n, null, null, null,
             null, null, null, null, null, null, null, null, null, null,
             null, this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         consumerResource.unbindBySerial("fake uuid",
             Long.valueOf(1234L));
@@ -540,7 +579,7 @@ public class ConsumerResourceTest {
             null, null, null, entitlementCurator, null, null, i18n, null, null, null,
             null, null, null, null, null, null, null, null, null, null,
             null, this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         consumerResource.unbindByPool("fake-uuid", "Run Forest!");
     }
@@ -552,7 +591,7 @@ public class ConsumerResourceTest {
             null, null, null, null, null, null, i18n, null, null, null,
             null, null, null, null, null, null, null, null, null, null,
             null, this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         Consumer c = createConsumer();
         when(consumerCurator.verifyAndLookupConsumerWithEntitlements(eq(c.getUuid()))).thenReturn(c);
@@ -569,7 +608,7 @@ public class ConsumerResourceTest {
             null, null, null, null, null, null, i18n, null, null, null,
             null, null, null, null, null, null, null, null, null, null,
             null, this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         Consumer c = createConsumer();
         when(consumerCurator.verifyAndLookupConsumerWithEntitlements(eq(c.getUuid()))).thenReturn(c);
@@ -590,7 +629,7 @@ public class ConsumerResourceTest {
             null, null, null, null, null, null, i18n, null, null, null,
             null, null, null, null, null, null, null, null, null, null,
             null, this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         consumerResource.regenerateEntitlementCertificates("xyz", null, true);
     }
@@ -634,7 +673,7 @@ public class ConsumerResourceTest {
             null, null, null, null, null, i18n, null, null, null, null,
             usa, null,  null, oc, null, null, null, null, null,
             null, this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         cr.create(c, up, null, "testOwner", null, true);
     }
@@ -668,13 +707,14 @@ public class ConsumerResourceTest {
         ConsumerResource consumerResource = new ConsumerResource(
             null, null, null, null, null, null, null, null, i18n, null, null, null, null, null, null, null,
             oc, null, null, null, null, null, null, this.config, null, null, null, null, null, null,
-            this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         return consumerResource;
     }
 
     @Test
-    public void testGetComplianceStatusList() {
+    @SuppressWarnings("unchecked")
+    public void testGetComplianceStatusList() throws Exception {
         Consumer c = mock(Consumer.class);
         Consumer c2 = mock(Consumer.class);
         when(c.getUuid()).thenReturn("1");
@@ -693,19 +733,38 @@ public class ConsumerResourceTest {
         uuids.add("2");
         when(mockedConsumerCurator.findByUuids(eq(uuids))).thenReturn(cqmock);
 
-        ComplianceStatus status = new ComplianceStatus();
-        when(mockedComplianceRules.getStatus(any(Consumer.class), any(Date.class)))
-            .thenReturn(status);
+        final ComplianceStatus status = new ComplianceStatus();
+
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Iterable<Consumer> requested = (Iterable<Consumer>) invocation.getArguments()[0];
+                BiConsumer<Consumer, ComplianceStatus> callback =
+                    (BiConsumer<Consumer, ComplianceStatus>) invocation.getArguments()[1];
+
+                for (Consumer consumer : requested) {
+                    callback.accept(consumer, status);
+                }
+
+                return null;
+            }
+        }).when(mockedComplianceRules).getStatuses(anyCollection(), any(BiConsumer.class));
+
+        JsonProvider jsonProvider = new JsonProvider(false,
+            new ProductCachedSerializationModule(mock(ProductCurator.class)));
 
         ConsumerResource cr = new ConsumerResource(mockedConsumerCurator, null, null, null, null, null, null,
             null, i18n, null, null, null, null, null, null, null, null, null, null, mockedComplianceRules,
             null, null, null, this.config, null, null, null, consumerBindUtil, null, null,
-            this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            this.factValidator, null, consumerEnricher, migrationProvider, translator, jsonProvider);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        cr.getComplianceStatusList(uuids).write(output);
 
-        Map<String, ComplianceStatus> results = cr.getComplianceStatusList(uuids);
+        JsonNode results = new ObjectMapper().readTree(output.toByteArray());
         assertEquals(2, results.size());
-        assertTrue(results.containsKey("1"));
-        assertTrue(results.containsKey("2"));
+        assertEquals("valid", results.get("1").get("status").asText());
+        assertEquals("valid", results.get("2").get("status").asText());
     }
 
     @Test
@@ -715,7 +774,7 @@ public class ConsumerResourceTest {
             null, null, null, null, null, null, i18n, null, null, null,
             null, null, null, null, null, null, null, mockedComplianceRules,
             null, null, null, this.config, null, null, null, consumerBindUtil,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         cr.consumerExists("uuid");
     }
@@ -726,7 +785,7 @@ public class ConsumerResourceTest {
         ConsumerResource cr = new ConsumerResource(mockedConsumerCurator, null, null, null, null, null, null,
             null, i18n, null, null, null, null, null, null, null, null, null, null, mockedComplianceRules,
             null, null, null, this.config, null, null, null, consumerBindUtil, null, null,
-            this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         cr.consumerExists("uuid");
     }
@@ -736,7 +795,7 @@ public class ConsumerResourceTest {
         ConsumerResource cr = new ConsumerResource(
             null, null, null, null, null, null, null, null, i18n, null, null, null, null, null, null, null,
             null, null, null, null, null, null, null, this.config, null, null, null, null, null,
-            null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         cr.list(null, null, null, null, null, null, null);
     }
@@ -748,7 +807,7 @@ public class ConsumerResourceTest {
             mockedConsumerCurator, null, null, null, null, null, null, null, i18n, null, null, null, null,
             null, null, null, null, null, null, null, null, null, null, this.config, null, null, null, null,
             null, null, this.factValidator, new ConsumerTypeValidator(null, null),
-            consumerEnricher, migrationProvider, mockTranslator);
+            consumerEnricher, migrationProvider, mockTranslator, null);
 
         ArrayList<Consumer> consumers = new ArrayList<>();
 
@@ -770,7 +829,7 @@ public class ConsumerResourceTest {
             mockedConsumerCurator, null, null, null, null, null, null, null, i18n, null, null, null, null,
             null, null, null, mockedOwnerCurator, null, null, null, null, null, null, this.config, null, null,
             null, null, null, null, this.factValidator,
-            null, consumerEnricher, migrationProvider, translator);
+            null, consumerEnricher, migrationProvider, translator, null);
 
         ArrayList<Consumer> consumers = new ArrayList<>();
         CandlepinQuery cqmock = mock(CandlepinQuery.class);
@@ -792,7 +851,7 @@ public class ConsumerResourceTest {
         ConsumerResource cr = new ConsumerResource(
             mockedConsumerCurator, null, null, null, null, null, null, null, i18n, null, null, null, null,
             null, null, null, null, null, null, null, null, null, null, this.config, null, null, null, null,
-            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator);
+            null, null, this.factValidator, null, consumerEnricher, migrationProvider, translator, null);
 
         cr.list(null, null, null, new ArrayList<>(), null, null, null);
     }
@@ -804,7 +863,7 @@ public class ConsumerResourceTest {
             mockedConsumerCurator, null, null, null, null, null, null, null, i18n, null, null, null, null,
             null, null, null, null, null, null, null, null, null, null, this.config, null, null, null, null,
             null, null, this.factValidator, new ConsumerTypeValidator(null, null),
-            consumerEnricher, migrationProvider, mockTranslator);
+            consumerEnricher, migrationProvider, mockTranslator, null);
 
         ArrayList<Consumer> consumers = new ArrayList<>();
         CandlepinQuery cqmock = mock(CandlepinQuery.class);
@@ -837,7 +896,7 @@ public class ConsumerResourceTest {
             mockedEntitlementCertServiceAdapter, null, null, null, null, null, null, mockedPoolManager, null,
             null, null, null, null, null, null, null, this.config, null, null, null, consumerBindUtil,
             null, mockContentAccessCertService, this.factValidator, null, consumerEnricher,
-            migrationProvider, translator));
+            migrationProvider, translator, null));
 
         List<CertificateSerialDto> serials = consumerResource
             .getEntitlementCertificateSerials(consumer.getUuid());
@@ -861,7 +920,7 @@ public class ConsumerResourceTest {
             mockedEntitlementCertServiceAdapter, null, null, null, null, null, null, mockedPoolManager, null,
             null, null, null, null, null, null, null, this.config, null, null, null, consumerBindUtil,
             null, mockContentAccessCertService, this.factValidator, null, consumerEnricher,
-            migrationProvider, translator));
+            migrationProvider, translator, null));
 
 
         Set<Long> serials = new HashSet<>();
@@ -880,7 +939,7 @@ public class ConsumerResourceTest {
             mockedConsumerCurator, null, null, null, null, null, null, null, i18n, null, null, null, null,
             null, null, null, mockedOwnerCurator, null, null, null, null, null, null, this.config, null, null,
             null, null, manifestManager, null, this.factValidator, null, consumerEnricher,
-            migrationProvider, translator);
+            migrationProvider, translator, null);
 
         try {
             consumerResource.dryBind(consumer.getUuid(), "some-sla");
@@ -899,7 +958,7 @@ public class ConsumerResourceTest {
             mockedConsumerCurator, null, null, null, null, null, null, null, i18n, null, null, null, null,
             null, null, null, mockedOwnerCurator, null, null, null, null, null, null, this.config, null,
             mockedCdnCurator, null, null, manifestManager, null, this.factValidator, null,
-            consumerEnricher, migrationProvider, translator);
+            consumerEnricher, migrationProvider, translator, null);
 
         List<KeyValueParameter> extParams = new ArrayList<>();
         Owner owner = TestUtil.createOwner();
@@ -290,7 +290,7 @@ public class GuestIdResourceTest {
         public ConsumerResourceForTesting() {
             super(null, null, null, null, null, null, null, null, null, null, null, null, null, null, null,
                 null, null, null, null, null, null, null, null, null, null, null, null, null,
-                null, null, null, null, consumerEnricher, null, modelTranslator);
+                null, null, null, null, consumerEnricher, null, modelTranslator, null);
         }
 
         public void checkForMigration(Consumer host, Consumer guest) {
@@ -134,7 +134,8 @@ public class HypervisorResourceTest {
             this.activationKeyCurator, null, this.complianceRules,
             this.deletedConsumerCurator, null, null, config,
             null, null, null, this.consumerBindUtil, null, null,
-            new FactValidator(config, this.i18n), null, consumerEnricher, migrationProvider, modelTranslator);
+            new FactValidator(config, this.i18n), null, consumerEnricher, migrationProvider, modelTranslator,
+            null);
 
         this.guestIdResource = new GuestIdResource(this.guestIdCurator, this.consumerCurator, this
             .consumerResource, this.i18n, this.eventFactory, this.sink, migrationProvider, translator);
@@ -101,6 +101,7 @@ import org.jboss.resteasy.plugins.providers.atom.Feed;
 import org.jboss.resteasy.plugins.providers.multipart.InputPart;
 import org.jboss.resteasy.plugins.providers.multipart.MultipartInput;
 import org.jboss.resteasy.specimpl.MultivaluedMapImpl;
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.jboss.resteasy.util.GenericType;
 import org.junit.Before;
 import org.junit.Rule;
@@ -117,6 +118,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -815,6 +817,42 @@ public class OwnerResourceTest extends DatabaseTestFixture {
         assertEquals(2, consumers.size());
     }
 
+    @Test
+    public void listConsumersByKeyset() {
+        List<String> uuids = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            uuids.add(createConsumer(owner).getUuid());
+        }
+
+        Collections.sort(uuids);
+
+        PageRequest req = new PageRequest();
+        req.setPage(1);
+        req.setPerPage(2);
+        req.setSortBy("uuid");
+        req.setOrder(PageRequest.Order.ASCENDING);
+        req.setCursor("");
+
+        List<ConsumerDTO> consumers = ownerResource.listConsumers(
+            owner.getKey(), null, null, null, null, null, null, null, null, req).list();
+
+        assertEquals(2, consumers.size());
+        assertEquals(uuids.get(0), consumers.get(0).getUuid());
+        assertEquals(uuids.get(1), consumers.get(1).getUuid());
+
+        Page page = ResteasyProviderFactory.getContextData(Page.class);
+        assertTrue(page.isKeyset());
+        assertNotNull(page.getNextCursor());
+
+        req.setCursor(page.getNextCursor());
+        consumers = ownerResource.listConsumers(
+            owner.getKey(), null, null, null, null, null, null, null, null, req).list();
+
+        assertEquals(1, consumers.size());
+        assertEquals(uuids.get(2), consumers.get(0).getUuid());
+        assertNull(ResteasyProviderFactory.getContextData(Page.class).getNextCursor());
+    }
+
     //copied from consumerCannotListAllConsumersInOwner
     @Test(expected = ForbiddenException.class)
     public void consumerCannotCountAllConsumersInOwner() {
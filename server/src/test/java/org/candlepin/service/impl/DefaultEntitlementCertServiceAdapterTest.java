@@ -55,11 +55,13 @@ import org.candlepin.test.TestUtil;
 import org.candlepin.util.CertificateSizeException;
 import org.candlepin.util.Util;
 import org.candlepin.util.X509ExtensionUtil;
+import org.candlepin.util.ContentPayloadCache;
 import org.candlepin.util.X509V3ExtensionUtil;
 import org.candlepin.util.X509V3ExtensionUtil.HuffNode;
 import org.candlepin.util.X509V3ExtensionUtil.NodePair;
 import org.candlepin.util.X509V3ExtensionUtil.PathNode;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 
@@ -93,6 +95,7 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -101,6 +104,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.InflaterOutputStream;
 
 import javax.inject.Inject;
@@ -211,7 +216,7 @@ public class DefaultEntitlementCertServiceAdapterTest {
         );
         injector.injectMembers(this);
 
-        v3extensionUtil = new X509V3ExtensionUtil(config, entCurator);
+        v3extensionUtil = new X509V3ExtensionUtil(config, entCurator, new ContentPayloadCache(config));
         certServiceAdapter = new DefaultEntitlementCertServiceAdapter(
             mockedPKI, extensionUtil, v3extensionUtil,
             mock(EntitlementCertificateCurator.class),
@@ -1668,6 +1673,82 @@ public class DefaultEntitlementCertServiceAdapterTest {
         assertTrue(!cert.getCert().contains("ENTITLEMENT DATA"));
     }
 
+    @Test
+    public void batchedEntitlementCertsAreSignedByTheGivenExecutor() throws Exception {
+        KeyPair keyPair = new BouncyCastlePKIUtility(null, null, null).generateNewKeyPair();
+        when(keyPairCurator.getConsumerKeyPair(any(Consumer.class))).thenReturn(keyPair);
+        when(mockedPKI.getPemEncoded(any(Key.class))).thenReturn("key".getBytes());
+
+        final Set<String> signingThreads = Collections.synchronizedSet(new HashSet<String>());
+        when(mockedPKI.getPemEncoded(any(X509Certificate.class))).thenAnswer(new Answer<byte[]>() {
+            @Override
+            public byte[] answer(InvocationOnMock invocation) throws Throwable {
+                signingThreads.add(Thread.currentThread().getName());
+                return "cert".getBytes();
+            }
+        });
+
+        entitlement.setId("ent1");
+        Entitlement other = new Entitlement();
+        other.setId("ent2");
+        other.setQuantity(new Integer(ENTITLEMENT_QUANTITY));
+        other.setConsumer(consumer);
+        other.setPool(pool);
+        other.setOwner(owner);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("signer-%d")
+            .build());
+
+        Map<String, EntitlementCertificate> certs;
+        try {
+            certs = certServiceAdapter.generateEntitlementCerts(Arrays.asList(entitlement, other),
+                executor);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(2, certs.size());
+        for (EntitlementCertificate cert : certs.values()) {
+            assertEquals("cert", cert.getCert());
+            assertEquals("key", cert.getKey());
+            assertNotNull(cert.getSerial());
+            assertNull(cert.getEntitlement());
+        }
+
+        assertEquals(Collections.singleton("signer-0"), signingThreads);
+        verify(keyPairCurator, times(1)).getConsumerKeyPair(eq(consumer));
+        verify(serialCurator, never()).saveOrUpdateAll(anyMap());
+    }
+
+    @Test
+    public void batchedEntitlementCertsLeaveOutCertsWithTooManyContentSets() throws Exception {
+        KeyPair keyPair = new BouncyCastlePKIUtility(null, null, null).generateNewKeyPair();
+        when(keyPairCurator.getConsumerKeyPair(any(Consumer.class))).thenReturn(keyPair);
+        when(mockedPKI.getPemEncoded(any(Key.class))).thenReturn("key".getBytes());
+        when(mockedPKI.getPemEncoded(any(X509Certificate.class))).thenReturn("cert".getBytes());
+
+        for (Content content : generateContent(X509ExtensionUtil.V1_CONTENT_LIMIT + 1, "TestContent")) {
+            largeContentProduct.addContent(content, false);
+        }
+
+        entitlement.setId("ent1");
+        largeContentEntitlement.setId("ent2");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Map<String, EntitlementCertificate> certs;
+        try {
+            certs = certServiceAdapter.generateEntitlementCerts(
+                Arrays.asList(entitlement, largeContentEntitlement), executor);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(Collections.singleton("ent1"), certs.keySet());
+    }
+
     @Test
     public void testContentExtension() throws IOException {
         Set<Product> products = new HashSet<>();
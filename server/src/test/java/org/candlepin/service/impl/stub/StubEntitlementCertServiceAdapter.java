@@ -32,10 +32,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
 
 /**
  * StubEntitlementCertServiceAdapter
@@ -113,6 +115,26 @@ public class StubEntitlementCertServiceAdapter extends BaseEntitlementCertServic
         return result;
     }
 
+    @Override
+    public Map<String, EntitlementCertificate> generateEntitlementCerts(
+        Collection<Entitlement> entitlements, ExecutorService executor)
+        throws GeneralSecurityException, IOException {
+        Map<String, EntitlementCertificate> result = new HashMap<>();
+
+        for (Entitlement entitlement : entitlements) {
+            EntitlementCertificate cert = new EntitlementCertificate();
+            cert.setSerial(new CertificateSerial(entitlement.getEndDate()));
+            cert.setKeyAsBytes(("---- STUB KEY -----" + Math.random())
+                .getBytes());
+            cert.setCertAsBytes(("---- STUB CERT -----" + Math.random())
+                .getBytes());
+
+            result.put(entitlement.getId(), cert);
+        }
+
+        return result;
+    }
+
     @Override
     public List<Long> listEntitlementSerialIds(Consumer consumer) {
         return serialCurator.listEntitlementSerialIds(consumer);
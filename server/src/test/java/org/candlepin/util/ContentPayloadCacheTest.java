@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.util;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+
+/**
+ * Test suite for the ContentPayloadCache class
+ */
+public class ContentPayloadCacheTest {
+
+    private Configuration config;
+    private ContentPayloadCache cache;
+
+    @Before
+    public void setUp() {
+        this.config = mock(Configuration.class);
+        when(config.getBoolean(eq(ConfigProperties.CONTENT_PAYLOAD_CACHE_ENABLED), anyBoolean()))
+            .thenReturn(true);
+        when(config.getInt(eq(ConfigProperties.CONTENT_PAYLOAD_CACHE_MAX_SIZE), anyInt())).thenReturn(2);
+
+        this.cache = new ContentPayloadCache(config);
+    }
+
+    @Test
+    public void testPayloadFetchedByPaths() {
+        cache.put(Arrays.asList("/a", "/b"), new byte[] { 1, 2 });
+
+        assertArrayEquals(new byte[] { 1, 2 }, cache.get(Arrays.asList("/a", "/b")));
+        assertNull(cache.get(Arrays.asList("/b", "/a")));
+        assertNull(cache.get(Arrays.asList("/a")));
+        assertEquals(1L, cache.getStatistics().get("hits"));
+        assertEquals(2L, cache.getStatistics().get("misses"));
+    }
+
+    @Test
+    public void testCachedPayloadNotShared() {
+        List<String> paths = Arrays.asList("/a");
+        byte[] payload = new byte[] { 1, 2 };
+        cache.put(paths, payload);
+        payload[0] = 9;
+
+        byte[] cached = cache.get(paths);
+        assertArrayEquals(new byte[] { 1, 2 }, cached);
+
+        cached[1] = 9;
+        assertArrayEquals(new byte[] { 1, 2 }, cache.get(paths));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedPayloadEvicted() {
+        cache.put(Arrays.asList("/a"), new byte[] { 1 });
+        cache.put(Arrays.asList("/b"), new byte[] { 2 });
+        cache.get(Arrays.asList("/a"));
+        cache.put(Arrays.asList("/c"), new byte[] { 3 });
+
+        assertNotNull(cache.get(Arrays.asList("/a")));
+        assertNull(cache.get(Arrays.asList("/b")));
+        assertNotNull(cache.get(Arrays.asList("/c")));
+        assertEquals(1L, cache.getStatistics().get("evictions"));
+        assertEquals(2, cache.getStatistics().get("size"));
+    }
+
+    @Test
+    public void testDisabledCacheHoldsNothing() {
+        when(config.getBoolean(eq(ConfigProperties.CONTENT_PAYLOAD_CACHE_ENABLED), anyBoolean()))
+            .thenReturn(false);
+        cache = new ContentPayloadCache(config);
+
+        cache.put(Arrays.asList("/a"), new byte[] { 1 });
+
+        assertFalse(cache.isEnabled());
+        assertNull(cache.get(Arrays.asList("/a")));
+        assertEquals(0, cache.getStatistics().get("size"));
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        cache.put(Arrays.asList("/a"), new byte[] { 1 });
+        cache.invalidateAll();
+
+        assertNull(cache.get(Arrays.asList("/a")));
+        assertEquals(0.0, cache.getStatistics().get("hit_rate"));
+    }
+}
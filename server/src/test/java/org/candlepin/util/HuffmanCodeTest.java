@@ -0,0 +1,361 @@
+/**
+ * Copyright (c) 2009 - 2018 Red Hat, Inc.
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.util;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.candlepin.common.config.Configuration;
+import org.candlepin.model.EntitlementCurator;
+import org.candlepin.model.dto.Content;
+import org.candlepin.util.X509V3ExtensionUtil.HuffNode;
+import org.candlepin.util.X509V3ExtensionUtil.NodePair;
+import org.candlepin.util.X509V3ExtensionUtil.PathNode;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+
+
+/**
+ * Test suite for the HuffmanCode class, and the V3 content encoding built on it
+ */
+public class HuffmanCodeTest {
+    private static Logger log = LoggerFactory.getLogger(HuffmanCodeTest.class);
+
+    private X509V3ExtensionUtil util;
+
+    @Before
+    public void init() {
+        Configuration config = mock(Configuration.class);
+        util = new X509V3ExtensionUtil(config, mock(EntitlementCurator.class),
+            new ContentPayloadCache(config));
+    }
+
+    private void assertCodesMatchTrie(int... weights) {
+        HuffmanCode code = new HuffmanCode(weights);
+
+        List<HuffNode> nodes = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        for (int weight : weights) {
+            Object value = new Object();
+            values.add(value);
+            nodes.add(util.new HuffNode(value, weight));
+        }
+
+        HuffNode trie = util.makeTrie(nodes);
+        for (int i = 0; i < weights.length; i++) {
+            assertEquals(util.findHuffPath(trie, values.get(i)), code.getCode(i));
+        }
+    }
+
+    @Test
+    public void testCodesMatchTrie() {
+        assertCodesMatchTrie(1, 2);
+        assertCodesMatchTrie(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11);
+        assertCodesMatchTrie(5, 5, 5, 5, 5, 5, 5);
+        assertCodesMatchTrie(9, 1, 4, 1, 7, 4, 2, 2, 8, 1);
+
+        int[] weights = new int[1000];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = i + 1;
+        }
+        assertCodesMatchTrie(weights);
+    }
+
+    @Test
+    public void testSingleSymbolHasEmptyCode() {
+        assertEquals("", new HuffmanCode(new int[] { 3 }).getCode(0));
+    }
+
+    @Test
+    public void testCodesReadAsWritten() {
+        HuffmanCode code = new HuffmanCode(new int[] { 1, 2, 3, 4, 5, 6, 7 });
+        int[] symbols = new int[] { 6, 0, 3, 3, 1, 5, 2, 4, 6, 6 };
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HuffmanCode.BitWriter writer = new HuffmanCode.BitWriter(out);
+        StringBuilder expected = new StringBuilder();
+        for (int symbol : symbols) {
+            code.write(symbol, writer);
+            expected.append(code.getCode(symbol));
+        }
+        writer.flush();
+
+        byte[] bytes = out.toByteArray();
+        assertEquals((expected.length() + 7) / 8, bytes.length);
+
+        StringBuilder written = new StringBuilder();
+        for (byte b : bytes) {
+            for (int bit = 7; bit >= 0; bit--) {
+                written.append((b >>> bit & 1) == 1 ? '1' : '0');
+            }
+        }
+        assertEquals(expected.toString(), written.substring(0, expected.length()));
+        assertEquals(0, written.substring(expected.length()).replace("0", "").length());
+
+        HuffmanCode.BitReader reader = new HuffmanCode.BitReader(bytes, 0, bytes.length);
+        for (int symbol : symbols) {
+            assertEquals(symbol, code.read(reader));
+        }
+    }
+
+    @Test
+    public void testIncompleteCodeNotRead() {
+        HuffmanCode code = new HuffmanCode(new int[] { 1, 2, 3, 4, 5, 6, 7 });
+        HuffmanCode.BitReader reader = new HuffmanCode.BitReader(new byte[0], 0, 0);
+
+        assertEquals(-1, code.read(reader));
+    }
+
+    private List<Content> createContent(int count) {
+        String[] streams = new String[] { "dist", "beta", "eus", "aus", "htb" };
+        String[] variants = new String[] { "server", "workstation", "client", "computenode" };
+        String[] repos = new String[] { "os", "debug", "source/SRPMS", "optional/os", "supplementary/os" };
+
+        List<Content> contents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Content content = new Content();
+            content.setPath("/content/" + streams[i % streams.length] + "/rhel/" +
+                variants[(i / streams.length) % variants.length] + "/" + (5 + i % 3) +
+                "/$releasever/$basearch/product-" + (i / 20) + "/" + repos[i % repos.length]);
+            contents.add(content);
+        }
+
+        return contents;
+    }
+
+    @Test
+    public void testEncodingMatchesReferenceEncoding() throws Exception {
+        for (int count : new int[] { 1, 2, 3, 10, 100, 1000 }) {
+            PathNode tree = util.makePathTree(createContent(count), util.new PathNode());
+
+            assertArrayEquals("encoding of " + count + " content paths",
+                encodeReference(tree), util.encodePathTree(tree));
+        }
+    }
+
+    @Test
+    public void testEncodingHydrated() throws Exception {
+        for (int count : new int[] { 1, 2, 3, 10, 100, 1000 }) {
+            List<Content> contents = createContent(count);
+            Set<String> paths = new HashSet<>();
+            for (Content content : contents) {
+                paths.add(content.getPath());
+            }
+
+            byte[] encoded = util.encodePathTree(util.makePathTree(contents, util.new PathNode()));
+
+            assertEquals("hydrated " + count + " content paths", paths,
+                new HashSet<>(util.hydrateContentPackage(encoded)));
+        }
+    }
+
+    @Test
+    public void testContentWithSingleSegment() throws Exception {
+        List<Content> contents = new ArrayList<>();
+        for (String path : Arrays.asList("/single")) {
+            Content content = new Content();
+            content.setPath(path);
+            contents.add(content);
+        }
+
+        PathNode tree = util.makePathTree(contents, util.new PathNode());
+        byte[] encoded = util.encodePathTree(tree);
+
+        assertArrayEquals(encodeReference(tree), encoded);
+        assertEquals(Arrays.asList("/single"), util.hydrateContentPackage(encoded));
+    }
+
+    @Test
+    public void testEncodingLargeContentTree() throws Exception {
+        // Compares the time taken to encode a large tree to that of the reference encoding
+        PathNode tree = util.makePathTree(createContent(5000), util.new PathNode());
+        byte[] expected = encodeReference(tree);
+
+        int iterations = 5;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            encodeReference(tree);
+        }
+        long reference = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            assertArrayEquals(expected, util.encodePathTree(tree));
+        }
+        long encoded = System.nanoTime() - start;
+
+        log.info("Encoding 5000 content paths: reference {}ms, primitive {}ms per encoding",
+            reference / iterations / 1000000, encoded / iterations / 1000000);
+    }
+
+    /*
+     * The content encoding as it was written before the HuffmanCode was introduced, kept as the
+     * reference the encoding must match byte for byte.
+     */
+    private byte[] encodeReference(PathNode treeRoot) throws Exception {
+        List<String> nodeStrings = orderStringsReference(treeRoot);
+        if (nodeStrings.size() == 0) {
+            return new byte[0];
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        Object endNode = new Object();
+        List<HuffNode> stringHuffNodes = new ArrayList<>();
+        int idx = 1;
+        for (String part : nodeStrings) {
+            stringHuffNodes.add(util.new HuffNode(part, idx++));
+        }
+        stringHuffNodes.add(util.new HuffNode(endNode, idx));
+        HuffNode stringTrieParent = util.makeTrie(stringHuffNodes);
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+        DeflaterOutputStream dos = new DeflaterOutputStream(dictionary,
+            new Deflater(Deflater.BEST_COMPRESSION));
+        for (String segment : nodeStrings) {
+            dos.write(segment.getBytes("UTF-8"));
+            dos.write("\0".getBytes("UTF-8"));
+        }
+        dos.finish();
+        dos.close();
+        data.write(dictionary.toByteArray());
+
+        List<PathNode> orderedNodes = orderNodesReference(treeRoot);
+        List<HuffNode> pathNodeHuffNodes = new ArrayList<>();
+        idx = 0;
+        for (PathNode pn : orderedNodes) {
+            pathNodeHuffNodes.add(util.new HuffNode(pn, idx++));
+        }
+        HuffNode pathNodeTrieParent = util.makeTrie(pathNodeHuffNodes);
+
+        int nodeSize = orderedNodes.size();
+        if (nodeSize > 127) {
+            ByteArrayOutputStream countBaos = new ByteArrayOutputStream();
+            boolean start = false;
+            for (byte b : new byte[] { (byte) (nodeSize >> 24), (byte) (nodeSize >> 16),
+                (byte) (nodeSize >> 8), (byte) nodeSize }) {
+                if (b != 0 || start) {
+                    countBaos.write(b);
+                    start = true;
+                }
+            }
+            data.write(128 + countBaos.size());
+            data.write(countBaos.toByteArray());
+        }
+        else {
+            data.write(nodeSize);
+        }
+
+        StringBuilder bits = new StringBuilder();
+        String endNodeLocation = util.findHuffPath(stringTrieParent, endNode);
+        for (PathNode pn : orderedNodes) {
+            for (NodePair np : pn.getChildren()) {
+                bits.append(util.findHuffPath(stringTrieParent, np.getName()));
+                bits.append(util.findHuffPath(pathNodeTrieParent, np.getConnection()));
+            }
+            bits.append(endNodeLocation);
+            while (bits.length() >= 8) {
+                data.write(Integer.parseInt(bits.substring(0, 8), 2));
+                bits.delete(0, 8);
+            }
+        }
+
+        if (bits.length() > 0) {
+            while (bits.length() < 8) {
+                bits.append('0');
+            }
+            data.write(Integer.parseInt(bits.toString(), 2));
+        }
+
+        return data.toByteArray();
+    }
+
+    private List<String> orderStringsReference(PathNode parent) {
+        List<String> parts = new ArrayList<>();
+        Map<String, Integer> segments = new HashMap<>();
+        buildSegmentsReference(segments, new HashSet<PathNode>(), parent);
+        for (Entry<String, Integer> entry : segments.entrySet()) {
+            String part = entry.getKey();
+            if (!part.equals("")) {
+                int count = entry.getValue();
+                int pos = parts.size();
+                for (int i = 0; i < parts.size(); i++) {
+                    if (count < segments.get(parts.get(i))) {
+                        pos = i;
+                        break;
+                    }
+                }
+                parts.add(pos, part);
+            }
+        }
+        return parts;
+    }
+
+    private void buildSegmentsReference(Map<String, Integer> segments, Set<PathNode> nodes,
+        PathNode parent) {
+
+        if (!nodes.contains(parent)) {
+            nodes.add(parent);
+            for (NodePair np : parent.getChildren()) {
+                Integer count = segments.get(np.getName());
+                segments.put(np.getName(), count == null ? 1 : count + 1);
+                buildSegmentsReference(segments, nodes, np.getConnection());
+            }
+        }
+    }
+
+    private List<PathNode> orderNodesReference(PathNode treeRoot) {
+        List<PathNode> result = new ArrayList<>();
+        for (PathNode pn : getPathNodesReference(treeRoot)) {
+            int count = pn.getParents().size();
+            int pos = result.size();
+            for (int i = 0; i < result.size(); i++) {
+                if (count <= result.get(i).getParents().size()) {
+                    pos = i;
+                    break;
+                }
+            }
+            result.add(pos, pn);
+        }
+        if (result.size() == 2) {
+            result.add(util.new PathNode());
+        }
+        return result;
+    }
+
+    private Set<PathNode> getPathNodesReference(PathNode treeRoot) {
+        Set<PathNode> nodes = new HashSet<>();
+        nodes.add(treeRoot);
+        for (NodePair np : treeRoot.getChildren()) {
+            nodes.addAll(getPathNodesReference(np.getConnection()));
+        }
+        return nodes;
+    }
+}
@@ -15,9 +15,11 @@
 package org.candlepin.util;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
 import org.candlepin.common.config.Configuration;
+import org.candlepin.config.ConfigProperties;
 import org.candlepin.model.Branding;
 import org.candlepin.model.Consumer;
 import org.candlepin.model.Content;
@@ -27,6 +29,7 @@ import org.candlepin.model.Pool;
 import org.candlepin.model.Product;
 import org.candlepin.model.ProductContent;
 import org.candlepin.model.Owner;
+import org.candlepin.pki.X509ByteExtensionWrapper;
 import org.candlepin.test.TestUtil;
 import org.candlepin.util.X509V3ExtensionUtil.NodePair;
 import org.candlepin.util.X509V3ExtensionUtil.PathNode;
@@ -34,6 +37,7 @@ import org.candlepin.util.X509V3ExtensionUtil.PathNode;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -55,7 +59,7 @@ public class X509V3ExtensionUtilTest {
     public void init() {
         config = mock(Configuration.class);
         ec = mock(EntitlementCurator.class);
-        util = new X509V3ExtensionUtil(config, ec);
+        util = new X509V3ExtensionUtil(config, ec, new ContentPayloadCache(config));
     }
 
     @Test
@@ -182,4 +186,61 @@ public class X509V3ExtensionUtilTest {
         assertEquals("OS", resultBrandType);
     }
 
+    private List<org.candlepin.model.dto.Product> createProductModels(String... paths) {
+        List<org.candlepin.model.dto.Content> contents = new ArrayList<>();
+        for (String path : paths) {
+            org.candlepin.model.dto.Content content = new org.candlepin.model.dto.Content();
+            content.setPath(path);
+            contents.add(content);
+        }
+
+        org.candlepin.model.dto.Product product = new org.candlepin.model.dto.Product();
+        product.setContent(contents);
+
+        return Arrays.asList(product);
+    }
+
+    private byte[] getContentValue(X509V3ExtensionUtil util, List<org.candlepin.model.dto.Product> models)
+        throws Exception {
+
+        Set<X509ByteExtensionWrapper> extensions = util.getByteExtensions(new Product("mkt", "MKT SKU"),
+            models, "", new HashMap<>());
+
+        return extensions.iterator().next().getValue();
+    }
+
+    @Test
+    public void contentPayloadReusedForSameContent() throws Exception {
+        when(config.getBoolean(eq(ConfigProperties.CONTENT_PAYLOAD_CACHE_ENABLED), anyBoolean()))
+            .thenReturn(true);
+        when(config.getInt(eq(ConfigProperties.CONTENT_PAYLOAD_CACHE_MAX_SIZE), anyInt())).thenReturn(10);
+        ContentPayloadCache cache = new ContentPayloadCache(config);
+        util = new X509V3ExtensionUtil(config, ec, cache);
+
+        String[] paths = new String[] { "/content/dist/rhel/$releasever/os", "/content/dist/rhel/debug",
+            "/content/beta/rhel/os" };
+
+        byte[] first = getContentValue(util, createProductModels(paths));
+        byte[] second = getContentValue(util, createProductModels(paths));
+        byte[] other = getContentValue(util, createProductModels("/content/dist/other/os"));
+
+        assertArrayEquals(first, second);
+        assertEquals(new HashSet<>(Arrays.asList(paths)),
+            new HashSet<>(util.hydrateContentPackage(second)));
+        assertEquals(Arrays.asList("/content/dist/other/os"), util.hydrateContentPackage(other));
+        assertEquals(1L, cache.getStatistics().get("hits"));
+        assertEquals(2L, cache.getStatistics().get("misses"));
+    }
+
+    @Test
+    public void contentPayloadNotCachedWhenDisabled() throws Exception {
+        ContentPayloadCache cache = new ContentPayloadCache(config);
+        util = new X509V3ExtensionUtil(config, ec, cache);
+
+        getContentValue(util, createProductModels("/content/dist/rhel/os"));
+        getContentValue(util, createProductModels("/content/dist/rhel/os"));
+
+        assertEquals(0L, cache.getStatistics().get("hits"));
+        assertEquals(0, cache.getStatistics().get("size"));
+    }
 }